@@ -26,13 +26,20 @@
 
 package com.rim.samples.device.keywordfilterdemo;
 
+import net.rim.device.api.util.StringUtilities;
+
 /**
  * A class to encapsulate data related to a given country of the world.
  */
 public class Country {
+    // Population of a country added without one
+    static final long UNKNOWN_POPULATION = -1;
+
     private final String _countryName;
-    private final String _population;
+    private final long _population;
     private final String _capitalCity;
+    private final String[] _keywords;
+    private int _id = -1;
 
     /**
      * Constructs a Country
@@ -40,24 +47,25 @@ public class Country {
      * @param countryName
      *            The country's name
      * @param population
-     *            The country's population
+     *            The country's population, or UNKNOWN_POPULATION
      * @param capitalCity
      *            The country's capital city
      */
-    public Country(final String countryName, final String population,
+    public Country(final String countryName, final long population,
             final String capitalCity) {
         _countryName = countryName;
         _population = population;
         _capitalCity = capitalCity;
+        _keywords = StringUtilities.stringToWords(countryName);
     }
 
     // Accessor methods---------------------------------------------------------
     /**
      * Gets the country's population
      * 
-     * @return The country's population
+     * @return The country's population, or UNKNOWN_POPULATION
      */
-    String getPopulation() {
+    long getPopulation() {
         return _population;
     }
 
@@ -70,6 +78,35 @@ public class Country {
         return _capitalCity;
     }
 
+    /**
+     * Gets the words of the country's name, which are split once when the
+     * country is created
+     * 
+     * @return The keywords for the country
+     */
+    String[] getKeywords() {
+        return _keywords;
+    }
+
+    /**
+     * Gets the ID of the country in the keyword index
+     * 
+     * @return The country's ID, or -1 if it has not been indexed
+     */
+    int getId() {
+        return _id;
+    }
+
+    /**
+     * Sets the ID of the country in the keyword index
+     * 
+     * @param id
+     *            The country's ID
+     */
+    void setId(final int id) {
+        _id = id;
+    }
+
     /**
      * Gets the country's name
      * 
@@ -0,0 +1,183 @@
+/*
+ * CountryDataLoader.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.device.keywordfilterdemo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Vector;
+
+import net.rim.device.api.io.LineReader;
+import net.rim.device.api.ui.component.Dialog;
+
+/**
+ * A thread which reads the country data file and passes the countries to the
+ * application in batches as they are read, so that the list can be shown
+ * before the whole file has been read. The first batch is kept small so that
+ * the first screen of countries appears quickly. Each line is parsed from the
+ * bytes returned by the LineReader, without first converting the whole line to
+ * a String.
+ */
+final class CountryDataLoader extends Thread {
+    private static final String DATA_FILE = "/Data/CountryData.txt";
+
+    private static final int FIRST_BATCH_SIZE = 20;
+    private static final int BATCH_SIZE = 200;
+
+    private final KeywordFilterDemo _app;
+
+    /**
+     * Creates a new CountryDataLoader object
+     * 
+     * @param app
+     *            The application to pass the countries to
+     */
+    CountryDataLoader(final KeywordFilterDemo app) {
+        _app = app;
+    }
+
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    public void run() {
+        // Get an input stream from the file.
+        final InputStream stream = getClass().getResourceAsStream(DATA_FILE);
+        if (stream == null) {
+            _app.invokeLater(new Runnable() {
+                public void run() {
+                    Dialog.alert("Error reading data file.");
+                    System.exit(0);
+                }
+            });
+            return;
+        }
+
+        final LineReader lineReader = new LineReader(stream);
+        Vector batch = new Vector();
+        int batchSize = FIRST_BATCH_SIZE;
+        try {
+            // We read data from input stream one line at a time until we
+            // reach end of file, passing on a batch of countries whenever
+            // enough have been read.
+            for (;;) {
+                final byte[] line;
+                try {
+                    line = lineReader.readLine();
+                } catch (final EOFException eof) {
+                    // We've reached the end of the file.
+                    break;
+                }
+
+                final Country country = parse(line);
+                if (country != null) {
+                    batch.addElement(country);
+                }
+
+                if (batch.size() == batchSize) {
+                    publish(batch, false);
+                    batch = new Vector();
+                    batchSize = BATCH_SIZE;
+                }
+            }
+        } catch (final IOException ioe) {
+            _app.invokeLater(new Runnable() {
+                public void run() {
+                    Dialog.alert("LineReader#readLine() threw "
+                            + ioe.toString());
+                }
+            });
+        } finally {
+            try {
+                stream.close();
+            } catch (final IOException ioe) {
+                // The data has been read, so there is nothing to do
+            }
+        }
+
+        // Pass on the countries read so far, even if the file could not be
+        // read to the end
+        publish(batch, true);
+    }
+
+    /**
+     * Passes a batch of countries to the application on the event thread
+     * 
+     * @param countries
+     *            The countries read
+     * @param complete
+     *            True if this is the last batch
+     */
+    private void publish(final Vector countries, final boolean complete) {
+        _app.invokeLater(new Runnable() {
+            public void run() {
+                _app.addCountries(countries, complete);
+            }
+        });
+    }
+
+    /**
+     * Parses a line of the data file, which holds the name, population and
+     * capital city of a country separated by commas
+     * 
+     * @param line
+     *            The line read
+     * @return The country described by the line, or null if the line does not
+     *         hold all three fields
+     */
+    private static Country parse(final byte[] line) {
+        final int comma1 = indexOf(line, ',', 0);
+        final int comma2 = comma1 < 0 ? -1 : indexOf(line, ',', comma1 + 1);
+        if (comma2 < 0) {
+            return null;
+        }
+
+        // Parse the population directly from the bytes of the line
+        long population = 0;
+        for (int i = comma1 + 1; i < comma2; ++i) {
+            final int digit = line[i] - '0';
+            if (digit >= 0 && digit <= 9) {
+                population = population * 10 + digit;
+            }
+        }
+
+        return new Country(new String(line, 0, comma1), population,
+                new String(line, comma2 + 1, line.length - comma2 - 1));
+    }
+
+    /**
+     * Finds a byte in a line, starting from a given position
+     */
+    private static int indexOf(final byte[] line, final char ch,
+            final int from) {
+        for (int i = from; i < line.length; ++i) {
+            if (line[i] == ch) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
@@ -29,16 +29,37 @@ package com.rim.samples.device.keywordfilterdemo;
 import java.util.Vector;
 
 import net.rim.device.api.collection.util.SortedReadableList;
+import net.rim.device.api.ui.component.KeywordFilterField;
 import net.rim.device.api.ui.component.KeywordProvider;
 import net.rim.device.api.util.Comparator;
-import net.rim.device.api.util.StringUtilities;
 
 /**
  * Instances of this SortedReadableList class will contain a list of countries
  * derived from a vector of Country objects passed into the constructor. The
  * class is also a KeywordProvider implementation.
+ * <p>
+ * The KeywordFilterField asks for the keywords of every country each time the
+ * keyword changes. The countries are therefore indexed by a KeywordIndex as
+ * they are added, which finds the countries matching each new keyword, and
+ * countries which do not match are given no keywords so that they are skipped
+ * at once.
  */
 public class CountryList extends SortedReadableList implements KeywordProvider {
+    private static final String[] NO_KEYWORDS = new String[0];
+
+    private final KeywordIndex _index;
+    private KeywordFilterField _filterField;
+
+    /**
+     * Creates an empty country list, to which countries are added as they are
+     * loaded.
+     */
+    public CountryList() {
+        super(new CountryListComparator());
+
+        _index = new KeywordIndex();
+    }
+
     /**
      * Creates a country list based on a Vector of countries.
      * 
@@ -48,9 +69,34 @@ public class CountryList extends SortedReadableList implements KeywordProvider {
     public CountryList(final Vector countries) {
         super(new CountryListComparator());
 
+        _index = new KeywordIndex();
+        for (int i = 0; i < countries.size(); ++i) {
+            index((Country) countries.elementAt(i));
+        }
+        _index.sort();
+
         loadFrom(countries.elements());
     }
 
+    /**
+     * Adds a batch of loaded countries to the list.
+     * 
+     * @param countries
+     *            The countries to be added.
+     * @param complete
+     *            True if this is the last batch, in which case the keyword
+     *            index is sorted.
+     */
+    void addElements(final Vector countries, final boolean complete) {
+        for (int i = 0; i < countries.size(); ++i) {
+            addElement(countries.elementAt(i));
+        }
+
+        if (complete) {
+            _index.sort();
+        }
+    }
+
     /**
      * Adds a new element to the list.
      * 
@@ -58,16 +104,44 @@ public class CountryList extends SortedReadableList implements KeywordProvider {
      *            The element to be added.
      */
     void addElement(final Object element) {
+        if (element instanceof Country) {
+            index((Country) element);
+        }
         doAdd(element);
     }
 
+    /**
+     * Sets the field whose keyword the countries are filtered by
+     * 
+     * @param filterField
+     *            The KeywordFilterField displaying this list
+     */
+    void setFilterField(final KeywordFilterField filterField) {
+        _filterField = filterField;
+    }
+
+    /**
+     * Adds a country to the keyword index
+     */
+    private void index(final Country country) {
+        country.setId(_index.add(country.getKeywords()));
+    }
+
     /**
      * @see net.rim.device.api.ui.component.KeywordProvider#getKeywords(Object
      *      element)
      */
     public String[] getKeywords(final Object element) {
         if (element instanceof Country) {
-            return StringUtilities.stringToWords(element.toString());
+            final Country country = (Country) element;
+            if (_filterField != null) {
+                // Only the first call for a new keyword searches the index
+                _index.filter(_filterField.getKeyword());
+                if (!_index.matches(country.getId())) {
+                    return NO_KEYWORDS;
+                }
+            }
+            return country.getKeywords();
         }
         return null;
     }
@@ -0,0 +1,192 @@
+/*
+ * KeywordFilterBenchmark.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.device.keywordfilterdemo;
+
+import java.util.Random;
+import java.util.Vector;
+
+import net.rim.device.api.util.StringUtilities;
+
+/**
+ * Times filtering a large list of countries as a keyword is typed, comparing
+ * the KeywordIndex with a scan which splits the name of every country into
+ * words on each keystroke, as earlier versions of CountryList did. Countries
+ * with made up names are used, and each keyword is typed a character at a time
+ * and then erased a character at a time.
+ */
+final class KeywordFilterBenchmark {
+    private static final int COUNTRY_COUNT = 100000;
+    private static final int KEYWORD_COUNT = 20;
+    private static final long SEED = 0x4b464244L;
+
+    private static final String[] SYLLABLES = { "ba", "ca", "da", "el", "fi",
+            "go", "ha", "is", "ja", "ka", "lu", "ma", "ne", "or", "pa", "qu",
+            "ri", "sa", "to", "ur", "va", "wa", "xe", "yo", "za" };
+
+    /**
+     * Runs the benchmark
+     * 
+     * @return A report of the times taken
+     */
+    String run() {
+        final Random random = new Random(SEED);
+        final StringBuffer report = new StringBuffer();
+
+        final Country[] countries = new Country[COUNTRY_COUNT];
+        for (int i = 0; i < COUNTRY_COUNT; ++i) {
+            countries[i] =
+                    new Country(createName(random), Country.UNKNOWN_POPULATION,
+                            "");
+        }
+
+        final Vector keystrokes = new Vector();
+        for (int i = 0; i < KEYWORD_COUNT; ++i) {
+            addKeystrokes(keystrokes, countries[random.nextInt(COUNTRY_COUNT)]
+                    .toString());
+        }
+
+        long start = System.currentTimeMillis();
+        final KeywordIndex index = new KeywordIndex();
+        for (int i = 0; i < COUNTRY_COUNT; ++i) {
+            index.add(countries[i].getKeywords());
+        }
+        index.sort();
+        report.append("Build index: ").append(
+                System.currentTimeMillis() - start).append(" ms\n");
+
+        long total = 0;
+        long longest = 0;
+        long matches = 0;
+        for (int i = 0; i < keystrokes.size(); ++i) {
+            start = System.currentTimeMillis();
+            matches += scan(countries, (String) keystrokes.elementAt(i));
+            final long elapsed = System.currentTimeMillis() - start;
+            total += elapsed;
+            longest = Math.max(longest, elapsed);
+        }
+        appendResult(report, "Scan", keystrokes.size(), total, longest,
+                matches);
+
+        total = 0;
+        longest = 0;
+        matches = 0;
+        for (int i = 0; i < keystrokes.size(); ++i) {
+            start = System.currentTimeMillis();
+            index.filter((String) keystrokes.elementAt(i));
+            matches += index.getMatchCount();
+            final long elapsed = System.currentTimeMillis() - start;
+            total += elapsed;
+            longest = Math.max(longest, elapsed);
+        }
+        appendResult(report, "Index", keystrokes.size(), total, longest,
+                matches);
+
+        return report.toString();
+    }
+
+    /**
+     * Counts the countries matching a keyword by splitting each country's
+     * name into words, as earlier versions of CountryList.getKeywords did
+     */
+    private static int scan(final Country[] countries, final String keyword) {
+        final String[] words =
+                StringUtilities.stringToWords(keyword.toLowerCase());
+        if (words == null || words.length == 0) {
+            return countries.length;
+        }
+
+        int count = 0;
+        for (int i = 0; i < countries.length; ++i) {
+            final String[] keywords =
+                    StringUtilities.stringToWords(countries[i].toString());
+            boolean matches = true;
+            for (int j = 0; j < words.length && matches; ++j) {
+                matches = false;
+                for (int k = 0; k < keywords.length && !matches; ++k) {
+                    matches = keywords[k].toLowerCase().startsWith(words[j]);
+                }
+            }
+
+            if (matches) {
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Adds the keywords seen while the start of a name is typed and erased
+     */
+    private static void addKeystrokes(final Vector keystrokes,
+            final String name) {
+        final int length = Math.min(name.length(), 8);
+        for (int i = 1; i <= length; ++i) {
+            keystrokes.addElement(name.substring(0, i));
+        }
+        for (int i = length - 1; i >= 0; --i) {
+            keystrokes.addElement(name.substring(0, i));
+        }
+    }
+
+    /**
+     * Creates a name of one to three words
+     */
+    private static String createName(final Random random) {
+        final StringBuffer name = new StringBuffer();
+        final int words = 1 + random.nextInt(3);
+        for (int i = 0; i < words; ++i) {
+            if (i > 0) {
+                name.append(' ');
+            }
+
+            final int syllables = 2 + random.nextInt(3);
+            for (int j = 0; j < syllables; ++j) {
+                final String syllable =
+                        SYLLABLES[random.nextInt(SYLLABLES.length)];
+                if (j == 0) {
+                    name.append(Character.toUpperCase(syllable.charAt(0)))
+                            .append(syllable.substring(1));
+                } else {
+                    name.append(syllable);
+                }
+            }
+        }
+
+        return name.toString();
+    }
+
+    /**
+     * Appends the average and longest time taken per keystroke to the report
+     */
+    private static void appendResult(final StringBuffer report,
+            final String name, final int keystrokes, final long total,
+            final long longest, final long matches) {
+        report.append(name).append(": ").append(total / keystrokes).append(
+                " ms average, ").append(longest).append(" ms longest (")
+                .append(matches).append(" matches)\n");
+    }
+}
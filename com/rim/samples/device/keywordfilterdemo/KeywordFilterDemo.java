@@ -26,18 +26,13 @@
 
 package com.rim.samples.device.keywordfilterdemo;
 
-import java.io.EOFException;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.Vector;
 
-import net.rim.device.api.io.LineReader;
 import net.rim.device.api.system.Characters;
 import net.rim.device.api.ui.Graphics;
 import net.rim.device.api.ui.UiApplication;
 import net.rim.device.api.ui.XYRect;
 import net.rim.device.api.ui.component.BasicEditField;
-import net.rim.device.api.ui.component.Dialog;
 import net.rim.device.api.ui.component.KeywordFilterField;
 
 /**
@@ -49,18 +44,18 @@ import net.rim.device.api.ui.component.KeywordFilterField;
  * Help/API Reference for more information on how to use this API. In this
  * sample app we add country data from a text file to a SortedReadableList and
  * use this object to construct a KeywordFilterField containing names of
- * specific countries. We specify a customized TextField object of our own
- * design as the input field to be used. When a country in the list is selected,
- * additional information for the selected country is displayed. A menu item
- * allows for additional elements to be added to the list. This application does
- * not provide functionality for adding or displaying secondary information for
- * newly added list elements.
+ * specific countries. The file is read by a background thread, and countries
+ * are added to the list in batches as they are read. We specify a customized
+ * TextField object of our own design as the input field to be used. When a
+ * country in the list is selected, additional information for the selected
+ * country is displayed. A menu item allows for additional elements to be added
+ * to the list. This application does not provide functionality for adding or
+ * displaying secondary information for newly added list elements.
  */
 
 public final class KeywordFilterDemo extends UiApplication {
-    private KeywordFilterField _keywordFilterField;
-    private CountryList _countryList;
-    private final Vector _countries;
+    private final KeywordFilterField _keywordFilterField;
+    private final CountryList _countryList;
 
     /**
      * Entry point for application.
@@ -81,43 +76,35 @@ public final class KeywordFilterDemo extends UiApplication {
      * Creates a new KeywordFilterDemo object
      */
     public KeywordFilterDemo() {
-        // Populate vector with data from file.
-        _countries = getDataFromFile();
-
-        if (_countries != null) {
-            // Create an instance of our SortedReadableList class.
-            _countryList = new CountryList(_countries);
-
-            // Add our list to a KeywordFilterField object.
-            _keywordFilterField = new KeywordFilterField();
-            _keywordFilterField.setSourceList(_countryList, _countryList);
-
-            // We're providing a customized edit field for
-            // the KeywordFilterField.
-            final CustomKeywordField customSearchField =
-                    new CustomKeywordField();
-            _keywordFilterField.setKeywordField(customSearchField);
-
-            // Create main screen.
-            final KeywordFilterDemoScreen screen =
-                    new KeywordFilterDemoScreen(this);
-
-            // We need to explicitly add the search/title field via
-            // MainScreen.setTitle().
-            screen.setTitle(_keywordFilterField.getKeywordField());
-
-            // Add our KeywordFilterField to the screen and push the screen
-            // onto the stack.
-            screen.add(_keywordFilterField);
-            pushScreen(screen);
-        } else {
-            UiApplication.getUiApplication().invokeLater(new Runnable() {
-                public void run() {
-                    Dialog.alert("Error reading data file.");
-                    System.exit(0);
-                }
-            });
-        }
+        // Create an instance of our SortedReadableList class. Countries are
+        // added to it as they are read from the data file.
+        _countryList = new CountryList();
+
+        // Add our list to a KeywordFilterField object.
+        _keywordFilterField = new KeywordFilterField();
+        _keywordFilterField.setSourceList(_countryList, _countryList);
+        _countryList.setFilterField(_keywordFilterField);
+
+        // We're providing a customized edit field for
+        // the KeywordFilterField.
+        final CustomKeywordField customSearchField = new CustomKeywordField();
+        _keywordFilterField.setKeywordField(customSearchField);
+
+        // Create main screen.
+        final KeywordFilterDemoScreen screen =
+                new KeywordFilterDemoScreen(this);
+
+        // We need to explicitly add the search/title field via
+        // MainScreen.setTitle().
+        screen.setTitle(_keywordFilterField.getKeywordField());
+
+        // Add our KeywordFilterField to the screen and push the screen
+        // onto the stack.
+        screen.add(_keywordFilterField);
+        pushScreen(screen);
+
+        // Populate the list with data from file.
+        new CountryDataLoader(this).start();
     }
 
     /**
@@ -130,60 +117,17 @@ public final class KeywordFilterDemo extends UiApplication {
     }
 
     /**
-     * Method populates and returns a vector of Country objects containing data
-     * read from text file.
+     * Adds a batch of countries read from the data file and updates the
+     * country list. Must be called on the event thread.
      * 
-     * @return A vector containing Country objects.
+     * @param countries
+     *            The countries read.
+     * @param complete
+     *            True if the whole file has been read.
      */
-    private Vector getDataFromFile() {
-        final Vector countries = new Vector();
-
-        // Get an input stream from the file.
-        final InputStream stream =
-                getClass().getResourceAsStream("/Data/CountryData.txt");
-
-        if (stream != null) {
-            final LineReader lineReader = new LineReader(stream);
-
-            // We read data from input stream one line at a time until we
-            // reach end of file. Each line is parsed to extract data used
-            // to construct Country objects.
-            for (;;) {
-                try {
-                    final String line = new String(lineReader.readLine());
-
-                    // Parse the current line.
-                    final int comma1 = line.indexOf(',');
-                    final String country = line.substring(0, comma1);
-                    final int comma2 = line.indexOf(',', comma1 + 1);
-                    final String population =
-                            line.substring(comma1 + 1, comma2);
-                    final String capital =
-                            line.substring(comma2 + 1, line.length());
-
-                    // Create a new Country object with data from current line.
-                    countries.addElement(new Country(country, population,
-                            capital));
-                } catch (final EOFException eof) {
-                    // We've reached the end of the file.
-                    break;
-                } catch (final IOException ioe) {
-                    UiApplication.getUiApplication().invokeLater(
-                            new Runnable() {
-                                public void run() {
-                                    Dialog.alert("LineReader#readLine() threw "
-                                            + ioe.toString());
-                                }
-                            });
-
-                    return null;
-                }
-            }
-            return countries;
-        } else {
-            System.out.println("Could not find resource");
-            return null;
-        }
+    void addCountries(final Vector countries, final boolean complete) {
+        _countryList.addElements(countries, complete);
+        _keywordFilterField.updateList();
     }
 
     /**
@@ -83,14 +83,41 @@ public final class KeywordFilterDemoScreen extends MainScreen {
                 // of countries.
                 if (addDialog.doModal() == 0) // User selected "Add"
                 {
-                    _app.addElementToList(new Country(inputField.getText(), "",
-                            ""));
+                    _app.addElementToList(new Country(inputField.getText(),
+                            Country.UNKNOWN_POPULATION, ""));
                 }
             }
         }));
 
-        // Add menu item to the screen's menu
+        // MenuItem to time filtering a large list of countries
+        final MenuItem benchmarkItem =
+                new MenuItem(new StringProvider("Benchmark filter"), 0x230020,
+                        1);
+        benchmarkItem.setCommand(new Command(new CommandHandler() {
+            /**
+             * @see net.rim.device.api.command.CommandHandler#execute(ReadOnlyCommandMetadata,
+             *      Object)
+             */
+            public void execute(final ReadOnlyCommandMetadata metadata,
+                    final Object context) {
+                new Thread(new Runnable() {
+                    public void run() {
+                        final String report =
+                                new KeywordFilterBenchmark().run();
+
+                        _app.invokeLater(new Runnable() {
+                            public void run() {
+                                Dialog.inform(report);
+                            }
+                        });
+                    }
+                }).start();
+            }
+        }));
+
+        // Add menu items to the screen's menu
         addMenuItem(addElementItem);
+        addMenuItem(benchmarkItem);
     }
 
     /**
@@ -154,9 +181,12 @@ public final class KeywordFilterDemoScreen extends MainScreen {
         InfoScreen(final Country country) {
             // Set up and display UI elements
             setTitle(country.toString());
+            final long population = country.getPopulation();
             final BasicEditField popField =
-                    new BasicEditField("Population: ", country.getPopulation(),
-                            20, Field.NON_FOCUSABLE);
+                    new BasicEditField("Population: ",
+                            population == Country.UNKNOWN_POPULATION ? ""
+                                    : Long.toString(population), 20,
+                            Field.NON_FOCUSABLE);
             final BasicEditField capField =
                     new BasicEditField("Capital: ", country.getCapitalCity(),
                             20, Field.NON_FOCUSABLE);
@@ -0,0 +1,328 @@
+/*
+ * KeywordIndex.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.device.keywordfilterdemo;
+
+import net.rim.device.api.util.Arrays;
+import net.rim.device.api.util.Comparator;
+import net.rim.device.api.util.StringUtilities;
+
+/**
+ * An index of the keywords of a list of elements, used to find the elements
+ * matching the text typed into a KeywordFilterField. An element matches when
+ * each word of the text is the start of one of its keywords, ignoring case.
+ * Elements are identified by the IDs handed out as they are added.
+ * <p>
+ * The keywords of all the elements are kept sorted, so that the elements with
+ * a keyword starting with a given word can be found with a binary search.
+ * Elements added since the keywords were last sorted are searched one by one,
+ * and the keywords are sorted again once there are too many of them. The
+ * elements matching the last text are remembered, and when more characters are
+ * typed only those elements are checked again.
+ */
+final class KeywordIndex {
+    // Least number of unsorted elements which causes the keywords to be sorted
+    private static final int MIN_UNSORTED = 256;
+
+    // Keywords in lower case, by element ID
+    private String[][] _keywords;
+    private int _count;
+
+    // All keywords of the first _sortedCount elements, sorted, and the ID of
+    // the element each belongs to. Later elements are searched one by one.
+    private String[] _sortedKeywords;
+    private int[] _sortedIds;
+    private int _sortedCount;
+
+    // The last text filtered on and its words, which are null if the text had
+    // no words and every element matches
+    private String _text;
+    private String[] _words;
+
+    // The elements matching the last text
+    private boolean[] _matches;
+    private int[] _result;
+    private int _resultSize;
+
+    /**
+     * Creates a new, empty KeywordIndex object
+     */
+    KeywordIndex() {
+        _keywords = new String[16][];
+        _matches = new boolean[16];
+        _result = new int[16];
+        _sortedKeywords = new String[0];
+        _sortedIds = new int[0];
+    }
+
+    /**
+     * Adds an element to the index
+     * 
+     * @param keywords
+     *            The keywords of the element
+     * @return The ID of the element
+     */
+    int add(final String[] keywords) {
+        if (_count == _keywords.length) {
+            final String[][] grown = new String[_count * 2][];
+            System.arraycopy(_keywords, 0, grown, 0, _count);
+            _keywords = grown;
+
+            final boolean[] matches = new boolean[_count * 2];
+            System.arraycopy(_matches, 0, matches, 0, _count);
+            _matches = matches;
+        }
+
+        final int id = _count++;
+        _keywords[id] = toLowerCase(keywords);
+
+        // Keep the result for the last text up to date
+        if (_words != null && matchesWords(id, _words)) {
+            addToResult(id);
+        }
+
+        return id;
+    }
+
+    /**
+     * Finds the elements matching a text. Nothing is done if the text is the
+     * same as the last text filtered on.
+     * 
+     * @param keyword
+     *            The text typed into the keyword field
+     */
+    void filter(final String keyword) {
+        final String text = keyword == null ? "" : keyword;
+        if (text.equals(_text)) {
+            return;
+        }
+
+        final String[] words =
+                toLowerCase(StringUtilities.stringToWords(text));
+        final boolean narrowing = _words != null && text.startsWith(_text);
+        _text = text;
+
+        if (words.length == 0) {
+            clearResult();
+            _words = null;
+        } else if (narrowing) {
+            // Anything matching the longer text also matched the last one
+            int kept = 0;
+            for (int i = 0; i < _resultSize; ++i) {
+                final int id = _result[i];
+                if (matchesWords(id, words)) {
+                    _result[kept++] = id;
+                } else {
+                    _matches[id] = false;
+                }
+            }
+            _resultSize = kept;
+            _words = words;
+        } else {
+            clearResult();
+            _words = words;
+
+            if (_count - _sortedCount > Math.max(MIN_UNSORTED,
+                    _sortedCount / 4)) {
+                sort();
+            }
+
+            // Look up the longest word, which is likely to match the fewest
+            // keywords, and check the other words for each element found.
+            String longest = words[0];
+            for (int i = 1; i < words.length; ++i) {
+                if (words[i].length() > longest.length()) {
+                    longest = words[i];
+                }
+            }
+
+            for (int i = lowerBound(longest); i < _sortedKeywords.length
+                    && _sortedKeywords[i].startsWith(longest); ++i) {
+                final int id = _sortedIds[i];
+                if (!_matches[id] && matchesWords(id, words)) {
+                    addToResult(id);
+                }
+            }
+
+            for (int id = _sortedCount; id < _count; ++id) {
+                if (matchesWords(id, words)) {
+                    addToResult(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Indicates whether an element matches the last text filtered on
+     * 
+     * @param id
+     *            The ID of the element
+     * @return True if the element matches, false otherwise
+     */
+    boolean matches(final int id) {
+        return _words == null || id >= 0 && id < _count && _matches[id];
+    }
+
+    /**
+     * Retrieves the number of elements matching the last text filtered on
+     * 
+     * @return The number of matching elements
+     */
+    int getMatchCount() {
+        return _words == null ? _count : _resultSize;
+    }
+
+    /**
+     * Indicates whether each word is the start of one of an element's keywords
+     */
+    private boolean matchesWords(final int id, final String[] words) {
+        final String[] keywords = _keywords[id];
+        for (int i = 0; i < words.length; ++i) {
+            boolean found = false;
+            for (int j = 0; j < keywords.length && !found; ++j) {
+                found = keywords[j].startsWith(words[i]);
+            }
+
+            if (!found) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds an element to the result for the last text
+     */
+    private void addToResult(final int id) {
+        if (_resultSize == _result.length) {
+            final int[] grown = new int[_resultSize * 2];
+            System.arraycopy(_result, 0, grown, 0, _resultSize);
+            _result = grown;
+        }
+
+        _result[_resultSize++] = id;
+        _matches[id] = true;
+    }
+
+    /**
+     * Empties the result for the last text
+     */
+    private void clearResult() {
+        for (int i = 0; i < _resultSize; ++i) {
+            _matches[_result[i]] = false;
+        }
+        _resultSize = 0;
+    }
+
+    /**
+     * Finds the first sorted keyword which is not less than a word
+     */
+    private int lowerBound(final String word) {
+        int low = 0;
+        int high = _sortedKeywords.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (_sortedKeywords[middle].compareTo(word) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Sorts the keywords of all the elements, so that they can be searched
+     * without checking the elements one by one. This should be called once a
+     * batch of elements has been added.
+     */
+    void sort() {
+        if (_sortedCount == _count) {
+            return;
+        }
+
+        int total = 0;
+        for (int id = 0; id < _count; ++id) {
+            total += _keywords[id].length;
+        }
+
+        final Object[] entries = new Object[total];
+        int index = 0;
+        for (int id = 0; id < _count; ++id) {
+            final String[] keywords = _keywords[id];
+            for (int j = 0; j < keywords.length; ++j) {
+                entries[index++] = new Entry(keywords[j], id);
+            }
+        }
+
+        Arrays.sort(entries, Entry.COMPARATOR);
+
+        _sortedKeywords = new String[total];
+        _sortedIds = new int[total];
+        for (int i = 0; i < total; ++i) {
+            final Entry entry = (Entry) entries[i];
+            _sortedKeywords[i] = entry.keyword;
+            _sortedIds[i] = entry.id;
+        }
+        _sortedCount = _count;
+    }
+
+    /**
+     * Converts words to lower case
+     */
+    private static String[] toLowerCase(final String[] words) {
+        if (words == null) {
+            return new String[0];
+        }
+
+        final String[] lowerCase = new String[words.length];
+        for (int i = 0; i < words.length; ++i) {
+            lowerCase[i] = words[i].toLowerCase();
+        }
+
+        return lowerCase;
+    }
+
+    /**
+     * A keyword and the ID of the element it belongs to
+     */
+    private static final class Entry {
+        static final Comparator COMPARATOR = new Comparator() {
+            public int compare(final Object o1, final Object o2) {
+                return ((Entry) o1).keyword.compareTo(((Entry) o2).keyword);
+            }
+        };
+
+        final String keyword;
+        final int id;
+
+        Entry(final String keyword, final int id) {
+            this.keyword = keyword;
+            this.id = id;
+        }
+    }
+}
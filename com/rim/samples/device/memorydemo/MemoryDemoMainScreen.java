@@ -55,9 +55,11 @@ import net.rim.device.api.util.StringProvider;
  * The main screen for the application.
  */
 public final class MemoryDemoMainScreen extends MainScreen implements
-        ListFieldCallback, LowMemoryListener {
+        ListFieldCallback {
     private final OrderList _orderList;
     private final OrderListField _orderListField;
+    private final OrderTextCache _textCache;
+    private final MemoryPressureManager _pressureManager;
     private final UiApplication _app;
     private ProgressBarDialog _progressDialog;
 
@@ -77,15 +79,26 @@ public final class MemoryDemoMainScreen extends MainScreen implements
         _orderListField.setCallback(this);
         add(_orderListField);
 
-        LowMemoryManager.addLowMemoryListener(this);
+        // Answer the Low Memory Manager from the cheapest data first: cached
+        // row text, then ungrouped records, then stale records.
+        _textCache = new OrderTextCache();
+        _pressureManager = new MemoryPressureManager();
+        _pressureManager.register(_textCache,
+                MemoryPressureManager.TIER_DECODED);
+        _pressureManager.register(new GroupingReclaimer(_orderList),
+                MemoryPressureManager.TIER_GROUPED);
+        _pressureManager.register(new StaleOrderReclaimer(_orderList,
+                _orderListField),
+                MemoryPressureManager.TIER_PERSISTED);
+        LowMemoryManager.addLowMemoryListener(_pressureManager);
     }
 
     /**
      * @see net.rim.device.api.ui.Screen#onClose()
      */
     public boolean onClose() {
-        // Remove this screen as a low memory listener
-        LowMemoryManager.removeLowMemoryListener(this);
+        // Remove this screen's low memory listener
+        LowMemoryManager.removeLowMemoryListener(_pressureManager);
 
         // Commit the order list to persistent store
         _orderList.commit();
@@ -142,8 +155,8 @@ public final class MemoryDemoMainScreen extends MainScreen implements
      */
     public void drawListRow(final ListField listField, final Graphics graphics,
             final int index, final int y, final int width) {
-        final Object object = get(listField, index);
-        graphics.drawText(object.toString(), 0, y, 0, width);
+        final OrderRecord orderRecord = (OrderRecord) get(listField, index);
+        graphics.drawText(_textCache.getText(orderRecord), 0, y, 0, width);
     }
 
     /**
@@ -170,84 +183,99 @@ public final class MemoryDemoMainScreen extends MainScreen implements
         return -1; // Not implemented.
     }
 
-    // LowMemoryListener methods
+    // Inner classes
     // -------------------------------------------------------------------
 
     /**
-     * This method is called when the system is running low on memory.
-     * Applications should mark some objects as recoverable, depending on the
-     * priority, in order to free up some memory.
-     * 
-     * @param priority
-     *            The priority of the memory cleanup.
-     * 
-     * @return True if any objects were marked as recoverable; otherwise false.
-     * 
-     * @see net.rim.device.api.lowmemory.LowMemoryListener#freeStaleObject(int)
+     * Persisted tier reclaimer that removes stale order records. Records are
+     * only removed at medium and high priority; at low priority the Low Memory
+     * Manager is answered from the decoded tier alone.
      */
-    public boolean freeStaleObject(final int priority) {
-        boolean freedData = false;
-
-        switch (priority) {
-        case LowMemoryListener.LOW_PRIORITY: {
-            // Low priority; application should consider releasing transitory
-            // variables and
-            // any variables that are currently unnecessary for complete
-            // functionality, such as
-            // cached data. This sample application does not cache any
-            // variables, so no data
-            // is recovered.
-            break;
-        }
+    static final class StaleOrderReclaimer implements MemoryReclaimer {
+        private final OrderList _list;
+        private final ListField _listField;
 
-        case LowMemoryListener.MEDIUM_PRIORITY: {
-            // Medium priority; application should consider removing stale data,
-            // such as
-            // very old email messages or old calendar appointments. This
-            // application traverses
-            // the list of order records, and removes any that occurred more
-            // than 15 years ago,
-            // i.e., very old (stale) order records.
-            final int numYearsAgo = 15;
+        /**
+         * Creates a new StaleOrderReclaimer object
+         * 
+         * @param list
+         *            The order list to remove records from
+         * @param listField
+         *            The list field displaying the order list, or null
+         */
+        StaleOrderReclaimer(final OrderList list, final ListField listField) {
+            _list = list;
+            _listField = listField;
+        }
 
-            final Calendar calendar = Calendar.getInstance();
-            calendar.setTime(new Date());
-            final int year = calendar.get(Calendar.YEAR);
-            calendar.set(Calendar.YEAR, year - numYearsAgo);
-            freedData =
-                    _orderList.removeStaleOrderRecords(calendar.getTime()
-                            .getTime());
-            _orderListField.setSize(_orderList.getNumOrderRecords());
+        /**
+         * @see com.rim.samples.device.memorydemo.MemoryReclaimer#reclaim(int)
+         */
+        public long reclaim(final int priority) {
+            final int numYearsAgo;
+
+            switch (priority) {
+            case LowMemoryListener.MEDIUM_PRIORITY: {
+                // Medium priority; application should consider removing stale
+                // data, such as very old email messages or old calendar
+                // appointments. This application removes any order records
+                // that occurred more than 15 years ago, i.e., very old (stale)
+                // order records.
+                numYearsAgo = 15;
+                break;
+            }
 
-            break;
-        }
+            case LowMemoryListener.HIGH_PRIORITY: {
+                // High priority; application should remove objects on a Least
+                // Recently Used basis. The application should remove *all* its
+                // stale objects to reduce the amount of memory consumed on the
+                // handheld. This application removes any order records that
+                // occurred more than 10 years ago.
+                numYearsAgo = 10;
+                break;
+            }
 
-        case LowMemoryListener.HIGH_PRIORITY: {
-            // High priority; application should remove objects on a Least
-            // Recently Used basis.
-            // The application should remove *all* its stale objects to reduce
-            // the amount of
-            // memory consumed on the handheld. This application traverses the
-            // list of customer
-            // records, and removes any that haven't been accessed in the last
-            // 10 years,
-            // i.e., the least recently used customer records.
-            final int numYearsAgo = 10;
+            default:
+                return 0;
+            }
 
             final Calendar calendar = Calendar.getInstance();
             calendar.setTime(new Date());
             final int year = calendar.get(Calendar.YEAR);
             calendar.set(Calendar.YEAR, year - numYearsAgo);
-            freedData =
-                    _orderList.removeStaleOrderRecords(calendar.getTime()
-                            .getTime());
-            _orderListField.setSize(_orderList.getNumOrderRecords());
+            final int numRemoved =
+                    _list.removeStaleOrderRecords(calendar.getTime().getTime());
+            if (_listField != null) {
+                _listField.setSize(_list.getNumOrderRecords());
+            }
 
-            break;
+            return (long) numRemoved * OrderRecord.ESTIMATED_SIZE;
         }
+    }
+
+    /**
+     * Grouped tier reclaimer that groups any order partitions changed since
+     * they were last grouped
+     */
+    static final class GroupingReclaimer implements MemoryReclaimer {
+        private final OrderList _list;
+
+        /**
+         * Creates a new GroupingReclaimer object
+         * 
+         * @param list
+         *            The order list whose partitions should be grouped
+         */
+        GroupingReclaimer(final OrderList list) {
+            _list = list;
         }
 
-        return freedData;
+        /**
+         * @see com.rim.samples.device.memorydemo.MemoryReclaimer#reclaim(int)
+         */
+        public long reclaim(final int priority) {
+            return (long) _list.groupPartitions() * OrderRecord.GROUPING_SAVING;
+        }
     }
 
     /**
@@ -281,6 +309,9 @@ public final class MemoryDemoMainScreen extends MainScreen implements
                 contextMenu.addItem(new SimulateLmmHigh());
             }
 
+            contextMenu.addItem(new BenchmarkRemoval());
+            contextMenu.addItem(new SimulatePressure());
+
             if (getSize() < /* outer. */MAX_RECORDS) {
                 contextMenu.addItem(new Populate());
             }
@@ -493,11 +524,11 @@ public final class MemoryDemoMainScreen extends MainScreen implements
         public void sortingStarted() {
             // Remove _gaugeField and change the text displayed on _popupScreen
             // to
-            // "Sorting records..." .
+            // "Saving records..." .
             UiApplication.getUiApplication().invokeLater(new Runnable() {
                 public void run() {
                     _manager.deleteCustomField(_gaugeField);
-                    _lbfield.setText("Sorting records...");
+                    _lbfield.setText("Saving records...");
                 }
             });
         }
@@ -515,6 +546,74 @@ public final class MemoryDemoMainScreen extends MainScreen implements
         }
     }
 
+    /**
+     * A menu item to time the removal of stale records from a large order list
+     */
+    private final class BenchmarkRemoval extends MenuItem {
+        /**
+         * Creates a new BenchmarkRemoval object
+         */
+        private BenchmarkRemoval() {
+            super(new StringProvider("Benchmark Stale Removal"), 0x330030, 8);
+            this.setCommand(new Command(new CommandHandler() {
+                /**
+                 * @see net.rim.device.api.command.CommandHandler#execute(ReadOnlyCommandMetadata,
+                 *      Object)
+                 */
+                public void execute(final ReadOnlyCommandMetadata metadata,
+                        final Object context) {
+                    new Thread(new Runnable() {
+                        public void run() {
+                            final String report =
+                                    new OrderListBenchmark().run();
+
+                            UiApplication.getUiApplication().invokeLater(
+                                    new Runnable() {
+                                        public void run() {
+                                            Dialog.inform(report);
+                                        }
+                                    });
+                        }
+                    }).start();
+                }
+            }));
+        }
+    }
+
+    /**
+     * A menu item to run the memory pressure harness
+     */
+    private final class SimulatePressure extends MenuItem {
+        /**
+         * Creates a new SimulatePressure object
+         */
+        private SimulatePressure() {
+            super(new StringProvider("Simulate Memory Pressure"), 0x330040, 9);
+            this.setCommand(new Command(new CommandHandler() {
+                /**
+                 * @see net.rim.device.api.command.CommandHandler#execute(ReadOnlyCommandMetadata,
+                 *      Object)
+                 */
+                public void execute(final ReadOnlyCommandMetadata metadata,
+                        final Object context) {
+                    new Thread(new Runnable() {
+                        public void run() {
+                            final String report =
+                                    new MemoryPressureHarness().run();
+
+                            UiApplication.getUiApplication().invokeLater(
+                                    new Runnable() {
+                                        public void run() {
+                                            Dialog.inform(report);
+                                        }
+                                    });
+                        }
+                    }).start();
+                }
+            }));
+        }
+    }
+
     /**
      * A menu item to simulate the execution of the Low Memory Manager with Low
      * priority.
@@ -532,7 +631,9 @@ public final class MemoryDemoMainScreen extends MainScreen implements
                  */
                 public void execute(final ReadOnlyCommandMetadata metadata,
                         final Object context) {
-                    freeStaleObject(LowMemoryListener.LOW_PRIORITY);
+                    _pressureManager
+                            .freeStaleObject(LowMemoryListener.LOW_PRIORITY);
+                    Dialog.inform(_pressureManager.getLastResult());
                 }
             }));
         }
@@ -555,7 +656,9 @@ public final class MemoryDemoMainScreen extends MainScreen implements
                  */
                 public void execute(final ReadOnlyCommandMetadata metadata,
                         final Object context) {
-                    freeStaleObject(LowMemoryListener.MEDIUM_PRIORITY);
+                    _pressureManager
+                            .freeStaleObject(LowMemoryListener.MEDIUM_PRIORITY);
+                    Dialog.inform(_pressureManager.getLastResult());
                 }
             }));
         }
@@ -578,7 +681,9 @@ public final class MemoryDemoMainScreen extends MainScreen implements
                  */
                 public void execute(final ReadOnlyCommandMetadata metadata,
                         final Object context) {
-                    freeStaleObject(LowMemoryListener.HIGH_PRIORITY);
+                    _pressureManager
+                            .freeStaleObject(LowMemoryListener.HIGH_PRIORITY);
+                    Dialog.inform(_pressureManager.getLastResult());
                 }
             }));
         }
@@ -0,0 +1,119 @@
+/*
+ * MemoryPressureHarness.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.memorydemo;
+
+import java.util.Date;
+
+import net.rim.device.api.lowmemory.LowMemoryListener;
+import net.rim.device.api.system.PersistentStore;
+
+/**
+ * Simulates the Low Memory Manager working against a scratch order list. Each
+ * round draws some rows and adds some ungrouped records, as using the
+ * application would, and then makes requests the way the Low Memory Manager
+ * does, escalating only while nothing is freed. The rounds cycle through low,
+ * medium and high pressure, each starting at the matching priority, and a final
+ * request is made at high priority. The report gives the statistics
+ * gathered by the MemoryPressureManager. The scratch persistent object is
+ * destroyed once the simulation is done.
+ */
+final class MemoryPressureHarness {
+    // Scratch persistent object ID, clear of the one used by the application
+    private static final long SCRATCH = OrderList.PERSIST + 2;
+
+    private static final int NUM_RECORDS = 5000;
+    private static final int NUM_ROUNDS = 10;
+    private static final int NUM_ROWS_DRAWN = 100;
+    private static final int NUM_RECORDS_ADDED = 50;
+
+    private static final int[] PRIORITIES = { LowMemoryListener.LOW_PRIORITY,
+            LowMemoryListener.MEDIUM_PRIORITY, LowMemoryListener.HIGH_PRIORITY };
+
+    /**
+     * Runs the simulation
+     * 
+     * @return A report of the requests made, bytes freed and time taken
+     */
+    String run() {
+        PersistentStore.destroyPersistentObject(SCRATCH);
+        try {
+            final OrderList orderList = new OrderList(SCRATCH);
+            addRecords(orderList, NUM_RECORDS);
+            orderList.commit();
+
+            final OrderTextCache textCache = new OrderTextCache();
+            final MemoryPressureManager manager = new MemoryPressureManager();
+            manager.register(textCache, MemoryPressureManager.TIER_DECODED);
+            manager.register(new MemoryDemoMainScreen.GroupingReclaimer(
+                    orderList), MemoryPressureManager.TIER_GROUPED);
+            manager.register(new MemoryDemoMainScreen.StaleOrderReclaimer(
+                    orderList, null), MemoryPressureManager.TIER_PERSISTED);
+
+            final StringBuffer report = new StringBuffer();
+            for (int round = 0; round < NUM_ROUNDS; ++round) {
+                // Draw the rows at the top of the list, then add records
+                final int numRows =
+                        Math.min(NUM_ROWS_DRAWN, orderList.getNumOrderRecords());
+                for (int i = 0; i < numRows; ++i) {
+                    textCache.getText(orderList.getOrderRecordAt(i));
+                }
+                addRecords(orderList, NUM_RECORDS_ADDED);
+
+                // Escalate from this round's pressure level until something is
+                // freed
+                final int level = round % PRIORITIES.length;
+                for (int i = level; i < PRIORITIES.length; ++i) {
+                    if (manager.freeStaleObject(PRIORITIES[i])) {
+                        break;
+                    }
+                }
+            }
+            manager.freeStaleObject(LowMemoryListener.HIGH_PRIORITY);
+
+            report.append(manager.getReport()).append(
+                    orderList.getNumOrderRecords()).append(" of ").append(
+                    NUM_RECORDS + NUM_ROUNDS * NUM_RECORDS_ADDED).append(
+                    " records left\n");
+            return report.toString();
+        } finally {
+            PersistentStore.destroyPersistentObject(SCRATCH);
+        }
+    }
+
+    /**
+     * Adds records with random dates to an order list
+     */
+    private static void addRecords(final OrderList orderList,
+            final int numRecords) {
+        final long today = new Date().getTime();
+        for (int i = 0; i < numRecords; ++i) {
+            orderList.addOrderRecord(new OrderRecord(MemoryDemo
+                    .randomLongBetween(0, today), MemoryDemo.randomString(),
+                    MemoryDemo.randomString(), 1));
+        }
+    }
+}
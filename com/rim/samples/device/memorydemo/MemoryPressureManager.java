@@ -0,0 +1,200 @@
+/*
+ * MemoryPressureManager.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.memorydemo;
+
+import java.util.Vector;
+
+import net.rim.device.api.lowmemory.LowMemoryListener;
+
+/**
+ * Answers the Low Memory Manager on behalf of the whole application. Caches and
+ * stores register a MemoryReclaimer in one of three tiers, from the cheapest to
+ * rebuild to the most costly to lose:
+ * <ul>
+ * <li>TIER_DECODED - objects decoded or formatted from other data, which can
+ * simply be recreated</li>
+ * <li>TIER_GROUPED - ungrouped objects, which can be grouped to release their
+ * object handles</li>
+ * <li>TIER_PERSISTED - persisted records, which are lost once freed</li>
+ * </ul>
+ * A low priority request only reaches the decoded tier, and a medium priority
+ * request stops at the first tier that frees anything, so the Low Memory
+ * Manager only escalates to losing records when it has to. A high priority
+ * request runs every tier. The estimated bytes freed and the time taken by each
+ * request are recorded so that the cost of answering can be seen.
+ */
+final class MemoryPressureManager implements LowMemoryListener {
+    // Constants
+    // -----------------------------------------------------------------------------------
+    static final int TIER_DECODED = 0;
+    static final int TIER_GROUPED = 1;
+    static final int TIER_PERSISTED = 2;
+    private static final int NUM_TIERS = 3;
+    private static final String[] TIER_NAMES = { "decoded", "grouped",
+            "persisted" };
+
+    private static final int NUM_PRIORITIES = 3;
+    private static final String[] PRIORITY_NAMES = { "Low", "Medium", "High" };
+
+    // Members
+    // -------------------------------------------------------------------------------------
+    private final Vector[] _tiers; // MemoryReclaimers registered in each tier.
+
+    // Statistics for each priority, indexed as PRIORITY_NAMES.
+    private final int[] _numCalls;
+    private final long[] _bytesFreed;
+    private final long[] _totalTime;
+    private final long[] _maxTime;
+    private String _lastResult;
+
+    /**
+     * Creates a new MemoryPressureManager object
+     */
+    MemoryPressureManager() {
+        _tiers = new Vector[NUM_TIERS];
+        for (int i = 0; i < NUM_TIERS; ++i) {
+            _tiers[i] = new Vector();
+        }
+
+        _numCalls = new int[NUM_PRIORITIES];
+        _bytesFreed = new long[NUM_PRIORITIES];
+        _totalTime = new long[NUM_PRIORITIES];
+        _maxTime = new long[NUM_PRIORITIES];
+        _lastResult = "No requests yet";
+    }
+
+    /**
+     * Registers a reclaimer in a tier.
+     * 
+     * @param reclaimer
+     *            The reclaimer to register.
+     * @param tier
+     *            One of TIER_DECODED, TIER_GROUPED or TIER_PERSISTED.
+     */
+    synchronized void register(final MemoryReclaimer reclaimer, final int tier) {
+        _tiers[tier].addElement(reclaimer);
+    }
+
+    /**
+     * Removes a reclaimer from whichever tier it was registered in.
+     * 
+     * @param reclaimer
+     *            The reclaimer to remove.
+     */
+    synchronized void unregister(final MemoryReclaimer reclaimer) {
+        for (int i = 0; i < NUM_TIERS; ++i) {
+            _tiers[i].removeElement(reclaimer);
+        }
+    }
+
+    /**
+     * Frees memory from the registered reclaimers, starting with the decoded
+     * tier.
+     * 
+     * @param priority
+     *            The priority of the memory cleanup.
+     * 
+     * @return True if any objects were marked as recoverable; otherwise false.
+     * 
+     * @see net.rim.device.api.lowmemory.LowMemoryListener#freeStaleObject(int)
+     */
+    public synchronized boolean freeStaleObject(final int priority) {
+        final long start = System.currentTimeMillis();
+
+        final int index;
+        final int lastTier;
+        switch (priority) {
+        case LowMemoryListener.LOW_PRIORITY:
+            index = 0;
+            lastTier = TIER_DECODED;
+            break;
+        case LowMemoryListener.MEDIUM_PRIORITY:
+            index = 1;
+            lastTier = TIER_PERSISTED;
+            break;
+        default:
+            index = 2;
+            lastTier = TIER_PERSISTED;
+            break;
+        }
+        final boolean runAllTiers = index == 2;
+
+        long bytesFreed = 0;
+        int tier = 0;
+        for (; tier <= lastTier; ++tier) {
+            final Vector reclaimers = _tiers[tier];
+            for (int i = 0; i < reclaimers.size(); ++i) {
+                bytesFreed +=
+                        ((MemoryReclaimer) reclaimers.elementAt(i))
+                                .reclaim(priority);
+            }
+
+            if (bytesFreed > 0 && !runAllTiers) {
+                break;
+            }
+        }
+
+        final long time = System.currentTimeMillis() - start;
+        ++_numCalls[index];
+        _bytesFreed[index] += bytesFreed;
+        _totalTime[index] += time;
+        _maxTime[index] = Math.max(_maxTime[index], time);
+        _lastResult =
+                PRIORITY_NAMES[index] + " priority: freed about " + bytesFreed
+                        + " bytes, up to the " + TIER_NAMES[Math.min(tier, lastTier)]
+                        + " tier, in " + time + " ms";
+
+        return bytesFreed > 0;
+    }
+
+    /**
+     * Retrieves a description of the most recent request.
+     * 
+     * @return The description.
+     */
+    synchronized String getLastResult() {
+        return _lastResult;
+    }
+
+    /**
+     * Retrieves the statistics gathered for each priority.
+     * 
+     * @return A report of the requests made, bytes freed and time taken.
+     */
+    synchronized String getReport() {
+        final StringBuffer report = new StringBuffer();
+        for (int i = 0; i < NUM_PRIORITIES; ++i) {
+            report.append(PRIORITY_NAMES[i]).append(": ").append(_numCalls[i])
+                    .append(" calls, ").append(_bytesFreed[i]).append(
+                            " bytes, ").append(_totalTime[i]).append(
+                            " ms total, ").append(_maxTime[i]).append(
+                            " ms max\n");
+        }
+
+        return report.toString();
+    }
+}
@@ -33,17 +33,20 @@ import net.rim.device.api.lowmemory.LowMemoryManager;
 import net.rim.device.api.system.ObjectGroup;
 import net.rim.device.api.system.PersistentObject;
 import net.rim.device.api.system.PersistentStore;
-import net.rim.device.api.util.Comparator;
-import net.rim.device.api.util.SimpleSortingVector;
 
 /**
- * Represents a list of order records for a fictional business.
+ * Represents a list of order records for a fictional business. The records are
+ * kept in order by date, divided into partitions which each hold the records
+ * for PARTITION_LENGTH of time. Stale records are removed by dropping whole
+ * partitions, so the list never has to be sorted or copied to find them.
  */
 public final class OrderList {
     // Members
     // -------------------------------------------------------------------------------------
     private final PersistentObject _persist;
-    private Vector _orderRecords;
+    private Vector _partitions; // OrderPartitions, in order by start date.
+    private int _numRecords;
+    private int[] _offsets; // Records before each partition; null when stale.
 
     // Statics
     // -------------------------------------------------------------------------------------
@@ -51,21 +54,50 @@ public final class OrderList {
 
     // Constants
     // -----------------------------------------------------------------------------------
-    private static final long PERSIST = 0x53fd5dae400aaccL; // com.rim.samples.device.memorydemo
+    static final long PERSIST = 0x53fd5dae400aaccL; // com.rim.samples.device.memorydemo
     private static final int MAX_NUM_ORDERED = 100;
 
+    // Each partition holds the order records for 30 days.
+    private static final long PARTITION_LENGTH = 30L * 24 * 60 * 60 * 1000;
+
     /**
      * This constructor ensures that a persistent object is in place to store
      * order records.
      */
     public OrderList() {
-        _persist = PersistentStore.getPersistentObject(PERSIST);
-        _orderRecords = (Vector) _persist.getContents();
+        this(PERSIST);
+    }
 
-        if (_orderRecords == null) {
-            _orderRecords = new Vector();
-            _persist.setContents(_orderRecords);
-            _persist.commit();
+    /**
+     * Creates an order list stored in a given persistent object. Order records
+     * stored as a single Vector by earlier versions of this application are
+     * moved into partitions.
+     * 
+     * @param id
+     *            The ID of the persistent object.
+     */
+    OrderList(final long id) {
+        _persist = PersistentStore.getPersistentObject(id);
+        final Vector contents = (Vector) _persist.getContents();
+
+        if (contents != null
+                && (contents.size() == 0 || contents.elementAt(0)
+                        instanceof OrderPartition)) {
+            _partitions = contents;
+            for (int i = 0; i < _partitions.size(); ++i) {
+                _numRecords += getPartition(i).size();
+            }
+        } else {
+            _partitions = new Vector();
+            _persist.setContents(_partitions);
+
+            if (contents != null) {
+                for (int i = 0; i < contents.size(); ++i) {
+                    addOrderRecord((OrderRecord) contents.elementAt(i));
+                }
+            }
+
+            commit();
         }
     }
 
@@ -87,8 +119,8 @@ public final class OrderList {
      * 
      * @return The number of order records.
      */
-    int getNumOrderRecords() {
-        return _orderRecords.size();
+    synchronized int getNumOrderRecords() {
+        return _numRecords;
     }
 
     /**
@@ -98,8 +130,10 @@ public final class OrderList {
      *            The index of the order record to retrieve.
      * @return The retrieved order record.
      */
-    OrderRecord getOrderRecordAt(final int index) {
-        return (OrderRecord) _orderRecords.elementAt(index);
+    synchronized OrderRecord getOrderRecordAt(final int index) {
+        final int partition = getPartitionIndexOfRecord(index);
+        return getPartition(partition).getOrderRecordAt(
+                index - getOffsets()[partition]);
     }
 
     /**
@@ -109,22 +143,30 @@ public final class OrderList {
      *            The order record to delete.
      */
     synchronized void deleteOrderRecord(final OrderRecord orderRecord) {
-        _orderRecords.removeElement(orderRecord);
+        final int partition =
+                findPartition(getPartitionStart(orderRecord.getDate()));
+        if (partition >= 0) {
+            final int index = getPartition(partition).indexOf(orderRecord);
+            if (index >= 0) {
+                removeOrderRecordAt(partition, index);
+            }
+        }
     }
 
     /**
      * Deletes all order records from the list.
      */
     synchronized void deleteAllOrderRecords() {
-        _orderRecords = new Vector();
-        _persist.setContents(_orderRecords);
+        _partitions = new Vector();
+        _persist.setContents(_partitions);
+        _numRecords = 0;
+        _offsets = null;
     }
 
     /**
      * Replaces an order record at a specified index with a new order record.
-     * The new order record is first encoded into an object group so that it
-     * only occupies one persistent object handle, no matter how many objects it
-     * actually refers to.
+     * The new order record is placed according to its date, so it may end up
+     * at a different index.
      * 
      * @param index
      *            The index of the order record to replace.
@@ -133,94 +175,94 @@ public final class OrderList {
      */
     synchronized void replaceOrderRecordAt(final int index,
             final OrderRecord newOrderRecord) {
-        ObjectGroup.createGroup(newOrderRecord);
-        _orderRecords.setElementAt(newOrderRecord, index);
+        final int partition = getPartitionIndexOfRecord(index);
+        removeOrderRecordAt(partition, index - getOffsets()[partition]);
+        addOrderRecord(newOrderRecord);
     }
 
     /**
      * Removes all orders that occurred before 'before', and notifies the low
-     * memory manager that their storage can be reclaimed.
+     * memory manager that their storage can be reclaimed. Partitions which end
+     * before 'before' are dropped without their records being read; only the
+     * partition containing 'before' is searched.
      * 
      * @param before
      *            The cutoff date for deleting order records.
-     * @return True if any records are deleted; false otherwise.
+     * @return The number of records deleted.
      */
-    synchronized boolean removeStaleOrderRecords(final long before) {
-        if (_orderRecords.size() == 0) {
-            return false;
-        }
-
-        // Sort the order records
-        _orderRecords = sortVector(_orderRecords); // Make sure records are in
-                                                   // order by date.
-
-        boolean freedData = false;
-
-        final Vector orderRecords = _orderRecords;
-
-        int i = 0;
-        while (((OrderRecord) orderRecords.elementAt(i)).getDate() < before) // Skip
-                                                                             // over
-                                                                             // all
-                                                                             // stale
-                                                                             // records.
-        {
-            ++i;
+    synchronized int removeStaleOrderRecords(final long before) {
+        final int found = findPartition(getPartitionStart(before));
+        final int numStalePartitions = found >= 0 ? found : -found - 1;
+
+        int numRemoved = 0;
+        if (numStalePartitions > 0) {
+            final int size = _partitions.size();
+            for (int i = 0; i < numStalePartitions; ++i) {
+                final OrderPartition partition = getPartition(i);
+                numRemoved += partition.size();
+                LowMemoryManager.markAsRecoverable(partition);
+            }
+            for (int i = numStalePartitions; i < size; ++i) {
+                _partitions.setElementAt(_partitions.elementAt(i), i
+                        - numStalePartitions);
+            }
+            _partitions.setSize(size - numStalePartitions);
         }
 
-        if (i > 0) {
-            final int numRecordsKept = orderRecords.size() - i;
-            _orderRecords = new Vector();
-
-            _persist.setContents(_orderRecords);
-
-            for (int j = 0; j < numRecordsKept; ++j) {
-                _orderRecords.addElement(orderRecords.elementAt(j + i));
+        if (found >= 0) {
+            // The partition containing the cutoff is now the first
+            final int numStaleRecords = getPartition(0).countBefore(before);
+            if (numStaleRecords > 0) {
+                final OrderPartition partition = getEditablePartition(0);
+                partition.removeFirst(numStaleRecords);
+                if (partition.size() == 0) {
+                    _partitions.removeElementAt(0);
+                }
+                numRemoved += numStaleRecords;
             }
+        }
 
-            LowMemoryManager.markAsRecoverable(orderRecords);
-
-            freedData = true;
-
+        if (numRemoved > 0) {
+            _numRecords -= numRemoved;
+            _offsets = null;
             commit();
         }
 
-        return freedData;
+        return numRemoved;
     }
 
     /**
-     * Sorts a Vector of order records.
-     * 
-     * @param records
-     *            The Vector to be sorted.
-     * @return The sorted Vector.
+     * Commits the order records to the persistent store, grouping them first.
      */
-    private Vector sortVector(final Vector records) {
-        final SortableVector sortableVector = new SortableVector();
-
-        for (int i = 0; i < records.size(); ++i) {
-            sortableVector.addElement(records.elementAt(i));
-        }
-
-        sortableVector.reSort(); // Make sure records are in order by date.
-
-        for (int i = 0; i < sortableVector.size(); ++i) {
-            records.setElementAt(sortableVector.elementAt(i), i);
-        }
-
-        return records;
+    synchronized void commit() {
+        groupPartitions();
+        _persist.commit();
     }
 
     /**
-     * Commits the order records to the persistent store.
+     * Encodes each partition changed since it was last grouped into an object
+     * group so that it only occupies one persistent object handle, no matter
+     * how many objects it actually refers to.
+     * 
+     * @return The number of order records in the partitions grouped.
      */
-    synchronized void commit() {
-        _persist.commit();
+    synchronized int groupPartitions() {
+        int numGrouped = 0;
+        for (int i = 0; i < _partitions.size(); ++i) {
+            final OrderPartition partition = getPartition(i);
+            if (!ObjectGroup.isInGroup(partition)) {
+                ObjectGroup.createGroup(partition);
+                numGrouped += partition.size();
+            }
+        }
+
+        return numGrouped;
     }
 
     /**
      * Populates this order list with order records, each consisting of a random
-     * company, product, and number of products ordered.
+     * company, product, and number of products ordered. Records are added in
+     * order by date, so the list does not need to be sorted afterwards.
      * 
      * @param totalRecords
      *            The number of records that should be in the list upon
@@ -228,9 +270,8 @@ public final class OrderList {
      * @param listener
      *            Object that listens for counting and sorting updates.
      */
-    synchronized void populate(final int totalRecords,
-            final CountAndSortListener listener) {
-        final int numRecordsToAdd = totalRecords - _orderRecords.size();
+    void populate(final int totalRecords, final CountAndSortListener listener) {
+        final int numRecordsToAdd = getNumRecordsToAdd(totalRecords);
 
         for (int i = 0; i < numRecordsToAdd; ++i) {
             listener.counterUpdated(i);
@@ -249,9 +290,9 @@ public final class OrderList {
 
         listener.sortingStarted();
 
-        _orderRecords = sortVector(_orderRecords);
+        // Group the new partitions and save them.
+        commit();
 
-        // Vector sorting is done.
         listener.sortingFinished();
     }
 
@@ -259,48 +300,143 @@ public final class OrderList {
      * Retrieves the number of records to be added to the order list.
      * 
      */
-    int getNumRecordsToAdd(final int totalRecords) {
-        return totalRecords - _orderRecords.size();
+    synchronized int getNumRecordsToAdd(final int totalRecords) {
+        return totalRecords - _numRecords;
     }
 
     /**
-     * Helper method to add a new order record to the list. The order record is
-     * first encoded into an object group so that it only occupies one
-     * persistent object handle, no matter how many objects it actually refers
-     * to.
+     * Adds a new order record to the partition for its date, creating the
+     * partition if necessary.
      * 
      * @param orderRecord
      *            The order record to add.
      */
-    private void addOrderRecord(final OrderRecord orderRecord) {
-        ObjectGroup.createGroup(orderRecord);
-        _orderRecords.addElement(orderRecord);
+    synchronized void addOrderRecord(final OrderRecord orderRecord) {
+        final long start = getPartitionStart(orderRecord.getDate());
+        int partition = findPartition(start);
+        if (partition < 0) {
+            partition = -partition - 1;
+            _partitions.insertElementAt(new OrderPartition(start), partition);
+        }
+
+        getEditablePartition(partition).addOrderRecord(orderRecord);
+        ++_numRecords;
+        _offsets = null;
     }
 
     /**
-     * Implements a sortable vector which sorts based on chronological order.
+     * Removes an order record, and its partition if it is left empty.
+     * 
+     * @param partition
+     *            The index of the partition holding the order record.
+     * @param index
+     *            The index of the order record within the partition.
      */
-    final static class SortableVector extends SimpleSortingVector {
-        /**
-         * Creates a new SortableVector object
-         */
-        public SortableVector() {
-            setSortComparator(new Comparator() {
-                public int compare(final Object o1, final Object o2) {
-                    final OrderRecord r1 = (OrderRecord) o1;
-                    final OrderRecord r2 = (OrderRecord) o2;
-
-                    if (r1.getDate() < r2.getDate()) {
-                        return -1;
-                    }
-
-                    if (r1.getDate() > r2.getDate()) {
-                        return 1;
-                    }
-
-                    return 0;
-                }
-            });
+    private void removeOrderRecordAt(final int partition, final int index) {
+        final OrderPartition editable = getEditablePartition(partition);
+        editable.removeOrderRecordAt(index);
+        if (editable.size() == 0) {
+            _partitions.removeElementAt(partition);
+        }
+
+        --_numRecords;
+        _offsets = null;
+    }
+
+    /**
+     * Retrieves the partition at the specified index.
+     */
+    private OrderPartition getPartition(final int index) {
+        return (OrderPartition) _partitions.elementAt(index);
+    }
+
+    /**
+     * Retrieves the partition at the specified index so that it can be changed.
+     * A grouped partition is read-only, so it is replaced by an ungrouped copy.
+     */
+    private OrderPartition getEditablePartition(final int index) {
+        OrderPartition partition = getPartition(index);
+        if (ObjectGroup.isInGroup(partition)) {
+            partition = (OrderPartition) ObjectGroup.expandGroup(partition);
+            _partitions.setElementAt(partition, index);
+        }
+
+        return partition;
+    }
+
+    /**
+     * Searches for the partition starting at a given date.
+     * 
+     * @param start
+     *            The start date of the partition.
+     * @return The index of the partition if there is one; otherwise
+     *         (-(insertion point) - 1).
+     */
+    private int findPartition(final long start) {
+        int low = 0;
+        int high = _partitions.size() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final long middleStart = getPartition(middle).getStart();
+            if (middleStart < start) {
+                low = middle + 1;
+            } else if (middleStart > start) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
         }
+
+        return -low - 1;
+    }
+
+    /**
+     * Retrieves the index of the partition holding the order record at the
+     * specified index in the list.
+     */
+    private int getPartitionIndexOfRecord(final int index) {
+        final int[] offsets = getOffsets();
+        int low = 0;
+        int high = offsets.length - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (offsets[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Retrieves the number of order records before each partition, counting
+     * them again if the partitions have changed.
+     */
+    private int[] getOffsets() {
+        if (_offsets == null) {
+            _offsets = new int[_partitions.size()];
+            int numRecords = 0;
+            for (int i = 0; i < _offsets.length; ++i) {
+                _offsets[i] = numRecords;
+                numRecords += getPartition(i).size();
+            }
+        }
+
+        return _offsets;
+    }
+
+    /**
+     * Retrieves the start date of the partition holding a date.
+     */
+    private static long getPartitionStart(final long date) {
+        long start = date - date % PARTITION_LENGTH;
+        if (start > date) {
+            // Dates before 1970 round towards zero.
+            start -= PARTITION_LENGTH;
+        }
+
+        return start;
     }
 }
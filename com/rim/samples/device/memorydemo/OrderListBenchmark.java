@@ -0,0 +1,200 @@
+/*
+ * OrderListBenchmark.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.memorydemo;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Vector;
+
+import net.rim.device.api.system.PersistentStore;
+import net.rim.device.api.util.Comparator;
+import net.rim.device.api.util.SimpleSortingVector;
+
+/**
+ * Times removing stale order records from a large order list, comparing the
+ * partitioned OrderList with the single Vector used by earlier versions of this
+ * application, which was copied, sorted and rebuilt on every removal. Both are
+ * timed when there are stale records to remove, and again when there are none,
+ * as when the Low Memory Manager calls repeatedly. A scratch persistent object
+ * is used, and is destroyed once the benchmark is done.
+ */
+final class OrderListBenchmark {
+    // Scratch persistent object ID, clear of the one used by the application
+    private static final long SCRATCH = OrderList.PERSIST + 1;
+
+    private static final int RECORD_COUNT = 100000;
+    private static final int REPEAT = 10;
+    private static final int NUM_YEARS_AGO = 15;
+
+    /**
+     * Runs the benchmark
+     * 
+     * @return A report of the times taken
+     */
+    String run() {
+        final StringBuffer report = new StringBuffer();
+        PersistentStore.destroyPersistentObject(SCRATCH);
+        try {
+            final Calendar calendar = Calendar.getInstance();
+            calendar.setTime(new Date());
+            final long today = calendar.getTime().getTime();
+            calendar.set(Calendar.YEAR, calendar.get(Calendar.YEAR)
+                    - NUM_YEARS_AGO);
+            final long before = calendar.getTime().getTime();
+
+            // The same records are used for both lists.
+            final OrderRecord[] orderRecords = new OrderRecord[RECORD_COUNT];
+            for (int i = 0; i < RECORD_COUNT; ++i) {
+                orderRecords[i] =
+                        new OrderRecord(MemoryDemo.randomLongBetween(0, today),
+                                "Company", "Product", 1);
+            }
+
+            // A single Vector
+            Vector vector = new Vector(RECORD_COUNT);
+            for (int i = 0; i < RECORD_COUNT; ++i) {
+                vector.addElement(orderRecords[i]);
+            }
+            long start = System.currentTimeMillis();
+            vector = removeStaleOrderRecords(vector, before);
+            appendResult(report, "Vector: remove stale (" + vector.size()
+                    + " left)", start);
+
+            start = System.currentTimeMillis();
+            for (int i = 0; i < REPEAT; ++i) {
+                removeStaleOrderRecords(vector, before);
+            }
+            appendResult(report, "Vector: " + REPEAT
+                    + " removals, none stale", start);
+            vector = null;
+
+            // The partitioned OrderList
+            final OrderList orderList = new OrderList(SCRATCH);
+            start = System.currentTimeMillis();
+            for (int i = 0; i < RECORD_COUNT; ++i) {
+                orderList.addOrderRecord(orderRecords[i]);
+            }
+            appendResult(report, "Partitions: add " + RECORD_COUNT, start);
+
+            start = System.currentTimeMillis();
+            orderList.commit();
+            appendResult(report, "Partitions: group and commit", start);
+
+            start = System.currentTimeMillis();
+            orderList.removeStaleOrderRecords(before);
+            appendResult(report, "Partitions: remove stale ("
+                    + orderList.getNumOrderRecords() + " left)", start);
+
+            start = System.currentTimeMillis();
+            for (int i = 0; i < REPEAT; ++i) {
+                orderList.removeStaleOrderRecords(before);
+            }
+            appendResult(report, "Partitions: " + REPEAT
+                    + " removals, none stale", start);
+        } finally {
+            PersistentStore.destroyPersistentObject(SCRATCH);
+        }
+
+        return report.toString();
+    }
+
+    /**
+     * Removes stale order records from a Vector the way earlier versions of
+     * OrderList did: by copying the Vector into a sorting vector, sorting it,
+     * copying it back and then copying the records that are kept into a new
+     * Vector.
+     * 
+     * @param orderRecords
+     *            The order records.
+     * @param before
+     *            The cutoff date for deleting order records.
+     * @return The order records that are kept.
+     */
+    private static Vector removeStaleOrderRecords(final Vector orderRecords,
+            final long before) {
+        final SortableVector sortableVector = new SortableVector();
+        for (int i = 0; i < orderRecords.size(); ++i) {
+            sortableVector.addElement(orderRecords.elementAt(i));
+        }
+        sortableVector.reSort();
+        for (int i = 0; i < sortableVector.size(); ++i) {
+            orderRecords.setElementAt(sortableVector.elementAt(i), i);
+        }
+
+        int i = 0;
+        while (i < orderRecords.size()
+                && ((OrderRecord) orderRecords.elementAt(i)).getDate() < before) {
+            ++i;
+        }
+
+        if (i == 0) {
+            return orderRecords;
+        }
+
+        final Vector kept = new Vector();
+        for (int j = i; j < orderRecords.size(); ++j) {
+            kept.addElement(orderRecords.elementAt(j));
+        }
+        return kept;
+    }
+
+    /**
+     * Appends the time taken since start to the report
+     */
+    private static void appendResult(final StringBuffer report,
+            final String name, final long start) {
+        report.append(name).append(": ").append(
+                System.currentTimeMillis() - start).append(" ms\n");
+    }
+
+    /**
+     * Implements a sortable vector which sorts based on chronological order.
+     */
+    private static final class SortableVector extends SimpleSortingVector {
+        /**
+         * Creates a new SortableVector object
+         */
+        SortableVector() {
+            setSortComparator(new Comparator() {
+                public int compare(final Object o1, final Object o2) {
+                    final OrderRecord r1 = (OrderRecord) o1;
+                    final OrderRecord r2 = (OrderRecord) o2;
+
+                    if (r1.getDate() < r2.getDate()) {
+                        return -1;
+                    }
+
+                    if (r1.getDate() > r2.getDate()) {
+                        return 1;
+                    }
+
+                    return 0;
+                }
+            });
+        }
+    }
+}
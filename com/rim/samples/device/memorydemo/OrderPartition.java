@@ -0,0 +1,168 @@
+/*
+ * OrderPartition.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.memorydemo;
+
+import java.util.Vector;
+
+import net.rim.device.api.util.Persistable;
+
+/**
+ * Holds the order records whose dates fall within one partition of time, in
+ * order by date. OrderList keeps a list of partitions rather than a single
+ * list of records, so that stale records can be dropped a partition at a time,
+ * and groups each partition with the ObjectGroup API when it is committed so
+ * that it occupies one persistent object handle however many records it holds.
+ * A grouped partition is read-only; OrderList expands it before changing it.
+ */
+final class OrderPartition implements Persistable {
+    // Members
+    // -------------------------------------------------------------------------------------
+    private final long _start; // The earliest date this partition can hold.
+    private final Vector _records; // The order records, in order by date.
+
+    /**
+     * Creates a new, empty OrderPartition object
+     * 
+     * @param start
+     *            The earliest date the partition can hold.
+     */
+    OrderPartition(final long start) {
+        _start = start;
+        _records = new Vector();
+    }
+
+    /**
+     * Retrieves the earliest date this partition can hold.
+     * 
+     * @return The start of this partition.
+     */
+    long getStart() {
+        return _start;
+    }
+
+    /**
+     * Retrieves the number of order records in this partition.
+     * 
+     * @return The number of order records.
+     */
+    int size() {
+        return _records.size();
+    }
+
+    /**
+     * Retrieves the order record at the specified index.
+     * 
+     * @param index
+     *            The index of the order record to retrieve.
+     * @return The retrieved order record.
+     */
+    OrderRecord getOrderRecordAt(final int index) {
+        return (OrderRecord) _records.elementAt(index);
+    }
+
+    /**
+     * Retrieves the index of an order record in this partition.
+     * 
+     * @param orderRecord
+     *            The order record to find.
+     * @return The index of the order record, or -1 if it is not in this
+     *         partition.
+     */
+    int indexOf(final OrderRecord orderRecord) {
+        // Only records with the same date need to be compared.
+        final int first = countBefore(orderRecord.getDate());
+        for (int i = first; i < _records.size(); ++i) {
+            final OrderRecord candidate = getOrderRecordAt(i);
+            if (candidate == orderRecord) {
+                return i;
+            }
+            if (candidate.getDate() != orderRecord.getDate()) {
+                break;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Retrieves the number of order records in this partition that occurred
+     * before a date.
+     * 
+     * @param date
+     *            The date to compare against.
+     * @return The number of records before 'date'.
+     */
+    int countBefore(final long date) {
+        int low = 0;
+        int high = _records.size();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (getOrderRecordAt(middle).getDate() < date) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Adds an order record, after any records with the same date.
+     * 
+     * @param orderRecord
+     *            The order record to add.
+     */
+    void addOrderRecord(final OrderRecord orderRecord) {
+        final int index = countBefore(orderRecord.getDate() + 1);
+        _records.insertElementAt(orderRecord, index);
+    }
+
+    /**
+     * Removes the order record at the specified index.
+     * 
+     * @param index
+     *            The index of the order record to remove.
+     */
+    void removeOrderRecordAt(final int index) {
+        _records.removeElementAt(index);
+    }
+
+    /**
+     * Removes the first order records in this partition.
+     * 
+     * @param count
+     *            The number of order records to remove.
+     */
+    void removeFirst(final int count) {
+        final int size = _records.size();
+        for (int i = count; i < size; ++i) {
+            _records.setElementAt(_records.elementAt(i), i - count);
+        }
+        _records.setSize(size - count);
+    }
+}
@@ -35,6 +35,14 @@ import net.rim.device.api.util.Persistable;
  * Represents an order record for a fictional business.
  */
 public final class OrderRecord implements Persistable {
+    // Constants
+    // -----------------------------------------------------------------------------------
+    // Rough estimates used when reporting the memory freed under low memory
+    // conditions: the bytes used by a record and its strings, and the bytes of
+    // object overhead saved once a record's objects are part of a group.
+    static final int ESTIMATED_SIZE = 96;
+    static final int GROUPING_SAVING = 24;
+
     // Members
     // -------------------------------------------------------------------------------------
     private long _date; // The date this ordered was placed on.
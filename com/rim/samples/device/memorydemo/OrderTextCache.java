@@ -0,0 +1,102 @@
+/*
+ * OrderTextCache.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.memorydemo;
+
+import java.util.Hashtable;
+
+/**
+ * Caches the text drawn for each order record, which takes a Calendar
+ * calculation and several string operations to produce, so that scrolling the
+ * list does not format every visible row again. The cache is a decoded tier
+ * reclaimer: it is emptied whenever memory runs low, and the text is simply
+ * produced again when it is next drawn.
+ */
+final class OrderTextCache implements MemoryReclaimer {
+    // Constants
+    // -----------------------------------------------------------------------------------
+    private static final int MAX_ENTRIES = 200;
+
+    // A rough estimate of the bytes used by each entry besides its characters:
+    // the String, its character array and the Hashtable entry.
+    private static final int ENTRY_OVERHEAD = 48;
+
+    // Members
+    // -------------------------------------------------------------------------------------
+    private final Hashtable _text; // OrderRecord -> String
+    private long _size; // Estimated bytes used by the cache.
+
+    /**
+     * Creates a new, empty OrderTextCache object
+     */
+    OrderTextCache() {
+        _text = new Hashtable();
+    }
+
+    /**
+     * Retrieves the text for an order record, formatting it if it is not
+     * cached.
+     * 
+     * @param orderRecord
+     *            The order record.
+     * @return The text describing the order record.
+     */
+    synchronized String getText(final OrderRecord orderRecord) {
+        String text = (String) _text.get(orderRecord);
+        if (text == null) {
+            if (_text.size() >= MAX_ENTRIES) {
+                // Records which have been deleted or replaced are never looked
+                // up again, so start afresh rather than keep them.
+                clear();
+            }
+
+            text = orderRecord.toString();
+            _text.put(orderRecord, text);
+            _size += ENTRY_OVERHEAD + 2 * text.length();
+        }
+
+        return text;
+    }
+
+    /**
+     * Empties the cache.
+     * 
+     * @return An estimate of the number of bytes freed.
+     */
+    synchronized long clear() {
+        final long size = _size;
+        _text.clear();
+        _size = 0;
+        return size;
+    }
+
+    /**
+     * @see com.rim.samples.device.memorydemo.MemoryReclaimer#reclaim(int)
+     */
+    public long reclaim(final int priority) {
+        return clear();
+    }
+}
@@ -36,11 +36,17 @@ import net.rim.device.api.ui.component.Dialog;
 /**
  * This Thread subclass simulates communication with a server and generates
  * message actions. It can create new messages or update and delete existing
- * ones.
+ * ones. By default it performs one action every three seconds, but it can also
+ * be run at a high rate to measure how quickly changes reach the message list.
  */
 public final class CommunicationSimulatorThread extends Thread {
 
+    // Interval between rounds of actions when running at a high rate
+    private static final long HIGH_RATE_INTERVAL = 100;
+
     private boolean _keepRunning;
+    private final long _interval;
+    private final int _actionsPerInterval;
     private static Random _random = new Random();
 
     private static final String[] NAMES =
@@ -61,22 +67,41 @@ public final class CommunicationSimulatorThread extends Thread {
      */
     public CommunicationSimulatorThread() {
         _keepRunning = true;
+        _interval = 3000;
+        _actionsPerInterval = 1;
+    }
+
+    /**
+     * Creates a new CommunicationSimulatorThread object which performs actions
+     * at a high rate
+     * 
+     * @param actionsPerSecond
+     *            The number of actions to perform each second
+     */
+    CommunicationSimulatorThread(final int actionsPerSecond) {
+        _keepRunning = true;
+        _interval = HIGH_RATE_INTERVAL;
+        _actionsPerInterval =
+                Math.max(1,
+                        (int) (actionsPerSecond * HIGH_RATE_INTERVAL / 1000));
     }
 
     /**
      * @see java.lang.Runnable#run()
      */
     public void run() {
-        // Perform random actions to the message store every three seconds
+        // Perform random actions to the message store at each interval
         final MessageListDemoStore messageStore =
                 MessageListDemoStore.getInstance();
         while (_keepRunning) {
             synchronized (messageStore) {
-                performRandomAction(messageStore);
+                for (int i = 0; i < _actionsPerInterval; ++i) {
+                    performRandomAction(messageStore);
+                }
             }
             try {
                 synchronized (this) {
-                    wait(3000);
+                    wait(_interval);
                 }
             } catch (final InterruptedException e) {
                 UiApplication.getUiApplication().invokeLater(new Runnable() {
@@ -100,6 +125,7 @@ public final class CommunicationSimulatorThread extends Thread {
     private void performRandomAction(final MessageListDemoStore messageStore) {
         final ReadableList inboxMessages = messageStore.getInboxMessages();
         final ReadableList deletedMessages = messageStore.getDeletedMessages();
+        final FolderChangeBatcher batcher = messageStore.getChangeBatcher();
 
         switch (_random.nextInt(3)) {
         case 0:
@@ -116,7 +142,8 @@ public final class CommunicationSimulatorThread extends Thread {
                 } else {
                     msg.markAsNew();
                 }
-                messageStore.getInboxFolder().fireElementUpdated(msg, msg);
+                messageStore.commitMessage(msg);
+                batcher.elementUpdated(messageStore.getInboxFolder(), msg);
             } else {
                 addInboxMessage(messageStore);
             }
@@ -130,8 +157,9 @@ public final class CommunicationSimulatorThread extends Thread {
                         (DemoMessage) inboxMessages.getAt(_random
                                 .nextInt(inboxMessages.size()));
                 messageStore.deleteInboxMessage(msg);
-                messageStore.getInboxFolder().fireElementRemoved(msg);
-                messageStore.getDeletedFolder().fireElementAdded(msg);
+                batcher.elementRemoved(messageStore.getInboxFolder(), msg);
+                batcher.elementAdded(messageStore.getDeletedFolder(), msg,
+                        false);
             } else {
                 addInboxMessage(messageStore);
             }
@@ -145,7 +173,7 @@ public final class CommunicationSimulatorThread extends Thread {
                         (DemoMessage) deletedMessages.getAt(_random
                                 .nextInt(deletedMessages.size()));
                 messageStore.deleteMessageCompletely(msg);
-                messageStore.getDeletedFolder().fireElementRemoved(msg);
+                batcher.elementRemoved(messageStore.getDeletedFolder(), msg);
             } else {
                 addInboxMessage(messageStore);
             }
@@ -176,7 +204,8 @@ public final class CommunicationSimulatorThread extends Thread {
         messageStore.addInboxMessage(message);
 
         // Notify folder
-        messageStore.getInboxFolder().fireElementAdded(message);
+        messageStore.getChangeBatcher().elementAdded(
+                messageStore.getInboxFolder(), message, false);
     }
 
     /**
@@ -30,13 +30,17 @@ import java.util.Date;
 
 import net.rim.blackberry.api.messagelist.ApplicationMessage;
 import net.rim.device.api.system.EncodedImage;
+import net.rim.device.api.util.Persistable;
 
 /**
  * This class provides a sample implementation of the ApplicationMessage
  * interface. It demonstrates how an application can define its own message
- * formats for use with the message store.
+ * formats for use with the message store. Once a message has been added to
+ * the store, its body and preview picture are kept by the MessageLog and are
+ * read from it when they are needed, so that only the header of the message
+ * is persisted with it.
  */
-public final class DemoMessage implements ApplicationMessage {
+public final class DemoMessage implements ApplicationMessage, Persistable {
     static final int DEMO_MESSAGE_TYPE = 0x01;
 
     private String _sender;
@@ -48,6 +52,7 @@ public final class DemoMessage implements ApplicationMessage {
     private String _replyMessage;
     private long _replyTime;
     private EncodedImage _previewPicture;
+    private int _bodyRecord = -1;
 
     /**
      * Creates a new DemoMessage object
@@ -176,7 +181,11 @@ public final class DemoMessage implements ApplicationMessage {
      * @return The message body
      */
     String getMessage() {
-        return _message;
+        final String message = _message;
+        if (message != null) {
+            return message;
+        }
+        return MessageListDemoStore.getInstance().getLog().getMessage(this);
     }
 
     /**
@@ -189,6 +198,42 @@ public final class DemoMessage implements ApplicationMessage {
         _previewPicture = image;
     }
 
+    /**
+     * Retrieves the log record holding the body and preview picture of this
+     * message
+     * 
+     * @return The record number, or -1 if the body and preview picture have
+     *         not been written to the log yet
+     */
+    int getBodyRecord() {
+        return _bodyRecord;
+    }
+
+    /**
+     * Hands the body and preview picture of this message over to the log,
+     * which holds them until they are written, so that they are not persisted
+     * with the header of this message
+     * 
+     * @return The body and preview picture
+     */
+    Object[] releaseBody() {
+        final Object[] body = new Object[] { _message, _previewPicture };
+        _message = null;
+        _previewPicture = null;
+        return body;
+    }
+
+    /**
+     * Records that the body and preview picture of this message have been
+     * written to the log
+     * 
+     * @param record
+     *            The record number holding the body and preview picture
+     */
+    void bodyLogged(final int record) {
+        _bodyRecord = record;
+    }
+
     // Implementation of ApplicationMessage ------------------------------------
     /**
      * @see net.rim.blackberry.api.messagelist.ApplicationMessage#getContact()
@@ -245,11 +290,12 @@ public final class DemoMessage implements ApplicationMessage {
      * @see net.rim.blackberry.api.messagelist.ApplicationMessage#getPreviewText()
      */
     public String getPreviewText() {
-        if (_message == null) {
+        final String message = getMessage();
+        if (message == null) {
             return null;
         }
 
-        final StringBuffer buffer = new StringBuffer(_message);
+        final StringBuffer buffer = new StringBuffer(message);
 
         if (_replyMessage != null) {
             buffer.append(". You replied on ").append(new Date(_replyTime))
@@ -272,6 +318,11 @@ public final class DemoMessage implements ApplicationMessage {
      * @see net.rim.blackberry.api.messagelist.ApplicationMessage#getPreviewPicture()
      */
     public Object getPreviewPicture() {
-        return _previewPicture;
+        final EncodedImage previewPicture = _previewPicture;
+        if (previewPicture != null) {
+            return previewPicture;
+        }
+        return MessageListDemoStore.getInstance().getLog().getPreviewPicture(
+                this);
     }
 }
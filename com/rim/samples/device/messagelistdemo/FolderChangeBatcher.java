@@ -0,0 +1,376 @@
+/*
+ * FolderChangeBatcher.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.device.messagelistdemo;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import net.rim.blackberry.api.messagelist.ApplicationIndicator;
+import net.rim.blackberry.api.messagelist.ApplicationMessageFolder;
+
+/**
+ * Collects changes to the message folders and to the number of new messages,
+ * and passes them on to the folders and the application indicator in batches.
+ * A thread is started by the first change, which waits for a short window so
+ * that a burst of changes is collected, then notifies the folders without
+ * holding the message store lock. Repeated changes to a message are combined,
+ * and a message which is added and removed within one window is not reported
+ * at all. A folder with only a few changes is notified of each one, while a
+ * folder with more changes is reset once. The indicator is updated once per
+ * batch.
+ */
+final class FolderChangeBatcher {
+    // Time to collect changes before notifying the folders
+    private static final long WINDOW = 200;
+
+    // A folder with more changes than this in a batch is reset
+    private static final int RESET_THRESHOLD = 8;
+
+    private static final int ADDED = 0;
+    private static final int ADDED_NEW = 1;
+    private static final int UPDATED = 2;
+    private static final int REMOVED = 3;
+
+    private final ApplicationIndicator _indicator;
+
+    // ApplicationMessageFolder -> FolderChanges
+    private Hashtable _changes;
+    private int _newCountChange;
+    private boolean _newMessageArrived;
+    private long _batchStart;
+    private Thread _notifier;
+
+    // Statistics
+    private long _statisticsStart;
+    private int _eventCount;
+    private int _notificationCount;
+    private int _batchCount;
+    private long _totalLag;
+    private long _maxLag;
+
+    /**
+     * Creates a new FolderChangeBatcher object
+     * 
+     * @param indicator
+     *            The application indicator showing the number of new messages,
+     *            or null if there is none
+     */
+    FolderChangeBatcher(final ApplicationIndicator indicator) {
+        _indicator = indicator;
+        _changes = new Hashtable();
+        _statisticsStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Records that a message was added to a folder
+     * 
+     * @param folder
+     *            The folder the message was added to
+     * @param message
+     *            The message which was added
+     * @param newMessage
+     *            True if the user should be notified of a new message
+     */
+    synchronized void elementAdded(final ApplicationMessageFolder folder,
+            final Object message, final boolean newMessage) {
+        final FolderChanges changes = getChanges(folder);
+        final Integer change = (Integer) changes.changes.get(message);
+        if (change == null) {
+            changes.add(message, newMessage ? ADDED_NEW : ADDED);
+        } else if (change.intValue() == REMOVED) {
+            // The message has moved within the folder
+            changes.reset = true;
+        }
+        changes.newMessage |= newMessage;
+    }
+
+    /**
+     * Records that a message in a folder was changed
+     * 
+     * @param folder
+     *            The folder holding the message
+     * @param message
+     *            The message which was changed
+     */
+    synchronized void elementUpdated(final ApplicationMessageFolder folder,
+            final Object message) {
+        final FolderChanges changes = getChanges(folder);
+        if (!changes.changes.containsKey(message)) {
+            changes.add(message, UPDATED);
+        }
+    }
+
+    /**
+     * Records that a message was removed from a folder
+     * 
+     * @param folder
+     *            The folder the message was removed from
+     * @param message
+     *            The message which was removed
+     */
+    synchronized void elementRemoved(final ApplicationMessageFolder folder,
+            final Object message) {
+        final FolderChanges changes = getChanges(folder);
+        final Integer change = (Integer) changes.changes.get(message);
+        if (change == null) {
+            changes.add(message, REMOVED);
+        } else if (change.intValue() == ADDED
+                || change.intValue() == ADDED_NEW) {
+            // The folder has not been told about the message yet
+            changes.changes.remove(message);
+            changes.order.removeElement(message);
+        } else {
+            changes.changes.put(message, new Integer(REMOVED));
+        }
+    }
+
+    /**
+     * Records that the contents of a folder changed too much to be described
+     * message by message
+     * 
+     * @param folder
+     *            The folder to reset
+     * @param newMessage
+     *            True if the user should be notified of a new message
+     */
+    synchronized void reset(final ApplicationMessageFolder folder,
+            final boolean newMessage) {
+        final FolderChanges changes = getChanges(folder);
+        changes.reset = true;
+        changes.newMessage |= newMessage;
+    }
+
+    /**
+     * Changes the number of new messages shown by the indicator
+     * 
+     * @param change
+     *            The amount by which the number of new messages changed
+     * @param newMessageArrived
+     *            True if the change is due to a message arriving, in which
+     *            case the indicator is put in the notification state
+     */
+    synchronized void changeNewCount(final int change,
+            final boolean newMessageArrived) {
+        ++_eventCount;
+        _newCountChange += change;
+        _newMessageArrived |= newMessageArrived;
+        scheduleNotification();
+    }
+
+    /**
+     * Retrieves the number of new messages, including changes which have not
+     * been shown by the indicator yet
+     * 
+     * @return The number of new messages
+     */
+    synchronized int getNewCount() {
+        final int shown = _indicator == null ? 0 : _indicator.getValue();
+        return shown + _newCountChange;
+    }
+
+    /**
+     * Clears the statistics gathered so far
+     */
+    synchronized void resetStatistics() {
+        _statisticsStart = System.currentTimeMillis();
+        _eventCount = 0;
+        _notificationCount = 0;
+        _batchCount = 0;
+        _totalLag = 0;
+        _maxLag = 0;
+    }
+
+    /**
+     * Describes the rate of changes and notifications since the statistics
+     * were last cleared, and how long changes waited to be shown
+     * 
+     * @return A report of the statistics
+     */
+    synchronized String getStatistics() {
+        final long elapsed =
+                Math.max(System.currentTimeMillis() - _statisticsStart, 1);
+        final StringBuffer report = new StringBuffer();
+        report.append(_eventCount).append(" changes, ").append(
+                _eventCount * 1000L / elapsed).append("/s\n");
+        report.append(_notificationCount).append(" notifications in ")
+                .append(_batchCount).append(" batches, ").append(
+                        _notificationCount * 1000L / elapsed).append("/s\n");
+        report.append("Lag: ").append(
+                _batchCount == 0 ? 0 : _totalLag / _batchCount).append(
+                " ms average, ").append(_maxLag).append(" ms maximum\n");
+        return report.toString();
+    }
+
+    /**
+     * Retrieves the changes collected for a folder, counting the change being
+     * recorded
+     */
+    private FolderChanges getChanges(final ApplicationMessageFolder folder) {
+        ++_eventCount;
+        scheduleNotification();
+
+        FolderChanges changes = (FolderChanges) _changes.get(folder);
+        if (changes == null) {
+            changes = new FolderChanges();
+            _changes.put(folder, changes);
+        }
+
+        return changes;
+    }
+
+    /**
+     * Starts a thread to pass on the collected changes, unless one is already
+     * waiting to do so
+     */
+    private void scheduleNotification() {
+        if (_notifier != null) {
+            return;
+        }
+
+        _batchStart = System.currentTimeMillis();
+        _notifier = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(WINDOW);
+                } catch (final InterruptedException e) {
+                    // Pass on what has been collected so far
+                }
+
+                notifyChanges();
+            }
+        };
+        _notifier.start();
+    }
+
+    /**
+     * Passes the collected changes on to the folders and the indicator
+     */
+    private void notifyChanges() {
+        final Hashtable batch;
+        final long batchStart;
+        int notificationCount = 0;
+        synchronized (this) {
+            batch = _changes;
+            batchStart = _batchStart;
+            _changes = new Hashtable();
+
+            // The indicator is updated before the change is cleared, so that
+            // getNewCount() never misses it
+            if (_indicator != null
+                    && (_newCountChange != 0 || _newMessageArrived)) {
+                _indicator.setValue(_indicator.getValue() + _newCountChange);
+                if (_newMessageArrived) {
+                    _indicator.setNotificationState(true);
+                }
+
+                // Show the indicator only while there are new messages
+                _indicator.setVisible(_indicator.getValue() > 0);
+                ++notificationCount;
+            }
+            _newCountChange = 0;
+            _newMessageArrived = false;
+
+            // Changes made from now on start another batch
+            _notifier = null;
+        }
+
+        final Enumeration folders = batch.keys();
+        while (folders.hasMoreElements()) {
+            final ApplicationMessageFolder folder =
+                    (ApplicationMessageFolder) folders.nextElement();
+            notificationCount +=
+                    ((FolderChanges) batch.get(folder)).send(folder);
+        }
+
+        final long lag = System.currentTimeMillis() - batchStart;
+        synchronized (this) {
+            _notificationCount += notificationCount;
+            ++_batchCount;
+            _totalLag += lag;
+            _maxLag = Math.max(_maxLag, lag);
+        }
+    }
+
+    /**
+     * The changes collected for one folder
+     */
+    private static final class FolderChanges {
+        // Message -> Integer change
+        final Hashtable changes = new Hashtable();
+
+        // The changed messages in the order they were first changed
+        final Vector order = new Vector();
+
+        boolean reset;
+        boolean newMessage;
+
+        /**
+         * Records the first change to a message
+         */
+        void add(final Object message, final int change) {
+            changes.put(message, new Integer(change));
+            order.addElement(message);
+        }
+
+        /**
+         * Notifies a folder of the changes
+         * 
+         * @param folder
+         *            The folder to notify
+         * @return The number of notifications sent
+         */
+        int send(final ApplicationMessageFolder folder) {
+            if (reset || order.size() > RESET_THRESHOLD) {
+                folder.fireReset(newMessage);
+                return 1;
+            }
+
+            for (int i = 0; i < order.size(); ++i) {
+                final Object message = order.elementAt(i);
+                switch (((Integer) changes.get(message)).intValue()) {
+                case ADDED:
+                    folder.fireElementAdded(message);
+                    break;
+
+                case ADDED_NEW:
+                    folder.fireElementAdded(message, true);
+                    break;
+
+                case UPDATED:
+                    folder.fireElementUpdated(message, message);
+                    break;
+
+                default:
+                    folder.fireElementRemoved(message);
+                    break;
+                }
+            }
+
+            return order.size();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * MessageListBenchmark.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.device.messagelistdemo;
+
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Times the message lists kept by MessageListDemoStore under a fast stream of
+ * the actions performed by CommunicationSimulatorThread, comparing the chunked
+ * ReadableListImpl with the single Vector used by earlier versions of this
+ * application. Each action updates, deletes or completely deletes a random
+ * message and then fetches a page of the inbox, as the message list does when
+ * it is notified of the change. A new message arrives for each one deleted
+ * completely, so that the inbox stays the same size. Scratch lists are used,
+ * so the messages in the demo folders are not affected.
+ */
+final class MessageListBenchmark {
+    private static final int MESSAGE_COUNT = 100000;
+    private static final int ACTION_COUNT = 2000;
+    private static final int PAGE_SIZE = 20;
+    private static final long SEED = 0x4d4c4244L;
+
+    /**
+     * Runs the benchmark
+     * 
+     * @return A report of the times taken
+     */
+    String run() {
+        final StringBuffer report = new StringBuffer();
+        replay(report, "Vector", new VectorList(), new VectorList());
+        replay(report, "Chunks", new MessageListDemoStore.ReadableListImpl(),
+                new MessageListDemoStore.ReadableListImpl());
+        return report.toString();
+    }
+
+    /**
+     * Fills an inbox and replays the same random actions against it
+     * 
+     * @param report
+     *            The report to append the results to
+     * @param name
+     *            The name of the list implementation
+     * @param inbox
+     *            An empty list to use as the inbox
+     * @param deleted
+     *            An empty list to use for deleted messages
+     */
+    private static void replay(final StringBuffer report, final String name,
+            final MessageListDemoStore.ReadableListImpl inbox,
+            final MessageListDemoStore.ReadableListImpl deleted) {
+        final Random random = new Random(SEED);
+        final Object[] page = new Object[PAGE_SIZE];
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < MESSAGE_COUNT; ++i) {
+            inbox.addMessage(createMessage(i));
+        }
+        appendResult(report, name + ": add " + MESSAGE_COUNT, start,
+                MESSAGE_COUNT);
+
+        int fetched = 0;
+        start = System.currentTimeMillis();
+        for (int i = 0; i < ACTION_COUNT; ++i) {
+            switch (random.nextInt(3)) {
+            case 0: {
+                // Update an existing message; the message list looks up its
+                // position to redraw it.
+                final Object message =
+                        inbox.getAt(random.nextInt(inbox.size()));
+                inbox.getIndex(message);
+                break;
+            }
+
+            case 1: {
+                // Delete an inbox message
+                final DemoMessage message =
+                        (DemoMessage) inbox.getAt(random.nextInt(inbox
+                                .size()));
+                inbox.getIndex(message);
+                inbox.removeMessage(message);
+                deleted.addMessage(message);
+                break;
+            }
+
+            default:
+                // Delete a message completely and receive a new one
+                if (deleted.size() > 0) {
+                    final DemoMessage message =
+                            (DemoMessage) deleted.getAt(random
+                                    .nextInt(deleted.size()));
+                    deleted.getIndex(message);
+                    deleted.removeMessage(message);
+                }
+                inbox.addMessage(createMessage(MESSAGE_COUNT + i));
+                break;
+            }
+
+            // Fetch the page of the inbox being displayed
+            fetched +=
+                    inbox.getAt(random.nextInt(inbox.size()), PAGE_SIZE,
+                            page, 0);
+        }
+        appendResult(report, name + ": " + ACTION_COUNT + " actions ("
+                + fetched + " rows fetched)", start, ACTION_COUNT);
+    }
+
+    /**
+     * Creates a message for the benchmark, without a preview picture
+     * 
+     * @param number
+     *            A number to distinguish the message by
+     * @return The new message
+     */
+    private static DemoMessage createMessage(final int number) {
+        return new DemoMessage("Sender", "Message " + number, "Body", number);
+    }
+
+    /**
+     * Appends the time taken since start, and the rate, to the report
+     */
+    private static void appendResult(final StringBuffer report,
+            final String name, final long start, final int count) {
+        final long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+        report.append(name).append(": ").append(elapsed).append(" ms, ")
+                .append(count * 1000L / elapsed).append("/s\n");
+    }
+
+    /**
+     * A message list backed by a single Vector, as in earlier versions of
+     * MessageListDemoStore. Finding and removing a message searches the whole
+     * Vector, and a page is fetched one message at a time.
+     */
+    private static final class VectorList extends
+            MessageListDemoStore.ReadableListImpl {
+        private final Vector _messages = new Vector();
+
+        /**
+         * @see net.rim.device.api.collection.ReadableList#getAt(int)
+         */
+        public Object getAt(final int index) {
+            return _messages.elementAt(index);
+        }
+
+        /**
+         * @see net.rim.device.api.collection.ReadableList#getAt(int, int,
+         *      Object[], int)
+         */
+        public int getAt(final int index, final int count,
+                final Object[] elements, final int destIndex) {
+            int copied = 0;
+            for (int i = index; i < _messages.size() && copied < count; ++i) {
+                elements[destIndex + copied++] = getAt(i);
+            }
+            return copied;
+        }
+
+        /**
+         * @see net.rim.device.api.collection.ReadableList#getIndex(Object)
+         */
+        public int getIndex(final Object element) {
+            return _messages.indexOf(element);
+        }
+
+        /**
+         * @see net.rim.device.api.collection.ReadableList#size()
+         */
+        public int size() {
+            return _messages.size();
+        }
+
+        /**
+         * @see MessageListDemoStore.ReadableListImpl#addMessage(DemoMessage)
+         */
+        void addMessage(final DemoMessage message) {
+            _messages.addElement(message);
+        }
+
+        /**
+         * @see MessageListDemoStore.ReadableListImpl#removeMessage(DemoMessage)
+         */
+        void removeMessage(final DemoMessage message) {
+            _messages.removeElement(message);
+        }
+    }
+}
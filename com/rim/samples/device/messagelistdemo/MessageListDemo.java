@@ -93,7 +93,11 @@ public final class MessageListDemo extends UiApplication {
     // Constant to define number of bulk messages
     static final int MAX_MSGS = 50;
 
+    // Actions per second performed by the high-rate communication thread
+    static final int HIGH_RATE = 1000;
+
     private CommunicationSimulatorThread _commThread;
+    private boolean _highRate;
 
     /**
      * Entry point for application.
@@ -207,7 +211,8 @@ public final class MessageListDemo extends UiApplication {
                 // Notify folder
                 final ApplicationMessageFolder inboxFolder =
                         messageStore.getInboxFolder();
-                inboxFolder.fireElementAdded(message, true);
+                messageStore.getChangeBatcher().elementAdded(inboxFolder,
+                        message, true);
             }
         }));
         mainScreen.addMenuItem(appendUnreadMessage);
@@ -243,7 +248,8 @@ public final class MessageListDemo extends UiApplication {
                 Dialog.alert("Opened message was added to inbox");
 
                 // Notify folder
-                messageStore.getInboxFolder().fireElementAdded(message);
+                messageStore.getChangeBatcher().elementAdded(
+                        messageStore.getInboxFolder(), message, false);
             }
         }));
         mainScreen.addMenuItem(appendOpenedMessage);
@@ -278,7 +284,7 @@ public final class MessageListDemo extends UiApplication {
                     // Notify folder
                     final ApplicationMessageFolder inboxFolder =
                             messageStore.getInboxFolder();
-                    inboxFolder.fireReset(true);
+                    messageStore.getChangeBatcher().reset(inboxFolder, true);
                 }
 
                 Dialog.alert("Bulk messages were added to inbox");
@@ -303,6 +309,7 @@ public final class MessageListDemo extends UiApplication {
 
                 _commThread = new CommunicationSimulatorThread();
                 _commThread.start();
+                _highRate = false;
 
                 Dialog.alert("Communication thread started successfully.\n After dismissing this dialog, press the End (red phone) key and"
                         + " open the Messages application from the home screen.");
@@ -310,6 +317,34 @@ public final class MessageListDemo extends UiApplication {
         }));
         mainScreen.addMenuItem(startCommunicationThread);
 
+        final MenuItemWithIcon startHighRateThread =
+                new MenuItemWithIcon("Start High-Rate Communication Thread",
+                        3, "sm_start_auto");
+        startHighRateThread.setCommand(new Command(new CommandHandler() {
+            /**
+             * @see net.rim.device.api.command.CommandHandler#execute(ReadOnlyCommandMetadata,
+             *      Object)
+             */
+            public void execute(final ReadOnlyCommandMetadata metadata,
+                    final Object context) {
+                if (_commThread != null) {
+                    Dialog.alert("Communication thread already running");
+                    return;
+                }
+
+                MessageListDemoStore.getInstance().getChangeBatcher()
+                        .resetStatistics();
+                _commThread = new CommunicationSimulatorThread(HIGH_RATE);
+                _commThread.start();
+                _highRate = true;
+
+                Dialog.alert("Communication thread started at " + HIGH_RATE
+                        + " actions per second. Stop the thread to see how"
+                        + " quickly the changes reached the message list.");
+            }
+        }));
+        mainScreen.addMenuItem(startHighRateThread);
+
         final MenuItemWithIcon stopCommunicationThread =
                 new MenuItemWithIcon("Stop Communication Thread", 4,
                         "sm_stop_auto");
@@ -326,7 +361,13 @@ public final class MessageListDemo extends UiApplication {
                 }
                 _commThread.stopRunning();
                 _commThread = null;
-                Dialog.alert("Communication thread stopped.");
+                if (_highRate) {
+                    Dialog.alert("Communication thread stopped.\n"
+                            + MessageListDemoStore.getInstance()
+                                    .getChangeBatcher().getStatistics());
+                } else {
+                    Dialog.alert("Communication thread stopped.");
+                }
             }
         }));
         mainScreen.addMenuItem(stopCommunicationThread);
@@ -349,6 +390,32 @@ public final class MessageListDemo extends UiApplication {
             }
         }));
         mainScreen.addMenuItem(viewMessagesInMessageList);
+
+        final MenuItemWithIcon benchmarkMessageList =
+                new MenuItemWithIcon("Benchmark Message List", 6, null);
+        benchmarkMessageList.setCommand(new Command(new CommandHandler() {
+            /**
+             * @see net.rim.device.api.command.CommandHandler#execute(ReadOnlyCommandMetadata,
+             *      Object)
+             */
+            public void execute(final ReadOnlyCommandMetadata metadata,
+                    final Object context) {
+                new Thread(new Runnable() {
+                    public void run() {
+                        final String report =
+                                new MessageListBenchmark().run();
+
+                        UiApplication.getUiApplication().invokeLater(
+                                new Runnable() {
+                                    public void run() {
+                                        Dialog.inform(report);
+                                    }
+                                });
+                    }
+                }).start();
+            }
+        }));
+        mainScreen.addMenuItem(benchmarkMessageList);
     }
 
     /**
@@ -193,28 +193,16 @@ public final class MessageListDemoDaemon extends Application implements
     }
 
     /**
-     * Changes the indicator value by the specified amount
+     * Changes the indicator value by the specified amount. The indicator is
+     * updated with the next batch of folder changes, and is shown only while
+     * there are new messages.
      * 
      * @param value
      *            The amount by which the indicator must change
      */
     public static void changeIndicator(final int value) {
-        // Update indicator
-        final ApplicationIndicator indicator =
-                ApplicationIndicatorRegistry.getInstance()
-                        .getApplicationIndicator();
-        if (indicator == null) {
-            return;
-        }
-
-        indicator.setValue(indicator.getValue() + value);
-
-        // Check if there are any new messages and show indicator accordingly
-        if (indicator.getValue() <= 0) {
-            indicator.setVisible(false);
-        } else {
-            indicator.setVisible(true);
-        }
+        MessageListDemoStore.getInstance().getChangeBatcher().changeNewCount(
+                value, false);
     }
 
     /**
@@ -254,11 +242,13 @@ public final class MessageListDemoDaemon extends Application implements
                 }
 
                 message.reply("You replied on " + new Date());
+                MessageListDemoStore.getInstance().commitMessage(message);
                 final ApplicationMessageFolderRegistry reg =
                         ApplicationMessageFolderRegistry.getInstance();
                 final ApplicationMessageFolder folder =
                         reg.getApplicationFolder(MessageListDemo.INBOX_FOLDER_ID);
-                folder.fireElementUpdated(message, message);
+                MessageListDemoStore.getInstance().getChangeBatcher()
+                        .elementUpdated(folder, message);
             }
             return context;
         }
@@ -306,11 +296,13 @@ public final class MessageListDemoDaemon extends Application implements
             if (context instanceof DemoMessage) {
                 final DemoMessage message = (DemoMessage) context;
                 message.markRead();
+                MessageListDemoStore.getInstance().commitMessage(message);
                 final ApplicationMessageFolderRegistry reg =
                         ApplicationMessageFolderRegistry.getInstance();
                 final ApplicationMessageFolder folder =
                         reg.getApplicationFolder(MessageListDemo.INBOX_FOLDER_ID);
-                folder.fireElementUpdated(message, message);
+                MessageListDemoStore.getInstance().getChangeBatcher()
+                        .elementUpdated(folder, message);
                 changeIndicator(-1);
             }
 
@@ -359,11 +351,13 @@ public final class MessageListDemoDaemon extends Application implements
                 // Mark the context message unread
                 final DemoMessage message = (DemoMessage) context;
                 message.markAsNew();
+                MessageListDemoStore.getInstance().commitMessage(message);
                 final ApplicationMessageFolderRegistry reg =
                         ApplicationMessageFolderRegistry.getInstance();
                 final ApplicationMessageFolder folder =
                         reg.getApplicationFolder(MessageListDemo.INBOX_FOLDER_ID);
-                folder.fireElementUpdated(message, message);
+                MessageListDemoStore.getInstance().getChangeBatcher()
+                        .elementUpdated(folder, message);
                 changeIndicator(1);
             }
 
@@ -413,11 +407,13 @@ public final class MessageListDemoDaemon extends Application implements
                 // Update status if message is new
                 if (message.isNew()) {
                     message.markRead();
+                    MessageListDemoStore.getInstance().commitMessage(message);
                     final ApplicationMessageFolderRegistry reg =
                             ApplicationMessageFolderRegistry.getInstance();
                     final ApplicationMessageFolder folder =
                             reg.getApplicationFolder(MessageListDemo.INBOX_FOLDER_ID);
-                    folder.fireElementUpdated(message, message);
+                    MessageListDemoStore.getInstance().getChangeBatcher()
+                            .elementUpdated(folder, message);
                     changeIndicator(-1);
                 }
 
@@ -480,8 +476,9 @@ public final class MessageListDemoDaemon extends Application implements
 
                         // Notify GUI that message has moved to
                         // another folder.
-                        messageStore.getDeletedFolder().fireElementAdded(
-                                message);
+                        messageStore.getChangeBatcher().elementAdded(
+                                messageStore.getDeletedFolder(), message,
+                                false);
 
                         // Note: There is no need to fireElementRemoved(),
                         // message was already deleted.
@@ -508,7 +505,8 @@ public final class MessageListDemoDaemon extends Application implements
                     messageStore.commitMessage(message);
 
                     // Notify GUI that message has changed
-                    folder.fireElementUpdated(message, message);
+                    messageStore.getChangeBatcher().elementUpdated(folder,
+                            message);
                     break;
                 case ApplicationMessageFolderListener.MESSAGE_MARKED_UNOPENED:
 
@@ -524,7 +522,8 @@ public final class MessageListDemoDaemon extends Application implements
                     messageStore.commitMessage(message);
 
                     // Notify GUI that message has changed
-                    folder.fireElementUpdated(message, message);
+                    messageStore.getChangeBatcher().elementUpdated(folder,
+                            message);
 
                     break;
                 }
@@ -560,7 +559,8 @@ public final class MessageListDemoDaemon extends Application implements
                         messageStore.commitMessage(message);
 
                         // Notify GUI that message has changed
-                        folder.fireElementUpdated(message, message);
+                        messageStore.getChangeBatcher().elementUpdated(folder,
+                                message);
                         break;
                     case ApplicationMessageFolderListener.MESSAGE_MARKED_UNOPENED:
 
@@ -575,7 +575,8 @@ public final class MessageListDemoDaemon extends Application implements
                         messageStore.commitMessage(message);
 
                         // Notify GUI that message has changed
-                        folder.fireElementUpdated(message, message);
+                        messageStore.getChangeBatcher().elementUpdated(folder,
+                                message);
                         break;
                     }
                 }
@@ -590,7 +591,8 @@ public final class MessageListDemoDaemon extends Application implements
                 }
 
                 if (resetFolder != null) {
-                    resetFolder.fireReset();
+                    messageStore.getChangeBatcher()
+                            .reset(resetFolder, false);
                 }
             }
         }
@@ -26,6 +26,7 @@
 
 package com.rim.samples.device.messagelistdemo;
 
+import java.util.Hashtable;
 import java.util.Vector;
 
 import net.rim.blackberry.api.messagelist.ApplicationIndicator;
@@ -33,12 +34,13 @@ import net.rim.blackberry.api.messagelist.ApplicationIndicatorRegistry;
 import net.rim.blackberry.api.messagelist.ApplicationMessageFolder;
 import net.rim.device.api.collection.ReadableList;
 import net.rim.device.api.system.RuntimeStore;
+import net.rim.device.api.util.Persistable;
 
 /**
- * This class is used to facilitate the storage of messages. For the sake of
- * simplicitly, we are saving messages in the device runtime store. In a real
- * world situation, messages would be saved in device persistent store and/or on
- * a mail server.
+ * This class is used to facilitate the storage of messages. The store is kept
+ * in the device runtime store so that it is shared by the daemon and the GUI,
+ * and its messages are saved in the device persistent store by a MessageLog. In
+ * a real world situation, messages would also be kept on a mail server.
  */
 public final class MessageListDemoStore {
     // com.rim.samples.device.messagelistdemo.MessageListDemoStore
@@ -51,16 +53,28 @@ public final class MessageListDemoStore {
     private ApplicationMessageFolder _mainFolder;
     private ApplicationMessageFolder _deletedFolder;
     private final ApplicationIndicator _indicator;
+    private final MessageLog _log;
+    private final FolderChangeBatcher _batcher;
 
     /**
-     * Creates a new MessageListDemoStore object
+     * Creates a new MessageListDemoStore object, holding the messages saved in
+     * the persistent store
      */
     private MessageListDemoStore() {
-        _inboxMessages = new ReadableListImpl();
-        _deletedMessages = new ReadableListImpl();
+        _log = new MessageLog(this);
+        _inboxMessages = new ReadableListImpl(_log.getInboxChunks());
+        _deletedMessages = new ReadableListImpl(_log.getDeletedChunks());
         _indicator =
                 ApplicationIndicatorRegistry.getInstance()
                         .getApplicationIndicator();
+        _batcher = new FolderChangeBatcher(_indicator);
+
+        // Restore the indicator for the new messages saved before a reset
+        final int newCount = _log.getNewCount();
+        if (_indicator != null && newCount > 0) {
+            _indicator.setValue(newCount);
+            _indicator.setVisible(true);
+        }
     }
 
     /**
@@ -118,6 +132,35 @@ public final class MessageListDemoStore {
         return _deletedFolder;
     }
 
+    /**
+     * Retrieves the log holding the bodies and preview pictures of messages
+     * 
+     * @return The message log
+     */
+    MessageLog getLog() {
+        return _log;
+    }
+
+    /**
+     * Retrieves the batcher which passes changes on to the folders and the
+     * indicator
+     * 
+     * @return The folder change batcher
+     */
+    FolderChangeBatcher getChangeBatcher() {
+        return _batcher;
+    }
+
+    /**
+     * Retrieves the number of new messages, including any not yet shown by
+     * the indicator
+     * 
+     * @return The number of new messages
+     */
+    int getNewCount() {
+        return _batcher.getNewCount();
+    }
+
     /**
      * Moves a message into the deleted folder
      * 
@@ -127,27 +170,25 @@ public final class MessageListDemoStore {
     void deleteInboxMessage(final DemoMessage message) {
         if (message.isNew()) {
             // Update indicator
-            _indicator.setValue(_indicator.getValue() - 1);
-            if (_indicator.getValue() <= 0) {
-                _indicator.setVisible(false);
-            }
+            _batcher.changeNewCount(-1, false);
         }
 
         message.messageDeleted();
         _inboxMessages.removeMessage(message);
         _deletedMessages.addMessage(message);
+        _log.scheduleCommit();
     }
 
     /**
-     * Commits a message to the persistent store
+     * Commits a message to the persistent store. The commit is done in the
+     * background, together with any other changes made shortly before or
+     * after it.
      * 
      * @param message
      *            The message to commit
      */
     void commitMessage(final DemoMessage message) {
-        // This empty method exists to reinforce the idea that in a real world
-        // situation messages would be saved in device persistent store and/or
-        // on a mail server.
+        _log.scheduleCommit();
     }
 
     /**
@@ -157,15 +198,14 @@ public final class MessageListDemoStore {
      *            The message to add to the inbox
      */
     void addInboxMessage(final DemoMessage message) {
+        // The log takes the body and picture first, so the message is never
+        // in the persisted inbox while it still holds them
+        _log.messageAdded(message);
         _inboxMessages.addMessage(message);
 
         if (message.isNew()) {
             // Update indicator
-            _indicator.setValue(_indicator.getValue() + 1);
-            _indicator.setNotificationState(true);
-            if (!_indicator.isVisible()) {
-                _indicator.setVisible(true);
-            }
+            _batcher.changeNewCount(1, true);
         }
     }
 
@@ -177,6 +217,7 @@ public final class MessageListDemoStore {
      */
     void deleteMessageCompletely(final DemoMessage message) {
         _deletedMessages.removeMessage(message);
+        _log.messageRemoved(message);
     }
 
     /**
@@ -199,46 +240,115 @@ public final class MessageListDemoStore {
 
     /**
      * This is an implementation of the ReadableList interface which stores the
-     * list of messages using a Vector.
+     * list of messages in a sequence of fixed size chunks, so that adding or
+     * removing a message only shifts the messages in one chunk. A hash table
+     * maps each message to the chunk holding it, so that the position of a
+     * message can be found without searching the whole list. The position of
+     * the first message in each chunk is cached and is only recalculated, from
+     * the first chunk that changed, when it is next needed. The chunks may be
+     * persisted, in which case the hash table is only built when a message is
+     * first looked up.
      */
     static class ReadableListImpl implements ReadableList {
-        private final Vector messages;
+        // Number of messages a chunk can hold
+        private static final int CHUNK_SIZE = 64;
+
+        // A chunk this small is merged with a neighbour when they fit in one
+        private static final int MERGE_SIZE = CHUNK_SIZE / 4;
+
+        private final Vector _chunks;
+        private Hashtable _chunkByMessage;
+        private int[] _offsets;
+        private int _validOffsets;
+        private int _size;
 
         /**
          * Creates a empty instance of ReadableListImpl
          */
         ReadableListImpl() {
-            messages = new Vector();
+            this(new Vector());
+        }
+
+        /**
+         * Creates an instance of ReadableListImpl holding the messages in a
+         * list of chunks, which is modified as the list is
+         * 
+         * @param chunks
+         *            The chunks of the list, as kept by a previous instance
+         */
+        ReadableListImpl(final Vector chunks) {
+            _chunks = chunks;
+
+            int capacity = 16;
+            while (capacity < chunks.size()) {
+                capacity *= 2;
+            }
+            _offsets = new int[capacity];
+
+            for (int i = 0; i < chunks.size(); ++i) {
+                _size += ((Chunk) chunks.elementAt(i)).size;
+            }
         }
 
         /**
          * @see net.rim.device.api.collection.ReadableList#getAt(int)
          */
-        public Object getAt(final int index) {
-            return messages.elementAt(index);
+        public synchronized Object getAt(final int index) {
+            if (index < 0 || index >= _size) {
+                throw new ArrayIndexOutOfBoundsException(Integer
+                        .toString(index));
+            }
+
+            final int chunkIndex = findChunk(index);
+            final Chunk chunk = (Chunk) _chunks.elementAt(chunkIndex);
+            return chunk.messages[index - _offsets[chunkIndex]];
         }
 
         /**
          * @see net.rim.device.api.collection.ReadableList#getAt(int, int,
          *      Object[], int)
          */
-        public int getAt(final int index, final int count,
+        public synchronized int getAt(final int index, final int count,
                 final Object[] elements, final int destIndex) {
-            return 0;
+            if (index < 0 || index >= _size || count <= 0) {
+                return 0;
+            }
+
+            final int total = Math.min(count, _size - index);
+            int chunkIndex = findChunk(index);
+            int from = index - _offsets[chunkIndex];
+            int copied = 0;
+            while (copied < total) {
+                final Chunk chunk = (Chunk) _chunks.elementAt(chunkIndex);
+                final int length = Math.min(chunk.size - from, total - copied);
+                System.arraycopy(chunk.messages, from, elements, destIndex
+                        + copied, length);
+                copied += length;
+                ++chunkIndex;
+                from = 0;
+            }
+
+            return copied;
         }
 
         /**
          * @see net.rim.device.api.collection.ReadableList#getIndex(Object)
          */
-        public int getIndex(final Object element) {
-            return messages.indexOf(element);
+        public synchronized int getIndex(final Object element) {
+            final Chunk chunk = (Chunk) getChunkByMessage().get(element);
+            if (chunk == null) {
+                return -1;
+            }
+
+            validateOffsets(chunk.index);
+            return _offsets[chunk.index] + chunk.indexOf(element);
         }
 
         /**
          * @see net.rim.device.api.collection.ReadableList#size()
          */
-        public int size() {
-            return messages.size();
+        public synchronized int size() {
+            return _size;
         }
 
         /**
@@ -247,8 +357,27 @@ public final class MessageListDemoStore {
          * @param message
          *            The message to add to this list
          */
-        void addMessage(final DemoMessage message) {
-            messages.addElement(message);
+        synchronized void addMessage(final DemoMessage message) {
+            Chunk chunk = null;
+            if (!_chunks.isEmpty()) {
+                chunk = (Chunk) _chunks.lastElement();
+            }
+
+            if (chunk == null || chunk.size == CHUNK_SIZE) {
+                chunk = new Chunk(_chunks.size());
+                _chunks.addElement(chunk);
+                if (_chunks.size() > _offsets.length) {
+                    final int[] offsets = new int[_offsets.length * 2];
+                    System.arraycopy(_offsets, 0, offsets, 0, _validOffsets);
+                    _offsets = offsets;
+                }
+            }
+
+            // Appending to the last chunk moves no other chunk, so the cached
+            // offsets stay valid.
+            chunk.messages[chunk.size++] = message;
+            getChunkByMessage().put(message, chunk);
+            ++_size;
         }
 
         /**
@@ -257,8 +386,192 @@ public final class MessageListDemoStore {
          * @param message
          *            The message to remove from this list
          */
-        void removeMessage(final DemoMessage message) {
-            messages.removeElement(message);
+        synchronized void removeMessage(final DemoMessage message) {
+            final Chunk chunk = (Chunk) getChunkByMessage().remove(message);
+            if (chunk == null) {
+                return;
+            }
+
+            final int position = chunk.indexOf(message);
+            System.arraycopy(chunk.messages, position + 1, chunk.messages,
+                    position, chunk.size - position - 1);
+            chunk.messages[--chunk.size] = null;
+            --_size;
+            invalidateOffsets(chunk.index + 1);
+
+            if (chunk.size == 0) {
+                removeChunk(chunk.index);
+            } else if (chunk.size < MERGE_SIZE) {
+                // Keep chunks from becoming sparse after many removals
+                if (chunk.index > 0) {
+                    final Chunk previous =
+                            (Chunk) _chunks.elementAt(chunk.index - 1);
+                    if (previous.size + chunk.size <= CHUNK_SIZE) {
+                        merge(previous, chunk);
+                        return;
+                    }
+                }
+
+                if (chunk.index + 1 < _chunks.size()) {
+                    final Chunk next =
+                            (Chunk) _chunks.elementAt(chunk.index + 1);
+                    if (chunk.size + next.size <= CHUNK_SIZE) {
+                        merge(chunk, next);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Moves the messages of a chunk onto the end of the chunk before it
+         * and removes the emptied chunk
+         * 
+         * @param into
+         *            The chunk to move the messages to
+         * @param from
+         *            The chunk following it, which is removed
+         */
+        private void merge(final Chunk into, final Chunk from) {
+            System.arraycopy(from.messages, 0, into.messages, into.size,
+                    from.size);
+            final Hashtable chunkByMessage = getChunkByMessage();
+            for (int i = 0; i < from.size; ++i) {
+                chunkByMessage.put(from.messages[i], into);
+            }
+            into.size += from.size;
+            invalidateOffsets(into.index + 1);
+            removeChunk(from.index);
+        }
+
+        /**
+         * Retrieves the hash table of the chunk holding each message, building
+         * it if this list was created from persisted chunks
+         * 
+         * @return The chunk of each message
+         */
+        private Hashtable getChunkByMessage() {
+            if (_chunkByMessage == null) {
+                _chunkByMessage = new Hashtable(Math.max(_size, 11));
+                for (int i = 0; i < _chunks.size(); ++i) {
+                    final Chunk chunk = (Chunk) _chunks.elementAt(i);
+                    for (int j = 0; j < chunk.size; ++j) {
+                        _chunkByMessage.put(chunk.messages[j], chunk);
+                    }
+                }
+            }
+
+            return _chunkByMessage;
+        }
+
+        /**
+         * Removes a chunk and renumbers the chunks following it
+         * 
+         * @param chunkIndex
+         *            The index of the chunk to remove
+         */
+        private void removeChunk(final int chunkIndex) {
+            _chunks.removeElementAt(chunkIndex);
+            for (int i = chunkIndex; i < _chunks.size(); ++i) {
+                ((Chunk) _chunks.elementAt(i)).index = i;
+            }
+            invalidateOffsets(chunkIndex);
+        }
+
+        /**
+         * Marks the cached offsets of a chunk and the chunks following it as
+         * needing to be recalculated
+         * 
+         * @param chunkIndex
+         *            The index of the first chunk whose offset has changed
+         */
+        private void invalidateOffsets(final int chunkIndex) {
+            if (chunkIndex < _validOffsets) {
+                _validOffsets = chunkIndex;
+            }
+        }
+
+        /**
+         * Recalculates any cached offsets that are out of date, up to and
+         * including the offset of a given chunk
+         * 
+         * @param chunkIndex
+         *            The index of the last chunk whose offset is needed
+         */
+        private void validateOffsets(final int chunkIndex) {
+            for (int i = _validOffsets; i <= chunkIndex; ++i) {
+                if (i == 0) {
+                    _offsets[0] = 0;
+                } else {
+                    _offsets[i] =
+                            _offsets[i - 1]
+                                    + ((Chunk) _chunks.elementAt(i - 1)).size;
+                }
+            }
+
+            if (chunkIndex >= _validOffsets) {
+                _validOffsets = chunkIndex + 1;
+            }
+        }
+
+        /**
+         * Finds the chunk holding the message at a position in this list
+         * 
+         * @param index
+         *            The position of the message, which must be in range
+         * @return The index of the chunk holding the message
+         */
+        private int findChunk(final int index) {
+            validateOffsets(_chunks.size() - 1);
+
+            int low = 0;
+            int high = _chunks.size() - 1;
+            while (low < high) {
+                final int middle = (low + high + 1) >>> 1;
+                if (_offsets[middle] <= index) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+
+            return low;
+        }
+
+        /**
+         * A run of consecutive messages in the list
+         */
+        private static final class Chunk implements Persistable {
+            final Object[] messages = new Object[CHUNK_SIZE];
+            int size;
+            int index;
+
+            /**
+             * Creates a new, empty Chunk object
+             * 
+             * @param index
+             *            The index of this chunk in the list of chunks
+             */
+            Chunk(final int index) {
+                this.index = index;
+            }
+
+            /**
+             * Finds the position of a message in this chunk
+             * 
+             * @param message
+             *            The message to find
+             * @return The position of the message in this chunk, or -1 if it
+             *         is not in this chunk
+             */
+            int indexOf(final Object message) {
+                for (int i = 0; i < size; ++i) {
+                    if (messages[i] == message) {
+                        return i;
+                    }
+                }
+
+                return -1;
+            }
         }
     }
 }
@@ -0,0 +1,511 @@
+/*
+ * MessageLog.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.device.messagelistdemo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import net.rim.device.api.system.EncodedImage;
+import net.rim.device.api.system.PersistentObject;
+import net.rim.device.api.system.PersistentStore;
+import net.rim.device.api.util.Persistable;
+
+/**
+ * Keeps the messages of MessageListDemoStore in the device persistent store.
+ * The messages shown in each folder are persisted in the chunks of the folder's
+ * ReadableListImpl, which hold only the header of each message: the sender,
+ * subject, time and status shown in the message list. The body and preview
+ * picture of a message are appended to a log, which is split into persistent
+ * objects holding a fixed number of records, and are read back only when they
+ * are asked for. Opening the store therefore costs the same however many
+ * messages it holds, and only the messages that are displayed are read. The
+ * body and picture of a message added since the last batch are held in a
+ * table of their own until they are written, since a preview picture cannot
+ * be persisted with the message.
+ * <p>
+ * Changes are not committed as they are made. Instead, a thread is started
+ * which waits for a short while, so that a burst of changes is collected into
+ * one batch, then encodes the new messages and commits the batch. The thread
+ * ends once there is nothing left to commit.
+ */
+final class MessageLog {
+    // com.rim.samples.device.messagelistdemo.MessageLog
+    private static final long KEY = 0x5a3e81c6f2d04b97L;
+
+    // Number of records held by each persistent object of the log
+    private static final int SEGMENT_SIZE = 128;
+
+    // Time to wait for further changes before committing a batch
+    private static final long COMMIT_DELAY = 500;
+
+    // Number of decoded records to keep in memory
+    private static final int CACHE_SIZE = 32;
+
+    private final MessageListDemoStore _store;
+    private final PersistentObject _persist;
+    private final LogRoot _root;
+
+    // Integer record number -> decoded record
+    private final Hashtable _records;
+
+    // Integer segment number -> PersistentObject of segments changed since
+    // the last commit
+    private final Hashtable _dirtySegments;
+
+    // DemoMessage -> body and preview picture of a message not yet written
+    // to the log
+    private final Hashtable _pendingBodies;
+
+    // Messages removed while their batch was being encoded
+    private final Hashtable _purged;
+
+    private Vector _pending;
+    private Object[] _tail;
+    private boolean _dirty;
+    private Thread _committer;
+
+    /**
+     * Opens the message log, creating it if it does not exist yet
+     * 
+     * @param store
+     *            The store whose messages are kept, which also guards changes
+     *            to them
+     */
+    MessageLog(final MessageListDemoStore store) {
+        _store = store;
+        _records = new Hashtable();
+        _dirtySegments = new Hashtable();
+        _pendingBodies = new Hashtable();
+        _purged = new Hashtable();
+        _pending = new Vector();
+
+        _persist = PersistentStore.getPersistentObject(KEY);
+        synchronized (_persist) {
+            LogRoot root = (LogRoot) _persist.getContents();
+            if (root == null) {
+                root = new LogRoot();
+                _persist.setContents(root);
+                _persist.commit();
+            }
+            _root = root;
+        }
+    }
+
+    /**
+     * Retrieves the persisted chunks of the inbox
+     * 
+     * @return The chunks of the inbox list
+     */
+    Vector getInboxChunks() {
+        return _root.inbox;
+    }
+
+    /**
+     * Retrieves the persisted chunks of the deleted messages
+     * 
+     * @return The chunks of the deleted messages list
+     */
+    Vector getDeletedChunks() {
+        return _root.deleted;
+    }
+
+    /**
+     * Retrieves the number of new messages when the log was last committed
+     * 
+     * @return The number of new messages
+     */
+    int getNewCount() {
+        return _root.newCount;
+    }
+
+    /**
+     * Queues a new message to have its body and preview picture appended to
+     * the log
+     * 
+     * @param message
+     *            The message which was added
+     */
+    synchronized void messageAdded(final DemoMessage message) {
+        _pendingBodies.put(message, message.releaseBody());
+        _pending.addElement(message);
+        scheduleCommit();
+    }
+
+    /**
+     * Removes the body and preview picture of a message from the log
+     * 
+     * @param message
+     *            The message which was deleted completely
+     */
+    synchronized void messageRemoved(final DemoMessage message) {
+        final int record = message.getBodyRecord();
+        if (record >= 0) {
+            release(record);
+        } else if (_pending.removeElement(message)) {
+            _pendingBodies.remove(message);
+        } else {
+            // The message's batch is being encoded
+            _purged.put(message, message);
+        }
+        scheduleCommit();
+    }
+
+    /**
+     * Starts a thread to commit the changes made to the messages, unless one
+     * is already waiting to do so
+     */
+    synchronized void scheduleCommit() {
+        _dirty = true;
+        if (_committer == null) {
+            _committer = new Thread() {
+                public void run() {
+                    try {
+                        while (true) {
+                            try {
+                                Thread.sleep(COMMIT_DELAY);
+                            } catch (final InterruptedException e) {
+                                // Commit what has been collected so far
+                            }
+
+                            synchronized (MessageLog.this) {
+                                if (!_dirty) {
+                                    _committer = null;
+                                    return;
+                                }
+                                _dirty = false;
+                            }
+
+                            flush();
+                        }
+                    } finally {
+                        synchronized (MessageLog.this) {
+                            // If flush() failed, let the next change start a
+                            // new thread to commit again
+                            if (_committer == this) {
+                                _committer = null;
+                                _dirty = true;
+                            }
+                        }
+                    }
+                }
+            };
+            _committer.start();
+        }
+    }
+
+    /**
+     * Retrieves the body of a message from the log
+     * 
+     * @param message
+     *            The message
+     * @return The body of the message
+     */
+    String getMessage(final DemoMessage message) {
+        return (String) getBody(message)[0];
+    }
+
+    /**
+     * Retrieves the preview picture of a message from the log
+     * 
+     * @param message
+     *            The message
+     * @return The preview picture of the message
+     */
+    EncodedImage getPreviewPicture(final DemoMessage message) {
+        return (EncodedImage) getBody(message)[1];
+    }
+
+    /**
+     * Retrieves the body and preview picture of a message, whether or not
+     * they have been written to the log yet
+     */
+    private synchronized Object[] getBody(final DemoMessage message) {
+        final Object[] pending = (Object[]) _pendingBodies.get(message);
+        if (pending != null) {
+            return pending;
+        }
+        final int record = message.getBodyRecord();
+        return record < 0 ? new Object[2] : getRecord(record);
+    }
+
+    /**
+     * Retrieves a decoded record, reading it from the log if it is not cached
+     * 
+     * @param record
+     *            The record number
+     * @return The body and preview picture held by the record
+     */
+    private synchronized Object[] getRecord(final int record) {
+        final Integer key = new Integer(record);
+        Object[] decoded = (Object[]) _records.get(key);
+        if (decoded == null) {
+            final Object[] slots = getSegment(record / SEGMENT_SIZE);
+            decoded =
+                    decode(slots == null ? null : (byte[]) slots[record
+                            % SEGMENT_SIZE]);
+            cache(key, decoded);
+        }
+
+        return decoded;
+    }
+
+    /**
+     * Adds a decoded record to the cache, emptying the cache if it is full
+     */
+    private void cache(final Integer key, final Object[] decoded) {
+        if (_records.size() >= CACHE_SIZE) {
+            _records.clear();
+        }
+        _records.put(key, decoded);
+    }
+
+    /**
+     * Appends the new messages collected since the last batch to the log and
+     * commits all of the changes made since then. Messages are encoded without
+     * holding any lock, so that messages can still be added and read while this
+     * is done.
+     */
+    private void flush() {
+        final Vector batch;
+        final Object[][] bodies;
+        synchronized (this) {
+            batch = _pending;
+            _pending = new Vector();
+
+            bodies = new Object[batch.size()][];
+            for (int i = 0; i < bodies.length; ++i) {
+                bodies[i] = (Object[]) _pendingBodies.get(batch.elementAt(i));
+            }
+        }
+
+        final int count = batch.size();
+        final byte[][] encoded = new byte[count][];
+        for (int i = 0; i < count; ++i) {
+            encoded[i] = encode(bodies[i]);
+        }
+
+        synchronized (_store) {
+            synchronized (this) {
+                for (int i = 0; i < count; ++i) {
+                    final DemoMessage message =
+                            (DemoMessage) batch.elementAt(i);
+                    if (_purged.remove(message) == null) {
+                        final int record = append(encoded[i]);
+                        cache(new Integer(record), bodies[i]);
+                        message.bodyLogged(record);
+                    }
+                    _pendingBodies.remove(message);
+                }
+                _purged.clear();
+
+                final Enumeration segments = _dirtySegments.elements();
+                while (segments.hasMoreElements()) {
+                    ((PersistentObject) segments.nextElement()).commit();
+                }
+                _dirtySegments.clear();
+
+                _root.newCount = _store.getNewCount();
+                _persist.commit();
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the last segment of the log, starting a new segment
+     * if it is full
+     * 
+     * @param data
+     *            The encoded record
+     * @return The record number
+     */
+    private int append(final byte[] data) {
+        if (_root.segmentCount == 0 || _root.tailSize == SEGMENT_SIZE) {
+            if (_root.segmentCount == _root.liveCounts.length) {
+                final int[] liveCounts = new int[_root.segmentCount * 2];
+                System.arraycopy(_root.liveCounts, 0, liveCounts, 0,
+                        _root.segmentCount);
+                _root.liveCounts = liveCounts;
+            }
+
+            _tail = new Object[SEGMENT_SIZE];
+            getSegmentObject(_root.segmentCount).setContents(_tail);
+            ++_root.segmentCount;
+            _root.tailSize = 0;
+        } else if (_tail == null) {
+            _tail = getSegment(_root.segmentCount - 1);
+        }
+
+        final int segment = _root.segmentCount - 1;
+        _tail[_root.tailSize] = data;
+        ++_root.liveCounts[segment];
+        markDirty(segment);
+        return segment * SEGMENT_SIZE + _root.tailSize++;
+    }
+
+    /**
+     * Clears a record, destroying its segment if no records in it are still
+     * in use and no more records will be appended to it
+     * 
+     * @param record
+     *            The record number
+     */
+    private void release(final int record) {
+        final int segment = record / SEGMENT_SIZE;
+        final Object[] slots = getSegment(segment);
+        if (slots == null) {
+            return;
+        }
+
+        slots[record % SEGMENT_SIZE] = null;
+        _records.remove(new Integer(record));
+
+        final boolean full =
+                segment < _root.segmentCount - 1
+                        || _root.tailSize == SEGMENT_SIZE;
+        if (--_root.liveCounts[segment] == 0 && full) {
+            PersistentStore.destroyPersistentObject(KEY + 1 + segment);
+            _dirtySegments.remove(new Integer(segment));
+            if (slots == _tail) {
+                _tail = null;
+            }
+        } else {
+            markDirty(segment);
+        }
+    }
+
+    /**
+     * Marks a segment as needing to be committed
+     */
+    private void markDirty(final int segment) {
+        _dirtySegments.put(new Integer(segment), getSegmentObject(segment));
+    }
+
+    /**
+     * Retrieves the records held by a segment
+     * 
+     * @param segment
+     *            The segment number
+     * @return The records in the segment, or null if the segment has been
+     *         destroyed
+     */
+    private Object[] getSegment(final int segment) {
+        if (segment == _root.segmentCount - 1 && _tail != null) {
+            return _tail;
+        }
+        return (Object[]) getSegmentObject(segment).getContents();
+    }
+
+    /**
+     * Retrieves the persistent object holding a segment
+     */
+    private static PersistentObject getSegmentObject(final int segment) {
+        return PersistentStore.getPersistentObject(KEY + 1 + segment);
+    }
+
+    /**
+     * Encodes the body and preview picture of a message as a record
+     * 
+     * @param body
+     *            The body and preview picture to encode
+     * @return The encoded record
+     */
+    private static byte[] encode(final Object[] body) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            final String message = (String) body[0];
+            output.writeBoolean(message != null);
+            if (message != null) {
+                output.writeUTF(message);
+            }
+
+            final EncodedImage picture = (EncodedImage) body[1];
+            if (picture == null) {
+                output.writeInt(-1);
+            } else {
+                output.writeInt(picture.getLength());
+                output.write(picture.getData(), picture.getOffset(), picture
+                        .getLength());
+            }
+        } catch (final IOException e) {
+            // Writing to a byte array does not fail
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a record
+     * 
+     * @param data
+     *            The encoded record, or null if the record has been released
+     * @return The body and preview picture held by the record
+     */
+    private static Object[] decode(final byte[] data) {
+        final Object[] decoded = new Object[2];
+        if (data == null) {
+            return decoded;
+        }
+
+        final DataInputStream input =
+                new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (input.readBoolean()) {
+                decoded[0] = input.readUTF();
+            }
+
+            final int length = input.readInt();
+            if (length >= 0) {
+                final byte[] picture = new byte[length];
+                input.readFully(picture);
+                decoded[1] =
+                        EncodedImage.createEncodedImage(picture, 0, length);
+            }
+        } catch (final IOException e) {
+            // The record is cut short; use what could be read
+        }
+
+        return decoded;
+    }
+
+    /**
+     * The root of the persisted messages
+     */
+    private static final class LogRoot implements Persistable {
+        Vector inbox = new Vector();
+        Vector deleted = new Vector();
+        int[] liveCounts = new int[16];
+        int segmentCount;
+        int tailSize;
+        int newCount;
+    }
+}
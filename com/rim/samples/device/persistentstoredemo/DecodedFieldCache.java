@@ -0,0 +1,119 @@
+/*
+ * DecodedFieldCache.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.persistentstoredemo;
+
+import java.util.Hashtable;
+
+/**
+ * Holds the plaintext of Meeting fields which have already been decoded, so
+ * that drawing the list of meetings does not decode every name each time it is
+ * painted. The plaintext is kept outside the Meeting objects so that it is
+ * never persisted, and only for as long as the content protection ticket it
+ * was decoded under: the cache is emptied when a different ticket is
+ * presented, and by PersistentStoreListener whenever the device locks or
+ * unlocks.
+ */
+final class DecodedFieldCache {
+    // Meeting -> String[] of decoded fields, null where not yet decoded
+    private static final Hashtable _fields = new Hashtable();
+    private static Object _ticket;
+
+    /**
+     * Prevents instantiation
+     */
+    private DecodedFieldCache() {
+    }
+
+    /**
+     * Returns the decoded value of a field
+     * 
+     * @param meeting
+     *            The meeting holding the field
+     * @param id
+     *            The ID of the field
+     * @param ticket
+     *            The ticket held by the caller
+     * @return The decoded value, or null if it has not been cached
+     */
+    static synchronized String get(final Meeting meeting, final int id,
+            final Object ticket) {
+        if (ticket != _ticket) {
+            clear();
+            _ticket = ticket;
+            return null;
+        }
+
+        final String[] fields = (String[]) _fields.get(meeting);
+        return fields != null ? fields[id] : null;
+    }
+
+    /**
+     * Caches the decoded value of a field
+     * 
+     * @param meeting
+     *            The meeting holding the field
+     * @param id
+     *            The ID of the field
+     * @param value
+     *            The decoded value
+     * @param ticket
+     *            The ticket the field was decoded under
+     */
+    static synchronized void put(final Meeting meeting, final int id,
+            final String value, final Object ticket) {
+        if (ticket != _ticket) {
+            clear();
+            _ticket = ticket;
+        }
+
+        String[] fields = (String[]) _fields.get(meeting);
+        if (fields == null) {
+            fields = new String[Meeting.NUM_FIELDS];
+            _fields.put(meeting, fields);
+        }
+        fields[id] = value;
+    }
+
+    /**
+     * Removes the decoded fields of a meeting which has been changed or
+     * deleted
+     * 
+     * @param meeting
+     *            The meeting to remove
+     */
+    static synchronized void remove(final Meeting meeting) {
+        _fields.remove(meeting);
+    }
+
+    /**
+     * Removes every decoded field and releases the ticket
+     */
+    static synchronized void clear() {
+        _fields.clear();
+        _ticket = null;
+    }
+}
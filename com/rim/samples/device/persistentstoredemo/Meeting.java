@@ -35,7 +35,9 @@ import net.rim.device.api.util.Persistable;
  * This class represents a persistable meeting object. It contains information
  * such as the name of the meeting, a description, date and time as well as
  * names of those who were in attendance. This information is encoded and stored
- * in a pair of Vectors, _fields and _attendees. Classes to be persisted must
+ * in a pair of Vectors, _fields and _attendees. Each meeting also has an id,
+ * assigned by MeetingStore, which orders the meetings and decides which
+ * persistent bucket holds it. Classes to be persisted must
  * implement interface Persistable and can only can contain members which
  * themselves implement Persistable or are inherently persistable.
  */
@@ -47,10 +49,11 @@ public final class Meeting implements Persistable {
     static final int NOTES = 4;
 
     // Change this value if any fields are added to or removed from this class
-    private static final int NUM_FIELDS = 5;
+    static final int NUM_FIELDS = 5;
 
     private final Vector _fields;
     private final Vector _attendees;
+    private long _id;
 
     // Primitive data types can be persisted. The following class members are
     // included for demonstration purposes only, they have no functional use in
@@ -75,8 +78,29 @@ public final class Meeting implements Persistable {
         }
     }
 
+    /**
+     * Returns the id assigned to this meeting by MeetingStore
+     * 
+     * @return The id, or 0 if the meeting has not been stored
+     */
+    long getId() {
+        return _id;
+    }
+
+    /**
+     * Sets the id of this meeting
+     * 
+     * @param id
+     *            The id assigned by MeetingStore
+     */
+    void setId(final long id) {
+        _id = id;
+    }
+
     /**
      * Retrieves an encoded object and returns it as a plaintext string.
+     * Decoded values are cached by DecodedFieldCache for as long as the
+     * content protection ticket they were decoded under.
      * 
      * @param id
      *            The ID of the field from which the encoding should be
@@ -84,14 +108,17 @@ public final class Meeting implements Persistable {
      * @return A plaintext string
      */
     String getField(final int id) {
-        final Object encoding = _fields.elementAt(id);
-
         // Acquiring a reference to a ticket guarantees access to encrypted data
         // even if the device locks during the decoding operation.
         final Object ticket = PersistentContent.getTicket();
 
         if (ticket != null) {
-            return PersistentContent.decodeString(encoding);
+            String value = DecodedFieldCache.get(this, id, ticket);
+            if (value == null) {
+                value = PersistentContent.decodeString(_fields.elementAt(id));
+                DecodedFieldCache.put(this, id, value, ticket);
+            }
+            return value;
         } else {
             return null;
         }
@@ -109,6 +136,7 @@ public final class Meeting implements Persistable {
     void setField(final int id, final String value) {
         final Object encoding = PersistentContent.encode(value);
         _fields.setElementAt(encoding, id);
+        DecodedFieldCache.remove(this);
     }
 
     /**
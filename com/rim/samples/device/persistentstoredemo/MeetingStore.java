@@ -0,0 +1,268 @@
+/*
+ * MeetingStore.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.persistentstoredemo;
+
+import java.util.Vector;
+
+import net.rim.device.api.system.PersistentContent;
+import net.rim.device.api.system.PersistentObject;
+import net.rim.device.api.system.PersistentStore;
+
+/**
+ * Stores Meeting objects in a number of buckets, each a PersistentObject
+ * holding a Vector of meetings, so that saving a meeting commits only the
+ * bucket it belongs to rather than every meeting. Each meeting is given an id
+ * when it is first added, which determines its bucket and its position in the
+ * list.
+ * 
+ * Readers get the list of meetings as an array which is replaced rather than
+ * modified when meetings are added or removed, so getMeetings() never waits
+ * for a commit in progress.
+ * 
+ * Earlier versions of this application kept every meeting in a single Vector
+ * in the root PersistentObject. Such a Vector is moved into the buckets when
+ * the store is opened.
+ */
+final class MeetingStore {
+    static final int BUCKET_COUNT = 16;
+
+    private final PersistentObject _root;
+    private final PersistentObject[] _buckets;
+    private volatile Meeting[] _meetings;
+    private long _nextId;
+
+    /**
+     * Creates a new MeetingStore object
+     * 
+     * @param id
+     *            The ID of the root PersistentObject. The buckets are stored
+     *            under the following BUCKET_COUNT IDs.
+     */
+    MeetingStore(final long id) {
+        _root = PersistentStore.getPersistentObject(id);
+        _buckets = new PersistentObject[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            _buckets[i] = PersistentStore.getPersistentObject(id + 1 + i);
+            synchronized (_buckets[i]) {
+                if (_buckets[i].getContents() == null) {
+                    _buckets[i].setContents(new Vector());
+                }
+            }
+        }
+
+        synchronized (_root) {
+            final Object contents = _root.getContents();
+            if (contents instanceof Vector) {
+                migrate((Vector) contents);
+            }
+            if (!(contents instanceof Integer)) {
+                // Mark the root as using the bucket layout
+                _root.setContents(new Integer(BUCKET_COUNT));
+                PersistentObject.commit(_root);
+            }
+        }
+
+        _meetings = load();
+    }
+
+    /**
+     * Moves the meetings from a single Vector into the buckets. The buckets
+     * are cleared first so that a migration interrupted before the root was
+     * updated can simply be repeated.
+     * 
+     * @param meetings
+     *            The Vector of Meeting objects held by the root
+     */
+    private void migrate(final Vector meetings) {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            getBucket(i).removeAllElements();
+        }
+        for (int i = 0; i < meetings.size(); ++i) {
+            final Meeting meeting = (Meeting) meetings.elementAt(i);
+            meeting.setId(i + 1);
+            getBucket(getBucketIndex(meeting)).addElement(meeting);
+        }
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            synchronized (_buckets[i]) {
+                PersistentObject.commit(_buckets[i]);
+            }
+        }
+    }
+
+    /**
+     * Merges the buckets, each of which is kept in id order, into a single
+     * array of meetings in id order
+     * 
+     * @return The meetings in all of the buckets
+     */
+    private Meeting[] load() {
+        int count = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            count += getBucket(i).size();
+        }
+
+        final Meeting[] meetings = new Meeting[count];
+        final int[] next = new int[BUCKET_COUNT];
+        for (int j = 0; j < count; ++j) {
+            int lowest = -1;
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                final Vector bucket = getBucket(i);
+                if (next[i] < bucket.size()
+                        && (lowest < 0 || ((Meeting) bucket.elementAt(next[i]))
+                                .getId() < meetings[j].getId())) {
+                    lowest = i;
+                    meetings[j] = (Meeting) bucket.elementAt(next[i]);
+                }
+            }
+            ++next[lowest];
+        }
+
+        _nextId = count > 0 ? meetings[count - 1].getId() + 1 : 1;
+        return meetings;
+    }
+
+    /**
+     * Returns the meetings in the order they were added. The array is never
+     * modified, and may be read while meetings are being saved.
+     * 
+     * @return The meetings
+     */
+    Meeting[] getMeetings() {
+        return _meetings;
+    }
+
+    /**
+     * Adds a new meeting and commits its bucket
+     * 
+     * @param meeting
+     *            The meeting to add
+     */
+    synchronized void add(final Meeting meeting) {
+        meeting.setId(_nextId++);
+        final int index = getBucketIndex(meeting);
+        synchronized (_buckets[index]) {
+            getBucket(index).addElement(meeting);
+            PersistentObject.commit(_buckets[index]);
+        }
+
+        final Meeting[] meetings = new Meeting[_meetings.length + 1];
+        System.arraycopy(_meetings, 0, meetings, 0, _meetings.length);
+        meetings[_meetings.length] = meeting;
+        _meetings = meetings;
+    }
+
+    /**
+     * Commits the bucket of a meeting which has been changed
+     * 
+     * @param meeting
+     *            The changed meeting
+     */
+    synchronized void update(final Meeting meeting) {
+        final PersistentObject bucket = _buckets[getBucketIndex(meeting)];
+        synchronized (bucket) {
+            PersistentObject.commit(bucket);
+        }
+    }
+
+    /**
+     * Removes a meeting and commits its bucket
+     * 
+     * @param meeting
+     *            The meeting to remove
+     */
+    synchronized void remove(final Meeting meeting) {
+        final int index = getBucketIndex(meeting);
+        synchronized (_buckets[index]) {
+            getBucket(index).removeElement(meeting);
+            PersistentObject.commit(_buckets[index]);
+        }
+
+        int i = 0;
+        while (i < _meetings.length && _meetings[i] != meeting) {
+            ++i;
+        }
+        if (i < _meetings.length) {
+            final Meeting[] meetings = new Meeting[_meetings.length - 1];
+            System.arraycopy(_meetings, 0, meetings, 0, i);
+            System.arraycopy(_meetings, i + 1, meetings, i, meetings.length
+                    - i);
+            _meetings = meetings;
+        }
+        DecodedFieldCache.remove(meeting);
+    }
+
+    /**
+     * Re-encodes every meeting according to the device's current content
+     * protection settings, committing each bucket in turn. Callers of this
+     * method should obtain a ticket using PersistentContent.getTicket().
+     * 
+     * @param generation
+     *            The mode generation the re-encoding is for. Re-encoding stops
+     *            if the settings change again, as it will have to be repeated
+     *            for the new settings anyway.
+     */
+    synchronized void reEncode(final int generation) {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            synchronized (_buckets[i]) {
+                final Vector bucket = getBucket(i);
+                for (int j = 0; j < bucket.size(); ++j) {
+                    if (generation != PersistentContent.getModeGeneration()) {
+                        return;
+                    }
+                    ((Meeting) bucket.elementAt(j)).reEncode();
+                }
+                PersistentObject.commit(_buckets[i]);
+            }
+        }
+    }
+
+    /**
+     * Deletes the root and bucket PersistentObjects of a MeetingStore
+     * 
+     * @param id
+     *            The ID of the root PersistentObject
+     */
+    static void destroy(final long id) {
+        for (int i = 0; i <= BUCKET_COUNT; ++i) {
+            PersistentStore.destroyPersistentObject(id + i);
+        }
+    }
+
+    /**
+     * Returns the Vector of meetings held by a bucket
+     */
+    private Vector getBucket(final int index) {
+        return (Vector) _buckets[index].getContents();
+    }
+
+    /**
+     * Returns the index of the bucket holding a meeting
+     */
+    private static int getBucketIndex(final Meeting meeting) {
+        return (int) (meeting.getId() % BUCKET_COUNT);
+    }
+}
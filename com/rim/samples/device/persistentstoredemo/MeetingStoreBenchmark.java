@@ -0,0 +1,160 @@
+/*
+ * MeetingStoreBenchmark.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.persistentstoredemo;
+
+import java.util.Vector;
+
+import net.rim.device.api.system.PersistentObject;
+import net.rim.device.api.system.PersistentStore;
+
+/**
+ * Times loading, listing and saving a large number of meetings, comparing the
+ * single Vector used by earlier versions of this application with the buckets
+ * of a MeetingStore. Scratch persistent objects are used, and are destroyed
+ * once the benchmark is done.
+ */
+final class MeetingStoreBenchmark {
+    // Scratch persistent object IDs, clear of those used by the application
+    private static final long VECTOR_ID =
+            PersistentStoreDemo.PERSISTENT_STORE_DEMO_ID + 0x100;
+    private static final long STORE_ID = VECTOR_ID + 1;
+
+    private static final int MEETING_COUNT = 2000;
+
+    /**
+     * Runs the benchmark
+     * 
+     * @return A report of the times taken
+     */
+    String run() {
+        final StringBuffer report = new StringBuffer();
+        destroy();
+        try {
+            long start = System.currentTimeMillis();
+            final Vector meetings = new Vector(MEETING_COUNT);
+            for (int i = 0; i < MEETING_COUNT; ++i) {
+                final Meeting meeting = new Meeting();
+                meeting.setField(Meeting.MEETING_NAME, "Meeting " + i);
+                meeting.setField(Meeting.DESC, "Weekly status");
+                meeting.setField(Meeting.DATE, "2011-01-01");
+                meeting.setField(Meeting.TIME, "10:00");
+                meeting.addAttendee("Attendee " + i);
+                meetings.addElement(meeting);
+            }
+            appendResult(report, "Create " + MEETING_COUNT + " meetings",
+                    start);
+
+            // A single Vector, committed as a whole after each change
+            final PersistentObject vector =
+                    PersistentStore.getPersistentObject(VECTOR_ID);
+            start = System.currentTimeMillis();
+            synchronized (vector) {
+                vector.setContents(meetings);
+                PersistentObject.commit(vector);
+            }
+            appendResult(report, "Commit all, single Vector", start);
+
+            final Meeting first = (Meeting) meetings.elementAt(0);
+            start = System.currentTimeMillis();
+            first.setField(Meeting.NOTES, "Edited");
+            synchronized (vector) {
+                PersistentObject.commit(vector);
+            }
+            appendResult(report, "Commit one edit, single Vector", start);
+            PersistentStore.destroyPersistentObject(VECTOR_ID);
+
+            // The same meetings moved into the buckets of a MeetingStore
+            final PersistentObject root =
+                    PersistentStore.getPersistentObject(STORE_ID);
+            synchronized (root) {
+                root.setContents(meetings);
+                PersistentObject.commit(root);
+            }
+            start = System.currentTimeMillis();
+            MeetingStore store = new MeetingStore(STORE_ID);
+            appendResult(report, "Move into " + MeetingStore.BUCKET_COUNT
+                    + " buckets", start);
+
+            start = System.currentTimeMillis();
+            first.setField(Meeting.NOTES, "Edited again");
+            store.update(first);
+            appendResult(report, "Commit one edit, buckets", start);
+
+            start = System.currentTimeMillis();
+            store.add(new Meeting());
+            appendResult(report, "Add one meeting, buckets", start);
+
+            start = System.currentTimeMillis();
+            store = new MeetingStore(STORE_ID);
+            appendResult(report, "Open " + store.getMeetings().length
+                    + " meetings", start);
+
+            // Listing the meetings, as the main screen does when painting
+            DecodedFieldCache.clear();
+            start = System.currentTimeMillis();
+            listNames(store);
+            appendResult(report, "List names, decoded", start);
+
+            start = System.currentTimeMillis();
+            listNames(store);
+            appendResult(report, "List names, cached", start);
+        } finally {
+            destroy();
+        }
+
+        return report.toString();
+    }
+
+    /**
+     * Reads the name of every meeting in a store
+     */
+    private static void listNames(final MeetingStore store) {
+        final Meeting[] meetings = store.getMeetings();
+        for (int i = 0; i < meetings.length; ++i) {
+            meetings[i].getField(Meeting.MEETING_NAME);
+        }
+    }
+
+    /**
+     * Destroys the scratch persistent objects and any plaintext decoded from
+     * them
+     */
+    private static void destroy() {
+        PersistentStore.destroyPersistentObject(VECTOR_ID);
+        MeetingStore.destroy(STORE_ID);
+        DecodedFieldCache.clear();
+    }
+
+    /**
+     * Appends the time taken since start to the report
+     */
+    private static void appendResult(final StringBuffer report,
+            final String name, final long start) {
+        report.append(name).append(": ").append(
+                System.currentTimeMillis() - start).append(" ms\n");
+    }
+}
@@ -41,7 +41,9 @@ import net.rim.device.api.ui.UiApplication;
  * application allows a user to save Meeting objects which contain information
  * such as date, time and names of those in attendance. An additional GUI screen
  * allows existing meetings to be edited and re-saved. This application does not
- * allow for deletion of attendees.
+ * allow for deletion of attendees. Meetings are kept by a MeetingStore, which
+ * spreads them over several persistent objects so that saving a meeting only
+ * commits the part of the store it belongs to.
  * 
  * The constructor for this class contains code to demonstrate the concept of
  * protecting an object stored in the persistent store with a code signing key.
@@ -62,8 +64,7 @@ import net.rim.device.api.ui.UiApplication;
  * key.
  */
 public final class PersistentStoreDemo extends UiApplication {
-    private final Vector _meetings;
-    private final PersistentObject _store;
+    private final MeetingStore _meetings;
     private final PersistentStoreDemoScreen _screen;
 
     // com.rim.samples.device.persistentstoredemo = 0x220d57d6848faeffL
@@ -90,10 +91,13 @@ public final class PersistentStoreDemo extends UiApplication {
      * Creates a new PersistentStoreDemo object
      */
     public PersistentStoreDemo() {
+        // Retrieve the saved Meeting objects from the persistent store
+        _meetings = new MeetingStore(PERSISTENT_STORE_DEMO_ID);
+
         // The PersistentContentListener listens for changes to the device
         // content protection and compression settings as well as persistent
         // content state changes.
-        PersistentContent.addListener(new PersistentStoreListener());
+        PersistentContent.addListener(new PersistentStoreListener(_meetings));
 
         // Persist an object protected by a code signing key. Please see
         // instructions above.
@@ -109,19 +113,6 @@ public final class PersistentStoreDemo extends UiApplication {
             PersistentObject.commit(controlledStore);
         }
 
-        // Retrieve the persistent object for this application
-        _store = PersistentStore.getPersistentObject(PERSISTENT_STORE_DEMO_ID);
-
-        synchronized (_store) {
-            // If the PersistentObject is empty, initialize it
-            if (_store.getContents() == null) {
-                _store.setContents(new Vector());
-            }
-        }
-
-        // Retrieve the saved Meeting objects from the persistent store
-        _meetings = (Vector) _store.getContents();
-
         // Create the main screen for the application and push it onto the UI
         // stack for rendering.
         _screen = new PersistentStoreDemoScreen(_meetings);
@@ -130,41 +121,29 @@ public final class PersistentStoreDemo extends UiApplication {
 
     /**
      * Called by MeetingScreen. Saves new or updated meeting and refreshes the
-     * list of meetings.
+     * list of meetings. Only the persistent bucket holding the meeting is
+     * committed.
      * 
      * @param meeting
      *            The meeting to be saved
      * @param index
-     *            The meeting's position in the _meetings Vector. A value of -1
+     *            The meeting's position in the list of meetings. A value of -1
      *            represents a new meeting.
      */
     public void saveMeeting(final Meeting meeting, final int index) {
         if (index >= 0) {
-            _screen.getModel().removeRowAt(index);
-            _screen.getModel().insertRowAt(index, meeting);
+            _screen.updateMeeting(index, meeting);
         } else {
             _screen.getModel().addRow(meeting);
         }
     }
 
     /**
-     * Returns collection of Meeting objects
+     * Returns the store holding the Meeting objects
      * 
-     * @return A vector of Meeting objects
+     * @return The MeetingStore for this application
      */
-    public Vector getMeetings() {
+    MeetingStore getMeetings() {
         return _meetings;
     }
-
-    /**
-     * Commits the updated vector of Meeting objects to the persistent store.
-     */
-    public void persist() {
-        // Synchronize on the PersistentObject so that no other object can
-        // acquire the lock before we finish the commit operation.
-        synchronized (_store) {
-            _store.setContents(_meetings);
-            PersistentObject.commit(_store);
-        }
-    }
 }
@@ -49,6 +49,7 @@ import net.rim.device.api.ui.component.table.AbstractTableModel;
 import net.rim.device.api.ui.component.table.DataTemplate;
 import net.rim.device.api.ui.component.table.TableController;
 import net.rim.device.api.ui.component.table.TableModelAdapter;
+import net.rim.device.api.ui.component.table.TableModelChangeEvent;
 import net.rim.device.api.ui.component.table.TableView;
 import net.rim.device.api.ui.component.table.TemplateColumnProperties;
 import net.rim.device.api.ui.component.table.TemplateRowProperties;
@@ -61,17 +62,17 @@ import net.rim.device.api.util.StringProvider;
  */
 public final class PersistentStoreDemoScreen extends MainScreen {
     private PersistentStoreDemo _uiApp;
-    private Vector _meetings;
-    private AbstractTableModel _model;
+    private MeetingStore _meetings;
+    private MeetingTableModelAdapter _model;
     private TableView _view;
 
     /**
      * Creates a new PersistentStoreDemoScreen object
      * 
      * @param meetings
-     *            A vector of persistable Meeting objects
+     *            The store holding the persistable Meeting objects
      */
-    public PersistentStoreDemoScreen(final Vector meetings) {
+    public PersistentStoreDemoScreen(final MeetingStore meetings) {
         super(Manager.NO_VERTICAL_SCROLL);
 
         _uiApp = (PersistentStoreDemo) UiApplication.getUiApplication();
@@ -165,7 +166,7 @@ public final class PersistentStoreDemoScreen extends MainScreen {
                 // vector, then update the list field to reflect the change.
                 final int i = _view.getRowNumberWithFocus();
                 final String meetingName =
-                        ((Meeting) _uiApp.getMeetings().elementAt(i))
+                        ((Meeting) _model.getRow(i))
                                 .getField(Meeting.MEETING_NAME);
                 final int result =
                         Dialog.ask(Dialog.DELETE, "Delete " + meetingName + "?");
@@ -212,8 +213,35 @@ public final class PersistentStoreDemoScreen extends MainScreen {
             }
         }));
 
+        // Menu item to time the meeting store with a large number of
+        // meetings
+        final MenuItem benchmarkItem =
+                new MenuItem(new StringProvider("Benchmark"), 0x230060, 0);
+        benchmarkItem.setCommand(new Command(new CommandHandler() {
+            /**
+             * @see net.rim.device.api.command.CommandHandler#execute(ReadOnlyCommandMetadata,
+             *      Object)
+             */
+            public void execute(final ReadOnlyCommandMetadata metadata,
+                    final Object context) {
+                // Run the benchmark away from the event thread
+                new Thread() {
+                    public void run() {
+                        final String report = new MeetingStoreBenchmark().run();
+                        UiApplication.getUiApplication().invokeLater(
+                                new Runnable() {
+                                    public void run() {
+                                        Dialog.inform(report);
+                                    }
+                                });
+                    }
+                }.start();
+            }
+        }));
+
         addMenuItem(newMeetingItem);
         addMenuItem(retrieveItem);
+        addMenuItem(benchmarkItem);
     }
 
     /**
@@ -225,6 +253,18 @@ public final class PersistentStoreDemoScreen extends MainScreen {
         return _model;
     }
 
+    /**
+     * Commits an edited meeting and redraws its row
+     * 
+     * @param index
+     *            The position of the meeting in the list
+     * @param meeting
+     *            The edited meeting
+     */
+    void updateMeeting(final int index, final Meeting meeting) {
+        _model.updateRow(index, meeting);
+    }
+
     /**
      * Pushes a MeetingScreen to display the selected meeting
      * 
@@ -263,9 +303,9 @@ public final class PersistentStoreDemoScreen extends MainScreen {
             return true;
         }
 
-        // Intercept the ESC key - exit the app on its receipt
+        // Intercept the ESC key - exit the app on its receipt. Meetings are
+        // committed as they are saved, so there is nothing left to persist.
         if (key == Characters.ESCAPE) {
-            _uiApp.persist();
             close();
             return true;
         }
@@ -287,14 +327,16 @@ public final class PersistentStoreDemoScreen extends MainScreen {
     // Inner classes------------------------------------------------------------
 
     /**
-     * Adapter to display meeting data in table format
+     * Adapter to display meeting data in table format. Rows are read from the
+     * MeetingStore's current array of meetings, which is never locked by a
+     * commit.
      */
     private class MeetingTableModelAdapter extends TableModelAdapter {
         /**
          * @see net.rim.device.api.ui.component.table.TableModelAdapter#getNumberOfRows()
          */
         public int getNumberOfRows() {
-            return _meetings.size();
+            return _meetings.getMeetings().length;
         }
 
         /**
@@ -308,27 +350,14 @@ public final class PersistentStoreDemoScreen extends MainScreen {
          * @see net.rim.device.api.ui.component.table.TableModelAdapter#doGetRow(int)
          */
         protected Object doGetRow(final int index) {
-            return _meetings.elementAt(index);
-        }
-
-        /**
-         * @see net.rim.device.api.ui.component.table.TableModelAdapter#doInsertRowAt(int,
-         *      Object)
-         */
-        protected boolean doInsertRowAt(final int index, final Object object) {
-            if (_meetings.size() == 0) {
-                _meetings.addElement(object);
-            } else {
-                _meetings.insertElementAt(object, index);
-            }
-            return true;
+            return _meetings.getMeetings()[index];
         }
 
         /**
          * @see net.rim.device.api.ui.component.table.TableModelAdapter#doAddRow(Object)
          */
         protected boolean doAddRow(final Object object) {
-            _meetings.addElement(object);
+            _meetings.add((Meeting) object);
             return true;
         }
 
@@ -336,9 +365,23 @@ public final class PersistentStoreDemoScreen extends MainScreen {
          * @see net.rim.device.api.ui.component.table.TableModelAdapter#doRemoveRowAt(int)
          */
         protected boolean doRemoveRowAt(final int index) {
-            _meetings.removeElementAt(index);
+            _meetings.remove(_meetings.getMeetings()[index]);
             return true;
         }
+
+        /**
+         * Commits a changed row and notifies the view
+         * 
+         * @param index
+         *            Index of the changed row
+         * @param row
+         *            The changed meeting
+         */
+        public void updateRow(final int index, final Object row) {
+            _meetings.update((Meeting) row);
+            notifyListeners(new TableModelChangeEvent(
+                    TableModelChangeEvent.ROW_UPDATED, this, index, -1));
+        }
     };
 
     /**
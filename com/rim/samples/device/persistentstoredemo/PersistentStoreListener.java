@@ -26,30 +26,40 @@
 
 package com.rim.samples.device.persistentstoredemo;
 
-import java.util.Vector;
-
 import net.rim.device.api.system.PersistentContent;
 import net.rim.device.api.system.PersistentContentListener;
-import net.rim.device.api.system.PersistentObject;
-import net.rim.device.api.system.PersistentStore;
 
 /**
  * Persistent content listener for the PersistentStoreDemo app. Listens for
  * changes to the device's Content Protection/Compression security settings and
- * re-encodes data accordingly. Changes to the device's state are ignored.
+ * re-encodes data accordingly. Changes to the device's state empty the cache
+ * of decoded meeting fields.
  */
 public final class PersistentStoreListener implements PersistentContentListener {
+    private final MeetingStore _meetings;
+
+    /**
+     * Creates a new PersistentStoreListener object
+     * 
+     * @param meetings
+     *            The store whose meetings should be re-encoded
+     */
+    public PersistentStoreListener(final MeetingStore meetings) {
+        _meetings = meetings;
+    }
+
     /**
      * Called when the state of the device changes (unlocked/locking/locked
-     * insecure/locked secure). This app doesn't care about these state changes
-     * because data is always encoded inside the Meeting objects; thus, there is
-     * no need to encode or decode them during locking and unlocking.
+     * insecure/locked secure). Data is always encoded inside the Meeting
+     * objects, so there is no need to encode or decode them during locking and
+     * unlocking. Plaintext decoded before the change is discarded, though, so
+     * that it is not kept while the device is locked.
      * 
      * @param state
      *            The device's new state.
      */
     public void persistentContentStateChanged(final int state) {
-        // Ignored
+        DecodedFieldCache.clear();
     }
 
     /**
@@ -66,37 +76,8 @@ public final class PersistentStoreListener implements PersistentContentListener
         final Object ticket = PersistentContent.getTicket();
 
         if (ticket != null) {
-            final PersistentObject store =
-                    PersistentStore
-                            .getPersistentObject(PersistentStoreDemo.PERSISTENT_STORE_DEMO_ID);
-
-            if (store != null) {
-                synchronized (store.getContents()) {
-                    final Vector meetings = (Vector) store.getContents();
-                    if (meetings == null) {
-                        // Contents empty; nothing to re-encode.
-                        return;
-                    }
-                    for (int i = 0; i < meetings.size(); ++i) {
-                        if (generation != PersistentContent.getModeGeneration()) {
-                            // Device's Content Protection/Compression security
-                            // settings have changed again since the listener
-                            // was
-                            // last notified. Abort this re-encoding because it
-                            // will have to be done again anyway according to
-                            // the
-                            // new Content Protection/Compression security
-                            // settings.
-                            break;
-                        }
-
-                        final Meeting meeting = (Meeting) meetings.elementAt(i);
-                        meeting.reEncode();
-                    }
-                    // Commit the updated data to the persistent store.
-                    PersistentObject.commit(store);
-                }
-            }
+            // Each bucket of meetings is committed as it is re-encoded
+            _meetings.reEncode(generation);
         }
     }
 }
@@ -31,6 +31,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * The CD class. The toByteArray() and fromByteArray() methods are required
@@ -38,6 +40,17 @@ import java.io.EOFException;
  * record as a byte array. The converted byte array is in tag-length format to
  * allow the scalability of this class while still allowing the CDdb to store
  * and read previous versions of the CD class.
+ * 
+ * Two record formats are read. The original format, written by toByteArray(),
+ * holds each field as a two byte tag followed by the field in modified UTF-8
+ * with a two byte length, and always starts with a zero byte. The compact
+ * format, written by toByteArray(StringDictionary), starts with the byte
+ * FORMAT_COMPACT. It holds the artist as the ID of a string in a
+ * StringDictionary, so that an artist's name is stored once however many CDs
+ * are by that artist, followed by the title as UTF-8 with a variable length
+ * integer length. Any further fields are written as a tag, a length and the
+ * field, both variable length integers, so that readers can skip fields added
+ * by later versions.
  */
 public final class CD {
     private String _artist;
@@ -47,8 +60,10 @@ public final class CD {
     private static final short ARTIST = 0;
     private static final short TITLE = 1;
 
+    private static final int FORMAT_COMPACT = 2;
+
     /**
-     * Constructs a new CD object, given byte array
+     * Constructs a new CD object, given byte array in the original format
      * 
      * @param data
      *            Byte array for the CD
@@ -56,7 +71,30 @@ public final class CD {
      *                IO error
      */
     public CD(final byte[] data) throws java.io.IOException {
-        fromByteArray(data);
+        this(data, null);
+    }
+
+    /**
+     * Constructs a new CD object, given byte array in either format
+     * 
+     * @param data
+     *            Byte array for the CD
+     * @param dictionary
+     *            The dictionary of the CD's record store, or null if the
+     *            record is known to be in the original format
+     * @exception java.io.IOException
+     *                Thrown if the record could not be decoded
+     */
+    CD(final byte[] data, final StringDictionary dictionary)
+            throws java.io.IOException {
+        if (data.length > 0 && data[0] == FORMAT_COMPACT) {
+            if (dictionary == null) {
+                throw new java.io.IOException("Compact CD record needs a dictionary");
+            }
+            fromCompactByteArray(data, dictionary);
+        } else {
+            fromByteArray(data);
+        }
     }
 
     /**
@@ -101,7 +139,7 @@ public final class CD {
     }
 
     /**
-     * Converts a CD to a byte array
+     * Converts a CD to a byte array in the original format
      * 
      * @return Byte encoded version of the CD
      * @exception java.io.IOException
@@ -122,6 +160,129 @@ public final class CD {
         return data;
     }
 
+    /**
+     * Converts a CD to a byte array in the compact format
+     * 
+     * @param dictionary
+     *            The dictionary of the record store the CD will be written
+     *            to. The artist is added to it if it is not already there.
+     * @return Byte encoded version of the CD
+     * @exception java.io.IOException
+     *                Thrown if the artist could not be added to the dictionary
+     */
+    byte[] toByteArray(final StringDictionary dictionary)
+            throws java.io.IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(FORMAT_COMPACT);
+        writeVarint(baos, dictionary.getId(_artist));
+        writeString(baos, _title);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Converts a byte array in the compact format to a CD
+     * 
+     * @param array
+     *            CD encoded as a byte array
+     * @param dictionary
+     *            The dictionary holding the artist
+     * @exception java.io.IOException
+     *                Thrown if the record could not be decoded
+     */
+    private void fromCompactByteArray(final byte[] array,
+            final StringDictionary dictionary) throws java.io.IOException {
+        final ByteArrayInputStream bais = new ByteArrayInputStream(array);
+        bais.skip(1);
+
+        _artist = dictionary.getString(readVarint(bais));
+        _title = readString(bais);
+
+        // Skip any fields added by later versions
+        while (bais.available() > 0) {
+            readVarint(bais);
+            bais.skip(readVarint(bais));
+        }
+
+        _fullName = _artist + ": " + _title;
+    }
+
+    /**
+     * Writes a non-negative integer using as few bytes as possible, seven bits
+     * to a byte, least significant first. The top bit of each byte is set if
+     * another byte follows.
+     * 
+     * @param out
+     *            The stream to write to
+     * @param value
+     *            The integer to write
+     * @exception java.io.IOException
+     *                Thrown if the stream could not be written
+     */
+    static void writeVarint(final OutputStream out, int value)
+            throws java.io.IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Reads an integer written by writeVarint()
+     * 
+     * @param in
+     *            The stream to read from
+     * @return The integer read
+     * @exception java.io.IOException
+     *                Thrown if the stream ends or could not be read
+     */
+    static int readVarint(final InputStream in) throws java.io.IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new java.io.IOException("Malformed variable length integer");
+    }
+
+    /**
+     * Writes a string as its length in UTF-8 bytes followed by the bytes
+     * 
+     * @param out
+     *            The stream to write to
+     * @param value
+     *            The string to write
+     * @exception java.io.IOException
+     *                Thrown if the stream could not be written
+     */
+    static void writeString(final OutputStream out, final String value)
+            throws java.io.IOException {
+        final byte[] bytes = value.getBytes("UTF-8");
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString()
+     * 
+     * @param in
+     *            The stream to read from
+     * @return The string read
+     * @exception java.io.IOException
+     *                Thrown if the stream ends or could not be read
+     */
+    static String readString(final InputStream in) throws java.io.IOException {
+        final byte[] bytes = new byte[readVarint(in)];
+        new DataInputStream(in).readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
     /**
      * Converts a byte array to a CD
      * 
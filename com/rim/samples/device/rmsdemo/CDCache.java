@@ -0,0 +1,158 @@
+/*
+ * CDCache.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.rmsdemo;
+
+import java.util.Hashtable;
+
+/**
+ * A least recently used cache of decoded CD objects, keyed by record ID. When
+ * the cache is full, adding a CD evicts the CD that was used least recently.
+ * The cache may be updated from a RecordListener as well as from the thread
+ * using the CDdb, so all methods are synchronized.
+ */
+final class CDCache {
+    private final int _capacity;
+    private final Hashtable _entries;
+
+    // Sentinel of a circular list of entries. _head._next is the most
+    // recently used entry and _head._previous the least recently used.
+    private final Entry _head;
+
+    /**
+     * Constructs a new CDCache
+     * 
+     * @param capacity
+     *            The maximum number of CDs to hold
+     */
+    CDCache(final int capacity) {
+        _capacity = capacity;
+        _entries = new Hashtable(capacity);
+        _head = new Entry(0, null);
+        _head._next = _head;
+        _head._previous = _head;
+    }
+
+    /**
+     * Returns a cached CD and marks it as the most recently used
+     * 
+     * @param recordId
+     *            The record ID of the CD
+     * @return The CD, or null if it is not cached
+     */
+    synchronized CD get(final int recordId) {
+        final Entry entry = (Entry) _entries.get(new Integer(recordId));
+        if (entry == null) {
+            return null;
+        }
+
+        unlink(entry);
+        linkFirst(entry);
+        return entry._cd;
+    }
+
+    /**
+     * Adds or replaces a CD in the cache, evicting the least recently used CD
+     * if the cache is full
+     * 
+     * @param recordId
+     *            The record ID of the CD
+     * @param cd
+     *            The decoded CD
+     */
+    synchronized void put(final int recordId, final CD cd) {
+        final Integer key = new Integer(recordId);
+        Entry entry = (Entry) _entries.get(key);
+        if (entry != null) {
+            entry._cd = cd;
+            unlink(entry);
+        } else {
+            if (_entries.size() >= _capacity) {
+                final Entry eldest = _head._previous;
+                unlink(eldest);
+                _entries.remove(new Integer(eldest._recordId));
+            }
+            entry = new Entry(recordId, cd);
+            _entries.put(key, entry);
+        }
+        linkFirst(entry);
+    }
+
+    /**
+     * Removes a CD from the cache
+     * 
+     * @param recordId
+     *            The record ID of the CD
+     */
+    synchronized void remove(final int recordId) {
+        final Entry entry = (Entry) _entries.remove(new Integer(recordId));
+        if (entry != null) {
+            unlink(entry);
+        }
+    }
+
+    /**
+     * Removes all CDs from the cache
+     */
+    synchronized void clear() {
+        _entries.clear();
+        _head._next = _head;
+        _head._previous = _head;
+    }
+
+    /**
+     * Removes an entry from the list
+     */
+    private static void unlink(final Entry entry) {
+        entry._previous._next = entry._next;
+        entry._next._previous = entry._previous;
+    }
+
+    /**
+     * Inserts an entry at the most recently used end of the list
+     */
+    private void linkFirst(final Entry entry) {
+        entry._next = _head._next;
+        entry._previous = _head;
+        _head._next._previous = entry;
+        _head._next = entry;
+    }
+
+    /**
+     * A cached CD and its place in the list
+     */
+    private static final class Entry {
+        private final int _recordId;
+        private CD _cd;
+        private Entry _previous;
+        private Entry _next;
+
+        private Entry(final int recordId, final CD cd) {
+            _recordId = recordId;
+            _cd = cd;
+        }
+    }
+}
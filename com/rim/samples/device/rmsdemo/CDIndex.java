@@ -0,0 +1,537 @@
+/*
+ * CDIndex.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.rmsdemo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreNotFoundException;
+
+/**
+ * A sorted index of the records in a CDdb, kept in its own record store. Each
+ * entry pairs a key, such as a CD's artist and title, with the record ID of
+ * the CD.
+ * 
+ * Entries are held in key order in pages of at most MAX_PAGE_SIZE entries,
+ * one record per page. The first key of each page is kept in a directory
+ * record which is read into memory when the index is opened. A lookup reads
+ * only the pages which can hold matching keys, and an update rewrites only the
+ * page it changes, plus the directory when a page is split or removed.
+ * 
+ * A header record holds the version of the CD record store that the index was
+ * last brought up to date with, so that an index which has fallen out of step
+ * with its record store can be detected and rebuilt.
+ */
+final class CDIndex {
+    private static final int MAX_PAGE_SIZE = 64;
+
+    // Pages written by rebuild() are left partly empty so that the first
+    // inserts after a rebuild do not split every page.
+    private static final int REBUILD_PAGE_SIZE = MAX_PAGE_SIZE * 3 / 4;
+
+    // The header and directory are the first two records added to a new index
+    // record store, so they have the first two record IDs.
+    private static final int HEADER_RECORD = 1;
+    private static final int DIRECTORY_RECORD = 2;
+
+    private final String _name;
+    private RecordStore _store;
+    private final Vector _pages;
+    private int _sourceVersion;
+
+    /**
+     * Opens or creates an index
+     * 
+     * @param name
+     *            Name of the record store holding the index
+     * @exception RecordStoreException
+     *                Thrown if the record store could not be opened
+     * @exception IOException
+     *                Thrown if the directory could not be read
+     */
+    CDIndex(final String name) throws RecordStoreException, IOException {
+        _name = name;
+        _pages = new Vector();
+        _store = RecordStore.openRecordStore(name, true);
+
+        if (_store.getNumRecords() < 2) {
+            create();
+        } else {
+            final DataInputStream header =
+                    new DataInputStream(new ByteArrayInputStream(_store
+                            .getRecord(HEADER_RECORD)));
+            _sourceVersion = header.readInt();
+
+            final DataInputStream directory =
+                    new DataInputStream(new ByteArrayInputStream(_store
+                            .getRecord(DIRECTORY_RECORD)));
+            final int count = directory.readInt();
+            for (int i = 0; i < count; ++i) {
+                final String firstKey = directory.readUTF();
+                _pages.addElement(new Page(firstKey, directory.readInt()));
+            }
+        }
+    }
+
+    /**
+     * Replaces the index record store with a new, empty one
+     */
+    private void create() throws RecordStoreException, IOException {
+        _store.closeRecordStore();
+        RecordStore.deleteRecordStore(_name);
+        _store = RecordStore.openRecordStore(_name, true);
+        _pages.removeAllElements();
+        _sourceVersion = -1;
+
+        final byte[] empty = new byte[0];
+        _store.addRecord(empty, 0, 0);
+        _store.addRecord(empty, 0, 0);
+        writeHeader();
+        writeDirectory();
+    }
+
+    /**
+     * Determines whether the index is up to date with a version of the CD
+     * record store
+     * 
+     * @param sourceVersion
+     *            The version of the CD record store
+     * @return True if the index was last brought up to date with the version
+     */
+    boolean isCurrent(final int sourceVersion) {
+        return _sourceVersion == sourceVersion;
+    }
+
+    /**
+     * Records the version of the CD record store which the index is now up to
+     * date with
+     * 
+     * @param sourceVersion
+     *            The version of the CD record store
+     * @exception RecordStoreException
+     *                Thrown if the header could not be written
+     * @exception IOException
+     *                Thrown if the header could not be encoded
+     */
+    void setSourceVersion(final int sourceVersion)
+            throws RecordStoreException, IOException {
+        if (_sourceVersion != sourceVersion) {
+            _sourceVersion = sourceVersion;
+            writeHeader();
+        }
+    }
+
+    /**
+     * Replaces the contents of the index
+     * 
+     * @param keys
+     *            The keys of the new entries, in any order
+     * @param ids
+     *            The record IDs of the new entries
+     * @param count
+     *            The number of entries
+     * @exception RecordStoreException
+     *                Thrown if the index could not be written
+     * @exception IOException
+     *                Thrown if the index could not be encoded
+     */
+    void rebuild(final String[] keys, final int[] ids, final int count)
+            throws RecordStoreException, IOException {
+        create();
+        sort(keys, ids, 0, count, new String[count], new int[count]);
+
+        for (int start = 0; start < count; start += REBUILD_PAGE_SIZE) {
+            final int size = Math.min(REBUILD_PAGE_SIZE, count - start);
+            final String[] pageKeys = new String[size];
+            final int[] pageIds = new int[size];
+            System.arraycopy(keys, start, pageKeys, 0, size);
+            System.arraycopy(ids, start, pageIds, 0, size);
+
+            final byte[] data = encodePage(pageKeys, pageIds, size);
+            final int recordId = _store.addRecord(data, 0, data.length);
+            _pages.addElement(new Page(pageKeys[0], recordId));
+        }
+
+        writeDirectory();
+    }
+
+    /**
+     * Adds an entry to the index
+     * 
+     * @param key
+     *            The key of the entry
+     * @param id
+     *            The record ID of the CD
+     * @exception RecordStoreException
+     *                Thrown if the index could not be written
+     * @exception IOException
+     *                Thrown if the index could not be read or encoded
+     */
+    void insert(final String key, final int id) throws RecordStoreException,
+            IOException {
+        if (_pages.isEmpty()) {
+            final byte[] data =
+                    encodePage(new String[] { key }, new int[] { id }, 1);
+            _pages.addElement(new Page(key, _store.addRecord(data, 0,
+                    data.length)));
+            writeDirectory();
+            return;
+        }
+
+        // The new entry belongs in the last page starting at or before its
+        // key, or in the first page if its key comes before every page.
+        int index = findPage(key, true);
+        if (index < 0) {
+            index = 0;
+        }
+        final Page page = (Page) _pages.elementAt(index);
+
+        final String[] keys = new String[MAX_PAGE_SIZE + 1];
+        final int[] ids = new int[MAX_PAGE_SIZE + 1];
+        int size = readPage(page, keys, ids);
+
+        int position = size;
+        while (position > 0 && keys[position - 1].compareTo(key) > 0) {
+            --position;
+        }
+        System.arraycopy(keys, position, keys, position + 1, size - position);
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        keys[position] = key;
+        ids[position] = id;
+        ++size;
+
+        boolean directoryChanged = false;
+        if (position == 0) {
+            page._firstKey = key;
+            directoryChanged = true;
+        }
+
+        if (size > MAX_PAGE_SIZE) {
+            // Split the page, moving the upper half into a new record
+            final int half = size / 2;
+            final String[] upperKeys = new String[size - half];
+            final int[] upperIds = new int[size - half];
+            System.arraycopy(keys, half, upperKeys, 0, size - half);
+            System.arraycopy(ids, half, upperIds, 0, size - half);
+
+            final byte[] upper = encodePage(upperKeys, upperIds, size - half);
+            final int recordId = _store.addRecord(upper, 0, upper.length);
+            _pages.insertElementAt(new Page(upperKeys[0], recordId), index + 1);
+            size = half;
+            directoryChanged = true;
+        }
+
+        writePage(page, keys, ids, size);
+        if (directoryChanged) {
+            writeDirectory();
+        }
+    }
+
+    /**
+     * Removes an entry from the index
+     * 
+     * @param key
+     *            The key of the entry
+     * @param id
+     *            The record ID of the CD
+     * @exception RecordStoreException
+     *                Thrown if the index could not be written
+     * @exception IOException
+     *                Thrown if the index could not be read or encoded
+     */
+    void remove(final String key, final int id) throws RecordStoreException,
+            IOException {
+        final String[] keys = new String[MAX_PAGE_SIZE];
+        final int[] ids = new int[MAX_PAGE_SIZE];
+
+        // Entries with the same key may be spread over several pages
+        for (int index = Math.max(findPage(key, false), 0); index < _pages
+                .size(); ++index) {
+            final Page page = (Page) _pages.elementAt(index);
+            if (page._firstKey.compareTo(key) > 0) {
+                break;
+            }
+
+            int size = readPage(page, keys, ids);
+            for (int position = 0; position < size; ++position) {
+                if (ids[position] == id && keys[position].equals(key)) {
+                    --size;
+                    System.arraycopy(keys, position + 1, keys, position, size
+                            - position);
+                    System.arraycopy(ids, position + 1, ids, position, size
+                            - position);
+
+                    if (size == 0 && _pages.size() > 1) {
+                        _store.deleteRecord(page._recordId);
+                        _pages.removeElementAt(index);
+                        writeDirectory();
+                    } else {
+                        writePage(page, keys, ids, size);
+                        if (position == 0 && size > 0) {
+                            page._firstKey = keys[0];
+                            writeDirectory();
+                        }
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the record IDs of the entries whose keys start with a prefix,
+     * in key order
+     * 
+     * @param prefix
+     *            The prefix to match, or an empty String for every entry
+     * @return The record IDs of the matching entries
+     * @exception RecordStoreException
+     *                Thrown if the index could not be read
+     * @exception IOException
+     *                Thrown if the index could not be decoded
+     */
+    int[] find(final String prefix) throws RecordStoreException, IOException {
+        final String[] keys = new String[MAX_PAGE_SIZE];
+        final int[] ids = new int[MAX_PAGE_SIZE];
+        int[] matches = new int[16];
+        int count = 0;
+
+        for (int index = Math.max(findPage(prefix, false), 0); index < _pages
+                .size(); ++index) {
+            final int size = readPage((Page) _pages.elementAt(index), keys, ids);
+            for (int position = 0; position < size; ++position) {
+                final String key = keys[position];
+                if (key.startsWith(prefix)) {
+                    if (count == matches.length) {
+                        final int[] larger = new int[count * 2];
+                        System.arraycopy(matches, 0, larger, 0, count);
+                        matches = larger;
+                    }
+                    matches[count++] = ids[position];
+                } else if (key.compareTo(prefix) > 0) {
+                    // Past the last key starting with the prefix
+                    final int[] result = new int[count];
+                    System.arraycopy(matches, 0, result, 0, count);
+                    return result;
+                }
+            }
+        }
+
+        final int[] result = new int[count];
+        System.arraycopy(matches, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Closes the index record store
+     * 
+     * @exception RecordStoreException
+     *                Thrown if the record store could not be closed
+     */
+    void close() throws RecordStoreException {
+        _store.closeRecordStore();
+    }
+
+    /**
+     * Deletes an index record store
+     * 
+     * @param name
+     *            Name of the record store holding the index
+     * @exception RecordStoreException
+     *                Thrown if the record store could not be deleted
+     */
+    static void delete(final String name) throws RecordStoreException {
+        try {
+            RecordStore.deleteRecordStore(name);
+        } catch (final RecordStoreNotFoundException e) {
+            // Nothing to delete
+        }
+    }
+
+    /**
+     * Finds the last page whose first key comes before a key
+     * 
+     * @param key
+     *            The key to search for
+     * @param inclusive
+     *            True to also accept a page whose first key equals the key
+     * @return The index of the page, or -1 if there is no such page
+     */
+    private int findPage(final String key, final boolean inclusive) {
+        int low = 0;
+        int high = _pages.size() - 1;
+        int found = -1;
+
+        while (low <= high) {
+            final int middle = (low + high) / 2;
+            final int comparison =
+                    ((Page) _pages.elementAt(middle))._firstKey.compareTo(key);
+            if (comparison < 0 || inclusive && comparison == 0) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Reads the entries of a page into the given arrays
+     * 
+     * @return The number of entries read
+     */
+    private int readPage(final Page page, final String[] keys, final int[] ids)
+            throws RecordStoreException, IOException {
+        final DataInputStream input =
+                new DataInputStream(new ByteArrayInputStream(_store
+                        .getRecord(page._recordId)));
+        final int size = input.readShort();
+        for (int i = 0; i < size; ++i) {
+            keys[i] = input.readUTF();
+            ids[i] = input.readInt();
+        }
+        return size;
+    }
+
+    /**
+     * Writes the first entries of the given arrays to a page
+     */
+    private void writePage(final Page page, final String[] keys,
+            final int[] ids, final int size) throws RecordStoreException,
+            IOException {
+        final byte[] data = encodePage(keys, ids, size);
+        _store.setRecord(page._recordId, data, 0, data.length);
+    }
+
+    /**
+     * Encodes the first entries of the given arrays as a page record
+     */
+    private static byte[] encodePage(final String[] keys, final int[] ids,
+            final int size) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeShort(size);
+        for (int i = 0; i < size; ++i) {
+            dos.writeUTF(keys[i]);
+            dos.writeInt(ids[i]);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Writes the header record
+     */
+    private void writeHeader() throws RecordStoreException, IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(_sourceVersion);
+        final byte[] data = baos.toByteArray();
+        _store.setRecord(HEADER_RECORD, data, 0, data.length);
+    }
+
+    /**
+     * Writes the directory record
+     */
+    private void writeDirectory() throws RecordStoreException, IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(baos);
+        final int count = _pages.size();
+        dos.writeInt(count);
+        for (int i = 0; i < count; ++i) {
+            final Page page = (Page) _pages.elementAt(i);
+            dos.writeUTF(page._firstKey);
+            dos.writeInt(page._recordId);
+        }
+        final byte[] data = baos.toByteArray();
+        _store.setRecord(DIRECTORY_RECORD, data, 0, data.length);
+    }
+
+    /**
+     * Sorts a range of keys, and the record IDs paired with them, by key
+     * using a merge sort
+     * 
+     * @param keys
+     *            The keys to sort
+     * @param ids
+     *            The record IDs paired with the keys
+     * @param start
+     *            The first index of the range
+     * @param end
+     *            The index after the last index of the range
+     * @param tempKeys
+     *            Working space at least as long as keys
+     * @param tempIds
+     *            Working space at least as long as ids
+     */
+    private static void sort(final String[] keys, final int[] ids,
+            final int start, final int end, final String[] tempKeys,
+            final int[] tempIds) {
+        if (end - start < 2) {
+            return;
+        }
+
+        final int middle = (start + end) / 2;
+        sort(keys, ids, start, middle, tempKeys, tempIds);
+        sort(keys, ids, middle, end, tempKeys, tempIds);
+
+        int left = start;
+        int right = middle;
+        for (int i = start; i < end; ++i) {
+            if (right >= end || left < middle
+                    && keys[left].compareTo(keys[right]) <= 0) {
+                tempKeys[i] = keys[left];
+                tempIds[i] = ids[left++];
+            } else {
+                tempKeys[i] = keys[right];
+                tempIds[i] = ids[right++];
+            }
+        }
+        System.arraycopy(tempKeys, start, keys, start, end - start);
+        System.arraycopy(tempIds, start, ids, start, end - start);
+    }
+
+    /**
+     * The first key of a page and the record holding it
+     */
+    private static final class Page {
+        private String _firstKey;
+        private final int _recordId;
+
+        private Page(final String firstKey, final int recordId) {
+            _firstKey = firstKey;
+            _recordId = recordId;
+        }
+    }
+}
@@ -26,18 +26,62 @@
 
 package com.rim.samples.device.rmsdemo;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Hashtable;
+import java.util.Vector;
+
 import javax.microedition.rms.InvalidRecordIDException;
 import javax.microedition.rms.RecordEnumeration;
+import javax.microedition.rms.RecordListener;
 import javax.microedition.rms.RecordStore;
 import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreNotFoundException;
 import javax.microedition.rms.RecordStoreNotOpenException;
 
 /**
  * This class manages an RMS of Compact Disc titles
  * 
+ * Decoded CDs are kept in a CDCache, from which they are removed by a
+ * RecordListener whenever their records change. Two CDIndex record stores
+ * hold the record IDs sorted by artist and by title, so that a sorted list or
+ * a search by prefix reads only the index pages and CD records it needs. The
+ * indexes are updated by add(), edit() and delete(), and are rebuilt when the
+ * CDdb is opened if the CD record store has been changed by other means.
+ * 
+ * CDs are written in the compact record format, with artist names held once
+ * in a StringDictionary record store. Records in the original format are
+ * still read, and are still written to a shared record store which has no
+ * dictionary because it was created by an older version. Large numbers of
+ * CDs can be moved in and out of the store with importCDs() and exportCDs().
  */
 public final class CDdb {
+    private static final int CACHE_SIZE = 64;
+    private static final String ARTIST_INDEX = " by artist";
+    private static final String TITLE_INDEX = " by title";
+    private static final String DICTIONARY = " strings";
+
+    // Identifies a stream written by exportCDs(), and its version
+    private static final int STREAM_MAGIC = 0x43444231; // "CDB1"
+
+    private static final int IMPORT_BATCH_SIZE = 100;
+
+    // An import adding more than this fraction of the CDs already in the
+    // store rebuilds the indexes once at the end instead of updating them
+    // for each CD.
+    private static final int INCREMENTAL_IMPORT_DIVISOR = 8;
+
     RecordStore _rs;
+    private final StringDictionary _dictionary;
+    private final CDCache _cache;
+    private final CDIndex _artistIndex;
+    private final CDIndex _titleIndex;
+
+    // Set when an import fails part way, leaving the indexes behind the
+    // record store until they are next rebuilt
+    private boolean _indexesStale;
 
     /**
      * Constructs a new CDdb, creator
@@ -51,9 +95,9 @@ public final class CDdb {
      */
     public CDdb(final String name) throws RecordStoreException,
             java.io.IOException {
-        _rs =
-                RecordStore.openRecordStore(name, true,
-                        RecordStore.AUTHMODE_ANY, false);
+        this(RecordStore.openRecordStore(name, true, RecordStore.AUTHMODE_ANY,
+                false), RecordStore.openRecordStore(name + DICTIONARY, true,
+                RecordStore.AUTHMODE_ANY, false), name);
     }
 
     /**
@@ -73,9 +117,187 @@ public final class CDdb {
     public CDdb(final String recordStoreName, final String vendorName,
             final String suiteName) throws RecordStoreException,
             java.io.IOException {
-        _rs =
-                RecordStore.openRecordStore(recordStoreName, vendorName,
-                        suiteName);
+        this(RecordStore.openRecordStore(recordStoreName, vendorName,
+                suiteName), openDictionary(recordStoreName, vendorName,
+                suiteName), recordStoreName);
+    }
+
+    /**
+     * Opens the dictionary of another MIDlet suite's record store
+     * 
+     * @return The dictionary record store, or null if the record store was
+     *         written by an older version and has none
+     * @exception RecordStoreException
+     *                Thrown if the dictionary could not be opened
+     */
+    private static RecordStore openDictionary(final String recordStoreName,
+            final String vendorName, final String suiteName)
+            throws RecordStoreException {
+        try {
+            return RecordStore.openRecordStore(recordStoreName + DICTIONARY,
+                    vendorName, suiteName);
+        } catch (final RecordStoreNotFoundException e) {
+            // Its records are all in the original format
+            return null;
+        }
+    }
+
+    /**
+     * Constructs a new CDdb for an open record store. The indexes are kept in
+     * record stores belonging to this MIDlet suite, named after the CD record
+     * store.
+     * 
+     * @param rs
+     *            The record store holding the CDs
+     * @param dictionaryStore
+     *            The record store holding the artist names of the CDs, or
+     *            null if the record store has no dictionary
+     * @param name
+     *            Name of the RMS
+     * @exception RecordStoreException
+     *                Thrown if the indexes could not be opened or rebuilt
+     * @exception java.io.IOException
+     *                Thrown if the indexes could not be read
+     */
+    private CDdb(final RecordStore rs, final RecordStore dictionaryStore,
+            final String name) throws RecordStoreException, java.io.IOException {
+        _rs = rs;
+        _dictionary = new StringDictionary(dictionaryStore);
+        _cache = new CDCache(CACHE_SIZE);
+        _artistIndex = new CDIndex(name + ARTIST_INDEX);
+        _titleIndex = new CDIndex(name + TITLE_INDEX);
+
+        // Drop cached CDs whose records are changed, whether by this CDdb or
+        // by another user of the record store.
+        _rs.addRecordListener(new RecordListener() {
+            public void recordAdded(final RecordStore recordStore,
+                    final int recordId) {
+                // Nothing cached yet
+            }
+
+            public void recordChanged(final RecordStore recordStore,
+                    final int recordId) {
+                _cache.remove(recordId);
+            }
+
+            public void recordDeleted(final RecordStore recordStore,
+                    final int recordId) {
+                _cache.remove(recordId);
+            }
+        });
+
+        final int version = _rs.getVersion();
+        if (!_artistIndex.isCurrent(version)
+                || !_titleIndex.isCurrent(version)) {
+            rebuildIndexes();
+        }
+    }
+
+    /**
+     * Rebuilds both indexes from the contents of the record store
+     * 
+     * @exception RecordStoreException
+     *                Thrown if there is a record store error
+     * @exception java.io.IOException
+     *                Thrown if a CD could not be read or an index written
+     */
+    private synchronized void rebuildIndexes() throws RecordStoreException,
+            java.io.IOException {
+        final int count = _rs.getNumRecords();
+        final String[] artistKeys = new String[count];
+        final String[] titleKeys = new String[count];
+        final int[] artistIds = new int[count];
+        final int[] titleIds = new int[count];
+
+        final RecordEnumeration enumeration = enumerate();
+        try {
+            for (int i = 0; i < count && enumeration.hasNextElement(); ++i) {
+                final int recordId = enumeration.nextRecordId();
+                final CD cd = decode(_rs.getRecord(recordId));
+                artistKeys[i] = getArtistKey(cd);
+                titleKeys[i] = getTitleKey(cd);
+                artistIds[i] = recordId;
+                titleIds[i] = recordId;
+            }
+        } finally {
+            enumeration.destroy();
+        }
+
+        final int version = _rs.getVersion();
+        _artistIndex.rebuild(artistKeys, artistIds, count);
+        _artistIndex.setSourceVersion(version);
+        _titleIndex.rebuild(titleKeys, titleIds, count);
+        _titleIndex.setSourceVersion(version);
+        _indexesStale = false;
+    }
+
+    /**
+     * Rebuilds the indexes if a failed import has left them out of date
+     * 
+     * @exception RecordStoreException
+     *                Thrown if there is a record store error
+     * @exception java.io.IOException
+     *                Thrown if a CD could not be read or an index written
+     */
+    private void checkIndexes() throws RecordStoreException,
+            java.io.IOException {
+        if (_indexesStale) {
+            rebuildIndexes();
+        }
+    }
+
+    /**
+     * Decodes a CD record in either format
+     * 
+     * @param data
+     *            The record
+     * @return The decoded CD
+     * @exception java.io.IOException
+     *                Thrown if the record could not be decoded
+     */
+    CD decode(final byte[] data) throws java.io.IOException {
+        return new CD(data, _dictionary);
+    }
+
+    /**
+     * Encodes a CD in the compact format, or in the original format if the
+     * record store has no dictionary
+     * 
+     * @param cd
+     *            The CD to encode
+     * @return The record
+     * @exception java.io.IOException
+     *                Thrown if the CD could not be encoded
+     */
+    private byte[] encode(final CD cd) throws java.io.IOException {
+        return _dictionary.isReadOnly() ? cd.toByteArray() : cd
+                .toByteArray(_dictionary);
+    }
+
+    /**
+     * Returns the artist index key of a CD. Keys are in lower case so that
+     * sorting and searching ignore case, and CDs by the same artist are sorted
+     * by title.
+     */
+    private static String getArtistKey(final CD cd) {
+        return cd.getArtist().toLowerCase() + '\0' + cd.getTitle().toLowerCase();
+    }
+
+    /**
+     * Returns the title index key of a CD
+     */
+    private static String getTitleKey(final CD cd) {
+        return cd.getTitle().toLowerCase() + '\0' + cd.getArtist().toLowerCase();
+    }
+
+    /**
+     * Records that both indexes are up to date with the record store
+     */
+    private void indexesUpdated() throws RecordStoreException,
+            java.io.IOException {
+        final int version = _rs.getVersion();
+        _artistIndex.setSourceVersion(version);
+        _titleIndex.setSourceVersion(version);
     }
 
     /**
@@ -97,10 +319,17 @@ public final class CDdb {
     public synchronized int add(final String artist, final String title)
             throws java.io.IOException, RecordStoreNotOpenException,
             RecordStoreException {
+        checkIndexes();
         final CD cd = new CD(artist, title);
-        final byte[] data = cd.toByteArray();
+        final byte[] data = encode(cd);
 
-        return _rs.addRecord(data, 0, data.length);
+        final int recordId = _rs.addRecord(data, 0, data.length);
+        _cache.put(recordId, cd);
+        _artistIndex.insert(getArtistKey(cd), recordId);
+        _titleIndex.insert(getTitleKey(cd), recordId);
+        indexesUpdated();
+
+        return recordId;
     }
 
     /**
@@ -121,9 +350,18 @@ public final class CDdb {
     public synchronized void edit(final int index, final String artist,
             final String title) throws java.io.IOException,
             RecordStoreNotOpenException, RecordStoreException {
+        checkIndexes();
+        final CD oldCD = getCD(index);
         final CD cd = new CD(artist, title);
-        final byte[] data = cd.toByteArray();
+        final byte[] data = encode(cd);
         _rs.setRecord(index, data, 0, data.length);
+        _cache.put(index, cd);
+
+        _artistIndex.remove(getArtistKey(oldCD), index);
+        _artistIndex.insert(getArtistKey(cd), index);
+        _titleIndex.remove(getTitleKey(oldCD), index);
+        _titleIndex.insert(getTitleKey(cd), index);
+        indexesUpdated();
     }
 
     /**
@@ -144,9 +382,14 @@ public final class CDdb {
      */
     public CD getCD(final int recordID) throws RecordStoreNotOpenException,
             InvalidRecordIDException, RecordStoreException, java.io.IOException {
-        final byte[] data = _rs.getRecord(recordID);
+        CD cd = _cache.get(recordID);
+        if (cd == null) {
+            final byte[] data = _rs.getRecord(recordID);
+            cd = decode(data);
+            _cache.put(recordID, cd);
+        }
 
-        return new CD(data);
+        return cd;
     }
 
     /**
@@ -160,11 +403,227 @@ public final class CDdb {
      *                Thrown if the recordID is invalid
      * @exception RecordStoreException
      *                Thrown if there is a record store error
+     * @exception java.io.IOException
+     *                Thrown if the CD or the indexes could not be read
      */
     public synchronized void delete(final int recordId)
             throws RecordStoreNotOpenException, InvalidRecordIDException,
-            RecordStoreException {
+            RecordStoreException, java.io.IOException {
+        checkIndexes();
+        final CD cd = getCD(recordId);
         _rs.deleteRecord(recordId);
+        _cache.remove(recordId);
+
+        _artistIndex.remove(getArtistKey(cd), recordId);
+        _titleIndex.remove(getTitleKey(cd), recordId);
+        indexesUpdated();
+    }
+
+    /**
+     * Returns the record IDs of all CDs, sorted by artist and then by title
+     * 
+     * @return The sorted record IDs
+     * @exception RecordStoreException
+     *                Thrown if the index could not be read
+     * @exception java.io.IOException
+     *                Thrown if the index could not be decoded
+     */
+    synchronized int[] getRecordIdsByArtist() throws RecordStoreException,
+            java.io.IOException {
+        checkIndexes();
+        return _artistIndex.find("");
+    }
+
+    /**
+     * Returns the record IDs of the CDs whose artist or title starts with a
+     * prefix, ignoring case. CDs matching by artist come first, sorted by
+     * artist, followed by those matching only by title, sorted by title.
+     * 
+     * @param prefix
+     *            The text to search for
+     * @return The record IDs of the matching CDs
+     * @exception RecordStoreException
+     *                Thrown if the indexes could not be read
+     * @exception java.io.IOException
+     *                Thrown if the indexes could not be decoded
+     */
+    synchronized int[] find(final String prefix) throws RecordStoreException,
+            java.io.IOException {
+        checkIndexes();
+        final String key = prefix.toLowerCase();
+        final int[] byArtist = _artistIndex.find(key);
+        final int[] byTitle = _titleIndex.find(key);
+
+        final Hashtable seen = new Hashtable(byArtist.length);
+        for (int i = 0; i < byArtist.length; ++i) {
+            final Integer recordId = new Integer(byArtist[i]);
+            seen.put(recordId, recordId);
+        }
+
+        final int[] matches = new int[byArtist.length + byTitle.length];
+        System.arraycopy(byArtist, 0, matches, 0, byArtist.length);
+        int count = byArtist.length;
+        for (int i = 0; i < byTitle.length; ++i) {
+            if (!seen.containsKey(new Integer(byTitle[i]))) {
+                matches[count++] = byTitle[i];
+            }
+        }
+
+        final int[] result = new int[count];
+        System.arraycopy(matches, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Adds the CDs in a stream written by exportCDs() to the RecordStore. CDs
+     * are read and written in batches of IMPORT_BATCH_SIZE, and the monitor is
+     * held for the whole import rather than taken for each CD. An import which
+     * adds only a few CDs compared to those already in the store updates the
+     * indexes after each batch; a larger one rebuilds them once at the end.
+     * If the import fails part way, the CDs already added are kept and the
+     * indexes are rebuilt before they are next used.
+     * 
+     * @param in
+     *            The stream to read
+     * @return The number of CDs imported
+     * @exception RecordStoreException
+     *                Thrown if there is a record store error
+     * @exception java.io.IOException
+     *                Thrown if the stream could not be read or is not a CD
+     *                export stream
+     */
+    synchronized int importCDs(final InputStream in)
+            throws RecordStoreException, java.io.IOException {
+        final DataInputStream dis = new DataInputStream(in);
+        if (dis.readInt() != STREAM_MAGIC) {
+            throw new java.io.IOException("Not a CD export stream");
+        }
+
+        checkIndexes();
+        try {
+            return importBatches(dis);
+        } catch (final RecordStoreException e) {
+            _indexesStale = true;
+            throw e;
+        } catch (final java.io.IOException e) {
+            _indexesStale = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Reads and adds the CDs of an export stream after its header, for
+     * importCDs()
+     * 
+     * @param dis
+     *            The stream to read
+     * @return The number of CDs imported
+     * @exception RecordStoreException
+     *                Thrown if there is a record store error
+     * @exception java.io.IOException
+     *                Thrown if the stream could not be read
+     */
+    private int importBatches(final DataInputStream dis)
+            throws RecordStoreException, java.io.IOException {
+        final Vector artists = new Vector();
+        final CD[] batch = new CD[IMPORT_BATCH_SIZE];
+        final int[] batchIds = new int[IMPORT_BATCH_SIZE];
+        final int existing = _rs.getNumRecords();
+        boolean rebuild = false;
+        boolean done = false;
+        int imported = 0;
+
+        while (!done) {
+            // Read a batch of CDs
+            int size = 0;
+            while (size < IMPORT_BATCH_SIZE) {
+                final int number = CD.readVarint(dis);
+                if (number == 0) {
+                    done = true;
+                    break;
+                }
+                if (number == artists.size() + 1) {
+                    artists.addElement(CD.readString(dis));
+                } else if (number > artists.size()) {
+                    throw new java.io.IOException("Bad artist number " + number);
+                }
+                batch[size++] =
+                        new CD((String) artists.elementAt(number - 1), CD
+                                .readString(dis));
+            }
+
+            // Write the batch
+            for (int i = 0; i < size; ++i) {
+                final byte[] data = encode(batch[i]);
+                batchIds[i] = _rs.addRecord(data, 0, data.length);
+            }
+            imported += size;
+
+            if (!rebuild && imported > existing / INCREMENTAL_IMPORT_DIVISOR) {
+                // Leave the indexes as they are, marked out of date, until
+                // the rebuild at the end
+                rebuild = true;
+            }
+            if (!rebuild) {
+                for (int i = 0; i < size; ++i) {
+                    _artistIndex.insert(getArtistKey(batch[i]), batchIds[i]);
+                    _titleIndex.insert(getTitleKey(batch[i]), batchIds[i]);
+                }
+                indexesUpdated();
+            }
+        }
+
+        if (rebuild) {
+            rebuildIndexes();
+        }
+
+        return imported;
+    }
+
+    /**
+     * Writes every CD, sorted by artist, to a stream which can be read by
+     * importCDs(). Each artist's name is written once, the first time it
+     * appears, and later CDs by the same artist refer back to it by number.
+     * Records are read straight from the store so that exporting does not
+     * replace the contents of the cache.
+     * 
+     * @param out
+     *            The stream to write to
+     * @return The number of CDs exported
+     * @exception RecordStoreException
+     *                Thrown if there is a record store error
+     * @exception java.io.IOException
+     *                Thrown if a CD could not be decoded or the stream could
+     *                not be written
+     */
+    synchronized int exportCDs(final OutputStream out)
+            throws RecordStoreException, java.io.IOException {
+        final DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(STREAM_MAGIC);
+
+        checkIndexes();
+        final Hashtable artists = new Hashtable();
+        final int[] recordIds = _artistIndex.find("");
+        for (int i = 0; i < recordIds.length; ++i) {
+            final CD cd = decode(_rs.getRecord(recordIds[i]));
+            final Integer number = (Integer) artists.get(cd.getArtist());
+            if (number == null) {
+                // The number after the last artist's introduces a new artist
+                final int newNumber = artists.size() + 1;
+                CD.writeVarint(dos, newNumber);
+                CD.writeString(dos, cd.getArtist());
+                artists.put(cd.getArtist(), new Integer(newNumber));
+            } else {
+                CD.writeVarint(dos, number.intValue());
+            }
+            CD.writeString(dos, cd.getTitle());
+        }
+
+        // Zero marks the end of the stream
+        CD.writeVarint(dos, 0);
+        dos.flush();
+
+        return recordIds.length;
     }
 
     /**
@@ -175,6 +634,41 @@ public final class CDdb {
      *                Thrown if the record store is not open
      */
     RecordEnumeration enumerate() throws RecordStoreNotOpenException {
-        return _rs.enumerateRecords(null, null, true);
+        return _rs.enumerateRecords(null, null, false);
+    }
+
+    /**
+     * Closes the record store and its indexes
+     * 
+     * @exception RecordStoreException
+     *                Thrown if a record store could not be closed
+     */
+    synchronized void close() throws RecordStoreException {
+        _cache.clear();
+        _artistIndex.close();
+        _titleIndex.close();
+        _dictionary.close();
+        _rs.closeRecordStore();
+    }
+
+    /**
+     * Deletes a CD record store along with its dictionary and indexes
+     * 
+     * @param name
+     *            Name of the RMS
+     * @exception RecordStoreException
+     *                Thrown if a record store could not be deleted
+     */
+    static void deleteDatabase(final String name) throws RecordStoreException {
+        final String[] names = { name, name + DICTIONARY };
+        for (int i = 0; i < names.length; ++i) {
+            try {
+                RecordStore.deleteRecordStore(names[i]);
+            } catch (final RecordStoreNotFoundException e) {
+                // Nothing to delete
+            }
+        }
+        CDIndex.delete(name + ARTIST_INDEX);
+        CDIndex.delete(name + TITLE_INDEX);
     }
 }
@@ -0,0 +1,282 @@
+/*
+ * CDdbBenchmark.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.rmsdemo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.microedition.rms.RecordComparator;
+import javax.microedition.rms.RecordEnumeration;
+import javax.microedition.rms.RecordFilter;
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreNotFoundException;
+
+/**
+ * Times CDdb lookups against the full scans they replace, using a scratch
+ * CDdb which is deleted once the benchmark is done. Without the indexes, a
+ * sorted list needs a RecordEnumeration whose RecordComparator decodes both
+ * records of every comparison, and a search needs a RecordFilter which decodes
+ * every record. With them, only the index pages and the matching records are
+ * read. The benchmark also compares the size of the original and compact
+ * record formats and the rate at which a full pass over the records can
+ * enumerate and decode each of them, and the rate of adding CDs one at a time
+ * with the rate of a bulk export and import.
+ */
+final class CDdbBenchmark {
+    private static final String DB_NAME = "RMSDemo Benchmark";
+    private static final String ORIGINAL_NAME = DB_NAME + " original";
+    private static final int CD_COUNT = 500;
+    private static final int VISIBLE_COUNT = 20;
+    private static final int REPEAT = 10;
+    private static final String PREFIX = "rad";
+
+    private static final String[] ARTISTS = { "Abba", "Beck", "Bjork",
+            "Blur", "Coldplay", "Daft Punk", "Eels", "Elbow", "Feist", "Gorillaz",
+            "Hole", "Interpol", "Keane", "Low", "Muse", "Nirvana", "Oasis",
+            "Pulp", "Radiohead", "Sparks", "Tool", "U2", "Wilco", "Yes" };
+
+    /**
+     * Runs the benchmark
+     * 
+     * @return A report of the times taken
+     * @throws Exception
+     *             If the scratch CDdb could not be created or read
+     */
+    String run() throws Exception {
+        final StringBuffer report = new StringBuffer();
+        CDdb.deleteDatabase(DB_NAME);
+        deleteRecordStore(ORIGINAL_NAME);
+        CDdb db = new CDdb(DB_NAME);
+        RecordStore original = null;
+        try {
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < CD_COUNT; ++i) {
+                db.add(ARTISTS[i % ARTISTS.length], "Album " + i);
+            }
+            appendRate(report, "Add " + CD_COUNT + " CDs", CD_COUNT, start);
+
+            // Record sizes, keeping a copy of the CDs in the original format
+            original =
+                    RecordStore.openRecordStore(ORIGINAL_NAME, true,
+                            RecordStore.AUTHMODE_ANY, false);
+            final int[] ids = db.getRecordIdsByArtist();
+            int originalBytes = 0;
+            int compactBytes = 0;
+            for (int i = 0; i < ids.length; ++i) {
+                final byte[] data = db.getCD(ids[i]).toByteArray();
+                original.addRecord(data, 0, data.length);
+                originalBytes += data.length;
+                compactBytes += db._rs.getRecordSize(ids[i]);
+            }
+            report.append("Bytes/CD: original ").append(
+                    originalBytes / ids.length).append(", compact ").append(
+                    compactBytes / ids.length).append('\n');
+
+            // Bulk export and import into a fresh CDdb
+            final ByteArrayOutputStream exported = new ByteArrayOutputStream();
+            start = System.currentTimeMillis();
+            db.exportCDs(exported);
+            appendRate(report, "Export (" + exported.size() / CD_COUNT
+                    + " bytes/CD)", CD_COUNT, start);
+
+            db.close();
+            CDdb.deleteDatabase(DB_NAME);
+            db = new CDdb(DB_NAME);
+            start = System.currentTimeMillis();
+            final int imported =
+                    db.importCDs(new ByteArrayInputStream(exported
+                            .toByteArray()));
+            appendRate(report, "Import " + imported + " CDs", imported, start);
+
+            // Reopen so that the cache starts empty and the indexes are read
+            // back from their record stores
+            db.close();
+            start = System.currentTimeMillis();
+            db = new CDdb(DB_NAME);
+            appendResult(report, "Open", start);
+            final CDdb scanned = db;
+
+            // A full pass over the records in each format
+            start = System.currentTimeMillis();
+            int loaded = load(db, original);
+            appendRate(report, "Load " + loaded + " CDs, original", loaded,
+                    start);
+
+            start = System.currentTimeMillis();
+            loaded = load(db, db._rs);
+            appendRate(report, "Load " + loaded + " CDs, compact", loaded,
+                    start);
+
+            // Sorted list
+            start = System.currentTimeMillis();
+            RecordEnumeration enumeration =
+                    db._rs.enumerateRecords(null, new RecordComparator() {
+                        public int compare(final byte[] first,
+                                final byte[] second) {
+                            try {
+                                final int comparison =
+                                        scanned.decode(first).getArtist()
+                                                .compareTo(
+                                                        scanned.decode(second)
+                                                                .getArtist());
+                                return comparison < 0 ? PRECEDES
+                                        : comparison > 0 ? FOLLOWS : EQUIVALENT;
+                            } catch (final java.io.IOException e) {
+                                return EQUIVALENT;
+                            }
+                        }
+                    }, false);
+            for (int i = 0; i < VISIBLE_COUNT && enumeration.hasNextElement(); ++i) {
+                db.decode(enumeration.nextRecord());
+            }
+            enumeration.destroy();
+            appendResult(report, "First " + VISIBLE_COUNT
+                    + " by artist, comparator", start);
+
+            start = System.currentTimeMillis();
+            final int[] sorted = db.getRecordIdsByArtist();
+            for (int i = 0; i < VISIBLE_COUNT && i < sorted.length; ++i) {
+                db.getCD(sorted[i]);
+            }
+            appendResult(report, "First " + VISIBLE_COUNT
+                    + " by artist, index", start);
+
+            // Prefix search
+            start = System.currentTimeMillis();
+            enumeration = db._rs.enumerateRecords(new RecordFilter() {
+                public boolean matches(final byte[] candidate) {
+                    try {
+                        final CD cd = scanned.decode(candidate);
+                        return cd.getArtist().toLowerCase().startsWith(PREFIX)
+                                || cd.getTitle().toLowerCase().startsWith(
+                                        PREFIX);
+                    } catch (final java.io.IOException e) {
+                        return false;
+                    }
+                }
+            }, null, false);
+            final int filtered = enumeration.numRecords();
+            enumeration.destroy();
+            appendResult(report, "Search \"" + PREFIX + "\", filter ("
+                    + filtered + ")", start);
+
+            start = System.currentTimeMillis();
+            final int[] found = db.find(PREFIX);
+            for (int i = 0; i < found.length; ++i) {
+                db.getCD(found[i]);
+            }
+            appendResult(report, "Search \"" + PREFIX + "\", index ("
+                    + found.length + ")", start);
+
+            // Repeated reads of the visible CDs
+            start = System.currentTimeMillis();
+            for (int j = 0; j < REPEAT; ++j) {
+                for (int i = 0; i < VISIBLE_COUNT && i < sorted.length; ++i) {
+                    db.decode(db._rs.getRecord(sorted[i]));
+                }
+            }
+            appendResult(report, REPEAT + " reads of " + VISIBLE_COUNT
+                    + ", decoded", start);
+
+            start = System.currentTimeMillis();
+            for (int j = 0; j < REPEAT; ++j) {
+                for (int i = 0; i < VISIBLE_COUNT && i < sorted.length; ++i) {
+                    db.getCD(sorted[i]);
+                }
+            }
+            appendResult(report, REPEAT + " reads of " + VISIBLE_COUNT
+                    + ", cached", start);
+        } finally {
+            db.close();
+            CDdb.deleteDatabase(DB_NAME);
+            if (original != null) {
+                original.closeRecordStore();
+            }
+            deleteRecordStore(ORIGINAL_NAME);
+        }
+
+        return report.toString();
+    }
+
+    /**
+     * Enumerates and decodes every record in a record store
+     * 
+     * @param db
+     *            The CDdb whose dictionary decodes compact records
+     * @param rs
+     *            The record store to read
+     * @return The number of records read
+     */
+    private static int load(final CDdb db, final RecordStore rs)
+            throws RecordStoreException, java.io.IOException {
+        final RecordEnumeration enumeration =
+                rs.enumerateRecords(null, null, false);
+        int count = 0;
+        try {
+            while (enumeration.hasNextElement()) {
+                db.decode(enumeration.nextRecord());
+                ++count;
+            }
+        } finally {
+            enumeration.destroy();
+        }
+        return count;
+    }
+
+    /**
+     * Deletes a record store, if it exists
+     */
+    private static void deleteRecordStore(final String name)
+            throws RecordStoreException {
+        try {
+            RecordStore.deleteRecordStore(name);
+        } catch (final RecordStoreNotFoundException e) {
+            // Nothing to delete
+        }
+    }
+
+    /**
+     * Appends the time taken since start to the report
+     */
+    private static void appendResult(final StringBuffer report,
+            final String name, final long start) {
+        report.append(name).append(": ").append(
+                System.currentTimeMillis() - start).append(" ms\n");
+    }
+
+    /**
+     * Appends the time taken since start, and the number of CDs handled per
+     * second, to the report
+     */
+    private static void appendRate(final StringBuffer report,
+            final String name, final int count, final long start) {
+        final long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+        report.append(name).append(": ").append(elapsed).append(" ms (")
+                .append(count * 1000L / elapsed).append(" CDs/s)\n");
+    }
+}
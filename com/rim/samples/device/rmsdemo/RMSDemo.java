@@ -37,20 +37,22 @@ import javax.microedition.lcdui.Display;
 import javax.microedition.lcdui.Displayable;
 import javax.microedition.lcdui.Form;
 import javax.microedition.lcdui.List;
+import javax.microedition.lcdui.TextBox;
 import javax.microedition.lcdui.TextField;
 import javax.microedition.midlet.MIDlet;
-import javax.microedition.rms.RecordEnumeration;
 import javax.microedition.rms.RecordStoreException;
 import javax.microedition.rms.RecordStoreNotOpenException;
 
 /**
  * Sample to demonstrate the usage of a Record Management Store in a MIDlet. The
  * sample uses an RMS back end to store a collection of CDs. CD objects can be
- * added, deleted, and edited.
+ * added, deleted, and edited. The collection is listed by artist and can be
+ * searched by the start of an artist's name or a title.
  */
 public final class RMSDemo extends MIDlet implements CommandListener {
     private CDdb _db; // RMS reference
-    private RecordEnumeration _enum; // Enumeration for the RMS
+    private int[] _recordIds; // Record IDs of the listed CDs, in list order
+    private String _filter; // Current search text, null to list all CDs
 
     private Display _display;
 
@@ -71,6 +73,15 @@ public final class RMSDemo extends MIDlet implements CommandListener {
     private Command _mainDelete; // Delete CD menu item
     private Command _mainEdit; // Edit CD menu item
     private Command _mainExit; // Exit app menu item
+    private Command _mainFind; // Find CDs menu item
+    private Command _mainShowAll; // Show all CDs menu item
+    private Command _mainBenchmark; // Benchmark menu item
+
+    private TextBox _findBox; // The Find CDs text box
+
+    // Menu items for find text box
+    private Command _findOK; // Find menu item
+    private Command _findCancel; // Cancel menu item
 
     // Id of CD being edited. -1 if no CD is being edited.
     private int _editCDRecordId = -1;
@@ -80,13 +91,15 @@ public final class RMSDemo extends MIDlet implements CommandListener {
         try {
             // Initialize members
             _db = new CDdb("My Music");
-            _enum = _db.enumerate();
             _list = new List("My CD Collection", Choice.IMPLICIT);
 
             _mainAdd = new Command("Add CD", Command.ITEM, 1);
             _mainEdit = new Command("Edit CD", Command.ITEM, 2);
             _mainDelete = new Command("Delete CD", Command.ITEM, 3);
             _mainExit = new Command("Close", Command.EXIT, 4);
+            _mainFind = new Command("Find CDs", Command.ITEM, 5);
+            _mainShowAll = new Command("Show All CDs", Command.ITEM, 6);
+            _mainBenchmark = new Command("Benchmark", Command.ITEM, 7);
 
             _addSave = new Command("Save", Command.SCREEN, 1);
             _addCancel = new Command("Cancel", Command.BACK, 2);
@@ -94,6 +107,8 @@ public final class RMSDemo extends MIDlet implements CommandListener {
             refreshList();
 
             _list.addCommand(_mainAdd);
+            _list.addCommand(_mainFind);
+            _list.addCommand(_mainBenchmark);
             _list.addCommand(_mainExit);
             _list.setSelectCommand(_mainEdit);
 
@@ -112,6 +127,15 @@ public final class RMSDemo extends MIDlet implements CommandListener {
 
             _addForm.setCommandListener(this);
 
+            _findBox =
+                    new TextBox("Find CDs by artist or title", null, 20,
+                            TextField.ANY);
+            _findOK = new Command("Find", Command.OK, 1);
+            _findCancel = new Command("Cancel", Command.BACK, 2);
+            _findBox.addCommand(_findOK);
+            _findBox.addCommand(_findCancel);
+            _findBox.setCommandListener(this);
+
             _display = Display.getDisplay(this);
 
         } catch (final Exception e) {
@@ -120,7 +144,9 @@ public final class RMSDemo extends MIDlet implements CommandListener {
     }
 
     /**
-     * Refreshes the 'My CD Collection' list
+     * Refreshes the 'My CD Collection' list with all CDs sorted by artist, or
+     * with those matching the current search. Only the listed CDs are read
+     * from the RMS.
      * 
      * @throws RecordStoreNotOpenException
      *             Thrown if the records holding the cd information is not open
@@ -134,14 +160,19 @@ public final class RMSDemo extends MIDlet implements CommandListener {
         // Clear list
         _list.deleteAll();
 
-        _enum.rebuild();
-
-        int recordId;
+        if (_filter == null) {
+            _recordIds = _db.getRecordIdsByArtist();
+            _list.setTitle("My CD Collection");
+            _list.removeCommand(_mainShowAll);
+        } else {
+            _recordIds = _db.find(_filter);
+            _list.setTitle("CDs matching \"" + _filter + "\"");
+            _list.addCommand(_mainShowAll);
+        }
 
-        // Loop through the RMS and add records to list
-        while (_enum.hasNextElement()) {
-            recordId = _enum.nextRecordId();
-            _list.append(_db.getCD(recordId).toString(), null);
+        // Add the CDs to the list
+        for (int i = 0; i < _recordIds.length; ++i) {
+            _list.append(_db.getCD(_recordIds[i]).toString(), null);
         }
 
         // If there are CDs in the RMS, add edit and delete CD menu items
@@ -162,22 +193,8 @@ public final class RMSDemo extends MIDlet implements CommandListener {
      *            ID.
      * @return The RMS record id.
      */
-    private int getRecordId(final int index)
-            throws RecordStoreNotOpenException, RecordStoreException {
-        _enum.rebuild();
-
-        int recordId = -1;
-        int count = 0;
-
-        while (_enum.hasNextElement()) {
-            recordId = _enum.nextRecordId();
-            if (count == index) {
-                return recordId;
-            }
-            count++;
-        }
-
-        return recordId;
+    private int getRecordId(final int index) {
+        return _recordIds[index];
     }
 
     /**
@@ -223,10 +240,41 @@ public final class RMSDemo extends MIDlet implements CommandListener {
                 } catch (final Exception e) {
                     errorDialog("Exception thrown!", e.toString(), _addForm);
                 }
+            } else if (c == _mainFind) {
+                // Find CDs
+                _findBox.setString(_filter);
+                _display.setCurrent(_findBox);
+            } else if (c == _mainShowAll) {
+                // Show all CDs
+                try {
+                    _filter = null;
+                    refreshList();
+                } catch (final Exception e) {
+                    errorDialog("Exception thrown!", e.toString(), _list);
+                }
+            } else if (c == _mainBenchmark) {
+                runBenchmark();
             } else if (c == _mainExit) {
+                destroyApp(true);
                 notifyDestroyed();
             }
         }
+        // A find text box command has been clicked
+        else if (d == _findBox) {
+            if (c == _findOK) {
+                try {
+                    final String text = _findBox.getString().trim();
+                    _filter = text.length() > 0 ? text : null;
+                    refreshList();
+                } catch (final Exception e) {
+                    errorDialog("Exception thrown!", e.toString(), _list);
+                    return;
+                }
+            }
+
+            // Switch to list
+            _display.setCurrent(_list);
+        }
         // An add form command has been clicked
         else if (d == _addForm) {
             if (c == _addSave) {
@@ -276,12 +324,42 @@ public final class RMSDemo extends MIDlet implements CommandListener {
     }
 
     /**
-     * Not implemented.
+     * Closes the RMS
      * 
      * @see javax.microedition.midlet.MIDlet#destroyApp(boolean)
      */
     public void destroyApp(final boolean unconditional) {
-        // Not implemented
+        try {
+            if (_db != null) {
+                _db.close();
+                _db = null;
+            }
+        } catch (final RecordStoreException e) {
+            // Exiting, nothing more can be done
+        }
+    }
+
+    /**
+     * Runs the CDdb benchmark on a background thread and displays the results
+     */
+    private void runBenchmark() {
+        _list.removeCommand(_mainBenchmark);
+        new Thread() {
+            public void run() {
+                String report;
+                try {
+                    report = new CDdbBenchmark().run();
+                } catch (final Exception e) {
+                    report = "Benchmark failed - " + e.toString();
+                }
+
+                final Alert results =
+                        new Alert("Benchmark", report, null, AlertType.INFO);
+                results.setTimeout(Alert.FOREVER);
+                _display.setCurrent(results, _list);
+                _list.addCommand(_mainBenchmark);
+            }
+        }.start();
     }
 
     /**
@@ -0,0 +1,159 @@
+/*
+ * StringDictionary.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.rmsdemo;
+
+import java.io.IOException;
+import java.util.Hashtable;
+
+import javax.microedition.rms.RecordEnumeration;
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+
+/**
+ * A dictionary of strings which are repeated across many CD records, such as
+ * artist names, kept in its own record store. Each string is stored once, as a
+ * record of UTF-8 bytes, and CD records refer to it by its record ID. The
+ * whole dictionary is read into memory when it is opened, so looking a string
+ * up never touches the record store.
+ * 
+ * A dictionary without a record store is empty and read-only. It stands in
+ * for the dictionary of a shared record store written before the compact
+ * format existed, whose records do not refer to dictionary strings.
+ */
+final class StringDictionary {
+    private final RecordStore _store;
+    private final Hashtable _ids;
+    private final Hashtable _strings;
+
+    /**
+     * Constructs a new StringDictionary, reading in the strings already held
+     * in a record store
+     * 
+     * @param store
+     *            The record store holding the dictionary, or null for an
+     *            empty, read-only dictionary
+     * @exception RecordStoreException
+     *                Thrown if the record store could not be read
+     * @exception IOException
+     *                Thrown if a string could not be decoded
+     */
+    StringDictionary(final RecordStore store) throws RecordStoreException,
+            IOException {
+        _store = store;
+        _ids = new Hashtable();
+        _strings = new Hashtable();
+        if (_store == null) {
+            return;
+        }
+
+        final RecordEnumeration enumeration =
+                _store.enumerateRecords(null, null, false);
+        try {
+            while (enumeration.hasNextElement()) {
+                final int id = enumeration.nextRecordId();
+                add(new String(_store.getRecord(id), "UTF-8"), id);
+            }
+        } finally {
+            enumeration.destroy();
+        }
+    }
+
+    /**
+     * Adds a string to the in-memory tables
+     */
+    private void add(final String string, final int id) {
+        final Integer key = new Integer(id);
+        _ids.put(string, key);
+        _strings.put(key, string);
+    }
+
+    /**
+     * Returns whether strings can be added to the dictionary
+     */
+    boolean isReadOnly() {
+        return _store == null;
+    }
+
+    /**
+     * Returns the ID of a string, adding the string to the dictionary if it is
+     * not already there
+     * 
+     * @param string
+     *            The string to look up
+     * @return The ID of the string
+     * @exception IOException
+     *                Thrown if the string could not be added to the record
+     *                store, or the dictionary is read-only
+     */
+    synchronized int getId(final String string) throws IOException {
+        final Integer id = (Integer) _ids.get(string);
+        if (id != null) {
+            return id.intValue();
+        }
+        if (_store == null) {
+            throw new IOException("Dictionary is read-only");
+        }
+
+        try {
+            final byte[] data = string.getBytes("UTF-8");
+            final int newId = _store.addRecord(data, 0, data.length);
+            add(string, newId);
+            return newId;
+        } catch (final RecordStoreException e) {
+            throw new IOException("Could not add to dictionary: " + e.toString());
+        }
+    }
+
+    /**
+     * Returns the string with a given ID
+     * 
+     * @param id
+     *            The ID of the string
+     * @return The string
+     * @exception IOException
+     *                Thrown if there is no string with the ID
+     */
+    synchronized String getString(final int id) throws IOException {
+        final String string = (String) _strings.get(new Integer(id));
+        if (string == null) {
+            throw new IOException("No dictionary string with ID " + id);
+        }
+        return string;
+    }
+
+    /**
+     * Closes the dictionary record store
+     * 
+     * @exception RecordStoreException
+     *                Thrown if the record store could not be closed
+     */
+    void close() throws RecordStoreException {
+        if (_store != null) {
+            _store.closeRecordStore();
+        }
+    }
+}
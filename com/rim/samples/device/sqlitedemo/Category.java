@@ -33,6 +33,7 @@ public final class Category {
     int _id;
     String _name;
     int _node;
+    int _itemCount;
 
     /**
      * Constructs a Category object
@@ -83,4 +84,23 @@ public final class Category {
     void setNode(final int node) {
         _node = node;
     }
+
+    /**
+     * Returns the number of directory items belonging to the category
+     * 
+     * @return The number of directory items in this category
+     */
+    int getItemCount() {
+        return _itemCount;
+    }
+
+    /**
+     * Sets the number of directory items belonging to the category
+     * 
+     * @param itemCount
+     *            The number of directory items in this category
+     */
+    void setItemCount(final int itemCount) {
+        _itemCount = itemCount;
+    }
 }
@@ -0,0 +1,130 @@
+/*
+ * ItemPageCache.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.sqlitedemo;
+
+import java.util.Vector;
+
+/**
+ * A small least recently used cache of pages of directory items. A page is
+ * identified by the category it belongs to and by the id of the item it
+ * follows. When the cache is full, adding a page evicts the page that was
+ * used least recently.
+ */
+final class ItemPageCache {
+    private final int _capacity;
+
+    // Cached pages, least recently used first
+    private final Vector _pages;
+
+    /**
+     * Constructs a new ItemPageCache
+     * 
+     * @param capacity
+     *            The maximum number of pages to hold
+     */
+    ItemPageCache(final int capacity) {
+        _capacity = capacity;
+        _pages = new Vector(capacity);
+    }
+
+    /**
+     * Returns a cached page and marks it as the most recently used
+     * 
+     * @param categoryId
+     *            The category the page belongs to
+     * @param afterId
+     *            The id of the item the page follows
+     * @return A vector of DirectoryItem objects, or null if the page is not
+     *         cached
+     */
+    Vector get(final int categoryId, final int afterId) {
+        for (int i = _pages.size() - 1; i >= 0; --i) {
+            final Page page = (Page) _pages.elementAt(i);
+            if (page._categoryId == categoryId && page._afterId == afterId) {
+                _pages.removeElementAt(i);
+                _pages.addElement(page);
+                return page._items;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a page to the cache, evicting the least recently used page if the
+     * cache is full
+     * 
+     * @param categoryId
+     *            The category the page belongs to
+     * @param afterId
+     *            The id of the item the page follows
+     * @param items
+     *            A vector of DirectoryItem objects
+     */
+    void put(final int categoryId, final int afterId, final Vector items) {
+        if (_pages.size() >= _capacity) {
+            _pages.removeElementAt(0);
+        }
+        _pages.addElement(new Page(categoryId, afterId, items));
+    }
+
+    /**
+     * Removes all cached pages belonging to a category
+     * 
+     * @param categoryId
+     *            The category whose pages should be removed
+     */
+    void invalidate(final int categoryId) {
+        for (int i = _pages.size() - 1; i >= 0; --i) {
+            if (((Page) _pages.elementAt(i))._categoryId == categoryId) {
+                _pages.removeElementAt(i);
+            }
+        }
+    }
+
+    /**
+     * Removes all cached pages
+     */
+    void clear() {
+        _pages.removeAllElements();
+    }
+
+    /**
+     * A page of directory items and the key it is cached under
+     */
+    private static final class Page {
+        private final int _categoryId;
+        private final int _afterId;
+        private final Vector _items;
+
+        private Page(final int categoryId, final int afterId,
+                final Vector items) {
+            _categoryId = categoryId;
+            _afterId = afterId;
+            _items = items;
+        }
+    }
+}
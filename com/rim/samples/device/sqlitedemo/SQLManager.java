@@ -26,6 +26,8 @@
 
 package com.rim.samples.device.sqlitedemo;
 
+import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.Vector;
 
 import net.rim.device.api.database.Cursor;
@@ -34,13 +36,75 @@ import net.rim.device.api.database.Database;
 import net.rim.device.api.database.DatabaseException;
 import net.rim.device.api.database.Row;
 import net.rim.device.api.database.Statement;
-import net.rim.device.api.util.IntHashtable;
 
 /**
- * A class to handle SQLite database logic
+ * A class to handle SQLite database logic. Each SQL statement used by this
+ * class is prepared once, the first time it is needed, and then reset and
+ * reused for every later call. The cached statements are closed along with
+ * the database in closeDB().
+ * 
+ * Directory items are read a page at a time, and only for the category being
+ * browsed, so the cost of opening the directory does not depend on the number
+ * of items it holds. Recently read pages are kept in an ItemPageCache.
+ * 
+ * Items can be searched by the words in their name, address and phone number.
+ * The ItemTerms table is an inverted index holding a row for each term of each
+ * item, and is kept up to date in the same transaction as every change to the
+ * DirectoryItems table.
  */
 public class SQLManager {
+    /**
+     * The number of directory items read per page. This is somewhat more than
+     * fit on the screen at once, so that a page also covers the rows just
+     * beyond those visible.
+     */
+    static final int PAGE_SIZE = 25;
+
+    private static final int CACHED_PAGES = 8;
+
+    /**
+     * The largest number of words in a search. Any further words are ignored.
+     */
+    static final int MAX_SEARCH_WORDS = 4;
+
+    private static final String CREATE_CATEGORY_INDEX =
+            "CREATE INDEX IF NOT EXISTS DirectoryItemsCategory ON DirectoryItems(category_id)";
+    private static final String INSERT_CATEGORY =
+            "INSERT INTO Category VALUES(null, ?)";
+    private static final String INSERT_ITEM =
+            "INSERT INTO DirectoryItems VALUES(null, ?, ?, ?, ?)";
+    private static final String UPDATE_ITEM =
+            "UPDATE DirectoryItems SET item_name = ?, location = ?, phone = ? WHERE id = ?";
+    private static final String DELETE_CATEGORY_ITEMS =
+            "DELETE FROM DirectoryItems WHERE category_id = ?";
+    private static final String DELETE_CATEGORY =
+            "DELETE FROM Category WHERE category_id = ?";
+    private static final String DELETE_ITEM =
+            "DELETE FROM DirectoryItems WHERE id = ?";
+    private static final String SELECT_CATEGORIES =
+            "SELECT Category.category_id, category_name, COUNT(id) FROM Category LEFT JOIN DirectoryItems ON DirectoryItems.category_id = Category.category_id GROUP BY Category.category_id ORDER BY category_name";
+    private static final String SELECT_ITEM_PAGE =
+            "SELECT * FROM DirectoryItems WHERE category_id = ? AND id > ? ORDER BY id LIMIT ?";
+    private static final String SELECT_ITEMS = "SELECT * FROM DirectoryItems";
+
+    private static final String SELECT_TERM_TABLE =
+            "SELECT name FROM sqlite_master WHERE type = 'table' AND name = 'ItemTerms'";
+    private static final String CREATE_TERM_TABLE =
+            "CREATE TABLE ItemTerms(term TEXT, item_id INTEGER, weight INTEGER)";
+    private static final String CREATE_TERM_INDEX =
+            "CREATE INDEX ItemTermsTerm ON ItemTerms(term, item_id, weight)";
+    private static final String CREATE_TERM_ITEM_INDEX =
+            "CREATE INDEX ItemTermsItem ON ItemTerms(item_id)";
+    private static final String INSERT_TERM =
+            "INSERT INTO ItemTerms VALUES(?, ?, ?)";
+    private static final String DELETE_ITEM_TERMS =
+            "DELETE FROM ItemTerms WHERE item_id = ?";
+    private static final String DELETE_CATEGORY_TERMS =
+            "DELETE FROM ItemTerms WHERE item_id IN (SELECT id FROM DirectoryItems WHERE category_id = ?)";
+
     private final Database _db;
+    private final Hashtable _statements;
+    private final ItemPageCache _pages;
 
     /**
      * Constructs a new SQLManager object
@@ -50,6 +114,160 @@ public class SQLManager {
      */
     public SQLManager(final Database db) {
         _db = db;
+        _statements = new Hashtable();
+        _pages = new ItemPageCache(CACHED_PAGES);
+
+        try {
+            // Index the items by category so that the item counts and each
+            // page of a category's items can be read without scanning the
+            // whole DirectoryItems table.
+            executeSQL(CREATE_CATEGORY_INDEX);
+
+            createSearchIndex();
+        } catch (final DatabaseException dbe) {
+            SQLiteDemo.errorDialog(dbe.toString());
+        } catch (final DataTypeException dte) {
+            SQLiteDemo.errorDialog(dte.toString());
+        }
+    }
+
+    /**
+     * Prepares, executes and closes a statement which is only run once
+     * 
+     * @param sql
+     *            The SQL text of the statement
+     * @throws DatabaseException
+     *             If the statement could not be executed
+     */
+    private void executeSQL(final String sql) throws DatabaseException {
+        final Statement statement = _db.createStatement(sql);
+        statement.prepare();
+        statement.execute();
+        statement.close();
+    }
+
+    /**
+     * Creates the ItemTerms table, if it does not already exist, and indexes
+     * any directory items already in the database. This is done in a single
+     * transaction so that an interrupted build is started again next time.
+     * 
+     * @throws DatabaseException
+     *             If the table could not be created or filled
+     * @throws DataTypeException
+     *             If an existing directory item could not be read
+     */
+    private void createSearchIndex() throws DatabaseException,
+            DataTypeException {
+        Statement statement = _db.createStatement(SELECT_TERM_TABLE);
+        statement.prepare();
+        Cursor cursor = statement.getCursor();
+        final boolean exists = cursor.next();
+        cursor.close();
+        statement.close();
+
+        if (exists) {
+            return;
+        }
+
+        _db.beginTransaction();
+        try {
+            executeSQL(CREATE_TERM_TABLE);
+            executeSQL(CREATE_TERM_INDEX);
+            executeSQL(CREATE_TERM_ITEM_INDEX);
+
+            statement = _db.createStatement(SELECT_ITEMS);
+            statement.prepare();
+            cursor = statement.getCursor();
+            try {
+                while (cursor.next()) {
+                    final Row row = cursor.getRow();
+                    indexItem(row.getInteger(0), row.getString(2), row
+                            .getString(3), row.getString(4));
+                }
+            } finally {
+                cursor.close();
+                statement.close();
+            }
+
+            _db.commitTransaction();
+        } catch (final DatabaseException dbe) {
+            rollback();
+            throw dbe;
+        } catch (final DataTypeException dte) {
+            rollback();
+            throw dte;
+        }
+    }
+
+    /**
+     * Adds a row to the ItemTerms table for each term of a directory item
+     * 
+     * @throws DatabaseException
+     *             If the terms could not be inserted
+     */
+    private void indexItem(final int id, final String name,
+            final String location, final String phone) throws DatabaseException {
+        final Hashtable terms = SearchTerms.getItemTerms(name, location, phone);
+        final Statement statement = getStatement(INSERT_TERM);
+
+        final Enumeration enumeration = terms.keys();
+        while (enumeration.hasMoreElements()) {
+            final String term = (String) enumeration.nextElement();
+            statement.bind(1, term);
+            statement.bind(2, id);
+            statement.bind(3, ((Integer) terms.get(term)).intValue());
+            execute(statement);
+        }
+    }
+
+    /**
+     * Returns the prepared statement for the given SQL, creating and
+     * preparing it the first time it is requested.
+     * 
+     * @param sql
+     *            The SQL text of the statement
+     * @return A prepared statement ready to be bound and executed
+     * @throws DatabaseException
+     *             If the statement could not be prepared
+     */
+    private Statement getStatement(final String sql) throws DatabaseException {
+        Statement statement = (Statement) _statements.get(sql);
+        if (statement == null) {
+            statement = _db.createStatement(sql);
+            statement.prepare();
+            _statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Executes a cached statement and resets it so that it can be bound and
+     * executed again.
+     * 
+     * @param statement
+     *            A statement obtained from getStatement()
+     * @throws DatabaseException
+     *             If the statement could not be executed
+     */
+    private static void execute(final Statement statement)
+            throws DatabaseException {
+        try {
+            statement.execute();
+        } finally {
+            statement.reset();
+        }
+    }
+
+    /**
+     * Rolls back the current transaction after a failed write, reporting any
+     * further error to the user.
+     */
+    private void rollback() {
+        try {
+            _db.rollbackTransaction();
+        } catch (final DatabaseException dbe) {
+            SQLiteDemo.errorDialog(dbe.toString());
+        }
     }
 
     /**
@@ -63,32 +281,15 @@ public class SQLManager {
         Category category = null;
         try {
             // INSERT a row into the Category table for the new category
-            Statement statement =
-                    _db.createStatement("INSERT INTO Category VALUES(null, ?)");
-            statement.prepare();
+            final Statement statement = getStatement(INSERT_CATEGORY);
             statement.bind(1, name);
-            statement.execute();
-            statement.close();
+            execute(statement);
 
-            // Query the database for the auto-generated ID of the category just
-            // added
-            // and create a new Category object.
-            statement =
-                    _db.createStatement("SELECT category_id FROM Category WHERE category_name = ?");
-            statement.prepare();
-            statement.bind(1, name);
-            final Cursor cursor = statement.getCursor();
-            if (cursor.next()) {
-                final Row row = cursor.getRow();
-                final int id = row.getInteger(0);
-                category = new Category(id, name);
-            }
-            cursor.close();
-            statement.close();
+            // Create a new Category object using the auto-generated ID of the
+            // category just added.
+            category = new Category((int) _db.lastInsertedRowID(), name);
         } catch (final DatabaseException dbe) {
             SQLiteDemo.errorDialog(dbe.toString());
-        } catch (final DataTypeException dte) {
-            SQLiteDemo.errorDialog(dte.toString());
         }
 
         return category;
@@ -112,27 +313,94 @@ public class SQLManager {
      */
     int addItem(final String name, final String location, final String phone,
             final int categoryID) {
-        long id = -1;
+        int id = -1;
 
         try {
-            // Insert a new record in the DirectoryItems table
-            final Statement statement =
-                    _db.createStatement("INSERT INTO DirectoryItems VALUES(null, ?, ?, ?, ?)");
-            statement.prepare();
-            statement.bind(1, categoryID);
-            statement.bind(2, name);
-            statement.bind(3, location);
-            statement.bind(4, phone);
-            statement.execute();
-            statement.close();
+            _db.beginTransaction();
+        } catch (final DatabaseException dbe) {
+            SQLiteDemo.errorDialog(dbe.toString());
+            return id;
+        }
 
-            // Retrieve the auto-generated ID of the item just added
-            id = _db.lastInsertedRowID();
+        try {
+            id = insertItem(name, location, phone, categoryID);
+            _db.commitTransaction();
         } catch (final DatabaseException dbe) {
+            rollback();
             SQLiteDemo.errorDialog(dbe.toString());
+            id = -1;
         }
 
-        return (int) id;
+        return id;
+    }
+
+    /**
+     * Adds a number of items to the DirectoryItems table in a single
+     * transaction. Either every item is added or, if any insert fails, none
+     * are. On success the id of each DirectoryItem object is set to the id of
+     * its new record.
+     * 
+     * @param items
+     *            A vector of DirectoryItem objects to be added
+     * @return True if all of the items were added, otherwise false
+     */
+    boolean addItems(final Vector items) {
+        final int size = items.size();
+        final int[] ids = new int[size];
+
+        try {
+            _db.beginTransaction();
+        } catch (final DatabaseException dbe) {
+            SQLiteDemo.errorDialog(dbe.toString());
+            return false;
+        }
+
+        try {
+            DirectoryItem item;
+            for (int i = 0; i < size; ++i) {
+                item = (DirectoryItem) items.elementAt(i);
+                ids[i] =
+                        insertItem(item.getName(), item.getLocation(), item
+                                .getPhone(), item.getCategoryId());
+            }
+            _db.commitTransaction();
+        } catch (final DatabaseException dbe) {
+            rollback();
+            SQLiteDemo.errorDialog(dbe.toString());
+            return false;
+        }
+
+        // Only hand out the new ids once they have been committed
+        for (int i = 0; i < size; ++i) {
+            ((DirectoryItem) items.elementAt(i)).setId(ids[i]);
+        }
+
+        return true;
+    }
+
+    /**
+     * Inserts a new record in the DirectoryItems table along with its terms in
+     * the ItemTerms table. Must be called within a transaction.
+     * 
+     * @return The id of the new record
+     * @throws DatabaseException
+     *             If the record could not be inserted
+     */
+    private int insertItem(final String name, final String location,
+            final String phone, final int categoryID) throws DatabaseException {
+        final Statement statement = getStatement(INSERT_ITEM);
+        statement.bind(1, categoryID);
+        statement.bind(2, name);
+        statement.bind(3, location);
+        statement.bind(4, phone);
+        execute(statement);
+        _pages.invalidate(categoryID);
+
+        // Retrieve the auto-generated ID of the item just added, before
+        // inserting its terms changes the last inserted row.
+        final int id = (int) _db.lastInsertedRowID();
+        indexItem(id, name, location, phone);
+        return id;
     }
 
     /**
@@ -149,49 +417,76 @@ public class SQLManager {
      */
     void updateItem(final int id, final String name, final String location,
             final String phone) {
+        try {
+            _db.beginTransaction();
+        } catch (final DatabaseException dbe) {
+            SQLiteDemo.errorDialog(dbe.toString());
+            return;
+        }
+
         try {
             // Update the record in the DirectoryItems table for the given id
-            final Statement statement =
-                    _db.createStatement("UPDATE DirectoryItems SET item_name = ?, location = ?, phone = ? WHERE id = ?");
-            statement.prepare();
+            Statement statement = getStatement(UPDATE_ITEM);
             statement.bind(1, name);
             statement.bind(2, location);
             statement.bind(3, phone);
             statement.bind(4, id);
-            statement.execute();
-            statement.close();
+            execute(statement);
+
+            // Replace the item's terms
+            statement = getStatement(DELETE_ITEM_TERMS);
+            statement.bind(1, id);
+            execute(statement);
+            indexItem(id, name, location, phone);
+
+            _db.commitTransaction();
+
+            // The item's page may be cached with its old values
+            _pages.clear();
         } catch (final DatabaseException dbe) {
+            rollback();
             SQLiteDemo.errorDialog(dbe.toString());
         }
     }
 
     /**
      * Deletes a category from the Category table and all corresponding records
-     * in the DirectoryItems table.
+     * in the DirectoryItems table. Both deletions are made in one transaction.
      * 
      * @param id
      *            The id of the category to delete
      */
     void deleteCategory(final int id) {
         try {
+            _db.beginTransaction();
+        } catch (final DatabaseException dbe) {
+            SQLiteDemo.errorDialog(dbe.toString());
+            return;
+        }
+
+        try {
+            // Delete the terms of all items belonging to the highlighted
+            // category from the ItemTerms table.
+            Statement statement = getStatement(DELETE_CATEGORY_TERMS);
+            statement.bind(1, id);
+            execute(statement);
+
             // Delete all items in the DirectoryItems database
             // table belonging to the highlighted category.
-            Statement statement =
-                    _db.createStatement("DELETE FROM DirectoryItems WHERE category_id = ?");
-            statement.prepare();
+            statement = getStatement(DELETE_CATEGORY_ITEMS);
             statement.bind(1, id);
-            statement.execute();
-            statement.close();
+            execute(statement);
 
             // Delete the record in the Category database table
             // corresponding to the highlighted category.
-            statement =
-                    _db.createStatement("DELETE FROM Category WHERE category_id = ?");
-            statement.prepare();
+            statement = getStatement(DELETE_CATEGORY);
             statement.bind(1, id);
-            statement.execute();
-            statement.close();
+            execute(statement);
+
+            _db.commitTransaction();
+            _pages.invalidate(id);
         } catch (final DatabaseException dbe) {
+            rollback();
             SQLiteDemo.errorDialog(dbe.toString());
         }
     }
@@ -204,50 +499,65 @@ public class SQLManager {
      */
     void deleteItem(final int id) {
         try {
+            _db.beginTransaction();
+        } catch (final DatabaseException dbe) {
+            SQLiteDemo.errorDialog(dbe.toString());
+            return;
+        }
+
+        try {
+            // Delete the item's terms from the ItemTerms table
+            Statement statement = getStatement(DELETE_ITEM_TERMS);
+            statement.bind(1, id);
+            execute(statement);
+
             // Delete the record in the DirectoryItems table for the given id
-            final Statement statement =
-                    _db.createStatement("DELETE FROM DirectoryItems WHERE id = ?");
-            statement.prepare();
+            statement = getStatement(DELETE_ITEM);
             statement.bind(1, id);
-            statement.execute();
-            statement.close();
+            execute(statement);
+
+            _db.commitTransaction();
+
+            // The category of the item is not known here, so drop every page
+            _pages.clear();
         } catch (final DatabaseException dbe) {
+            rollback();
             SQLiteDemo.errorDialog(dbe.toString());
         }
     }
 
     /**
-     * Retrieves all records in the Category database table and returns a hash
-     * table of Category objects.
+     * Retrieves all records in the Category database table, along with the
+     * number of directory items in each category, and returns a vector of
+     * Category objects ordered by name.
      * 
-     * @return A hash table of Category objects, one for each record in the
+     * @return A vector of Category objects, one for each record in the
      *         Category table
      */
-    IntHashtable getCategories() {
-        final IntHashtable categories = new IntHashtable();
+    Vector getCategories() {
+        final Vector categories = new Vector();
         try {
-            // Read in all records from the Category table
-            final Statement statement =
-                    _db.createStatement("SELECT * FROM Category");
-            statement.prepare();
+            // Read in all records from the Category table and count the items
+            // in each.
+            final Statement statement = getStatement(SELECT_CATEGORIES);
             final Cursor cursor = statement.getCursor();
 
             Row row;
-            int id;
-            String name;
             Category category;
 
-            // Iterate through the result set. For each row, create a new
-            // Category object and add it to the hash table.
-            while (cursor.next()) {
-                row = cursor.getRow();
-                id = row.getInteger(0);
-                name = row.getString(1);
-                category = new Category(id, name);
-                categories.put(id, category);
+            try {
+                // Iterate through the result set. For each row, create a new
+                // Category object and add it to the vector.
+                while (cursor.next()) {
+                    row = cursor.getRow();
+                    category = new Category(row.getInteger(0), row.getString(1));
+                    category.setItemCount(row.getInteger(2));
+                    categories.addElement(category);
+                }
+            } finally {
+                cursor.close();
+                statement.reset();
             }
-            statement.close();
-            cursor.close();
         } catch (final DatabaseException dbe) {
             SQLiteDemo.errorDialog(dbe.toString());
         } catch (final DataTypeException dte) {
@@ -258,39 +568,55 @@ public class SQLManager {
     }
 
     /**
-     * Retrieves all records in the DirectoryItems database table and returns a
-     * vector of DirectoryItem objects.
+     * Retrieves a page of the records in the DirectoryItems table belonging to
+     * a category and returns a vector of DirectoryItem objects. Items are
+     * ordered by id and each page starts after a given id, so any page can be
+     * read with a single index lookup however far into the category it lies.
      * 
-     * @return A vector of DirectoryItem objects, one for each record in the
-     *         DirectoryItem table
+     * @param categoryId
+     *            The category whose items should be read
+     * @param afterId
+     *            The id of the last item of the previous page, or 0 for the
+     *            first page
+     * @return A vector of at most PAGE_SIZE DirectoryItem objects
      */
-    Vector getItems() {
-        final Vector directoryItems = new Vector();
+    Vector getItems(final int categoryId, final int afterId) {
+        Vector directoryItems = _pages.get(categoryId, afterId);
+        if (directoryItems != null) {
+            return directoryItems;
+        }
 
+        directoryItems = new Vector(PAGE_SIZE);
         try {
-            // Read in all records from the DirectoryItems table
-            final Statement statement =
-                    _db.createStatement("SELECT * FROM DirectoryItems");
-            statement.prepare();
+            // Read in the next page of records from the DirectoryItems table
+            final Statement statement = getStatement(SELECT_ITEM_PAGE);
+            statement.bind(1, categoryId);
+            statement.bind(2, afterId);
+            statement.bind(3, PAGE_SIZE);
             final Cursor cursor = statement.getCursor();
 
-            // Iterate through the the result set. For each row, add a
-            // new DirectoryItem object to the vector.
-            while (cursor.next()) {
-                final Row row = cursor.getRow();
+            try {
+                // Iterate through the the result set. For each row, add a
+                // new DirectoryItem object to the vector.
+                while (cursor.next()) {
+                    final Row row = cursor.getRow();
 
-                final int id = row.getInteger(0);
-                final int categoryId = row.getInteger(1);
-                final String name = row.getString(2);
-                final String location = row.getString(3);
-                final String phone = row.getString(4);
+                    final int id = row.getInteger(0);
+                    final String name = row.getString(2);
+                    final String location = row.getString(3);
+                    final String phone = row.getString(4);
 
-                final DirectoryItem item =
-                        new DirectoryItem(id, name, location, phone, categoryId);
-                directoryItems.addElement(item);
+                    final DirectoryItem item =
+                            new DirectoryItem(id, name, location, phone,
+                                    categoryId);
+                    directoryItems.addElement(item);
+                }
+            } finally {
+                cursor.close();
+                statement.reset();
             }
-            statement.close();
-            cursor.close();
+
+            _pages.put(categoryId, afterId, directoryItems);
         } catch (final DatabaseException dbe) {
             SQLiteDemo.errorDialog(dbe.toString());
         } catch (final DataTypeException dte) {
@@ -301,10 +627,99 @@ public class SQLManager {
     }
 
     /**
-     * Closes the database
+     * Searches the directory for items containing words which start with each
+     * of the words in a query. Items are ranked by the sum of the weights of
+     * their matching terms, so that items matching in their names come first.
+     * 
+     * @param query
+     *            The text to search for. Only the first MAX_SEARCH_WORDS words
+     *            are used.
+     * @param limit
+     *            The largest number of items to return
+     * @return A vector of at most limit DirectoryItem objects, best match
+     *         first
+     */
+    Vector search(final String query, final int limit) {
+        final Vector results = new Vector();
+        final Vector words = SearchTerms.getWords(query);
+        if (words.size() > MAX_SEARCH_WORDS) {
+            words.setSize(MAX_SEARCH_WORDS);
+        }
+        final int wordCount = words.size();
+        if (wordCount == 0) {
+            return results;
+        }
+
+        try {
+            final Statement statement = getStatement(getSearchSQL(wordCount));
+            int index = 1;
+            for (int i = 0; i < wordCount; ++i) {
+                final String word = (String) words.elementAt(i);
+                statement.bind(index++, word);
+                statement.bind(index++, SearchTerms.getPrefixEnd(word));
+            }
+            statement.bind(index, limit);
+            final Cursor cursor = statement.getCursor();
+
+            try {
+                while (cursor.next()) {
+                    final Row row = cursor.getRow();
+                    results.addElement(new DirectoryItem(row.getInteger(0), row
+                            .getString(2), row.getString(3), row.getString(4),
+                            row.getInteger(1)));
+                }
+            } finally {
+                cursor.close();
+                statement.reset();
+            }
+        } catch (final DatabaseException dbe) {
+            SQLiteDemo.errorDialog(dbe.toString());
+        } catch (final DataTypeException dte) {
+            SQLiteDemo.errorDialog(dte.toString());
+        }
+
+        return results;
+    }
+
+    /**
+     * Builds the SQL for a search with the given number of words. Each word
+     * is matched by a range scan of the term index, tagged with the word's
+     * position. Only items matched by every word are kept and they are ranked
+     * by the total weight of their matches.
+     * 
+     * @param wordCount
+     *            The number of words in the search
+     * @return The SQL text of the search statement
+     */
+    private static String getSearchSQL(final int wordCount) {
+        final StringBuffer sql =
+                new StringBuffer(
+                        "SELECT id, category_id, item_name, location, phone, SUM(weight) AS score FROM (");
+        for (int i = 0; i < wordCount; ++i) {
+            if (i > 0) {
+                sql.append(" UNION ALL ");
+            }
+            sql.append("SELECT item_id, weight, ").append(i).append(
+                    " AS word FROM ItemTerms WHERE term >= ? AND term < ?");
+        }
+        sql.append(") AS matches, DirectoryItems WHERE id = item_id")
+                .append(" GROUP BY id HAVING COUNT(DISTINCT word) = ").append(
+                        wordCount).append(
+                        " ORDER BY score DESC, item_name LIMIT ?");
+        return sql.toString();
+    }
+
+    /**
+     * Closes the cached statements and the database
      */
     void closeDB() {
         try {
+            final Enumeration statements = _statements.elements();
+            while (statements.hasMoreElements()) {
+                ((Statement) statements.nextElement()).close();
+            }
+            _statements.clear();
+
             _db.close();
         } catch (final DatabaseException dbe) {
             SQLiteDemo.errorDialog(dbe.toString());
@@ -0,0 +1,323 @@
+/*
+ * SQLiteBenchmark.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.sqlitedemo;
+
+import java.util.Vector;
+
+import net.rim.device.api.database.Database;
+import net.rim.device.api.database.DatabaseException;
+import net.rim.device.api.database.DatabaseFactory;
+import net.rim.device.api.database.Statement;
+import net.rim.device.api.io.URI;
+
+/**
+ * Times database operations in a scratch database created next to the
+ * application's own database, which is left untouched. The scratch database
+ * is deleted once the benchmark is done.
+ * 
+ * runInserts() compares three ways of inserting directory items:
+ * <ul>
+ * <li>creating, preparing and closing a statement for every row, with each
+ * insert committed on its own</li>
+ * <li>SQLManager.addItem(), which reuses cached statements but still commits
+ * each item on its own</li>
+ * <li>SQLManager.addItems(), which inserts every item in one transaction</li>
+ * </ul>
+ * Committing means a journal write and sync to the SDCard, so the autocommit
+ * runs use fewer rows than the transaction run; the results are reported per
+ * row.
+ * 
+ * runSearches() times SQLManager.search() for a set of queries as the
+ * directory grows through each of SEARCH_ROWS items. Filling the larger
+ * directories takes a long time on a device.
+ */
+final class SQLiteBenchmark {
+    private static final String DB_NAME = "SQLiteDemoBenchmark";
+    private static final int AUTOCOMMIT_ROWS = 500;
+    private static final int TRANSACTION_ROWS = 10000;
+
+    private static final int[] SEARCH_ROWS = { 10000, 100000, 1000000 };
+    private static final int SEARCH_REPEAT = 5;
+
+    // Queries ranging from a single letter matching a large part of the
+    // directory to a number matching a single item
+    private static final String[] QUERIES = { "m", "pizza", "chen pizza",
+            "main st", "555 12", "123456" };
+
+    private static final String[] OWNERS = { "Smith", "Jones", "Chen",
+            "Patel", "Garcia", "Nguyen", "Brown", "Martin", "Kowalski",
+            "Okafor", "Rossi", "Dubois", "Silva", "Tanaka", "Murphy", "Larsen" };
+    private static final String[] BUSINESSES = { "Pizza", "Grill", "Cafe",
+            "Bistro", "Books", "Garage", "Dental", "Florist", "Bakery",
+            "Hardware", "Salon", "Market", "Pharmacy", "Diner", "Tailor",
+            "Cinema", "Gym", "Optician", "Pets", "Laundry" };
+    private static final String[] STREETS = { "Main", "King", "Queen",
+            "Elm", "Oak", "Maple", "Park", "Lake", "Hill", "Church", "Mill",
+            "Station" };
+
+    private final URI _uri;
+    private Database _db;
+    private SQLManager _sqlManager;
+    private int _categoryId;
+
+    /**
+     * Constructs a new SQLiteBenchmark object
+     * 
+     * @throws Exception
+     *             If the location of the scratch database is not valid
+     */
+    SQLiteBenchmark() throws Exception {
+        _uri = URI.create(SQLiteDemo.DB_LOCATION + DB_NAME);
+    }
+
+    /**
+     * Times the insertion of directory items
+     * 
+     * @return A report of the time taken by each approach
+     * @throws Exception
+     *             If the scratch database could not be created or written
+     */
+    String runInserts() throws Exception {
+        final StringBuffer report = new StringBuffer();
+        open();
+        try {
+            // One statement per row, as SQLManager used to do
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < AUTOCOMMIT_ROWS; ++i) {
+                final Statement statement =
+                        _db.createStatement("INSERT INTO DirectoryItems VALUES(null, ?, ?, ?, ?)");
+                statement.prepare();
+                statement.bind(1, _categoryId);
+                statement.bind(2, getName(i));
+                statement.bind(3, getLocation(i));
+                statement.bind(4, getPhone(i));
+                statement.execute();
+                statement.close();
+            }
+            appendResult(report, "Statement per row", AUTOCOMMIT_ROWS, System
+                    .currentTimeMillis()
+                    - start);
+
+            // Cached statements, still one commit per item
+            start = System.currentTimeMillis();
+            for (int i = 0; i < AUTOCOMMIT_ROWS; ++i) {
+                if (_sqlManager.addItem(getName(i), getLocation(i),
+                        getPhone(i), _categoryId) < 0) {
+                    throw new DatabaseException("addItem() failed");
+                }
+            }
+            appendResult(report, "Cached statement", AUTOCOMMIT_ROWS, System
+                    .currentTimeMillis()
+                    - start);
+
+            // Cached statements, one transaction for all items
+            start = System.currentTimeMillis();
+            addItems(0, TRANSACTION_ROWS);
+            appendResult(report, "One transaction", TRANSACTION_ROWS, System
+                    .currentTimeMillis()
+                    - start);
+        } finally {
+            close();
+        }
+
+        return report.toString();
+    }
+
+    /**
+     * Times searches of directories of increasing size
+     * 
+     * @return A report of the average time taken by each query at each size
+     * @throws Exception
+     *             If the scratch database could not be created or written
+     */
+    String runSearches() throws Exception {
+        final StringBuffer report = new StringBuffer();
+        open();
+        try {
+            int rows = 0;
+            for (int i = 0; i < SEARCH_ROWS.length; ++i) {
+                // Grow the directory to the next size, a transaction at a time
+                while (rows < SEARCH_ROWS[i]) {
+                    final int count =
+                            Math.min(TRANSACTION_ROWS, SEARCH_ROWS[i] - rows);
+                    addItems(rows, count);
+                    rows += count;
+                }
+
+                report.append(rows).append(" items:\n");
+                for (int j = 0; j < QUERIES.length; ++j) {
+                    // Run each query once first so that its statement is
+                    // prepared before timing begins
+                    final int results =
+                            _sqlManager.search(QUERIES[j], 20).size();
+
+                    final long start = System.currentTimeMillis();
+                    for (int k = 0; k < SEARCH_REPEAT; ++k) {
+                        _sqlManager.search(QUERIES[j], 20);
+                    }
+                    final long millis =
+                            (System.currentTimeMillis() - start)
+                                    / SEARCH_REPEAT;
+
+                    report.append("  \"").append(QUERIES[j]).append("\": ")
+                            .append(millis).append(" ms, ").append(results)
+                            .append(" results\n");
+                }
+            }
+        } finally {
+            close();
+        }
+
+        return report.toString();
+    }
+
+    /**
+     * Creates the scratch database and an SQLManager for it, along with a
+     * category to add directory items to
+     * 
+     * @throws Exception
+     *             If the scratch database could not be created
+     */
+    private void open() throws Exception {
+        if (DatabaseFactory.exists(_uri)) {
+            DatabaseFactory.delete(_uri);
+        }
+
+        _db = DatabaseFactory.create(_uri);
+        try {
+            executeSQL(_db,
+                    "CREATE TABLE Category(category_id INTEGER primary key, category_name TEXT)");
+            executeSQL(_db,
+                    "CREATE TABLE DirectoryItems(id INTEGER PRIMARY KEY, category_id INTEGER, item_name TEXT, location TEXT, phone TEXT, FOREIGN KEY (category_id) REFERENCES Category(category_id))");
+        } catch (final DatabaseException dbe) {
+            _db.close();
+            DatabaseFactory.delete(_uri);
+            throw dbe;
+        }
+
+        _sqlManager = new SQLManager(_db);
+        final Category category = _sqlManager.addCategory("Benchmark");
+        if (category == null) {
+            close();
+            throw new DatabaseException("addCategory() failed");
+        }
+        _categoryId = category.getId();
+    }
+
+    /**
+     * Closes and deletes the scratch database
+     * 
+     * @throws Exception
+     *             If the scratch database could not be deleted
+     */
+    private void close() throws Exception {
+        _sqlManager.closeDB();
+        DatabaseFactory.delete(_uri);
+    }
+
+    /**
+     * Adds generated directory items in a single transaction
+     * 
+     * @param first
+     *            The number of the first item to generate
+     * @param count
+     *            The number of items to add
+     * @throws DatabaseException
+     *             If the items could not be added
+     */
+    private void addItems(final int first, final int count)
+            throws DatabaseException {
+        final Vector items = new Vector(count);
+        for (int i = first; i < first + count; ++i) {
+            items.addElement(new DirectoryItem(0, getName(i), getLocation(i),
+                    getPhone(i), _categoryId));
+        }
+        if (!_sqlManager.addItems(items)) {
+            throw new DatabaseException("addItems() failed");
+        }
+    }
+
+    /**
+     * Returns the generated name of an item, such as "Chen's Pizza 1234"
+     */
+    private static String getName(final int i) {
+        return OWNERS[i % OWNERS.length] + "'s "
+                + BUSINESSES[i / OWNERS.length % BUSINESSES.length] + " " + i;
+    }
+
+    /**
+     * Returns the generated address of an item
+     */
+    private static String getLocation(final int i) {
+        return i % 997 + 1 + " " + STREETS[i % STREETS.length] + " Street";
+    }
+
+    /**
+     * Returns the generated phone number of an item
+     */
+    private static String getPhone(final int i) {
+        final String number = Integer.toString(10000 + i % 10000);
+        return "555 " + number.substring(1);
+    }
+
+    /**
+     * Prepares, executes and closes a single SQL statement
+     * 
+     * @param db
+     *            The database to execute the statement against
+     * @param sql
+     *            The SQL text of the statement
+     * @throws DatabaseException
+     *             If the statement could not be executed
+     */
+    private static void executeSQL(final Database db, final String sql)
+            throws DatabaseException {
+        final Statement statement = db.createStatement(sql);
+        statement.prepare();
+        statement.execute();
+        statement.close();
+    }
+
+    /**
+     * Appends the result of one run to the report
+     * 
+     * @param report
+     *            The report to append to
+     * @param name
+     *            Description of the approach that was timed
+     * @param rows
+     *            The number of rows inserted
+     * @param millis
+     *            The time taken to insert the rows, in milliseconds
+     */
+    private static void appendResult(final StringBuffer report,
+            final String name, final int rows, final long millis) {
+        report.append(name).append(": ").append(rows).append(" rows in ")
+                .append(millis).append(" ms, ").append(millis * 1000 / rows)
+                .append(" us/row\n");
+    }
+}
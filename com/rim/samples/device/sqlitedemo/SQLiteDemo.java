@@ -80,6 +80,7 @@ import net.rim.device.api.ui.component.Dialog;
  * the resulting cod file with the XYZ private key.
  */
 public final class SQLiteDemo extends UiApplication {
+    static final String DB_LOCATION = "/SDCard/databases/SQLite Demo/";
     private static final String DB_NAME = "SQLiteDemoDirectory";
 
     /**
@@ -120,10 +121,8 @@ public final class SQLiteDemo extends UiApplication {
                 }
             });
         } else {
-            final String dbLocation = "/SDCard/databases/SQLite Demo/";
-
             // Create URI
-            final URI uri = URI.create(dbLocation + DB_NAME);
+            final URI uri = URI.create(DB_LOCATION + DB_NAME);
 
             // Open or create a plain text database. This will create the
             // directory and file defined by the URI (if they do not already
@@ -136,7 +135,7 @@ public final class SQLiteDemo extends UiApplication {
 
             // Open a connection to the database file
             final FileConnection fileConnection =
-                    (FileConnection) Connector.open("file://" + dbLocation
+                    (FileConnection) Connector.open("file://" + DB_LOCATION
                             + DB_NAME);
 
             // If the file is blank, copy the pre-defined database from this
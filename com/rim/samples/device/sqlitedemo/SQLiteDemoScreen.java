@@ -44,8 +44,6 @@ import net.rim.device.api.ui.component.Menu;
 import net.rim.device.api.ui.component.TreeField;
 import net.rim.device.api.ui.component.TreeFieldCallback;
 import net.rim.device.api.ui.container.MainScreen;
-import net.rim.device.api.util.IntEnumeration;
-import net.rim.device.api.util.IntHashtable;
 import net.rim.device.api.util.StringProvider;
 
 /**
@@ -54,9 +52,8 @@ import net.rim.device.api.util.StringProvider;
 public final class SQLiteDemoScreen extends MainScreen implements
         TreeFieldCallback {
     private final TreeField _treeField;
-    private IntHashtable _categoriesHashtable;
-    private Vector _directoryItems;
     private final SQLManager _sqlManager;
+    private boolean _benchmarkRunning;
 
     /**
      * Constructs a new SQLiteDemoScreen
@@ -75,57 +72,125 @@ public final class SQLiteDemoScreen extends MainScreen implements
         _treeField.setDefaultExpanded(false);
         add(_treeField);
 
-        // Populate the tree field and vectors with categories and items
+        // Populate the tree field with categories. Items are read from the
+        // database as they are scrolled into view.
         populateCategories();
-        populateItems();
     }
 
     /**
-     * Obtains the category hash table from the SQLManager and adds a node for
-     * each category to the tree field.
+     * Obtains the categories from the SQLManager and adds a node for each
+     * category to the tree field. A category containing items is given a
+     * single PageMarker child node, which reads the first page of items when
+     * the category is expanded.
      */
     private void populateCategories() {
-        _categoriesHashtable = _sqlManager.getCategories();
+        final Vector categories = _sqlManager.getCategories();
 
-        final IntEnumeration enumeration = _categoriesHashtable.keys();
-
-        int key;
         Category category;
         int categoryNode;
-        while (enumeration.hasMoreElements()) {
-            key = enumeration.nextElement();
-            category = (Category) _categoriesHashtable.get(key);
+
+        // Nodes are added as the first child of their parent, so add the
+        // categories in reverse to keep them in order.
+        for (int i = categories.size() - 1; i >= 0; --i) {
+            category = (Category) categories.elementAt(i);
             categoryNode = _treeField.addChildNode(0, category);
             category.setNode(categoryNode);
+
+            if (category.getItemCount() > 0) {
+                final PageMarker marker = new PageMarker(category, 0);
+                marker._node = _treeField.addChildNode(categoryNode, marker);
+            }
         }
     }
 
     /**
-     * Obtains the DirectoryItems vector and adds a node for each item to the
-     * respective category node in the tree field.
+     * Replaces a PageMarker node with the page of items it stands for. If the
+     * page is full a new PageMarker node is added after it for the next page.
+     * 
+     * @param marker
+     *            The PageMarker whose page should be read
      */
-    private void populateItems() {
-        _directoryItems = _sqlManager.getItems();
+    private void loadPage(final PageMarker marker) {
+        final Category category = marker._category;
+        int previousNode = _treeField.getPreviousSibling(marker._node);
+        _treeField.deleteSubtree(marker._node);
+        marker._node = -1;
+
+        final Vector items =
+                _sqlManager.getItems(category.getId(), marker._afterId);
+        final int size = items.size();
+
+        DirectoryItem item = null;
+        for (int i = 0; i < size; ++i) {
+            item = (DirectoryItem) items.elementAt(i);
+            if (previousNode == -1) {
+                previousNode =
+                        _treeField.addChildNode(category.getNode(), item);
+            } else {
+                previousNode = _treeField.addSiblingNode(previousNode, item);
+            }
+            item.setNode(previousNode);
+        }
 
-        DirectoryItem directoryItem;
-        Category category;
-        int categoryNode;
-        int itemNode;
-
-        // For each directory item, obtain the corresponding Category object
-        // from
-        // the hash table, then add a child node to the respective category node
-        // in the tree field.
-        for (int i = _directoryItems.size() - 1; i >= 0; --i) {
-            directoryItem = (DirectoryItem) _directoryItems.elementAt(i);
-            category =
-                    (Category) _categoriesHashtable.get(directoryItem
-                            .getCategoryId());
-            categoryNode = category.getNode();
-            itemNode =
-                    _treeField.addChildNode(categoryNode, directoryItem
-                            .getName());
-            directoryItem.setNode(itemNode);
+        if (size == SQLManager.PAGE_SIZE) {
+            final PageMarker next = new PageMarker(category, item.getId());
+            next._node = _treeField.addSiblingNode(previousNode, next);
+        }
+    }
+
+    /**
+     * Returns the last child of a node in the tree field
+     * 
+     * @param node
+     *            The parent node
+     * @return The last child node, or -1 if the node has no children
+     */
+    private int getLastChild(final int node) {
+        int lastChild = -1;
+        int child = _treeField.getFirstChild(node);
+        while (child != -1) {
+            lastChild = child;
+            child = _treeField.getNextSibling(child);
+        }
+        return lastChild;
+    }
+
+    /**
+     * Updates the nodes of directory items which have been edited elsewhere,
+     * if the items have been read into the tree field.
+     * 
+     * @param items
+     *            A vector of edited DirectoryItem objects
+     */
+    private void refreshItems(final Vector items) {
+        for (int i = items.size() - 1; i >= 0; --i) {
+            final DirectoryItem edited = (DirectoryItem) items.elementAt(i);
+
+            // Find the node of the item's category
+            int categoryNode = _treeField.getFirstChild(0);
+            while (categoryNode != -1
+                    && ((Category) _treeField.getCookie(categoryNode)).getId() != edited
+                            .getCategoryId()) {
+                categoryNode = _treeField.getNextSibling(categoryNode);
+            }
+
+            // Find the item among the category's nodes and copy the changes
+            int node =
+                    categoryNode == -1 ? -1 : _treeField
+                            .getFirstChild(categoryNode);
+            while (node != -1) {
+                final Object cookie = _treeField.getCookie(node);
+                if (cookie instanceof DirectoryItem
+                        && ((DirectoryItem) cookie).getId() == edited.getId()) {
+                    final DirectoryItem item = (DirectoryItem) cookie;
+                    item.setName(edited.getName());
+                    item.setLocation(edited.getLocation());
+                    item.setPhone(edited.getPhone());
+                    _treeField.setCookie(node, item);
+                    break;
+                }
+                node = _treeField.getNextSibling(node);
+            }
         }
     }
 
@@ -136,34 +201,17 @@ public final class SQLiteDemoScreen extends MainScreen implements
      *            The currently highlighted node in the tree field
      */
     private void displayItem(final int currentNode) {
-        DirectoryItem item;
-
-        // Loop through the DirectoryItems vector until the object is found
-        // which
-        // corresponds to the currently highlighted node.
-        for (int i = _directoryItems.size() - 1; i >= 0; --i) {
-            item = (DirectoryItem) _directoryItems.elementAt(i);
-            if (item.getNode() == currentNode) {
-                final DirectoryItem itemCopy = new DirectoryItem(item);
-
-                final UiApplication app = UiApplication.getUiApplication();
-                app.pushModalScreen(new ItemScreen(item, _sqlManager, false));
-
-                // Check whether the item was changed by the user
-                if (!itemCopy.equals(item)) {
-                    _treeField.setCookie(currentNode, item.getName()); // Item
-                                                                       // was
-                                                                       // edited,
-                                                                       // update
-                                                                       // the
-                                                                       // cookie
-                                                                       // for
-                                                                       // the
-                                                                       // current
-                                                                       // node
-                }
-                break;
-            }
+        final DirectoryItem item =
+                (DirectoryItem) _treeField.getCookie(currentNode);
+        final DirectoryItem itemCopy = new DirectoryItem(item);
+
+        final UiApplication app = UiApplication.getUiApplication();
+        app.pushModalScreen(new ItemScreen(item, _sqlManager, false));
+
+        // Check whether the item was changed by the user
+        if (!itemCopy.equals(item)) {
+            // Item was edited, reset the cookie so the node is redrawn
+            _treeField.setCookie(currentNode, item);
         }
     }
 
@@ -175,7 +223,7 @@ public final class SQLiteDemoScreen extends MainScreen implements
         if (key == Characters.ENTER) {
             final int currentNode = _treeField.getCurrentNode();
 
-            if (_treeField.getCookie(currentNode) instanceof String) {
+            if (_treeField.getCookie(currentNode) instanceof DirectoryItem) {
                 displayItem(currentNode);
             }
             return true;
@@ -191,7 +239,7 @@ public final class SQLiteDemoScreen extends MainScreen implements
         if (action == ACTION_INVOKE) {
             final int currentNode = _treeField.getCurrentNode();
 
-            if (_treeField.getCookie(currentNode) instanceof String) {
+            if (_treeField.getCookie(currentNode) instanceof DirectoryItem) {
                 displayItem(currentNode);
             }
             return true;
@@ -219,16 +267,40 @@ public final class SQLiteDemoScreen extends MainScreen implements
         if (treeField == _treeField) {
             final Object cookie = _treeField.getCookie(node);
 
-            if (cookie instanceof String) {
-                final String text = (String) cookie;
+            if (cookie instanceof DirectoryItem) {
+                final DirectoryItem item = (DirectoryItem) cookie;
+                final String text = item.getName();
                 graphics.drawText(text, indent, y, DrawStyle.ELLIPSIS, width);
             }
 
             if (cookie instanceof Category) {
                 final Category category = (Category) cookie;
-                final String text = category.getName();
+                final String text =
+                        category.getName() + " (" + category.getItemCount()
+                                + ")";
                 graphics.drawText(text, indent, y, DrawStyle.ELLIPSIS, width);
             }
+
+            if (cookie instanceof PageMarker) {
+                final PageMarker marker = (PageMarker) cookie;
+                graphics.drawText("Loading...", indent, y, DrawStyle.ELLIPSIS,
+                        width);
+
+                // The marker has been scrolled into view, so read its page.
+                // The tree field can't be changed while it is being painted,
+                // so the page is added once painting is done.
+                if (!marker._requested) {
+                    marker._requested = true;
+                    UiApplication.getUiApplication().invokeLater(
+                            new Runnable() {
+                                public void run() {
+                                    if (marker._node != -1) {
+                                        loadPage(marker);
+                                    }
+                                }
+                            });
+                }
+            }
         }
     }
 
@@ -247,15 +319,14 @@ public final class SQLiteDemoScreen extends MainScreen implements
                 // add
                 // an item to or delete the category.
                 final Category category = (Category) cookie;
-                menu.add(new AddItem(category.getId(), category.getName(),
-                        currentNode));
+                menu.add(new AddItem(category));
                 final MenuItem separator = MenuItem.separator(0);
                 menu.add(separator);
                 menu.add(new DeleteCategory(category));
 
                 // Add menu item to add a new category
                 menu.add(new AddCategory());
-            } else if (cookie instanceof String) {
+            } else if (cookie instanceof DirectoryItem) {
                 // Currently highlighted node is an item node, allow user to add
                 // an item to the parent category or delete the highlighted
                 // item.
@@ -263,8 +334,7 @@ public final class SQLiteDemoScreen extends MainScreen implements
                 final Object parentCookie = _treeField.getCookie(parentNode);
                 final Category parentCategory = (Category) parentCookie;
                 menu.add(new OpenItem());
-                menu.add(new AddItem(parentCategory.getId(), parentCategory
-                        .getName(), parentNode));
+                menu.add(new AddItem(parentCategory));
                 menu.add(new DeleteItem(currentNode));
 
                 // Add menu item to add a new category
@@ -278,37 +348,59 @@ public final class SQLiteDemoScreen extends MainScreen implements
             menu.add(new AddCategory());
         }
 
+        menu.add(new Search());
+
+        if (!_benchmarkRunning) {
+            menu.add(new RunBenchmark(false));
+            menu.add(new RunBenchmark(true));
+        }
+
         super.makeMenu(menu, context);
     }
 
+    /**
+     * Stands in the tree field for a page of directory items which have not
+     * yet been read from the database.
+     */
+    private static final class PageMarker {
+        private final Category _category;
+        private final int _afterId;
+
+        // The node holding the marker, or -1 once it has been removed
+        private int _node;
+        private boolean _requested;
+
+        /**
+         * Constructs a new PageMarker object
+         * 
+         * @param category
+         *            The category the page belongs to
+         * @param afterId
+         *            The id of the last item of the previous page, or 0 for
+         *            the first page
+         */
+        private PageMarker(final Category category, final int afterId) {
+            _category = category;
+            _afterId = afterId;
+        }
+    }
+
     /**
      * A MenuItem class to add a new directory item to an existing category
      */
     private final class AddItem extends MenuItem {
-        private final int _categoryId;
-        private final String _categoryName;
-        private final int _categoryNode;
+        private final Category _category;
 
         /**
          * Constructs a MenuItem object to add a new directory item to an
          * existing category
          * 
-         * @param categoryId
-         *            The ID for the category to which the directory item will
-         *            be added to
-         * @param categoryName
-         *            The name of the category to which the directory item will
-         *            be added to
-         * @param categoryNode
-         *            The currently highlighted node, corresponding to the
-         *            category to which the directory item will be added to
+         * @param category
+         *            The category to which the directory item will be added
          */
-        private AddItem(final int categoryId, final String categoryName,
-                final int categoryNode) {
+        private AddItem(final Category category) {
             super(new StringProvider(""), 0, 0);
-            _categoryId = categoryId;
-            _categoryName = categoryName;
-            _categoryNode = categoryNode;
+            _category = category;
             this.setCommand(new Command(new CommandHandler() {
                 /**
                  * @see net.rim.device.api.command.CommandHandler#execute(ReadOnlyCommandMetadata,
@@ -318,17 +410,30 @@ public final class SQLiteDemoScreen extends MainScreen implements
                         final Object context) {
                     final SQLiteDemo app =
                             (SQLiteDemo) UiApplication.getUiApplication();
-                    final DirectoryItem item = new DirectoryItem(_categoryId);
+                    final DirectoryItem item =
+                            new DirectoryItem(_category.getId());
                     final DirectoryItem itemCopy = new DirectoryItem(item);
                     app.pushModalScreen(new ItemScreen(item, _sqlManager, true));
 
                     if (!itemCopy.equals(item)) {
                         // Item was saved
-                        final int itemNode =
-                                _treeField.addChildNode(_categoryNode, item
-                                        .getName());
+                        _category.setItemCount(_category.getItemCount() + 1);
+
+                        // Items are listed in the order they were added. If
+                        // the category still ends with a PageMarker the new
+                        // item will be read along with the last page,
+                        // otherwise add it to the end of the category now.
+                        final int categoryNode = _category.getNode();
+                        final int lastNode = getLastChild(categoryNode);
+                        int itemNode = -1;
+                        if (lastNode == -1) {
+                            itemNode =
+                                    _treeField.addChildNode(categoryNode, item);
+                        } else if (!(_treeField.getCookie(lastNode) instanceof PageMarker)) {
+                            itemNode = _treeField.addSiblingNode(lastNode, item);
+                        }
                         item.setNode(itemNode);
-                        _directoryItems.addElement(item);
+                        _treeField.invalidateNode(categoryNode);
                     }
                 }
             }));
@@ -338,7 +443,7 @@ public final class SQLiteDemoScreen extends MainScreen implements
          * @see Object#toString()
          */
         public String toString() {
-            return "Add Item to " + _categoryName;
+            return "Add Item to " + _category.getName();
         }
     }
 
@@ -357,7 +462,7 @@ public final class SQLiteDemoScreen extends MainScreen implements
                         final Object context) {
                     final int currentNode = _treeField.getCurrentNode();
 
-                    if (_treeField.getCookie(currentNode) instanceof String) {
+                    if (_treeField.getCookie(currentNode) instanceof DirectoryItem) {
                         displayItem(currentNode);
                     }
                 }
@@ -391,24 +496,19 @@ public final class SQLiteDemoScreen extends MainScreen implements
                  */
                 public void execute(final ReadOnlyCommandMetadata metadata,
                         final Object context) {
-                    DirectoryItem item;
-
-                    // Loop through the DirectoryItems vector until the object
-                    // is found which
-                    // corresponds to the currently highlighted node.
-                    for (int i = _directoryItems.size() - 1; i >= 0; --i) {
-                        item = (DirectoryItem) _directoryItems.elementAt(i);
-
-                        if (item.getNode() == _currentNode) {
-                            // Delete the item from the DirectoryItems vector
-                            // and the tree field
-                            _directoryItems.removeElementAt(i);
-                            _treeField.deleteSubtree(_currentNode);
-
-                            // Delete the item from the database
-                            _sqlManager.deleteItem(item.getId());
-                        }
-                    }
+                    final DirectoryItem item =
+                            (DirectoryItem) _treeField.getCookie(_currentNode);
+                    final int categoryNode = _treeField.getParent(_currentNode);
+                    final Category category =
+                            (Category) _treeField.getCookie(categoryNode);
+
+                    // Delete the item from the tree field
+                    _treeField.deleteSubtree(_currentNode);
+                    category.setItemCount(category.getItemCount() - 1);
+                    _treeField.invalidateNode(categoryNode);
+
+                    // Delete the item from the database
+                    _sqlManager.deleteItem(item.getId());
                 }
             }));
         }
@@ -513,25 +613,21 @@ public final class SQLiteDemoScreen extends MainScreen implements
                  */
                 public void execute(final ReadOnlyCommandMetadata metadata,
                         final Object context) {
-                    // Remove category from the tree field
-                    _treeField.deleteSubtree(_category.getNode());
+                    // If the category still ends with a PageMarker, make sure
+                    // it does not read its page after the category is gone.
+                    final int lastNode = getLastChild(_category.getNode());
+                    if (lastNode != -1) {
+                        final Object cookie = _treeField.getCookie(lastNode);
+                        if (cookie instanceof PageMarker) {
+                            ((PageMarker) cookie)._node = -1;
+                        }
+                    }
 
-                    final int id = _category.getId();
+                    // Remove category and its items from the tree field
+                    _treeField.deleteSubtree(_category.getNode());
 
                     // Delete the category from the database
-                    _sqlManager.deleteCategory(id);
-
-                    DirectoryItem item;
-
-                    // Loop through the DirectoryItems vector and delete all
-                    // objects having a category ID corresponding to the
-                    // highlighted category.
-                    for (int j = _directoryItems.size() - 1; j >= 0; --j) {
-                        item = (DirectoryItem) _directoryItems.elementAt(j);
-                        if (item.getCategoryId() == id) {
-                            _directoryItems.removeElementAt(j);
-                        }
-                    }
+                    _sqlManager.deleteCategory(_category.getId());
                 }
             }));
         }
@@ -543,4 +639,79 @@ public final class SQLiteDemoScreen extends MainScreen implements
             return "Delete " + _category.getName();
         }
     }
+
+    /**
+     * A MenuItem class to search the directory
+     */
+    private final class Search extends MenuItem {
+        /**
+         * Default constructor
+         */
+        private Search() {
+            super(new StringProvider("Search"), 0x230005, 0);
+            this.setCommand(new Command(new CommandHandler() {
+                /**
+                 * @see net.rim.device.api.command.CommandHandler#execute(ReadOnlyCommandMetadata,
+                 *      Object)
+                 */
+                public void execute(final ReadOnlyCommandMetadata metadata,
+                        final Object context) {
+                    final SearchScreen screen = new SearchScreen(_sqlManager);
+                    UiApplication.getUiApplication().pushModalScreen(screen);
+                    refreshItems(screen.getEditedItems());
+                }
+            }));
+        }
+    }
+
+    /**
+     * A MenuItem class to time inserts or searches in a scratch database and
+     * display the results. The benchmark runs on a background thread so that
+     * the user interface remains responsive.
+     */
+    private final class RunBenchmark extends MenuItem {
+        /**
+         * Constructs a MenuItem object to run a benchmark
+         * 
+         * @param search
+         *            True to time searches, false to time inserts
+         */
+        private RunBenchmark(final boolean search) {
+            super(new StringProvider(search ? "Search Benchmark"
+                    : "Insert Benchmark"), search ? 0x230060 : 0x230050, 0);
+            this.setCommand(new Command(new CommandHandler() {
+                /**
+                 * @see net.rim.device.api.command.CommandHandler#execute(ReadOnlyCommandMetadata,
+                 *      Object)
+                 */
+                public void execute(final ReadOnlyCommandMetadata metadata,
+                        final Object context) {
+                    _benchmarkRunning = true;
+                    new Thread() {
+                        public void run() {
+                            String report;
+                            try {
+                                final SQLiteBenchmark benchmark =
+                                        new SQLiteBenchmark();
+                                report =
+                                        search ? benchmark.runSearches()
+                                                : benchmark.runInserts();
+                            } catch (final Exception e) {
+                                report = "Benchmark failed - " + e.toString();
+                            }
+
+                            final String message = report;
+                            UiApplication.getUiApplication().invokeLater(
+                                    new Runnable() {
+                                        public void run() {
+                                            _benchmarkRunning = false;
+                                            Dialog.inform(message);
+                                        }
+                                    });
+                        }
+                    }.start();
+                }
+            }));
+        }
+    }
 }
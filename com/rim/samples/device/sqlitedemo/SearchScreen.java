@@ -0,0 +1,313 @@
+/*
+ * SearchScreen.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.sqlitedemo;
+
+import java.util.Vector;
+
+import net.rim.device.api.system.Characters;
+import net.rim.device.api.ui.DrawStyle;
+import net.rim.device.api.ui.Field;
+import net.rim.device.api.ui.FieldChangeListener;
+import net.rim.device.api.ui.Graphics;
+import net.rim.device.api.ui.Screen;
+import net.rim.device.api.ui.UiApplication;
+import net.rim.device.api.ui.component.EditField;
+import net.rim.device.api.ui.component.ListField;
+import net.rim.device.api.ui.component.ListFieldCallback;
+import net.rim.device.api.ui.component.SeparatorField;
+import net.rim.device.api.ui.component.TextField;
+import net.rim.device.api.ui.container.MainScreen;
+
+/**
+ * A MainScreen which searches the directory as the user types. The best
+ * matching items are listed below the search field, and are looked up again
+ * shortly after each keystroke. Selecting an item opens it in an ItemScreen.
+ * 
+ * Searches run on a background thread so that typing is never held up by the
+ * database. Each keystroke starts a new generation, and results which arrive
+ * for an earlier generation are dropped.
+ */
+public final class SearchScreen extends MainScreen implements
+        ListFieldCallback, FieldChangeListener {
+    private static final int MAX_RESULTS = 20;
+
+    // Time to wait after a keystroke before searching, so that a search is
+    // not run for every character of a word typed quickly.
+    private static final long SEARCH_DELAY = 150;
+
+    private final SQLManager _sqlManager;
+    private final EditField _searchField;
+    private final ListField _listField;
+    private Vector _results;
+    private final Vector _editedItems;
+    private int _searchId;
+    private int _generation;
+    private SearchThread _searchThread;
+
+    /**
+     * Constructs a new SearchScreen object
+     * 
+     * @param sqlManager
+     *            A sqlManager instance used to perform database operations
+     */
+    public SearchScreen(final SQLManager sqlManager) {
+        super(Screen.DEFAULT_CLOSE);
+
+        _sqlManager = sqlManager;
+        _results = new Vector();
+        _editedItems = new Vector();
+        _searchId = -1;
+
+        // Initialize UI components
+        setTitle("Search");
+        _searchField = new EditField("Search: ", "", 50, TextField.NO_NEWLINE);
+        _searchField.setChangeListener(this);
+        _listField = new ListField();
+        _listField.setCallback(this);
+        add(_searchField);
+        add(new SeparatorField());
+        add(_listField);
+    }
+
+    /**
+     * Returns the items which were edited from this screen
+     * 
+     * @return A vector of DirectoryItem objects
+     */
+    Vector getEditedItems() {
+        return _editedItems;
+    }
+
+    /**
+     * @see FieldChangeListener#fieldChanged(Field, int)
+     */
+    public void fieldChanged(final Field field, final int context) {
+        if (field == _searchField) {
+            final UiApplication app = UiApplication.getUiApplication();
+
+            // Replace any search that has not started yet, and ignore the
+            // results of any that has
+            if (_searchId != -1) {
+                app.cancelInvokeLater(_searchId);
+            }
+            final int generation = ++_generation;
+            _searchId = app.invokeLater(new Runnable() {
+                public void run() {
+                    _searchId = -1;
+                    _searchThread.search(_searchField.getText(), generation);
+                }
+            }, SEARCH_DELAY, false);
+        }
+    }
+
+    /**
+     * Lists the results of a search, unless the search text has changed since
+     * the search was started. Called on the event thread.
+     * 
+     * @param results
+     *            The DirectoryItem objects found
+     * @param generation
+     *            The generation of the search which found them
+     */
+    private void showResults(final Vector results, final int generation) {
+        if (generation == _generation) {
+            _results = results;
+            _listField.setSize(_results.size());
+        }
+    }
+
+    /**
+     * @see Screen#onUiEngineAttached(boolean)
+     */
+    protected void onUiEngineAttached(final boolean attached) {
+        super.onUiEngineAttached(attached);
+
+        if (attached) {
+            _searchThread = new SearchThread();
+            _searchThread.start();
+        } else {
+            if (_searchId != -1) {
+                UiApplication.getUiApplication().cancelInvokeLater(_searchId);
+                _searchId = -1;
+            }
+            _searchThread.stopThread();
+        }
+    }
+
+    /**
+     * Pushes a modal screen to display the selected item's details
+     */
+    private void displaySelectedItem() {
+        final int index = _listField.getSelectedIndex();
+        if (index >= 0) {
+            final DirectoryItem item =
+                    (DirectoryItem) _results.elementAt(index);
+            final DirectoryItem itemCopy = new DirectoryItem(item);
+
+            UiApplication.getUiApplication().pushModalScreen(
+                    new ItemScreen(item, _sqlManager, false));
+
+            // Check whether the item was changed by the user
+            if (!itemCopy.equals(item)) {
+                if (!_editedItems.contains(item)) {
+                    _editedItems.addElement(item);
+                }
+                _listField.invalidate(index);
+            }
+        }
+    }
+
+    /**
+     * @see Screen#keyChar(char, int, int)
+     */
+    protected boolean keyChar(final char key, final int status, final int time) {
+        // Intercept the ENTER key when an item is selected
+        if (key == Characters.ENTER && _listField.isFocus()) {
+            displaySelectedItem();
+            return true;
+        }
+
+        return super.keyChar(key, status, time);
+    }
+
+    /**
+     * @see net.rim.device.api.ui.Screen#invokeAction(int)
+     */
+    protected boolean invokeAction(final int action) {
+        if (action == ACTION_INVOKE && _listField.isFocus()) {
+            displaySelectedItem();
+            return true;
+        }
+
+        return super.invokeAction(action);
+    }
+
+    /**
+     * @see Screen#onSavePrompt()
+     */
+    protected boolean onSavePrompt() {
+        // Nothing to save, suppress the save dialog
+        return true;
+    }
+
+    /**
+     * @see ListFieldCallback#drawListRow(ListField, Graphics, int, int, int)
+     */
+    public void drawListRow(final ListField listField,
+            final Graphics graphics, final int index, final int y,
+            final int width) {
+        final DirectoryItem item = (DirectoryItem) _results.elementAt(index);
+        graphics.drawText(item.getName() + ", " + item.getLocation(), 0, y,
+                DrawStyle.ELLIPSIS, width);
+    }
+
+    /**
+     * @see ListFieldCallback#get(ListField, int)
+     */
+    public Object get(final ListField listField, final int index) {
+        return _results.elementAt(index);
+    }
+
+    /**
+     * @see ListFieldCallback#getPreferredWidth(ListField)
+     */
+    public int getPreferredWidth(final ListField listField) {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * @see ListFieldCallback#indexOfList(ListField, String, int)
+     */
+    public int indexOfList(final ListField listField, final String prefix,
+            final int start) {
+        // Not applicable, text is typed into the search field
+        return -1;
+    }
+
+    /**
+     * A thread which runs searches one at a time. Only the latest search
+     * requested is run; any requested while a search was running are skipped.
+     */
+    private final class SearchThread extends Thread {
+        private String _query;
+        private int _queryGeneration;
+        private boolean _stop;
+
+        /**
+         * @see Runnable#run()
+         */
+        public void run() {
+            for (;;) {
+                final String query;
+                final int generation;
+                synchronized (this) {
+                    while (_query == null && !_stop) {
+                        try {
+                            wait();
+                        } catch (final InterruptedException ie) {
+                        }
+                    }
+                    if (_stop) {
+                        return;
+                    }
+                    query = _query;
+                    generation = _queryGeneration;
+                    _query = null;
+                }
+
+                final Vector results = _sqlManager.search(query, MAX_RESULTS);
+                UiApplication.getUiApplication().invokeLater(new Runnable() {
+                    public void run() {
+                        showResults(results, generation);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Requests a search, replacing any which has not started yet
+         * 
+         * @param query
+         *            The text to search for
+         * @param generation
+         *            The generation to pass back with the results
+         */
+        synchronized void search(final String query, final int generation) {
+            _query = query;
+            _queryGeneration = generation;
+            notify();
+        }
+
+        /**
+         * Sets the stop flag and wakes the thread if it is waiting
+         */
+        synchronized void stopThread() {
+            _stop = true;
+            notify();
+        }
+    }
+}
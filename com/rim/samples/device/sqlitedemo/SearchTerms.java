@@ -0,0 +1,147 @@
+/*
+ * SearchTerms.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.device.sqlitedemo;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Splits text into the terms stored in the ItemTerms search table. A term is
+ * a run of letters and digits, converted to lower case. Each term of a
+ * directory item is weighted by the field it was found in, so that an item
+ * whose name matches a search ranks above one whose address matches.
+ */
+final class SearchTerms {
+    static final int NAME_WEIGHT = 4;
+    static final int LOCATION_WEIGHT = 2;
+    static final int PHONE_WEIGHT = 1;
+
+    /**
+     * Prevents instantiation
+     */
+    private SearchTerms() {
+    }
+
+    /**
+     * Returns the terms of a directory item along with their weights. A term
+     * found in more than one field is given the sum of the fields' weights.
+     * 
+     * @param name
+     *            The name of the directory item
+     * @param location
+     *            The address of the directory item
+     * @param phone
+     *            The phone number of the directory item
+     * @return A hash table mapping each term to its weight as an Integer
+     */
+    static Hashtable getItemTerms(final String name, final String location,
+            final String phone) {
+        final Hashtable terms = new Hashtable();
+        addTerms(terms, getWords(name), NAME_WEIGHT);
+        addTerms(terms, getWords(location), LOCATION_WEIGHT);
+
+        // Index the phone number's digits run together as well as its
+        // separate groups, so a number can be found however it is typed.
+        final Vector phoneWords = getWords(phone);
+        if (phoneWords.size() > 1) {
+            final StringBuffer digits = new StringBuffer();
+            for (int i = 0; i < phoneWords.size(); ++i) {
+                digits.append((String) phoneWords.elementAt(i));
+            }
+            phoneWords.addElement(digits.toString());
+        }
+        addTerms(terms, phoneWords, PHONE_WEIGHT);
+
+        return terms;
+    }
+
+    /**
+     * Adds words to a hash table of terms with the given weight
+     */
+    private static void addTerms(final Hashtable terms, final Vector words,
+            final int weight) {
+        for (int i = words.size() - 1; i >= 0; --i) {
+            final Object word = words.elementAt(i);
+            final Integer current = (Integer) terms.get(word);
+            terms.put(word, new Integer(current == null ? weight : current
+                    .intValue()
+                    + weight));
+        }
+    }
+
+    /**
+     * Splits text into lower case words, dropping any repeated words
+     * 
+     * @param text
+     *            The text to split
+     * @return A vector of Strings, in the order they first appear in the text
+     */
+    static Vector getWords(final String text) {
+        final Vector words = new Vector();
+        final int length = text == null ? 0 : text.length();
+
+        int start = -1;
+        for (int i = 0; i <= length; ++i) {
+            if (i < length && isWordChar(text.charAt(i))) {
+                if (start == -1) {
+                    start = i;
+                }
+            } else if (start != -1) {
+                final String word = text.substring(start, i).toLowerCase();
+                if (!words.contains(word)) {
+                    words.addElement(word);
+                }
+                start = -1;
+            }
+        }
+
+        return words;
+    }
+
+    /**
+     * Returns the smallest string greater than every string starting with the
+     * given prefix. Terms matching the prefix are those at least as great as
+     * the prefix and less than the returned string, which lets a prefix search
+     * be answered by a range scan of the term index.
+     * 
+     * @param prefix
+     *            A word returned by getWords()
+     * @return The upper bound of the range of terms starting with the prefix
+     */
+    static String getPrefixEnd(final String prefix) {
+        final int last = prefix.length() - 1;
+        return prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+    }
+
+    /**
+     * Determines whether a character is part of a word
+     */
+    private static boolean isWordChar(final char c) {
+        return Character.isDigit(c) || Character.isLowerCase(c)
+                || Character.isUpperCase(c);
+    }
+}
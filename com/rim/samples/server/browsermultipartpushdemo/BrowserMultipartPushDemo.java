@@ -29,11 +29,16 @@ import java.net.*;
 import java.io.*;
 import java.util.*;
 
-import javax.mail.MessagingException;
-import javax.mail.internet.*;
+import com.rim.samples.server.common.PushDispatcher;
 
 /**
  * Application which pushes a specified web page to a specified device.
+ * <p>The push is a multipart body holding the page, the images it uses and
+ * a channel entry for it.  The body is built once by a {@link MultipartWriter}
+ * and streamed to the BES for each device, so the images are read from their
+ * files as they are sent rather than held in memory.</p>
+ * <p>To push the page to several devices, pass a file listing their email
+ * addresses, one per line, as the argument.</p>
  */
 public class BrowserMultipartPushDemo {
 
@@ -41,6 +46,9 @@ public class BrowserMultipartPushDemo {
     public static final String CONTENT = "Browser-Content";
 
     private static final String PROPERTIES_FILE = "com/rim/samples/server/browsermultipartpushdemo/browserpush.properties";
+    private static final String IMAGE_DIRECTORY = "com/rim/samples/server/browsermultipartpushdemo/images";
+    private static final String PUSH_URL = "cache://example.com/MultipartExample";
+    private static final int BUFFER_SIZE = 8192;
 
     public BrowserMultipartPushDemo() {
     }
@@ -78,171 +86,219 @@ public class BrowserMultipartPushDemo {
         // Priority of the push
         String pushPriority = prop.getProperty("pushPriority");
 
-        // push the page to the device
-        pushPage(besHostName, besPort, email, pushTitle, unreadIconUrl, readIconUrl, pushPriority);
+        if (args.length > 0) {
+            // push the page to every device in the list
+            List<String> emails;
+            try {
+                emails = PushDispatcher.readRecipients(args[0]);
+            } catch (IOException ioe) {
+                throw new RuntimeException("problems reading recipients file: " + ioe.getMessage());
+            }
+            pushPage(besHostName, besPort, emails, pushTitle, unreadIconUrl, readIconUrl, pushPriority);
+        } else {
+            // push the page to the device
+            pushPage(besHostName, besPort, email, pushTitle, unreadIconUrl, readIconUrl, pushPriority);
+        }
     }
 
     /**
      * Pushes a web page to a device.
      */
     public static void pushPage(String besHostName, int besPort, String email, String pushTitle, String unreadIconUrl, String readIconUrl, String pushPriority) {
+        pushPage(besHostName, besPort, Collections.singletonList(email), pushTitle, unreadIconUrl, readIconUrl, pushPriority);
+    }
+
+    /**
+     * Pushes a web page to a list of devices, one after the other over a kept-alive connection.
+     */
+    public static void pushPage(String besHostName, int besPort, List<String> emails, String pushTitle, String unreadIconUrl, String readIconUrl, String pushPriority) {
 
         System.out.println("besHostName = " + besHostName);
         System.out.println("besPort = " + besPort);
-        System.out.println("email = " + email);
+        System.out.println("emails = " + emails);
         System.out.println("pushTitle = " + pushTitle);
         System.out.println("pushPriority = " + pushPriority);
 
-        HttpURLConnection besConn;
-        
-        URL pushUrl, besUrl;
-        String pushUrlString = "cache://example.com/MultipartExample";
-
         try {
-            /* push listener thread on the device listens to port 7874 for pushes from the bes */
-            besUrl = new URL("http", besHostName, besPort, "/push?DESTINATION=" + email + "&PORT=7874&REQUESTURI=/"); 
-            System.out.println("BES URL: " + besUrl.toString());
-            besConn = (HttpURLConnection)besUrl.openConnection();
-    
-            // We are going to set up a multipart push that contains a channel push and a multipart content push
-            MimeMultipart multipartResponse = new MimeMultipart();
-            String type = multipartResponse.getContentType();
-            type = type.replace('\r', ' ');
-            type = type.replace('\n', ' ');
-            besConn.setRequestProperty("content-type", type);
-            besConn.setRequestProperty("X-RIM-Transcode-Content", "*/*");
-
-            {
-                Object[] content = getMultipartContent();
-                byte[] data = (byte[])content[1];
-                String dataContentType = (String)content[0];
-                // Add the content push item
-                InternetHeaders headers = new InternetHeaders();
-                // write the content location, length and type
-                headers.setHeader("Content-Location", pushUrlString);
-                headers.setHeader("X-RIM-Push-Type", CONTENT);
-                headers.setHeader("X-RIM-Transcode-Content", "*/*");
-                headers.setHeader("Content-Type", dataContentType);
-                headers.setHeader("content-length", Integer.toString(data.length));
-                
-                // add the body part
-                multipartResponse.addBodyPart(new MimeBodyPart(headers, data));
-            }
-            
-            {
-                // Add the channel push item
-                InternetHeaders headers = new InternetHeaders();
-                // write the content location, length and type
-                headers.setHeader("Content-Location", pushUrlString);
-                headers.setHeader("X-RIM-Push-Title", pushTitle);
-                headers.setHeader("X-RIM-Push-Type", CHANNEL);
-                headers.setHeader("X-RIM-Push-Channel-ID", pushUrlString);
-                headers.setHeader("X-RIM-Transcode-Content", "*/*");
-                headers.setHeader("content-length", Integer.toString(0));
-                
-                // add the body part
-                multipartResponse.addBodyPart(new MimeBodyPart(headers, new byte[0]));
-            }
-            
-            if (pushPriority != null) {
-                besConn.setRequestProperty("X-RIM-Push-Priority", pushPriority);
-            }
-            try {
-                besConn.setRequestMethod("POST"); 
-            } catch (ProtocolException e) {
-                throw new RuntimeException("problems setting request method: " + e.getMessage());
-            }
-            
-            besConn.setAllowUserInteraction(false);
-            besConn.setDoInput(true);
-            besConn.setDoOutput(true);
-            OutputStream outs = besConn.getOutputStream();
-            multipartResponse.writeTo(outs);
-            outs.close();
-
-            System.out.println("connecting to bes " + besHostName + ":" + besPort);
-            besConn.connect();
-            System.out.println("getting response code");
-            int rescode = besConn.getResponseCode();
-            if (rescode != HttpURLConnection.HTTP_OK) {
-                throw new RuntimeException("Unable to push page, received bad response code from BES:" + rescode);
+            // The boundaries and part headers are the same for every device
+            MultipartWriter push = createPush(new File(IMAGE_DIRECTORY).listFiles(), pushTitle, unreadIconUrl, readIconUrl);
+            long length = push.getLength();
+            System.out.println("push size: " + (length >= 0 ? length + " bytes" : "unknown until sent"));
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long start = System.currentTimeMillis();
+            for (Iterator<String> it = emails.iterator(); it.hasNext(); ) {
+                sendPush(besHostName, besPort, it.next(), push, pushPriority, buffer);
             }
-            System.out.println("pushed page to device");
+            System.out.println("pushed page to " + emails.size() + " device(s) in " + (System.currentTimeMillis() - start) + " ms");
         } catch (IOException e) {
             throw new RuntimeException("Unable to push page:" + e.toString());
-        } catch (MessagingException me) {
-            throw new RuntimeException("Unable to push page:" + me.toString());
         }
-    
-    
     }
 
     /**
-     * Return some multipart content
+     * Streams a push to one device.
+     */
+    private static void sendPush(String besHostName, int besPort, String email, MultipartWriter push, String pushPriority, byte[] buffer) throws IOException {
+        /* push listener thread on the device listens to port 7874 for pushes from the bes */
+        URL besUrl = new URL("http", besHostName, besPort, "/push?DESTINATION=" + email + "&PORT=7874&REQUESTURI=/");
+        System.out.println("BES URL: " + besUrl.toString());
+        HttpURLConnection besConn = (HttpURLConnection)besUrl.openConnection();
+
+        besConn.setRequestProperty("content-type", push.getContentType());
+        besConn.setRequestProperty("X-RIM-Transcode-Content", "*/*");
+        if (pushPriority != null) {
+            besConn.setRequestProperty("X-RIM-Push-Priority", pushPriority);
+        }
+        try {
+            besConn.setRequestMethod("POST");
+        } catch (ProtocolException e) {
+            throw new RuntimeException("problems setting request method: " + e.getMessage());
+        }
+
+        besConn.setAllowUserInteraction(false);
+        besConn.setDoInput(true);
+        besConn.setDoOutput(true);
+
+        // Stream the body rather than letting the connection buffer it: with
+        // the length up front if every part's length is known, chunked if not
+        long length = push.getLength();
+        if (length >= 0) {
+            besConn.setFixedLengthStreamingMode(length);
+        } else {
+            besConn.setChunkedStreamingMode(BUFFER_SIZE);
+        }
+
+        System.out.println("connecting to bes " + besHostName + ":" + besPort);
+        OutputStream outs = besConn.getOutputStream();
+        push.writeTo(outs, buffer);
+        outs.close();
+
+        System.out.println("getting response code");
+        int rescode = besConn.getResponseCode();
+        if (rescode != HttpURLConnection.HTTP_OK) {
+            throw new RuntimeException("Unable to push page, received bad response code from BES:" + rescode);
+        }
+
+        // Read the response to the end so the connection can be reused for the next device
+        InputStream ins = besConn.getInputStream();
+        while (ins.read(buffer) > 0) {
+        }
+        ins.close();
+        System.out.println("pushed page to " + email);
+    }
+
+    /**
+     * Sets up a multipart push that contains a multipart content push and a channel push.
+     */
+    /*package*/ static MultipartWriter createPush(File[] imageFiles, String pushTitle, String unreadIconUrl, String readIconUrl) throws IOException {
+        MultipartWriter push = new MultipartWriter("mixed");
+
+        {
+            // Add the content push item
+            MultipartWriter content = getMultipartContent(imageFiles, unreadIconUrl, readIconUrl);
+            Map<String, String> headers = new LinkedHashMap<String, String>();
+            // write the content location and type; the length is added by the writer
+            headers.put("Content-Location", PUSH_URL);
+            headers.put("X-RIM-Push-Type", CONTENT);
+            headers.put("X-RIM-Transcode-Content", "*/*");
+            headers.put("Content-Type", content.getContentType());
+
+            // add the body part
+            push.addPart(headers, content);
+        }
+
+        {
+            // Add the channel push item
+            Map<String, String> headers = new LinkedHashMap<String, String>();
+            headers.put("Content-Location", PUSH_URL);
+            headers.put("X-RIM-Push-Title", pushTitle);
+            headers.put("X-RIM-Push-Type", CHANNEL);
+            headers.put("X-RIM-Push-Channel-ID", PUSH_URL);
+            if (unreadIconUrl.length() > 0) {
+                headers.put("X-RIM-Push-Unread-Icon-URL", unreadIconUrl);
+            }
+            if (readIconUrl.length() > 0) {
+                headers.put("X-RIM-Push-Read-Icon-URL", readIconUrl);
+            }
+            headers.put("X-RIM-Transcode-Content", "*/*");
+
+            // add the body part
+            push.addPart(headers, MultipartWriter.bytes(new byte[0]));
+        }
+
+        return push;
+    }
+
+    /**
+     * Return some multipart content: a page, the images it refers to and the channel icons
      **/
-    private static final Object[] getMultipartContent() throws IOException, MessagingException
+    /*package*/ static MultipartWriter getMultipartContent(File[] imageFiles, String unreadIconUrl, String readIconUrl) throws IOException
     {
-        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
-        // We are going to coax java's mail API to prepare Multipart for us
-        MimeMultipart multipartResponse = new MimeMultipart();
-        String type = multipartResponse.getContentType();
-        type = type.replace('\r', ' ');
-        type = type.replace('\n', ' ');
+        MultipartWriter multipartResponse = new MultipartWriter("mixed");
 
         // prepare html that references each image; because the images are coming in the cache later
         StringBuffer htmlOutput = new StringBuffer("<html>There should be a number of images in the cache when this is pushed<br>");
-        File imageDir = new File("com/rim/samples/server/browsermultipartpushdemo/images");
-        File[] imageFiles = imageDir.listFiles();
         for (int i=0; i < imageFiles.length; ++i) {
             htmlOutput.append("<img src=\"" + imageFiles[i].getName() + "\"> Image " + i + "<br>" );
         }
-        
+
         htmlOutput.append("</html>");
 
         // Write the first body element
-        byte[] content = htmlOutput.toString().getBytes();
-        InternetHeaders headers = new InternetHeaders();
-        headers.setHeader("content-length", Integer.toString(content.length));
-        headers.setHeader("content-type", "text/html");
-        headers.setHeader("X-RIM-Transcode-Content", "*/*");
-        MimeBodyPart mainContent = new MimeBodyPart(headers, content);
-        multipartResponse.addBodyPart(mainContent);
-        
-        // Now for all files in a particular directory append them as body parts
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("content-type", "text/html");
+        headers.put("X-RIM-Transcode-Content", "*/*");
+        multipartResponse.addPart(headers, MultipartWriter.bytes(htmlOutput.toString().getBytes()));
+
+        // Now for all files in a particular directory append them as body parts; they
+        // are read when the push is sent
         for (int i=0; i < imageFiles.length; ++i) {
-            FileInputStream fileIn = new FileInputStream(imageFiles[i]);
-            if (fileIn != null) {
+            String contentType = URLConnection.guessContentTypeFromName(imageFiles[i].getName());
+            headers = new LinkedHashMap<String, String>();
+            headers.put("content-location", imageFiles[i].getName());
+            headers.put("content-type", contentType != null ? contentType : "image/gif");
+            headers.put("X-RIM-Transcode-Content", "*/*");
+            multipartResponse.addPart(headers, MultipartWriter.file(imageFiles[i]));
+        }
+
+        // The channel icons go into the cache under their own URLs.  They are
+        // fetched once here; one that cannot be fetched (a relative URL, say)
+        // is left out, and the device fetches it from the channel headers itself.
+        String[] iconUrls = { unreadIconUrl, readIconUrl };
+        for (int i=0; i < iconUrls.length; ++i) {
+            if (iconUrls[i].length() > 0) {
+                byte[] icon;
                 try {
-                    
-                    // just read what is available
-                    int avail = fileIn.available();
-                    byte[] bytes = new byte[avail];
-                    fileIn.read(bytes);
-                    
-                    headers = new InternetHeaders();
-                    
-                    // write the content location, length and type
-                    headers.setHeader("content-location", imageFiles[i].getName());
-                    headers.setHeader("content-length", Integer.toString(bytes.length));
-                    headers.setHeader("content-type", "image/gif");
-                    headers.setHeader("X-RIM-Transcode-Content", "*/*");
-                    
-                    // add the body part
-                    mainContent = new MimeBodyPart(headers, bytes);
-                    multipartResponse.addBodyPart(mainContent);
-                } finally {
-                    fileIn.close();
+                    icon = fetch(new URL(iconUrls[i]));
+                } catch (IOException e) {
+                    System.out.println("Not caching icon " + iconUrls[i] + ": " + e);
+                    continue;
                 }
+                String contentType = URLConnection.guessContentTypeFromName(iconUrls[i]);
+                headers = new LinkedHashMap<String, String>();
+                headers.put("content-location", iconUrls[i]);
+                headers.put("content-type", contentType != null ? contentType : "image/png");
+                headers.put("X-RIM-Transcode-Content", "*/*");
+                multipartResponse.addPart(headers, MultipartWriter.bytes(icon));
+            }
+        }
+
+        return multipartResponse;
+    }
+
+    private static byte[] fetch(URL url) throws IOException {
+        InputStream in = url.openStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) > 0) {
+                out.write(buffer, 0, bytesRead);
             }
+            return out.toByteArray();
+        } finally {
+            in.close();
         }
-        
-        // write out the result
-        multipartResponse.writeTo(bytesOut);
-        
-        // We return the result as a string and the data
-        Object[] result = new Object[2];
-        result[0] = type;
-        result[1] = bytesOut.toByteArray();
-        return result;
     }
-} 
+}
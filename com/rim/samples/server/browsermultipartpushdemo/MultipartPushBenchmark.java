@@ -0,0 +1,196 @@
+/*
+ * MultipartPushBenchmark.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.browsermultipartpushdemo;
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.util.*;
+
+import com.sun.net.httpserver.*;
+
+/**
+ * Compares the heap and time used to push a large multipart body when it is
+ * assembled in memory first, as the JavaMail version of the demo did, and
+ * when it is streamed by a {@link MultipartWriter}.
+ * <p>To run:</p>
+ * <pre>
+ *    java -Xmx512m com.rim.samples.server.browsermultipartpushdemo.MultipartPushBenchmark [MB per push] [images] [pushes]
+ * </pre>
+ * <p>The images are random files written to a temporary directory.  The
+ * pushes go to a server in the same VM that reads and discards the body.</p>
+ */
+public class MultipartPushBenchmark {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int images = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int pushes = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        File directory = createImages(megabytes, images);
+        HttpServer sink = startSink();
+        try {
+            URL url = new URL("http", "localhost", sink.getAddress().getPort(), "/push");
+            MultipartWriter push = BrowserMultipartPushDemo.createPush(directory.listFiles(), "Benchmark", "", "");
+            double pushedMB = push.getLength() / (1024.0 * 1024.0);
+            System.out.println("push size " + String.format("%.1f", pushedMB) + " MB in " + images + " images, "
+                               + pushes + " pushes per run, max heap " + Runtime.getRuntime().maxMemory() / (1024 * 1024) + " MB");
+
+            for (int run = 0; run < 2; ++run) {
+                // the first run warms up the VM
+                measure("buffered ", url, push, pushes, pushedMB, true, run > 0);
+                measure("streaming", url, push, pushes, pushedMB, false, run > 0);
+            }
+        } finally {
+            sink.stop(0);
+            File[] files = directory.listFiles();
+            for (int i = 0; i < files.length; ++i) {
+                files[i].delete();
+            }
+            directory.delete();
+        }
+    }
+
+    private static void measure(String name, URL url, MultipartWriter push, int pushes, double pushedMB, boolean buffered, boolean report) throws IOException {
+        List<MemoryPoolMXBean> pools = heapPools();
+        System.gc();
+        long baseline = usedHeap(pools);
+        for (int i = 0; i < pools.size(); ++i) {
+            pools.get(i).resetPeakUsage();
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long start = System.nanoTime();
+        for (int i = 0; i < pushes; ++i) {
+            send(url, push, buffer, buffered);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long peak = 0;
+        for (int i = 0; i < pools.size(); ++i) {
+            peak += pools.get(i).getPeakUsage().getUsed();
+        }
+        if (report) {
+            double extraMB = Math.max(peak - baseline, 0) / (1024.0 * 1024.0);
+            System.out.println(name + ": " + String.format("%.1f ms/MB, %.0f MB/s, peak heap +%.1f MB (%.2f MB per MB pushed)",
+                               seconds * 1000 / (pushedMB * pushes), pushedMB * pushes / seconds, extraMB, extraMB / pushedMB));
+        }
+    }
+
+    private static void send(URL url, MultipartWriter push, byte[] buffer, boolean buffered) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setRequestProperty("content-type", push.getContentType());
+
+        OutputStream out;
+        if (buffered) {
+            // The whole body in memory, then copied out
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            push.writeTo(bytes, buffer);
+            byte[] body = bytes.toByteArray();
+            conn.setFixedLengthStreamingMode(body.length);
+            out = conn.getOutputStream();
+            out.write(body);
+        } else {
+            conn.setChunkedStreamingMode(BUFFER_SIZE);
+            out = conn.getOutputStream();
+            push.writeTo(out, buffer);
+        }
+        out.close();
+
+        if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("push failed: " + conn.getResponseCode());
+        }
+        InputStream in = conn.getInputStream();
+        while (in.read(buffer) > 0) {
+        }
+        in.close();
+    }
+
+    private static File createImages(int megabytes, int images) throws IOException {
+        File directory = File.createTempFile("multipartpush", "");
+        directory.delete();
+        directory.mkdir();
+
+        Random random = new Random(1);
+        byte[] block = new byte[64 * 1024];
+        long imageSize = (long) megabytes * 1024 * 1024 / images;
+        for (int i = 0; i < images; ++i) {
+            OutputStream out = new FileOutputStream(new File(directory, "image" + i + ".gif"));
+            try {
+                for (long written = 0; written < imageSize; written += block.length) {
+                    random.nextBytes(block);
+                    out.write(block, 0, (int) Math.min(block.length, imageSize - written));
+                }
+            } finally {
+                out.close();
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Starts a server that reads and discards whatever is posted to it.
+     */
+    private static HttpServer startSink() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/push", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                InputStream in = exchange.getRequestBody();
+                while (in.read(buffer) > 0) {
+                }
+                in.close();
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+        for (Iterator<MemoryPoolMXBean> it = ManagementFactory.getMemoryPoolMXBeans().iterator(); it.hasNext(); ) {
+            MemoryPoolMXBean pool = it.next();
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    private static long usedHeap(List<MemoryPoolMXBean> pools) {
+        long used = 0;
+        for (int i = 0; i < pools.size(); ++i) {
+            used += pools.get(i).getUsage().getUsed();
+        }
+        return used;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * MultipartWriter.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.browsermultipartpushdemo;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes a MIME multipart body straight to a stream.
+ * <p>The boundary and the header block of every part are encoded once, when
+ * the part is added, so the same writer can produce the body for any number
+ * of pushes.  Part bodies are copied from their {@link PartSource} through the
+ * caller's buffer each time the body is written; nothing is held in memory.
+ * A writer is itself a {@link PartSource}, so multiparts can be nested.
+ */
+/*package*/ final class MultipartWriter implements PartSource {
+
+    private static final String CHARSET = "ISO-8859-1";
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static int _boundaryCount;
+
+    private final String _contentType;
+    private final byte[] _closeDelimiter;
+    private final List<byte[]> _headerBlocks = new ArrayList<byte[]>();
+    private final List<PartSource> _bodies = new ArrayList<PartSource>();
+    private final String _delimiter;
+
+    /**
+     * @param subtype the multipart subtype, such as "mixed" or "related".
+     */
+    MultipartWriter(String subtype) {
+        String boundary = newBoundary();
+        _contentType = "multipart/" + subtype + "; boundary=\"" + boundary + '"';
+        _delimiter = "--" + boundary + "\r\n";
+        _closeDelimiter = encode("--" + boundary + "--\r\n");
+    }
+
+    private static synchronized String newBoundary() {
+        return "----=_Part_" + (_boundaryCount++) + '_' + Long.toHexString(new Random().nextLong());
+    }
+
+    /**
+     * @return the value for the Content-Type header of the body.
+     */
+    String getContentType() {
+        return _contentType;
+    }
+
+    /**
+     * Adds a part.  A Content-Length header is added when the length of the
+     * body is known and the headers do not already give one.
+     *
+     * @param headers the part's headers, in the order they are to be written.
+     * @param body the part's body.
+     */
+    void addPart(Map<String, String> headers, PartSource body) {
+        StringBuffer block = new StringBuffer(_delimiter);
+        boolean hasLength = false;
+        for (Iterator<Map.Entry<String, String>> it = headers.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, String> header = it.next();
+            block.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            hasLength |= header.getKey().equalsIgnoreCase("Content-Length");
+        }
+        if (!hasLength && body.getLength() >= 0) {
+            block.append("Content-Length: ").append(body.getLength()).append("\r\n");
+        }
+        block.append("\r\n");
+
+        _headerBlocks.add(encode(block.toString()));
+        _bodies.add(body);
+    }
+
+    public long getLength() {
+        long length = _closeDelimiter.length;
+        for (int i = 0; i < _bodies.size(); ++i) {
+            long bodyLength = _bodies.get(i).getLength();
+            if (bodyLength < 0) {
+                return -1;
+            }
+            length += _headerBlocks.get(i).length + bodyLength + CRLF.length;
+        }
+        return length;
+    }
+
+    public void writeTo(OutputStream out, byte[] buffer) throws IOException {
+        for (int i = 0; i < _bodies.size(); ++i) {
+            out.write(_headerBlocks.get(i));
+            _bodies.get(i).writeTo(out, buffer);
+            out.write(CRLF);
+        }
+        out.write(_closeDelimiter);
+    }
+
+    /**
+     * @return a source for bytes already in memory.
+     */
+    static PartSource bytes(final byte[] bytes) {
+        return new PartSource() {
+            public long getLength() {
+                return bytes.length;
+            }
+
+            public void writeTo(OutputStream out, byte[] buffer) throws IOException {
+                out.write(bytes);
+            }
+        };
+    }
+
+    /**
+     * @return a source that reads a file each time it is written.
+     */
+    static PartSource file(final File file) {
+        return new PartSource() {
+            public long getLength() {
+                return file.length();
+            }
+
+            public void writeTo(OutputStream out, byte[] buffer) throws IOException {
+                InputStream in = new FileInputStream(file);
+                try {
+                    long copied = copy(in, out, buffer);
+                    if (copied != file.length()) {
+                        throw new IOException(file + " changed size while being pushed");
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    private static long copy(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+        long copied = 0;
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) > 0) {
+            out.write(buffer, 0, bytesRead);
+            copied += bytesRead;
+        }
+        return copied;
+    }
+
+    private static byte[] encode(String text) {
+        try {
+            return text.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.toString());
+        }
+    }
+}
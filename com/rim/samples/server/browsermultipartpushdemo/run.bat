@@ -2,7 +2,7 @@
 REM Build and run script for the BrowserMultipartPushDemo 
 
 del *.class
-javac -classpath mail.jar BrowserMultipartPushDemo.java
+javac -sourcepath ..\..\..\..\.. *.java
 pushd ..\..\..\..\..
-	java -cp com\rim\samples\server\browsermultipartpushdemo\activation.jar;com\rim\samples\server\browsermultipartpushdemo\mail.jar;. com.rim.samples.server.browsermultipartpushdemo.BrowserMultipartPushDemo
+	java -cp . com.rim.samples.server.browsermultipartpushdemo.BrowserMultipartPushDemo %*
 popd
@@ -30,12 +30,29 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 
+import com.rim.samples.server.common.PapTemplate;
+import com.rim.samples.server.common.PushDispatcher;
+import com.rim.samples.server.common.PushNotificationCollector;
+
+/**
+ * <p>Pushes a web page to a BlackBerry handheld using PAP.
+ * <p>The push notification from MDS is received by a {@link PushNotificationCollector};
+ * see that class for the port and reporting properties.  After a push the demo
+ * waits up to <code>push.notifyWait</code> milliseconds (default 30000) for it.
+ * <p>Run with the arguments <code>bulk &lt;recipients file&gt;</code> to send the
+ * same push to every email address in the file, one per line.  The page is
+ * fetched once, the pushes are sent by a {@link PushDispatcher} (see its
+ * <code>push.*</code> system properties) and the outcome for each address is
+ * written to <code>&lt;recipients file&gt;.results.csv</code>.  The collector
+ * then reports how many of the pushes have been delivered.
+ */
 public class BrowserPapPushDemo
 {
     private static final String CHANNEL = "Browser-Channel";
     private static final String CHANNEL_DELETE = "Browser-Channel-Delete";
     private static final String PROPERTIES_FILE = "com/rim/samples/server/browserpushdemo/pappush/pap_browserpush.properties";
     private static final String BOUNDARY = "asdlfkjiurwghasf";
+    private static final long NOTIFY_WAIT = Long.getLong( "push.notifyWait", 30000 ).longValue();
     
     // possible push commands
     private static final String CANCEL = "cancel";
@@ -103,10 +120,64 @@ public class BrowserPapPushDemo
             papFilename = "com/rim/samples/server/browserpushdemo/pappush/pap_status.txt";
         }
         
+        if ( args.length >= 2 && args[0].equals( "bulk" ) ) {
+            // Push the page to every handheld in the list.
+            bulkPush( args[1], mdsHostName, mdsPort, channelID, pushCommand, pushType, pushTitle, contentUrlString,
+                      unreadIconUrl, readIconUrl, pushReliability, notifyUrl, pushID, replaceID, papFilename );
+            return;
+        }
+
         // Push the page to the handheld.
         pushPage( mdsHostName, mdsPort, email, channelID, pushCommand, pushType, pushTitle, contentUrlString,
                   unreadIconUrl, readIconUrl, pushReliability, notifyUrl, pushID, replaceID, papFilename );
     }
+
+
+    /**
+     * Pushes a webpage to every BlackBerry handheld listed in a file.
+     */
+    public static void bulkPush( String recipientsFile, String mdsHostName, int mdsPort,
+                                 String channelID,
+                                 String pushCommand, String pushType,
+                                 String pushTitle, String contentUrlString,
+                                 String unreadIconUrl, String readIconUrl,
+                                 String pushReliability, String notifyUrl,
+                                 String pushID, String replaceID,
+                                 String papFilename ) {
+        try {
+            List<String> emails = PushDispatcher.readRecipients( recipientsFile );
+            final URL mdsUrl = new URL( "http", mdsHostName, mdsPort, "/pap" );
+            final String contentType = getRequestContentType( pushCommand );
+            final PapTemplate template = bindTemplate( papFilename, pushCommand, channelID, pushType, pushTitle,
+                                                       contentUrlString, unreadIconUrl, readIconUrl,
+                                                       pushReliability, notifyUrl, replaceID );
+
+            PushNotificationCollector collector = startCollector( false );
+            PushDispatcher dispatcher = PushDispatcher.fromSystemProperties();
+            if ( expectsNotification( pushCommand ) ) {
+                dispatcher.setNotificationCollector( collector );
+            }
+
+            List<PushDispatcher.PushResult> results = dispatcher.dispatch( emails,
+                new PushDispatcher.RequestFactory() {
+                    public PushDispatcher.PushRequest create( String email, String pushId ) {
+                        return new PushDispatcher.PushRequest( mdsUrl, renderRequest( template, pushId, email ) )
+                            .setHeader( "Content-Type", contentType )
+                            .expectPapResponse();
+                    }
+                }, pushID + '-' );
+
+            String resultsFile = recipientsFile + ".results.csv";
+            PushDispatcher.writeResults( results, resultsFile );
+            System.out.println( "Results written to " + resultsFile );
+
+            awaitNotifications( collector );
+        } catch ( IOException e ) {
+            throw new RuntimeException( "Unable to send messages: " + e.toString() );
+        } catch ( InterruptedException e ) {
+            throw new RuntimeException( "Interrupted while pushing" );
+        }
+    }
     
 
     /**
@@ -121,18 +192,22 @@ public class BrowserPapPushDemo
                                  String pushID, String replaceID,
                                  String papFilename ) {
         
-        // Start the notification thread to receive push notifications from the MDS.
-        new NotificationThread().start();
+        PushNotificationCollector collector;
+        try {
+            // Start listening for push notifications from the MDS.
+            collector = startCollector( true );
+            if ( expectsNotification( pushCommand ) ) {
+                collector.expect( pushID, email );
+            }
+        } catch ( IOException e ) {
+            throw new RuntimeException( "Unable to listen for notifications: " + e.toString() );
+        }
         
         try {
             // Push listener thread on the device listens to port 7874 for pushes from the Mobile Data Service.
             URL mdsUrl = new URL( "http", mdsHostName, mdsPort, "/pap" ); 
             HttpURLConnection mdsConn = (HttpURLConnection) mdsUrl.openConnection();
-            if ( pushCommand.equals( PUSH ) || pushCommand.equals( REPLACE ) ) {
-                mdsConn.setRequestProperty( "Content-Type", "multipart/related; type=\"application/xml\"; boundary=" + BOUNDARY );
-            } else {
-                mdsConn.setRequestProperty( "Content-Type", "application/xml" );
-            }
+            mdsConn.setRequestProperty( "Content-Type", getRequestContentType( pushCommand ) );
             
             try {
                 mdsConn.setRequestMethod( "POST" ); 
@@ -144,38 +219,23 @@ public class BrowserPapPushDemo
             mdsConn.setDoInput( true );
             mdsConn.setDoOutput( true );
             
-            // Get the pap file as one contiguous string so we can replace portions of it.
-            InputStream ins = new BufferedInputStream( new FileInputStream( papFilename ) );
-            ByteArrayOutputStream bouts = new ByteArrayOutputStream();
-            copyStreams( ins, bouts );
-            String output = new String( bouts.toByteArray() );
+            // Fill in the placeholders in the pap file with actual data.
+            PapTemplate template = bindTemplate( papFilename, pushCommand, channelID, pushType, pushTitle,
+                                                 contentUrlString, unreadIconUrl, readIconUrl,
+                                                 pushReliability, notifyUrl, replaceID );
+            byte[] request = renderRequest( template, pushID, email );
+            String output = new String( request, "UTF-8" );
             
-            // Replace all the placeholders in the pap file with actual data.
-            output = output.replaceAll( "\\$\\(pushid\\)", pushID );
-            output = output.replaceAll( "\\$\\(email\\)", replaceSpecialEmailChars( email ) );
-            if ( pushCommand.equals( PUSH ) || pushCommand.equals( REPLACE ) ) {
-                String headers = getContentHeaders( channelID, pushType, pushTitle,
-                                                    contentUrlString, unreadIconUrl, readIconUrl,
-                                                    pushReliability, notifyUrl );
-                String content = getContent( contentUrlString );
-                output = output.replaceAll( "\\$\\(boundary\\)", BOUNDARY );
-                output = output.replaceAll( "\\$\\(headers\\)", headers );
-                output = output.replaceAll( "\\$\\(content\\)", content );
-                if ( pushCommand.equals( REPLACE ) ) {
-                    output = output.replaceAll( "\\$\\(replaceid\\)", replaceID );
-                }
-            }
-            output = output.replaceAll( "\r\n", "EOL" );
-            output = output.replaceAll( "\n", "EOL" );
-            output = output.replaceAll( "EOL", "\r\n" );
-            
-            // Copy the modified pap file to the MDS output stream.
-            copyStreams( new ByteArrayInputStream( output.getBytes() ), mdsConn.getOutputStream() );
+            // Write the request to the MDS output stream.
+            OutputStream outs = mdsConn.getOutputStream();
+            outs.write( request );
+            outs.close();
             System.out.println( "Connecting to: " + mdsHostName + ':' + mdsPort );
             mdsConn.connect();
             
             int rescode = mdsConn.getResponseCode();
             if ( rescode != HttpURLConnection.HTTP_ACCEPTED ) {
+                collector.stop();
                 throw new RuntimeException( "Cannot push data; received bad response code from Mobile Data Service: "
                                             + rescode + ", " + mdsConn.getResponseMessage() );
             }
@@ -191,18 +251,74 @@ public class BrowserPapPushDemo
             System.out.println ( '\n' + output );
             
             // Display the response from the MDS.
-            bouts = new ByteArrayOutputStream();
+            ByteArrayOutputStream bouts = new ByteArrayOutputStream();
             copyStreams( mdsConn.getInputStream(), bouts );
             output = new String( bouts.toByteArray() );
             System.out.println( "\n------------------------------------" );
             System.out.println( "\nMDS response:" );
             System.out.println ( '\n' + output );
+
+            awaitNotifications( collector );
         } catch ( IOException e ) {
+            collector.stop();
             throw new RuntimeException( "Unable to send message: " + e.toString() );
         }
     }
     
     
+    /**
+     * Loads a pap file and fills in the placeholders that are the same for every handheld.
+     * 
+     * @return The template; the push ID and email address remain to be filled in.
+     */
+    private static PapTemplate bindTemplate( String papFilename, String pushCommand,
+                                             String channelID, String pushType,
+                                             String pushTitle, String contentUrlString,
+                                             String unreadIconUrl, String readIconUrl,
+                                             String pushReliability, String notifyUrl,
+                                             String replaceID ) throws IOException {
+        Map<String, String> values = new HashMap<String, String>();
+        if ( pushCommand.equals( PUSH ) || pushCommand.equals( REPLACE ) ) {
+            values.put( "boundary", BOUNDARY );
+            values.put( "headers", getContentHeaders( channelID, pushType, pushTitle,
+                                                      contentUrlString, unreadIconUrl, readIconUrl,
+                                                      pushReliability, notifyUrl ) );
+            values.put( "content", getContent( contentUrlString ) );
+            if ( pushCommand.equals( REPLACE ) ) {
+                values.put( "replaceid", replaceID );
+            }
+        }
+        return PapTemplate.load( papFilename ).bind( values );
+    }
+
+
+    /**
+     * Produces the PAP request for one handheld.
+     */
+    private static byte[] renderRequest( PapTemplate template, String pushID, String email ) {
+        String[] names = template.getVariables();
+        String[] values = new String[ names.length ];
+        for ( int i = 0; i < names.length; ++i ) {
+            if ( names[ i ].equals( "pushid" ) ) {
+                values[ i ] = pushID;
+            } else if ( names[ i ].equals( "email" ) ) {
+                values[ i ] = replaceSpecialEmailChars( email );
+            } else {
+                throw new IllegalArgumentException( "No value for $(" + names[ i ] + ")" );
+            }
+        }
+        return template.render( values );
+    }
+
+
+    private static String getRequestContentType( String pushCommand ) {
+        if ( pushCommand.equals( PUSH ) || pushCommand.equals( REPLACE ) ) {
+            return "multipart/related; type=\"application/xml\"; boundary=" + BOUNDARY;
+        }
+        return "application/xml";
+    }
+
+
     private static String getContentHeaders( String channelID, String pushType,
                                              String pushTitle, String contentUrlString,
                                              String unreadIconUrl, String readIconUrl,
@@ -330,47 +446,47 @@ public class BrowserPapPushDemo
     
     
     /**
-     * Thread that receives push notifications from the MDS.
+     * Starts receiving push notifications from the MDS.
+     * 
+     * @param verbose Whether to display each notification in full.
      */
-    private static class NotificationThread extends Thread
-    {
-        private static final int NOTIFY_PORT = 7778;
-        
-        
-        /**
-         * Receives push notification data from the MDS and displays it on screen.
-         */
-        public void run() 
-        {
-            try {
-                System.out.println( "Waiting for notification on port " + NOTIFY_PORT + "..." );
-                while ( true ) {
-                    ServerSocket serverSocket = new ServerSocket( NOTIFY_PORT );
-                    serverSocket.setSoTimeout( 120000 );
-                    try {
-                        Socket clientSocket = serverSocket.accept();
-                        InputStream input = clientSocket.getInputStream();
-                        StringBuffer buffer = new StringBuffer();
-                        int byteRead = input.read();
-                        while ( byteRead != -1 && input.available() > 0 ) {
-                            buffer.append( (char) byteRead );
-                            byteRead = input.read();
-                        }
-                        clientSocket.close();
-                    
-                        // Display the push notification received from the MDS.
-                        System.out.println( "------------------------------------" );
-                        System.out.println( "\nPush notification received from MDS:" );
-                        System.out.println ( '\n' + buffer.toString() );
-                        break;  // received notification...thread's work is done
-                    } catch ( SocketTimeoutException ste ) {
-                        System.out.println( "Notification connection timeout.  Restarting..." );
-                    }               
-                    serverSocket.close();
+    private static PushNotificationCollector startCollector( final boolean verbose ) throws IOException {
+        PushNotificationCollector collector = PushNotificationCollector.fromSystemProperties();
+        if ( verbose ) {
+            collector.setListener( new PushNotificationCollector.Listener() {
+                public void notified( PushNotificationCollector.Notification notification ) {
+                    // Display the push notification received from the MDS.
+                    System.out.println( "------------------------------------" );
+                    System.out.println( "\nPush notification received from MDS:" );
+                    System.out.println( '\n' + notification.toString() );
                 }
-            } catch ( Exception exception ) {
-                exception.printStackTrace();
+            } );
+        }
+        collector.start();
+        return collector;
+    }
+
+
+    /**
+     * Waits for the outstanding push notifications, then stops receiving them.
+     */
+    private static void awaitNotifications( PushNotificationCollector collector ) {
+        try {
+            if ( collector.getOutstandingCount() > 0 && !collector.awaitOutstanding( NOTIFY_WAIT ) ) {
+                System.out.println( "Gave up waiting for push notifications." );
             }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
         }
+        System.out.println( "Notifications: " + collector.getMetrics() );
+        collector.stop();
+    }
+
+
+    /**
+     * Only pushes are notified; cancel and status requests are answered directly.
+     */
+    private static boolean expectsNotification( String pushCommand ) {
+        return pushCommand.equals( PUSH ) || pushCommand.equals( REPLACE );
     }
 }
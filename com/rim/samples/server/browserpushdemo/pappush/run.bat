@@ -2,7 +2,7 @@
 REM Build and run script for the BrowserPapPushDemo 
 
 del *.class
-javac BrowserPapPushDemo.java
+javac -sourcepath ..\..\..\..\..\.. BrowserPapPushDemo.java
 pushd ..\..\..\..\..\..
 	java -cp . com.rim.samples.server.browserpushdemo.pappush.BrowserPapPushDemo
 popd
@@ -0,0 +1,367 @@
+/**
+ * ConnectionExecutor.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.common;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Runs the per-client work of the sample servers.  The sample servers used to
+ * call <code>new Thread(...).start()</code> for every client; they now hand the
+ * work to a ConnectionExecutor, which can be launched in one of three modes:
+ * <ul>
+ * <li><code>platform</code> - a new platform thread per client (the original behaviour)
+ * <li><code>pool</code> - a fixed pool of <code>maxConcurrency</code> platform threads
+ * <li><code>virtual</code> - a new virtual thread per client (Java 21 and later; falls
+ *     back to platform threads on older runtimes)
+ * </ul>
+ * <p>In every mode at most <code>maxConcurrency</code> clients are served at once
+ * and at most <code>maxConcurrency + queueCapacity</code> are admitted, the rest
+ * waiting for a slot.  Once that many are admitted {@link #execute(Runnable)} blocks, which pushes back on the accept loop
+ * so further clients wait in the listen backlog rather than in the heap.
+ * <p>The mode and limits are read from system properties by
+ * {@link #fromSystemProperties(String)}, so any server can be launched with, e.g.
+ * <pre>
+ *    java -Dconnection.executor=virtual -Dconnection.maxConcurrency=50000 ...
+ * </pre>
+ * <table>
+ * <tr><td>connection.executor</td><td>platform, pool or virtual (default platform)</td></tr>
+ * <tr><td>connection.maxConcurrency</td><td>clients served at once (default 1000)</td></tr>
+ * <tr><td>connection.queueCapacity</td><td>clients waiting for a slot (default 1000)</td></tr>
+ * <tr><td>connection.reportPeriod</td><td>milliseconds between metric reports, 0 for none (default 0)</td></tr>
+ * </table>
+ */
+public final class ConnectionExecutor
+{
+    public static final String PLATFORM = "platform";
+    public static final String POOL = "pool";
+    public static final String VIRTUAL = "virtual";
+
+    private static final int DEFAULT_MAX_CONCURRENCY = 1000;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    private final String _name;
+    private final String _mode;
+    private final int _maxConcurrency;
+    private final int _queueCapacity;
+
+    // Admission covers running plus queued clients; slots cover running clients
+    // for the thread-per-client modes (the pool bounds itself).
+    private final Semaphore _admission;
+    private final Semaphore _slots;
+    private final ThreadFactory _threadFactory;
+    private final ExecutorService _pool;
+
+    private final AtomicInteger _active = new AtomicInteger();
+    private final AtomicInteger _queued = new AtomicInteger();
+    private final AtomicInteger _peakActive = new AtomicInteger();
+    private final AtomicInteger _peakQueued = new AtomicInteger();
+    private final AtomicLong _completed = new AtomicLong();
+    private final AtomicLong _blockedSubmits = new AtomicLong();
+    private Timer _reportTimer;
+
+    /**
+     * Creates an executor configured from the <code>connection.*</code> system properties
+     *
+     * @param name label used for thread names and metric reports
+     */
+    public static ConnectionExecutor fromSystemProperties(String name)
+    {
+        ConnectionExecutor executor = new ConnectionExecutor(name,
+                System.getProperty("connection.executor", PLATFORM),
+                Integer.getInteger("connection.maxConcurrency", DEFAULT_MAX_CONCURRENCY).intValue(),
+                Integer.getInteger("connection.queueCapacity", DEFAULT_QUEUE_CAPACITY).intValue());
+
+        long reportPeriod = Long.getLong("connection.reportPeriod", 0).longValue();
+        if(reportPeriod > 0)
+        {
+            executor.startReporting(reportPeriod);
+        }
+        return executor;
+    }
+
+    /**
+     * @param name label used for thread names and metric reports
+     * @param mode one of {@link #PLATFORM}, {@link #POOL} or {@link #VIRTUAL}
+     * @param maxConcurrency number of clients served at once
+     * @param queueCapacity number of clients allowed to wait for a free slot
+     */
+    public ConnectionExecutor(String name, String mode, int maxConcurrency, int queueCapacity)
+    {
+        if(maxConcurrency <= 0 || queueCapacity < 0)
+        {
+            throw new IllegalArgumentException("maxConcurrency must be positive and queueCapacity non-negative");
+        }
+
+        _name = name;
+        _maxConcurrency = maxConcurrency;
+        _queueCapacity = queueCapacity;
+        _admission = new Semaphore(maxConcurrency + queueCapacity);
+
+        if(mode.equals(POOL))
+        {
+            _mode = POOL;
+            _slots = null;
+            _threadFactory = null;
+            _pool = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name));
+        }
+        else if(mode.equals(VIRTUAL) || mode.equals(PLATFORM))
+        {
+            ThreadFactory factory = mode.equals(VIRTUAL) ? virtualThreadFactory() : null;
+            if(factory == null)
+            {
+                if(mode.equals(VIRTUAL))
+                {
+                    System.err.println(name + ": virtual threads are not supported by this runtime, using platform threads");
+                }
+                factory = new NamedThreadFactory(name);
+                _mode = PLATFORM;
+            }
+            else
+            {
+                _mode = VIRTUAL;
+            }
+            _slots = new Semaphore(maxConcurrency);
+            _threadFactory = factory;
+            _pool = null;
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown executor mode: " + mode);
+        }
+
+        System.out.println(_name + ": " + _mode + " executor, maxConcurrency=" + _maxConcurrency + ", queueCapacity="
+                + _queueCapacity);
+    }
+
+    /**
+     * Runs <code>task</code> for one client, blocking while the executor is
+     * already running <code>maxConcurrency</code> clients with
+     * <code>queueCapacity</code> more waiting.
+     *
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public void execute(final Runnable task) throws InterruptedException
+    {
+        if(!_admission.tryAcquire())
+        {
+            _blockedSubmits.incrementAndGet();
+            _admission.acquire();
+        }
+        updatePeak(_peakQueued, _queued.incrementAndGet());
+
+        Runnable wrapper = new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    if(_slots != null)
+                    {
+                        _slots.acquireUninterruptibly();
+                    }
+                    _queued.decrementAndGet();
+                    updatePeak(_peakActive, _active.incrementAndGet());
+                    try
+                    {
+                        task.run();
+                    }
+                    finally
+                    {
+                        _active.decrementAndGet();
+                        _completed.incrementAndGet();
+                        if(_slots != null)
+                        {
+                            _slots.release();
+                        }
+                    }
+                }
+                finally
+                {
+                    _admission.release();
+                }
+            }
+        };
+
+        try
+        {
+            if(_pool != null)
+            {
+                _pool.execute(wrapper);
+            }
+            else
+            {
+                _threadFactory.newThread(wrapper).start();
+            }
+        }
+        catch(RuntimeException e)
+        {
+            // A pool that has been shut down rejects further work
+            _queued.decrementAndGet();
+            _admission.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of clients currently being served
+     */
+    public int getActiveCount()
+    {
+        return _active.get();
+    }
+
+    /**
+     * @return number of clients admitted but waiting for a free slot
+     */
+    public int getQueueDepth()
+    {
+        return _queued.get();
+    }
+
+    /**
+     * @return a one line summary of the executor metrics
+     */
+    public String getMetrics()
+    {
+        return String.format("[%s] mode=%s active=%d/%d (peak %d) queued=%d (peak %d) admitLimit=%d completed=%d blockedSubmits=%d",
+                _name, _mode, _active.get(), _maxConcurrency, _peakActive.get(), _queued.get(), _peakQueued.get(),
+                _maxConcurrency + _queueCapacity, _completed.get(), _blockedSubmits.get());
+    }
+
+    /**
+     * Starts printing {@link #getMetrics()} to stdout every <code>periodMillis</code>
+     */
+    public synchronized void startReporting(long periodMillis)
+    {
+        if(_reportTimer != null)
+        {
+            return;
+        }
+        _reportTimer = new Timer(_name + "-executor-stats", true);
+        _reportTimer.scheduleAtFixedRate(new TimerTask()
+        {
+            public void run()
+            {
+                System.out.println(getMetrics());
+            }
+        }, periodMillis, periodMillis);
+    }
+
+    /**
+     * Stops reporting and lets running clients finish.  No further clients are accepted.
+     */
+    public synchronized void shutdown()
+    {
+        if(_reportTimer != null)
+        {
+            _reportTimer.cancel();
+            _reportTimer = null;
+        }
+        if(_pool != null)
+        {
+            _pool.shutdown();
+        }
+    }
+
+    /**
+     * Waits for every admitted client to finish.  Call after {@link #shutdown()}
+     * or once the caller has stopped submitting work.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return true if all clients finished within the timeout
+     */
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException
+    {
+        int permits = _maxConcurrency + _queueCapacity;
+        if(!_admission.tryAcquire(permits, timeoutMillis, TimeUnit.MILLISECONDS))
+        {
+            return false;
+        }
+        _admission.release(permits);
+        return true;
+    }
+
+    private static void updatePeak(AtomicInteger peak, int value)
+    {
+        int current;
+        while(value > (current = peak.get()))
+        {
+            if(peak.compareAndSet(current, value))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Looks up <code>Thread.ofVirtual().factory()</code> reflectively so that the
+     * samples still compile and run on runtimes without virtual threads.
+     *
+     * @return a virtual thread factory, or null if the runtime has none
+     */
+    private static ThreadFactory virtualThreadFactory()
+    {
+        try
+        {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        }
+        catch(Exception e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Creates platform threads named after the executor
+     */
+    private static final class NamedThreadFactory implements ThreadFactory
+    {
+        private final String _prefix;
+        private final AtomicInteger _count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix)
+        {
+            _prefix = prefix + "-";
+        }
+
+        public Thread newThread(Runnable r)
+        {
+            return new Thread(r, _prefix + _count.incrementAndGet());
+        }
+    }
+}
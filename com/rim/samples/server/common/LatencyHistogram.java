@@ -0,0 +1,147 @@
+/**
+ * LatencyHistogram.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A lock-free latency histogram shared by the sample servers' metrics.
+ * <p>Latencies are kept in log-linear buckets (16 sub-buckets per power of two
+ * microseconds), which bounds the relative error of a percentile to about 6%
+ * while using a fixed, small amount of memory.  Recording never allocates.
+ */
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS + 1);
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records one latency
+     *
+     * @param nanos the latency in nanoseconds; negative values count as zero
+     */
+    public void recordNanos(long nanos)
+    {
+        _counts.incrementAndGet(bucketFor(Math.max(0, nanos / 1000)));
+    }
+
+    /**
+     * Copies the current counts, optionally clearing them for the next interval
+     *
+     * @param reset true to clear the histogram as it is copied
+     */
+    public Snapshot snapshot(boolean reset)
+    {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for(int i = 0; i < BUCKETS; ++i)
+        {
+            counts[i] = reset ? _counts.getAndSet(i, 0) : _counts.get(i);
+            total += counts[i];
+        }
+        return new Snapshot(counts, total);
+    }
+
+    /**
+     * An immutable copy of the histogram
+     */
+    public static final class Snapshot
+    {
+        private final long[] _counts;
+        private final long _total;
+
+        private Snapshot(long[] counts, long total)
+        {
+            _counts = counts;
+            _total = total;
+        }
+
+        /**
+         * @return number of latencies recorded
+         */
+        public long getCount()
+        {
+            return _total;
+        }
+
+        /**
+         * @param fraction percentile wanted, between 0 and 1 (1 gives the maximum)
+         * @return the upper bound of the bucket holding that percentile, in milliseconds
+         */
+        public double getPercentileMillis(double fraction)
+        {
+            if(_total == 0)
+            {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(_total * fraction));
+            long seen = 0;
+            for(int i = 0; i < _counts.length; ++i)
+            {
+                seen += _counts[i];
+                if(seen >= rank)
+                {
+                    return bucketUpperBound(i) / 1000.0;
+                }
+            }
+            return bucketUpperBound(_counts.length - 1) / 1000.0;
+        }
+
+        /**
+         * @return "p50=..ms p99=..ms max=..ms"
+         */
+        public String toString()
+        {
+            return String.format("p50=%.3fms p99=%.3fms max=%.3fms", getPercentileMillis(0.50),
+                    getPercentileMillis(0.99), getPercentileMillis(1.0));
+        }
+    }
+
+    private static int bucketFor(long micros)
+    {
+        if(micros < SUB_BUCKETS)
+        {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) ((micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long bucketUpperBound(int bucket)
+    {
+        if(bucket < SUB_BUCKETS)
+        {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
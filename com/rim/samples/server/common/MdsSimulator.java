@@ -0,0 +1,341 @@
+/**
+ * MdsSimulator.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>A stand-in for the push endpoints of the BlackBerry MDS, for trying the
+ * push samples and {@link PushDispatcher} without an MDS or a simulator.
+ * <p>To run:
+ * <pre>
+ *    java com.rim.samples.server.common.MdsSimulator [port]
+ * </pre>
+ * <p><code>/push</code> answers RIM pushes with 200 OK and <code>/pap</code>
+ * answers PAP requests with 202 Accepted and a PAP push-response carrying the
+ * request's push-id.  Nothing is delivered anywhere, but when a push asks for a
+ * result notification one reporting delivery is posted shortly after: a PAP
+ * result notification to the <code>ppg-notify-requested-to</code> attribute of
+ * a PAP push, or a RIM notification to the <code>X-RIM-Push-NotifyURL</code>
+ * header of a RIM push or of a PAP push's content.  Connections are kept
+ * alive, as the MDS does.
+ * <p>System properties shape the responses:
+ * <table>
+ * <tr><td>mds.threads</td><td>request handler threads (default 16)</td></tr>
+ * <tr><td>mds.delay</td><td>milliseconds to wait before answering (default 0)</td></tr>
+ * <tr><td>mds.failureRate</td><td>fraction of requests answered with 503, to exercise retries (default 0)</td></tr>
+ * <tr><td>mds.notifyDelay</td><td>milliseconds from accepting a push to notifying its result (default 100)</td></tr>
+ * <tr><td>mds.notifyThreads</td><td>threads posting result notifications (default 8)</td></tr>
+ * </table>
+ */
+public final class MdsSimulator
+{
+    private static final int DEFAULT_PORT = 8080;
+    private static final long REPORT_PERIOD = 5000;
+
+    private final long _delay;
+    private final double _failureRate;
+    private final Random _random = new Random();
+    private final AtomicInteger _accepted = new AtomicInteger();
+    private final AtomicInteger _rejected = new AtomicInteger();
+    private final AtomicInteger _notified = new AtomicInteger();
+    private final AtomicInteger _notifyFailures = new AtomicInteger();
+    private final long _notifyDelay;
+    private final ScheduledExecutorService _notifier;
+
+    private MdsSimulator()
+    {
+        _delay = Long.getLong("mds.delay", 0).longValue();
+        _failureRate = Double.parseDouble(System.getProperty("mds.failureRate", "0"));
+        _notifyDelay = Long.getLong("mds.notifyDelay", 100).longValue();
+        _notifier = Executors.newScheduledThreadPool(Integer.getInteger("mds.notifyThreads", 8).intValue());
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        final MdsSimulator mds = new MdsSimulator();
+
+        // Answers are small; don't hold their bodies back waiting for an ACK
+        if(System.getProperty("sun.net.httpserver.nodelay") == null)
+        {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.setExecutor(Executors.newFixedThreadPool(Integer.getInteger("mds.threads", 16).intValue()));
+        server.createContext("/push", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                mds.handle(exchange, false);
+            }
+        });
+        server.createContext("/pap", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                mds.handle(exchange, true);
+            }
+        });
+        server.start();
+        System.out.println("MDS simulator listening on port " + port + " (/push, /pap)");
+
+        new Timer("mds-stats", false).scheduleAtFixedRate(new TimerTask()
+        {
+            private int _last;
+
+            public void run()
+            {
+                int accepted = mds._accepted.get();
+                if(accepted != _last)
+                {
+                    System.out.println(String.format("[mds] %.1f pushes/s accepted, %d accepted, %d rejected, %d notified (%d failed)",
+                            (accepted - _last) * 1000.0 / REPORT_PERIOD, accepted, mds._rejected.get(),
+                            mds._notified.get(), mds._notifyFailures.get()));
+                    _last = accepted;
+                }
+            }
+        }, REPORT_PERIOD, REPORT_PERIOD);
+    }
+
+    private void handle(HttpExchange exchange, boolean pap) throws IOException
+    {
+        try
+        {
+            byte[] body = readBody(exchange.getRequestBody());
+            if(_delay > 0)
+            {
+                Thread.sleep(_delay);
+            }
+
+            if(!"POST".equals(exchange.getRequestMethod()))
+            {
+                reply(exchange, HttpURLConnection.HTTP_BAD_METHOD, "text/plain", "POST only");
+                _rejected.incrementAndGet();
+            }
+            else if(_failureRate > 0 && nextDouble() < _failureRate)
+            {
+                reply(exchange, HttpURLConnection.HTTP_UNAVAILABLE, "text/plain", "Simulated failure");
+                _rejected.incrementAndGet();
+            }
+            else if(pap)
+            {
+                String request = new String(body, "UTF-8");
+                String pushId = attribute(request, "push-id");
+                String notifyUrl = attribute(request, "ppg-notify-requested-to");
+                String rimNotifyUrl = header(request, "X-RIM-Push-NotifyURL");
+                if(notifyUrl.length() > 0)
+                {
+                    notifyPap(notifyUrl, pushId, attribute(request, "address-value"));
+                }
+                else if(rimNotifyUrl.length() > 0)
+                {
+                    notifyRim(rimNotifyUrl, pushId);
+                }
+                reply(exchange, HttpURLConnection.HTTP_ACCEPTED, "application/xml",
+                        "<?xml version=\"1.0\"?>\r\n<!DOCTYPE pap PUBLIC \"-//WAPFORUM//DTD PAP 2.0//EN\""
+                                + " \"http://www.wapforum.org/DTD/pap_2.0.dtd\">\r\n<pap>\r\n<push-response push-id=\""
+                                + pushId + "\">\r\n<response-result code=\"1001\" desc=\"Accepted for processing\"/>\r\n"
+                                + "</push-response>\r\n</pap>\r\n");
+                _accepted.incrementAndGet();
+            }
+            else
+            {
+                String notifyUrl = exchange.getRequestHeaders().getFirst("X-RIM-Push-NotifyURL");
+                String pushId = exchange.getRequestHeaders().getFirst("X-RIM-PUSH-ID");
+                if(notifyUrl != null && pushId != null)
+                {
+                    notifyRim(notifyUrl, pushId);
+                }
+                reply(exchange, HttpURLConnection.HTTP_OK, "text/plain", "");
+                _accepted.incrementAndGet();
+            }
+        }
+        catch(InterruptedException e)
+        {
+            reply(exchange, HttpURLConnection.HTTP_UNAVAILABLE, "text/plain", "Interrupted");
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Schedules a PAP result notification reporting delivery
+     */
+    private void notifyPap(final String notifyUrl, final String pushId, final String address)
+    {
+        _notifier.schedule(new Runnable()
+        {
+            public void run()
+            {
+                DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+                format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                String time = format.format(new Date());
+                String body = "<?xml version=\"1.0\"?>\r\n<!DOCTYPE pap PUBLIC \"-//WAPFORUM//DTD PAP 2.0//EN\""
+                        + " \"http://www.wapforum.org/DTD/pap_2.0.dtd\">\r\n<pap>\r\n<resultnotification-message push-id=\""
+                        + pushId + "\" code=\"1000\" desc=\"Delivered\" event-time=\"" + time + "\" received-time=\"" + time
+                        + "\" message-state=\"delivered\">\r\n<address address-value=\"" + address
+                        + "\"/>\r\n</resultnotification-message>\r\n</pap>\r\n";
+                post(notifyUrl, null, body);
+            }
+        }, _notifyDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules a RIM push notification reporting delivery
+     */
+    private void notifyRim(final String notifyUrl, final String pushId)
+    {
+        _notifier.schedule(new Runnable()
+        {
+            public void run()
+            {
+                post(notifyUrl, pushId, "");
+            }
+        }, _notifyDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private void post(String notifyUrl, String rimPushId, String body)
+    {
+        try
+        {
+            HttpURLConnection conn = (HttpURLConnection) new URL(notifyUrl).openConnection();
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            // Left buffered, so the headers and the short body go out in one write
+            byte[] bytes = body.getBytes("UTF-8");
+            if(rimPushId != null)
+            {
+                conn.setRequestProperty("X-RIM-Push-ID", rimPushId);
+                conn.setRequestProperty("X-RIM-Push-Status", "200");
+                conn.setRequestProperty("X-RIM-Push-Description", "Delivered");
+            }
+            else
+            {
+                conn.setRequestProperty("Content-Type", "application/xml");
+            }
+            OutputStream out = conn.getOutputStream();
+            out.write(bytes);
+            out.close();
+
+            int status = conn.getResponseCode();
+            InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+            if(in != null)
+            {
+                readBody(in);
+            }
+            (status / 100 == 2 ? _notified : _notifyFailures).incrementAndGet();
+        }
+        catch(IOException e)
+        {
+            _notifyFailures.incrementAndGet();
+        }
+    }
+
+    private synchronized double nextDouble()
+    {
+        return _random.nextDouble();
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException
+    {
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while((read = in.read(buffer)) > 0)
+        {
+            bytes.write(buffer, 0, read);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the value of the first <code>name="..."</code> attribute in the text, or an empty string
+     */
+    private static String attribute(String text, String name)
+    {
+        int start = text.indexOf(name + "=\"");
+        if(start < 0)
+        {
+            return "";
+        }
+        start += name.length() + 2;
+        int end = text.indexOf('"', start);
+        return end < 0 ? "" : text.substring(start, end);
+    }
+
+    /**
+     * @return the value of the first <code>name: ...</code> header line in the text, ignoring case, or an empty string
+     */
+    private static String header(String text, String name)
+    {
+        int start = text.toLowerCase().indexOf("\n" + name.toLowerCase() + ":");
+        if(start < 0)
+        {
+            return "";
+        }
+        start += name.length() + 2;
+        int end = text.indexOf('\n', start);
+        return (end < 0 ? text.substring(start) : text.substring(start, end)).trim();
+    }
+
+    private static void reply(HttpExchange exchange, int status, String contentType, String body) throws IOException
+    {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if(bytes.length > 0)
+        {
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * PapTemplate.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A PAP request template, such as the samples' <code>pap_push.txt</code>,
+ * compiled once so that requests can be produced without re-parsing it.
+ * <p>The template text is split into literal byte runs and
+ * <code>$(name)</code> placeholders, with line endings already normalized to
+ * CRLF as PAP requires.  Values that are the same for every request (the
+ * boundary, headers, content and so on) can be folded in up front with
+ * {@link #bind(Map)}; what is left is filled in per request by
+ * {@link #render(String[])}, which is a straight copy of byte runs.
+ * <p>Instances are immutable and may be shared between threads.
+ */
+public final class PapTemplate
+{
+    private static final String CHARSET = "UTF-8";
+
+    // Alternating literal runs and placeholder names: _parts[i] is a literal
+    // when _names[i] is null
+    private final byte[][] _parts;
+    private final String[] _names;
+    private final int[] _slots; // index into _variables for each placeholder
+    private final String[] _variables;
+    private final int _literalLength;
+
+    private PapTemplate(List<Object> parts)
+    {
+        _parts = new byte[parts.size()][];
+        _names = new String[parts.size()];
+        _slots = new int[parts.size()];
+        List<String> variables = new ArrayList<String>();
+        int literalLength = 0;
+        for(int i = 0; i < parts.size(); ++i)
+        {
+            Object part = parts.get(i);
+            if(part instanceof byte[])
+            {
+                _parts[i] = (byte[]) part;
+                literalLength += _parts[i].length;
+            }
+            else
+            {
+                _names[i] = (String) part;
+                if(!variables.contains(_names[i]))
+                {
+                    variables.add(_names[i]);
+                }
+                _slots[i] = variables.indexOf(_names[i]);
+            }
+        }
+        _variables = variables.toArray(new String[variables.size()]);
+        _literalLength = literalLength;
+    }
+
+    /**
+     * Compiles template text
+     */
+    public static PapTemplate compile(String text)
+    {
+        List<Object> parts = new ArrayList<Object>();
+        int start = 0;
+        for(;;)
+        {
+            int open = text.indexOf("$(", start);
+            int close = open < 0 ? -1 : text.indexOf(')', open + 2);
+            if(close < 0)
+            {
+                addLiteral(parts, text.substring(start));
+                break;
+            }
+            addLiteral(parts, text.substring(start, open));
+            parts.add(text.substring(open + 2, close));
+            start = close + 1;
+        }
+        return new PapTemplate(parts);
+    }
+
+    /**
+     * Reads and compiles a template file
+     */
+    public static PapTemplate load(String fileName) throws IOException
+    {
+        InputStream in = new FileInputStream(new File(fileName));
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while((read = in.read(buffer)) > 0)
+            {
+                bytes.write(buffer, 0, read);
+            }
+            return compile(new String(bytes.toByteArray(), CHARSET));
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Fills in some of the placeholders for good
+     *
+     * @param values placeholder names to values; other placeholders are left alone
+     * @return a template with those placeholders replaced by literal text
+     */
+    public PapTemplate bind(Map<String, String> values)
+    {
+        List<Object> parts = new ArrayList<Object>();
+        for(int i = 0; i < _parts.length; ++i)
+        {
+            String value = _names[i] == null ? null : values.get(_names[i]);
+            if(_names[i] == null)
+            {
+                addLiteral(parts, _parts[i]);
+            }
+            else if(value != null)
+            {
+                addLiteral(parts, value);
+            }
+            else
+            {
+                parts.add(_names[i]);
+            }
+        }
+        return new PapTemplate(parts);
+    }
+
+    /**
+     * @return the names of the placeholders still to be filled in, in the
+     * order {@link #render(String[])} expects their values
+     */
+    public String[] getVariables()
+    {
+        return _variables.clone();
+    }
+
+    /**
+     * Produces a request
+     *
+     * @param values one value for each of {@link #getVariables()}, in order
+     * @return the request bytes
+     */
+    public byte[] render(String[] values)
+    {
+        if(values.length != _variables.length)
+        {
+            throw new IllegalArgumentException("Expected values for " + Arrays.asList(_variables));
+        }
+
+        byte[][] encoded = new byte[values.length][];
+        int length = _literalLength;
+        for(int i = 0; i < _parts.length; ++i)
+        {
+            if(_names[i] != null)
+            {
+                int slot = _slots[i];
+                if(encoded[slot] == null)
+                {
+                    encoded[slot] = encode(values[slot]);
+                }
+                length += encoded[slot].length;
+            }
+        }
+
+        byte[] request = new byte[length];
+        int position = 0;
+        for(int i = 0; i < _parts.length; ++i)
+        {
+            byte[] part = _names[i] == null ? _parts[i] : encoded[_slots[i]];
+            System.arraycopy(part, 0, request, position, part.length);
+            position += part.length;
+        }
+        return request;
+    }
+
+    private static void addLiteral(List<Object> parts, String text)
+    {
+        addLiteral(parts, encode(normalize(text)));
+    }
+
+    /**
+     * Adds a literal, merging it with a preceding literal
+     */
+    private static void addLiteral(List<Object> parts, byte[] bytes)
+    {
+        if(bytes.length == 0)
+        {
+            return;
+        }
+        int last = parts.size() - 1;
+        if(last >= 0 && parts.get(last) instanceof byte[])
+        {
+            byte[] previous = (byte[]) parts.get(last);
+            byte[] merged = Arrays.copyOf(previous, previous.length + bytes.length);
+            System.arraycopy(bytes, 0, merged, previous.length, bytes.length);
+            parts.set(last, merged);
+        }
+        else
+        {
+            parts.add(bytes);
+        }
+    }
+
+    /**
+     * Converts every line ending to CRLF
+     */
+    private static String normalize(String text)
+    {
+        return text.replace("\r\n", "\n").replace("\n", "\r\n");
+    }
+
+    private static byte[] encode(String text)
+    {
+        try
+        {
+            return text.getBytes(CHARSET);
+        }
+        catch(UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e.toString());
+        }
+    }
+}
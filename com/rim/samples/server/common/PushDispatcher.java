@@ -0,0 +1,548 @@
+/**
+ * PushDispatcher.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.common;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Sends one push to each of a list of recipients, as fast as the MDS and
+ * the configured limits allow.
+ * <p>A fixed number of sender threads share the recipient list.  Each thread
+ * reads every response to the end, so its HTTP connection goes back to the
+ * JDK's keep-alive cache and is reused for the next push; the cache is sized
+ * to the number of senders, giving a bounded pool of persistent connections.
+ * <p>Pushes can be limited to a steady rate.  A push that fails with an I/O
+ * error or a 5xx status is retried, with an exponentially growing delay, up
+ * to a fixed number of times; any other non-2xx status fails it at once.
+ * A PAP push also fails unless the push-response carries a response-result
+ * code of 1000 (OK) or 1001 (accepted for processing).
+ * Progress is printed as pushes/sec, and {@link #dispatch(List, RequestFactory, String)}
+ * returns the outcome for every recipient.
+ * <p>Given a {@link PushNotificationCollector}, the dispatcher registers each
+ * push with it before sending, so result notifications can be matched to
+ * pushes; a push the MDS does not accept is withdrawn again.
+ * <p>The limits are read from system properties by {@link #fromSystemProperties()}:
+ * <table>
+ * <tr><td>push.connections</td><td>concurrent senders and keep-alive connections (default 8)</td></tr>
+ * <tr><td>push.rate</td><td>pushes per second, 0 for no limit (default 0)</td></tr>
+ * <tr><td>push.retries</td><td>retries after the first attempt (default 3)</td></tr>
+ * <tr><td>push.retryDelay</td><td>milliseconds before the first retry (default 250)</td></tr>
+ * <tr><td>push.reportPeriod</td><td>milliseconds between progress reports, 0 for none (default 1000)</td></tr>
+ * </table>
+ */
+public final class PushDispatcher
+{
+    /**
+     * Builds the request for one recipient
+     */
+    public interface RequestFactory
+    {
+        PushRequest create(String recipient, String pushId) throws IOException;
+    }
+
+    /**
+     * An HTTP POST to the MDS
+     */
+    public static final class PushRequest
+    {
+        private final URL _url;
+        private final byte[] _body;
+        private final Map<String, String> _headers = new LinkedHashMap<String, String>();
+        private boolean _pap;
+
+        public PushRequest(URL url, byte[] body)
+        {
+            _url = url;
+            _body = body;
+        }
+
+        public PushRequest setHeader(String name, String value)
+        {
+            _headers.put(name, value);
+            return this;
+        }
+
+        /**
+         * Marks this as a PAP push, which is only accepted if the PAP
+         * push-response reports a result code of 1000 or 1001
+         */
+        public PushRequest expectPapResponse()
+        {
+            _pap = true;
+            return this;
+        }
+    }
+
+    /**
+     * The outcome of the push to one recipient
+     */
+    public static final class PushResult
+    {
+        private final String _recipient;
+        private final String _pushId;
+        private boolean _accepted;
+        private int _status;
+        private int _attempts;
+        private String _message = "";
+
+        PushResult(String recipient, String pushId)
+        {
+            _recipient = recipient;
+            _pushId = pushId;
+        }
+
+        public String getRecipient()
+        {
+            return _recipient;
+        }
+
+        public String getPushId()
+        {
+            return _pushId;
+        }
+
+        public boolean isAccepted()
+        {
+            return _accepted;
+        }
+
+        /**
+         * @return the HTTP status of the last attempt, or -1 if it got no response
+         */
+        public int getStatus()
+        {
+            return _status;
+        }
+
+        public int getAttempts()
+        {
+            return _attempts;
+        }
+
+        /**
+         * @return the response body if accepted, otherwise the reason for failure
+         */
+        public String getMessage()
+        {
+            return _message;
+        }
+
+        /**
+         * @return a CSV line: recipient, push ID, ACCEPTED or FAILED, status, attempts, message
+         */
+        public String toString()
+        {
+            return _recipient + ',' + _pushId + ',' + (_accepted ? "ACCEPTED" : "FAILED") + ',' + _status + ',' + _attempts
+                    + ",\"" + _message.replace('"', '\'').replace('\r', ' ').replace('\n', ' ') + '"';
+        }
+    }
+
+    private final int _connections;
+    private final long _intervalNanos;
+    private final int _maxRetries;
+    private final long _retryDelay;
+    private final long _reportPeriod;
+
+    private final Random _random = new Random();
+    private long _nextSlot; // guarded by this
+
+    private PushNotificationCollector _collector;
+
+    /**
+     * Counts for one call to {@link PushDispatcher#dispatch(List, RequestFactory, String)}
+     */
+    private static final class Progress
+    {
+        final AtomicInteger _completed = new AtomicInteger();
+        final AtomicInteger _accepted = new AtomicInteger();
+        final AtomicInteger _retries = new AtomicInteger();
+        final LatencyHistogram _latency = new LatencyHistogram();
+    }
+
+    /**
+     * @param connections number of concurrent senders
+     * @param rate pushes per second, 0 for no limit
+     * @param maxRetries retries after the first attempt
+     * @param retryDelay milliseconds before the first retry; doubled for each one after
+     * @param reportPeriod milliseconds between progress reports, 0 for none
+     */
+    public PushDispatcher(int connections, double rate, int maxRetries, long retryDelay, long reportPeriod)
+    {
+        _connections = connections;
+        _intervalNanos = rate > 0 ? (long) (1e9 / rate) : 0;
+        _maxRetries = maxRetries;
+        _retryDelay = retryDelay;
+        _reportPeriod = reportPeriod;
+
+        // The JDK keeps this many idle connections per destination; it is read
+        // once, so it only takes effect if set before the first HTTP request
+        if(System.getProperty("http.maxConnections") == null)
+        {
+            System.setProperty("http.maxConnections", Integer.toString(connections));
+        }
+    }
+
+    /**
+     * @param collector told of each push before it is sent, or null
+     */
+    public void setNotificationCollector(PushNotificationCollector collector)
+    {
+        _collector = collector;
+    }
+
+    public static PushDispatcher fromSystemProperties()
+    {
+        return new PushDispatcher(Integer.getInteger("push.connections", 8).intValue(),
+                Double.parseDouble(System.getProperty("push.rate", "0")), Integer.getInteger("push.retries", 3).intValue(),
+                Long.getLong("push.retryDelay", 250).longValue(), Long.getLong("push.reportPeriod", 1000).longValue());
+    }
+
+    /**
+     * Reads a recipient list: one PIN or email address per line, ignoring
+     * blank lines and lines starting with '#'
+     */
+    public static List<String> readRecipients(String fileName) throws IOException
+    {
+        List<String> recipients = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new FileReader(fileName));
+        try
+        {
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                line = line.trim();
+                if(line.length() > 0 && !line.startsWith("#"))
+                {
+                    recipients.add(line);
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return recipients;
+    }
+
+    /**
+     * Writes results as CSV
+     */
+    public static void writeResults(List<PushResult> results, String fileName) throws IOException
+    {
+        PrintWriter out = new PrintWriter(new FileWriter(fileName));
+        try
+        {
+            out.println("recipient,pushId,result,status,attempts,message");
+            for(Iterator<PushResult> it = results.iterator(); it.hasNext();)
+            {
+                out.println(it.next());
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Pushes to every recipient, returning once each push has been accepted
+     * or has failed for good
+     *
+     * @param recipients PINs or email addresses
+     * @param factory builds the request for each recipient
+     * @param pushIdPrefix each push gets this prefix followed by the recipient's position in the list
+     * @return one result per recipient, in the same order
+     */
+    public List<PushResult> dispatch(final List<String> recipients, final RequestFactory factory, String pushIdPrefix)
+            throws InterruptedException
+    {
+        final PushResult[] results = new PushResult[recipients.size()];
+        for(int i = 0; i < results.length; ++i)
+        {
+            results[i] = new PushResult(recipients.get(i), pushIdPrefix + i);
+        }
+
+        System.out.println("Pushing to " + results.length + " recipients over " + _connections + " connections"
+                + (_intervalNanos > 0 ? " at " + (long) (1e9 / _intervalNanos) + " pushes/s" : ""));
+        long start = System.nanoTime();
+        final Progress progress = new Progress();
+        Timer timer = startReporting(progress);
+
+        final AtomicInteger next = new AtomicInteger();
+        Thread[] senders = new Thread[Math.min(_connections, Math.max(results.length, 1))];
+        for(int i = 0; i < senders.length; ++i)
+        {
+            senders[i] = new Thread("push-sender-" + i)
+            {
+                public void run()
+                {
+                    int index;
+                    while((index = next.getAndIncrement()) < results.length)
+                    {
+                        push(results[index], factory, progress);
+                    }
+                }
+            };
+            senders[i].start();
+        }
+        for(int i = 0; i < senders.length; ++i)
+        {
+            senders[i].join();
+        }
+
+        if(timer != null)
+        {
+            timer.cancel();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("Pushed to %d recipients in %.2fs (%.1f pushes/s): %d accepted, %d failed, %d retries,"
+                + " latency %s", results.length, seconds, results.length / seconds, progress._accepted.get(),
+                results.length - progress._accepted.get(), progress._retries.get(), progress._latency.snapshot(false)));
+        return Arrays.asList(results);
+    }
+
+    private Timer startReporting(final Progress progress)
+    {
+        if(_reportPeriod <= 0)
+        {
+            return null;
+        }
+        Timer timer = new Timer("push-stats", true);
+        timer.scheduleAtFixedRate(new TimerTask()
+        {
+            private int _last;
+
+            public void run()
+            {
+                int completed = progress._completed.get();
+                System.out.println(String.format("[push] %.1f pushes/s, %d done, %d accepted, %d retries",
+                        (completed - _last) * 1000.0 / _reportPeriod, completed, progress._accepted.get(),
+                        progress._retries.get()));
+                _last = completed;
+            }
+        }, _reportPeriod, _reportPeriod);
+        return timer;
+    }
+
+    /**
+     * Sends one push, retrying as allowed
+     */
+    private void push(PushResult result, RequestFactory factory, Progress progress)
+    {
+        PushRequest request;
+        try
+        {
+            request = factory.create(result._recipient, result._pushId);
+        }
+        catch(IOException e)
+        {
+            result._message = e.toString();
+            progress._completed.incrementAndGet();
+            return;
+        }
+
+        if(_collector != null)
+        {
+            // Before the first send, as the notification can beat the response
+            _collector.expect(result._pushId, result._recipient);
+        }
+
+        for(;;)
+        {
+            awaitSlot();
+            ++result._attempts;
+            boolean retry;
+            long start = System.nanoTime();
+            try
+            {
+                result._status = send(request, result);
+                result._accepted = result._status / 100 == 2 && (!request._pap || isPapAccepted(result._message));
+                retry = result._status / 100 == 5;
+                if(result._accepted)
+                {
+                    progress._latency.recordNanos(System.nanoTime() - start);
+                }
+            }
+            catch(IOException e)
+            {
+                result._status = -1;
+                result._message = e.toString();
+                retry = true;
+            }
+
+            if(!retry || result._attempts > _maxRetries)
+            {
+                break;
+            }
+            progress._retries.incrementAndGet();
+            long delay = _retryDelay << Math.min(result._attempts - 1, 16);
+            try
+            {
+                Thread.sleep(delay + nextJitter(delay));
+            }
+            catch(InterruptedException e)
+            {
+                break;
+            }
+        }
+
+        if(result._accepted)
+        {
+            progress._accepted.incrementAndGet();
+        }
+        else if(_collector != null)
+        {
+            _collector.cancel(result._pushId);
+        }
+        progress._completed.incrementAndGet();
+    }
+
+    /**
+     * Posts a request and reads the whole response, leaving the connection
+     * free for reuse
+     *
+     * @return the HTTP status
+     */
+    private static int send(PushRequest request, PushResult result) throws IOException
+    {
+        HttpURLConnection conn = (HttpURLConnection) request._url.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoInput(true);
+        conn.setDoOutput(true);
+        conn.setAllowUserInteraction(false);
+        conn.setFixedLengthStreamingMode(request._body.length);
+        for(Iterator<Map.Entry<String, String>> it = request._headers.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<String, String> header = it.next();
+            conn.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        OutputStream out = conn.getOutputStream();
+        try
+        {
+            out.write(request._body);
+        }
+        finally
+        {
+            out.close();
+        }
+
+        int status = conn.getResponseCode();
+        InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+        StringBuffer body = new StringBuffer();
+        if(in != null)
+        {
+            try
+            {
+                byte[] buffer = new byte[1024];
+                int read;
+                while((read = in.read(buffer)) > 0)
+                {
+                    if(body.length() < 1024)
+                    {
+                        body.append(new String(buffer, 0, read, "UTF-8"));
+                    }
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        result._message = status / 100 == 2 ? body.toString().trim() : status + " " + conn.getResponseMessage();
+        return status;
+    }
+
+    /**
+     * @param response the body of a PAP push-response
+     * @return true if its response-result code is 1000 or 1001
+     */
+    private static boolean isPapAccepted(String response)
+    {
+        int result = response.indexOf("<response-result");
+        if(result < 0)
+        {
+            return false;
+        }
+        int start = response.indexOf("code=\"", result);
+        int end = start < 0 ? -1 : response.indexOf('"', start + 6);
+        if(end < 0)
+        {
+            return false;
+        }
+        String code = response.substring(start + 6, end).trim();
+        return code.equals("1000") || code.equals("1001");
+    }
+
+    /**
+     * Waits for the next send slot allowed by the rate limit
+     */
+    private void awaitSlot()
+    {
+        if(_intervalNanos == 0)
+        {
+            return;
+        }
+        long wait;
+        synchronized(this)
+        {
+            long now = System.nanoTime();
+            long slot = Math.max(now, _nextSlot);
+            _nextSlot = slot + _intervalNanos;
+            wait = slot - now;
+        }
+        while(wait > 0)
+        {
+            long before = System.nanoTime();
+            LockSupport.parkNanos(wait);
+            wait -= System.nanoTime() - before;
+        }
+    }
+
+    private synchronized long nextJitter(long delay)
+    {
+        return delay > 0 ? (long) (_random.nextDouble() * delay / 2) : 0;
+    }
+}
@@ -0,0 +1,513 @@
+/**
+ * PushNotificationCollector.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>Receives the result notifications the MDS sends for pushes and matches
+ * them to the pushes that are still outstanding.
+ * <p>Register each push with {@link #expect(String, String)} before it is
+ * sent; {@link PushDispatcher} does this itself when given a collector.
+ * Notifications are accepted over HTTP on any path, each request handled by a
+ * {@link ConnectionExecutor} (see its <code>connection.*</code> properties):
+ * <ul>
+ * <li>PAP result notifications, whose <code>resultnotification-message</code>
+ *     element is read with a streaming (StAX) parser, stopping as soon as its
+ *     attributes are known, and answered with a PAP
+ *     <code>resultnotification-response</code>
+ * <li>RIM push notifications, which carry the push id and status in the
+ *     <code>X-RIM-Push-ID</code> and <code>X-RIM-Push-Status</code> headers
+ * </ul>
+ * <p>Delivered, failed and unmatched counts, the outstanding count and the
+ * latency from push to notification are kept as they arrive, and reported
+ * periodically while notifications keep arriving.  The listener is
+ * configured by system properties read in {@link #fromSystemProperties()}:
+ * <table>
+ * <tr><td>push.notifyPort</td><td>port to listen on (default 7778)</td></tr>
+ * <tr><td>push.notifyReportPeriod</td><td>milliseconds between metric reports, 0 for none (default 1000)</td></tr>
+ * </table>
+ */
+public final class PushNotificationCollector
+{
+    /**
+     * Told of each notification as it arrives
+     */
+    public interface Listener
+    {
+        void notified(Notification notification);
+    }
+
+    /**
+     * One result notification
+     */
+    public static final class Notification
+    {
+        private final String _pushId;
+        private final String _recipient;
+        private final String _code;
+        private final String _description;
+        private final boolean _delivered;
+        private final long _latencyNanos;
+
+        Notification(String pushId, String recipient, String code, String description, boolean delivered, long latencyNanos)
+        {
+            _pushId = pushId;
+            _recipient = recipient;
+            _code = code;
+            _description = description;
+            _delivered = delivered;
+            _latencyNanos = latencyNanos;
+        }
+
+        public String getPushId()
+        {
+            return _pushId;
+        }
+
+        /**
+         * @return the recipient given to {@link PushNotificationCollector#expect(String, String)},
+         * or null if the push id was not outstanding
+         */
+        public String getRecipient()
+        {
+            return _recipient;
+        }
+
+        /**
+         * @return the PAP result code, or the RIM push status
+         */
+        public String getCode()
+        {
+            return _code;
+        }
+
+        public String getDescription()
+        {
+            return _description;
+        }
+
+        public boolean isDelivered()
+        {
+            return _delivered;
+        }
+
+        /**
+         * @return nanoseconds from the push being registered to its notification, or -1 if it was not outstanding
+         */
+        public long getLatencyNanos()
+        {
+            return _latencyNanos;
+        }
+
+        public String toString()
+        {
+            return _pushId + (_recipient != null ? " (" + _recipient + ")" : "") + ": "
+                    + (_delivered ? "delivered" : "failed") + ", code " + _code
+                    + (_description.length() > 0 ? " " + _description : "");
+        }
+    }
+
+    private static final int DEFAULT_PORT = 7778;
+    private static final String RESULT_NOTIFICATION = "resultnotification-message";
+    private static final XMLInputFactory XML_INPUT = XMLInputFactory.newInstance();
+
+    static
+    {
+        // Notifications come from the MDS; never fetch the PAP DTD they name
+        XML_INPUT.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private final int _port;
+    private final long _reportPeriod;
+    private final ConcurrentHashMap<String, Outstanding> _outstanding = new ConcurrentHashMap<String, Outstanding>();
+    private final LatencyHistogram _latency = new LatencyHistogram();
+    private final AtomicInteger _delivered = new AtomicInteger();
+    private final AtomicInteger _failed = new AtomicInteger();
+    private final AtomicInteger _unmatched = new AtomicInteger();
+    private volatile Listener _listener;
+    private HttpServer _server;
+    private ConnectionExecutor _executor;
+    private Timer _timer;
+
+    private static final class Outstanding
+    {
+        final String _recipient;
+        final long _sentNanos;
+
+        Outstanding(String recipient, long sentNanos)
+        {
+            _recipient = recipient;
+            _sentNanos = sentNanos;
+        }
+    }
+
+    /**
+     * @param port port to listen on
+     * @param reportPeriod milliseconds between metric reports, 0 for none
+     */
+    public PushNotificationCollector(int port, long reportPeriod)
+    {
+        _port = port;
+        _reportPeriod = reportPeriod;
+    }
+
+    public static PushNotificationCollector fromSystemProperties()
+    {
+        return new PushNotificationCollector(Integer.getInteger("push.notifyPort", DEFAULT_PORT).intValue(),
+                Long.getLong("push.notifyReportPeriod", 1000).longValue());
+    }
+
+    public void setListener(Listener listener)
+    {
+        _listener = listener;
+    }
+
+    /**
+     * Starts listening for notifications
+     */
+    public synchronized void start() throws IOException
+    {
+        if(_server != null)
+        {
+            return;
+        }
+
+        // Responses are small; don't hold their bodies back waiting for an ACK
+        if(System.getProperty("sun.net.httpserver.nodelay") == null)
+        {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        final ConnectionExecutor executor = ConnectionExecutor.fromSystemProperties("push-notify");
+        _executor = executor;
+        _server = HttpServer.create(new InetSocketAddress(_port), 1024);
+        _server.setExecutor(new Executor()
+        {
+            public void execute(Runnable task)
+            {
+                try
+                {
+                    executor.execute(task);
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(e);
+                }
+            }
+        });
+        _server.createContext("/", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                try
+                {
+                    receive(exchange);
+                }
+                finally
+                {
+                    exchange.close();
+                }
+            }
+        });
+        _server.start();
+        System.out.println("Waiting for notifications on port " + _port + "...");
+
+        if(_reportPeriod > 0)
+        {
+            _timer = new Timer("push-notify-stats", true);
+            _timer.scheduleAtFixedRate(new TimerTask()
+            {
+                private int _last;
+
+                public void run()
+                {
+                    int received = _delivered.get() + _failed.get();
+                    if(received != _last)
+                    {
+                        System.out.println(String.format("[notify] %.1f notifications/s, %s",
+                                (received - _last) * 1000.0 / _reportPeriod, getMetrics()));
+                        _last = received;
+                    }
+                }
+            }, _reportPeriod, _reportPeriod);
+        }
+    }
+
+    /**
+     * Stops listening
+     */
+    public synchronized void stop()
+    {
+        if(_server != null)
+        {
+            _server.stop(0);
+            _server = null;
+            _executor.shutdown();
+            _executor = null;
+        }
+        if(_timer != null)
+        {
+            _timer.cancel();
+            _timer = null;
+        }
+    }
+
+    /**
+     * Registers a push that is about to be sent
+     */
+    public void expect(String pushId, String recipient)
+    {
+        _outstanding.put(pushId, new Outstanding(recipient, System.nanoTime()));
+    }
+
+    /**
+     * Forgets a push that will not be notified, such as one the MDS refused
+     */
+    public void cancel(String pushId)
+    {
+        _outstanding.remove(pushId);
+    }
+
+    /**
+     * Waits until every outstanding push has been notified
+     *
+     * @param timeout milliseconds to wait at most
+     * @return true if none are outstanding
+     */
+    public boolean awaitOutstanding(long timeout) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeout;
+        while(!_outstanding.isEmpty() && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(Math.min(50, Math.max(deadline - System.currentTimeMillis(), 1)));
+        }
+        return _outstanding.isEmpty();
+    }
+
+    public int getOutstandingCount()
+    {
+        return _outstanding.size();
+    }
+
+    public int getDeliveredCount()
+    {
+        return _delivered.get();
+    }
+
+    public int getFailedCount()
+    {
+        return _failed.get();
+    }
+
+    /**
+     * @return number of notifications for push ids that were not outstanding
+     */
+    public int getUnmatchedCount()
+    {
+        return _unmatched.get();
+    }
+
+    /**
+     * @return a one line summary of the notification metrics
+     */
+    public String getMetrics()
+    {
+        return String.format("%d delivered, %d failed, %d unmatched, %d outstanding, ack latency %s", _delivered.get(),
+                _failed.get(), _unmatched.get(), _outstanding.size(), _latency.snapshot(false));
+    }
+
+    private void receive(HttpExchange exchange) throws IOException
+    {
+        String rimPushId = exchange.getRequestHeaders().getFirst("X-RIM-Push-ID");
+        if(rimPushId != null)
+        {
+            String status = exchange.getRequestHeaders().getFirst("X-RIM-Push-Status");
+            drain(exchange.getRequestBody());
+            record(rimPushId, status != null ? status : "", exchange.getRequestHeaders().getFirst("X-RIM-Push-Description"),
+                    "200".equals(status));
+            reply(exchange, HttpURLConnection.HTTP_OK, null);
+            return;
+        }
+
+        String[] result;
+        InputStream in = exchange.getRequestBody();
+        try
+        {
+            result = parseResultNotification(in);
+        }
+        catch(XMLStreamException e)
+        {
+            result = null;
+        }
+        finally
+        {
+            drain(in);
+        }
+
+        if(result == null)
+        {
+            reply(exchange, HttpURLConnection.HTTP_BAD_REQUEST, null);
+            return;
+        }
+
+        // result is { push-id, code, desc }
+        String code = result[1] != null ? result[1] : "";
+        record(result[0], code, result[2], code.startsWith("1"));
+        reply(exchange, HttpURLConnection.HTTP_OK,
+                "<?xml version=\"1.0\"?>\r\n<!DOCTYPE pap PUBLIC \"-//WAPFORUM//DTD PAP 2.0//EN\""
+                        + " \"http://www.wapforum.org/DTD/pap_2.0.dtd\">\r\n<pap>\r\n<resultnotification-response push-id=\""
+                        + escape(result[0]) + "\" code=\"1000\" desc=\"OK\"/>\r\n</pap>\r\n");
+    }
+
+    /**
+     * @return <code>value</code> escaped for use in an XML attribute
+     */
+    private static String escape(String value)
+    {
+        StringBuffer escaped = new StringBuffer(value.length());
+        for(int i = 0; i < value.length(); ++i)
+        {
+            char c = value.charAt(i);
+            switch(c)
+            {
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                case '\'':
+                    escaped.append("&apos;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Reads up to the resultnotification-message element
+     *
+     * @return its push-id, code and desc attributes, or null if there is no such element
+     */
+    private static String[] parseResultNotification(InputStream in) throws XMLStreamException
+    {
+        XMLStreamReader reader = XML_INPUT.createXMLStreamReader(in);
+        try
+        {
+            while(reader.hasNext())
+            {
+                if(reader.next() == XMLStreamConstants.START_ELEMENT && RESULT_NOTIFICATION.equals(reader.getLocalName()))
+                {
+                    String pushId = reader.getAttributeValue(null, "push-id");
+                    return pushId == null ? null : new String[] { pushId, reader.getAttributeValue(null, "code"),
+                            reader.getAttributeValue(null, "desc") };
+                }
+            }
+            return null;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private void record(String pushId, String code, String description, boolean delivered)
+    {
+        Outstanding outstanding = _outstanding.remove(pushId);
+        long latency = -1;
+        if(outstanding == null)
+        {
+            _unmatched.incrementAndGet();
+        }
+        else
+        {
+            latency = System.nanoTime() - outstanding._sentNanos;
+            _latency.recordNanos(latency);
+            (delivered ? _delivered : _failed).incrementAndGet();
+        }
+
+        Listener listener = _listener;
+        if(listener != null)
+        {
+            listener.notified(new Notification(pushId, outstanding != null ? outstanding._recipient : null, code,
+                    description != null ? description : "", delivered, latency));
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException
+    {
+        byte[] buffer = new byte[1024];
+        while(in.read(buffer) > 0)
+        {
+        }
+        in.close();
+    }
+
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException
+    {
+        if(body == null)
+        {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
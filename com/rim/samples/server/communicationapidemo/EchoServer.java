@@ -25,10 +25,12 @@
 
 package com.rim.samples.server.communicationapidemo;
 
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.net.HttpURLConnection.HTTP_OK;
 
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -37,7 +39,11 @@ import java.net.InetSocketAddress;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
@@ -46,14 +52,27 @@ import com.sun.net.httpserver.HttpServer;
 /**
  * A class to echo the body of an HTTP request back as the HTTP response. The URL
  * to access the HTTPServer is "http://[YOUR_IP]:8105/JSON".
+ *
+ * <p>The server can be tuned with system properties:
+ * <table>
+ * <tr><td>echo.delay</td><td>response delay for every context, see {@link ResponseDelay} (default fixed:1000)</td></tr>
+ * <tr><td>echo.delay.&lt;CONTEXT&gt;</td><td>response delay for one context, e.g. echo.delay.ATOM=uniform:200-1500</td></tr>
+ * <tr><td>echo.workers</td><td>threads handling requests (default 16)</td></tr>
+ * <tr><td>echo.schedulerThreads</td><td>threads sending delayed responses (default 2)</td></tr>
+ * <tr><td>echo.backlog</td><td>listen backlog (default 128)</td></tr>
+ * </table>
  */
 public final class EchoServer
 {
 
     public final static int RESPONSE_DELAY = 1; 
-    public static int reqCounter = 1;  
+    public static final AtomicInteger reqCounter = new AtomicInteger(1);  
     private static DateFormat df = new SimpleDateFormat("HH:mm:ss MM/dd/yy");
     private static int port = 8105; // Server port 
+    private static final String PATH = "com\\rim\\samples\\server\\communicationapidemo\\";
+    private static final int DEFAULT_WORKERS = 16;
+    private static final int DEFAULT_SCHEDULER_THREADS = 2;
+    private static final int DEFAULT_BACKLOG = 128;
 
     /**
      * Entry point
@@ -67,127 +86,162 @@ public final class EchoServer
 
         addr = new InetSocketAddress(address, port);
 
-        server = HttpServer.create(addr, 10);
+        int workers = Integer.getInteger("echo.workers", DEFAULT_WORKERS).intValue();
+        int backlog = Integer.getInteger("echo.backlog", DEFAULT_BACKLOG).intValue();
+        int schedulerThreads = Integer.getInteger("echo.schedulerThreads", DEFAULT_SCHEDULER_THREADS).intValue();
+
+        server = HttpServer.create(addr, backlog);
+        server.setExecutor(Executors.newFixedThreadPool(workers));
+        final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(schedulerThreads);
+
+        final ResponseCache cache = new ResponseCache(PATH);
+        final String[] contexts = { "ATOM", "RSS", "SOAP", "JSON", "XML", "TEXT", "TEXT2" };
+        final ResponseDelay[] delays = new ResponseDelay[contexts.length];
+        for(int i = 0; i < contexts.length; ++i)
+        {
+            delays[i] = createDelay(contexts[i], scheduler);
+        }
 
-        server.createContext("/ATOM", new GenericHandler("public_timeline.atom"));
-        server.createContext("/RSS", new GenericHandler("public_timeline.rss"));
-        server.createContext("/SOAP", new GenericHandler("simple_soap.xml"));
-        server.createContext("/JSON", new GenericHandler("public_timeline.json"));
-        server.createContext("/XML", new GenericHandler("public_timeline.xml"));
+        server.createContext("/ATOM", new GenericHandler(cache, "public_timeline.atom", "application/atom+xml", delays[0]));
+        server.createContext("/RSS", new GenericHandler(cache, "public_timeline.rss", "application/rss+xml", delays[1]));
+        server.createContext("/SOAP", new GenericHandler(cache, "simple_soap.xml", "text/xml", delays[2]));
+        server.createContext("/JSON", new GenericHandler(cache, "public_timeline.json", "application/json", delays[3]));
+        server.createContext("/XML", new GenericHandler(cache, "public_timeline.xml", "text/xml", delays[4]));
 
-        server.createContext("/TEXT", new TEXTHandler());
-        server.createContext("/TEXT2", new TEXTHandler());
+        server.createContext("/TEXT", new TEXTHandler(delays[5]));
+        server.createContext("/TEXT2", new TEXTHandler(delays[6]));
 
         server.start();
 
-        System.out.println("Server started on IP: " + address + ":" + port + " at " + df.format(new Date()));
+        System.out.println("Server started on IP: " + address + ":" + port + " at " + timestamp());
+        System.out.println(workers + " worker threads, " + schedulerThreads + " scheduler threads, backlog " + backlog);
         String serverUri = "http://" + address + ":" + port;
 
-        String statusInfo = String.format("\n%s\n%s\n%s\n%s\n%s\n%s\n%s\n%s", "Listening for requests:", serverUri + "/ATOM", serverUri
-                        + "/RSS", serverUri + "/SOAP", serverUri + "/JSON", serverUri + "/XML", serverUri + "/TEXT", serverUri + "/TEXT2");
-        System.out.println(statusInfo);
-        System.out.println("Responses will be sent with a delay of " + RESPONSE_DELAY + " sec");
+        System.out.println("\nListening for requests:");
+        for(int i = 0; i < contexts.length; ++i)
+        {
+            System.out.println(serverUri + "/" + contexts[i] + " (delay: " + delays[i] + ")");
+        }
     }
 
 
     /**
-     * Reads a file and returns its contents in a byte array
-     * 
-     * @param file File to read
-     * @return byte array of file contents
-     * @throws IOException
+     * Creates the response delay for a context from the echo.delay system properties
      */
-    public static byte[] getBytesFromFile(File file) throws IOException
-    {        
-        InputStream is = new FileInputStream(file);
-
-        System.out.println("\tReading file:" + file.getName());
-
-        // Get the size of the file
-        long length = file.length();        
-
-        
-         //Before converting length to an int type, check to ensure that file is
-         // not larger than Integer.MAX_VALUE.         
-        if(length > Integer.MAX_VALUE)
-        {
-            System.out.println("\tFile is too large to process");
-            return null;
-        }
-
-        // Create the byte array to hold the data
-        byte[] bytes = new byte[(int) length];
+    private static ResponseDelay createDelay(String context, ScheduledExecutorService scheduler) throws IOException
+    {
+        String spec = System.getProperty("echo.delay." + context, System.getProperty("echo.delay", "fixed:" + RESPONSE_DELAY * 1000));
+        return new ResponseDelay(spec, scheduler);
+    }
 
-        // Read in the bytes
-        int offset = 0;
-        int numRead = 0;
-        while((offset < bytes.length) && ((numRead = is.read(bytes, offset, bytes.length - offset)) >= 0))
-        {
-            offset += numRead;
-        }
 
-        // Ensure all the bytes have been read in
-        if(offset < bytes.length)
+    /**
+     * @return the current time formatted for the request log
+     */
+    static String timestamp()
+    {
+        // SimpleDateFormat is not thread safe and requests are handled concurrently
+        synchronized(df)
         {
-            throw new IOException("\tCould not completely read file " + file.getName());
+            return df.format(new Date());
         }
-
-        is.close();
-        return bytes;
     }
 }
 
 
+/**
+ * Serves one fixture file from the {@link ResponseCache}. Clients that send
+ * If-None-Match or If-Modified-Since for an unchanged file get a
+ * 304 Not Modified with no body.
+ */
 class GenericHandler implements HttpHandler
 {
 
-    private String path = "com\\rim\\samples\\server\\communicationapidemo\\";
+    private ResponseCache _cache;
     private String _fileName;
-    private DateFormat df = new SimpleDateFormat("HH:mm:ss MM/dd/yy");
+    private String _contentType;
+    private ResponseDelay _delay;
 
 
-    public GenericHandler(String fileName)
+    public GenericHandler(ResponseCache cache, String fileName, String contentType, ResponseDelay delay)
     {
+        _cache = cache;
         _fileName = fileName;
+        _contentType = contentType;
+        _delay = delay;
     }
 
 
-    public void handle(HttpExchange t) throws IOException
+    public void handle(final HttpExchange t) throws IOException
     {
-        final OutputStream os;
-        String response;
-        System.out.println("\n>> incoming request [id: " + EchoServer.reqCounter++ + ", time: " + df.format(new Date()) + "]");
+        final int id = EchoServer.reqCounter.getAndIncrement();
+        System.out.println("\n>> incoming request [id: " + id + ", time: " + EchoServer.timestamp() + "]");
 
-        byte[] fileArray = EchoServer.getBytesFromFile(new File(path + _fileName));
-        response = "";
-        if(fileArray != null)
+        final ResponseCache.CachedResponse response;
+        try
         {
-            for(int i = 0; i < fileArray.length; ++i)
-            {
-                response += (char) fileArray[i];
-            }
+            response = _cache.get(_fileName, _contentType);
         }
-
-        try
+        catch(FileNotFoundException e)
         {
-            System.out.print("\tWaiting " + EchoServer.RESPONSE_DELAY + " sec ...");
-            Thread.sleep(EchoServer.RESPONSE_DELAY * 1000);
-            System.out.println("DONE");
+            System.err.println("\tFile not found: " + _fileName);
+            t.sendResponseHeaders(HTTP_NOT_FOUND, -1);
+            t.close();
+            System.out.println("<< response [id: " + id + ", not found, time: " + EchoServer.timestamp() + "]");
+            return;
         }
-        catch(InterruptedException e)
+
+        long delay = _delay.schedule(new Runnable()
         {
-            e.printStackTrace();
+            public void run()
+            {
+                try
+                {
+                    send(t, id, response);
+                }
+                catch(IOException e)
+                {
+                    System.err.println("<< response [id: " + id + "] failed: " + e);
+                    t.close();
+                }
+            }
+        });
+        System.out.println("\tDelaying response [id: " + id + "] by " + delay + " ms");
+    }
+
+
+    private void send(HttpExchange t, int id, ResponseCache.CachedResponse response) throws IOException
+    {
+        final OutputStream os;
+        Headers headers = t.getResponseHeaders();
+        headers.set("Content-Type", response.contentType);
+        headers.set("ETag", response.eTag);
+        headers.set("Last-Modified", response.lastModified);
+
+        Headers requestHeaders = t.getRequestHeaders();
+        if(response.isNotModified(requestHeaders.getFirst("If-None-Match"), requestHeaders.getFirst("If-Modified-Since")))
+        {
+            t.sendResponseHeaders(HTTP_NOT_MODIFIED, -1);
+            t.close();
+            System.out.println("<< response [id: " + id + ", not modified, time: " + EchoServer.timestamp() + "]");
+            System.out.flush();
+            return;
         }
 
-        t.sendResponseHeaders(HTTP_OK, response.length());
+        // A length of 0 would select chunked encoding, -1 means no body
+        boolean hasBody = response.length > 0 && !t.getRequestMethod().equalsIgnoreCase("HEAD");
+        t.sendResponseHeaders(HTTP_OK, hasBody ? response.length : -1);
 
         os = t.getResponseBody();
 
-        os.write(response.getBytes());
+        if(hasBody)
+        {
+            response.writeBody(os);
+        }
 
         os.close();
         t.close();
-        System.out.println("<< response [length = " + response.length() + ", time: " + df.format(new Date()) + "]");
+        System.out.println("<< response [id: " + id + ", length = " + response.length + ", time: " + EchoServer.timestamp() + "]");
         System.out.flush();
     }
 }
@@ -195,57 +249,75 @@ class GenericHandler implements HttpHandler
 
 class TEXTHandler implements HttpHandler
 {
-    private DateFormat df = new SimpleDateFormat("HH:mm:ss MM/dd/yy");
+    private ResponseDelay _delay;
 
 
-    public void handle(HttpExchange t) throws IOException
+    public TEXTHandler(ResponseDelay delay)
+    {
+        _delay = delay;
+    }
+
+
+    public void handle(final HttpExchange t) throws IOException
     {
         final InputStream is;
-        final OutputStream os;
-        StringBuilder buf;
-        int b;
-        final String request, response;
-        System.out.println("\n>> incoming request [id: " + EchoServer.reqCounter++ + ", time: " + df.format(new Date()) + "]");
-        buf = new StringBuilder();        
+        final ByteArrayOutputStream buf;
+        final int id = EchoServer.reqCounter.getAndIncrement();
+        byte[] chunk = new byte[1024];
+        int n;
+        System.out.println("\n>> incoming request [id: " + id + ", time: " + EchoServer.timestamp() + "]");
+        buf = new ByteArrayOutputStream();
 
         is = t.getRequestBody();
 
-        while((b = is.read()) != -1)
+        while((n = is.read(chunk)) != -1)
         {
-            buf.append((char) b);
+            buf.write(chunk, 0, n);
         }
 
         is.close();
-        response = buf.toString();
         
         /*
          * Now send the response. We could have instead done this
          * dynamically, using 0 as the response size (forcing chunked encoding)
          * and writing the bytes of the response directly to the OutputStream,
-         * but building the String first allows us to know the exact length so
+         * but buffering the request first allows us to know the exact length so
          * we can send a response with a known size.
          */
-        try
+        long delay = _delay.schedule(new Runnable()
         {
-            System.out.print("\tWaiting " + EchoServer.RESPONSE_DELAY + " sec ...");
-            Thread.sleep(EchoServer.RESPONSE_DELAY * 1000);
-            System.out.println("DONE");
-        }
-        catch(InterruptedException e)
-        {
-            e.printStackTrace();
-        }
+            public void run()
+            {
+                try
+                {
+                    send(t, id, buf);
+                }
+                catch(IOException e)
+                {
+                    System.err.println("<< response [id: " + id + "] failed: " + e);
+                    t.close();
+                }
+            }
+        });
+        System.out.println("\tDelaying response [id: " + id + "] by " + delay + " ms");
+    }
+
+
+    private void send(HttpExchange t, int id, ByteArrayOutputStream response) throws IOException
+    {
+        final OutputStream os;
 
-        t.sendResponseHeaders(HTTP_OK, response.length());
+        // A length of 0 would select chunked encoding, -1 means no body
+        t.sendResponseHeaders(HTTP_OK, response.size() > 0 ? response.size() : -1);
 
         os = t.getResponseBody();
 
-        os.write(response.getBytes());        
+        response.writeTo(os);
 
         os.close();
         t.close();
         
-        System.out.println("<< response [length = " + response.length() + ", time: " + df.format(new Date()) + "]");
+        System.out.println("<< response [id: " + id + ", length = " + response.size() + ", time: " + EchoServer.timestamp() + "]");
         System.out.flush();
     }
 }
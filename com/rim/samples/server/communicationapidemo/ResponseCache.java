@@ -0,0 +1,224 @@
+/**
+ * ResponseCache.java
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.server.communicationapidemo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+
+/**
+ * An in-memory cache of the fixture files served by {@link EchoServer}. Each
+ * file is read once, together with the header values that go with it, and
+ * is re-read only when its size or modification time changes on disk. Small
+ * files are held on the heap and written straight from the backing array;
+ * larger files are memory-mapped.
+ */
+final class ResponseCache
+{
+    /** Files at least this large are memory-mapped rather than copied onto the heap */
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+
+    private final String _path;
+    private final ConcurrentHashMap<String, CachedResponse> _entries = new ConcurrentHashMap<String, CachedResponse>();
+
+
+    /**
+     * @param path Directory holding the fixture files, including the trailing separator
+     */
+    ResponseCache(String path)
+    {
+        _path = path;
+    }
+
+
+    /**
+     * Returns the cached response for a file, loading or reloading it if the
+     * file has changed since it was cached
+     *
+     * @param fileName Name of the file relative to the cache directory
+     * @param contentType Value for the Content-Type header
+     * @return the cached response
+     * @throws IOException if the file cannot be read
+     */
+    CachedResponse get(String fileName, String contentType) throws IOException
+    {
+        File file = new File(_path + fileName);
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        CachedResponse cached = _entries.get(fileName);
+        if(cached != null && cached.fileLastModified == lastModified && cached.length == length)
+        {
+            return cached;
+        }
+
+        // Two threads may race to reload the same file; both produce identical
+        // entries so the last one in simply wins.
+        cached = load(file, contentType);
+        _entries.put(fileName, cached);
+        return cached;
+    }
+
+
+    private static CachedResponse load(File file, String contentType) throws IOException
+    {
+        System.out.println("\tCaching file:" + file.getName());
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            ByteBuffer body;
+
+            if(size >= MAP_THRESHOLD)
+            {
+                body = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            else
+            {
+                body = ByteBuffer.allocate((int) size);
+                while(body.hasRemaining() && channel.read(body) >= 0)
+                {
+                }
+                if(body.hasRemaining())
+                {
+                    throw new IOException("\tCould not completely read file " + file.getName());
+                }
+                body.flip();
+            }
+
+            return new CachedResponse(body, contentType, file.lastModified(), size);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+
+    /**
+     * An immutable cached file body along with its precomputed header values
+     */
+    static final class CachedResponse
+    {
+        final String contentType;
+        final String eTag;
+        final String lastModified;
+        final long fileLastModified;
+        final long length;
+        private final ByteBuffer _body;
+
+
+        private CachedResponse(ByteBuffer body, String contentType, long fileLastModified, long length)
+        {
+            _body = body;
+            this.contentType = contentType;
+            this.fileLastModified = fileLastModified;
+            this.length = length;
+
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            eTag = "\"" + Long.toHexString(crc.getValue()) + "-" + Long.toHexString(length) + "\"";
+            lastModified = httpDateFormat().format(new Date(fileLastModified));
+        }
+
+
+        /**
+         * Tells whether the client's cached copy, described by its conditional
+         * request headers, is still current
+         *
+         * @param ifNoneMatch Value of If-None-Match, or null
+         * @param ifModifiedSince Value of If-Modified-Since, or null
+         * @return true if a 304 Not Modified can be sent instead of the body
+         */
+        boolean isNotModified(String ifNoneMatch, String ifModifiedSince)
+        {
+            if(ifNoneMatch != null)
+            {
+                // If-None-Match takes precedence over If-Modified-Since
+                return ifNoneMatch.equals("*") || ifNoneMatch.indexOf(eTag) >= 0;
+            }
+            if(ifModifiedSince == null)
+            {
+                return false;
+            }
+            try
+            {
+                // HTTP dates have a resolution of one second
+                return fileLastModified / 1000 <= httpDateFormat().parse(ifModifiedSince).getTime() / 1000;
+            }
+            catch(ParseException e)
+            {
+                return false;
+            }
+        }
+
+
+        /**
+         * Writes the body to the response stream without copying it into a new array
+         */
+        void writeBody(OutputStream os) throws IOException
+        {
+            if(_body.hasArray())
+            {
+                os.write(_body.array(), _body.arrayOffset() + _body.position(), _body.remaining());
+            }
+            else
+            {
+                // Mapped files: each writer gets its own position over the shared mapping
+                WritableByteChannel channel = Channels.newChannel(os);
+                ByteBuffer body = _body.duplicate();
+                while(body.hasRemaining())
+                {
+                    channel.write(body);
+                }
+            }
+        }
+
+
+        private static DateFormat httpDateFormat()
+        {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format;
+        }
+    }
+}
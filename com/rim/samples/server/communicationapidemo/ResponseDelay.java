@@ -0,0 +1,288 @@
+/**
+ * ResponseDelay.java
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+
+package com.rim.samples.server.communicationapidemo;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Injects latency into the responses of one {@link EchoServer} context.
+ * Rather than sleeping on the thread that handles the request, the response
+ * is scheduled on a shared {@link ScheduledExecutorService}, so a slow
+ * response does not tie up a server thread while it waits.
+ *
+ * <p>Delays are described by a spec string:
+ * <table>
+ * <tr><td>fixed:&lt;ms&gt;</td><td>always the same delay</td></tr>
+ * <tr><td>uniform:&lt;min&gt;-&lt;max&gt;</td><td>uniformly distributed between min and max ms</td></tr>
+ * <tr><td>histogram:&lt;file&gt;</td><td>sampled from recorded latencies, one "&lt;ms&gt; [count]" pair per line</td></tr>
+ * </table>
+ */
+final class ResponseDelay
+{
+    private final Model _model;
+    private final ScheduledExecutorService _scheduler;
+
+
+    /**
+     * @param spec Delay spec as described above
+     * @param scheduler Runs delayed responses
+     * @throws IOException if a histogram file cannot be read
+     * @throws IllegalArgumentException if the spec is malformed
+     */
+    ResponseDelay(String spec, ScheduledExecutorService scheduler) throws IOException
+    {
+        _model = parse(spec);
+        _scheduler = scheduler;
+    }
+
+
+    /**
+     * Runs <code>response</code> after the next delay drawn from the model
+     *
+     * @param response Sends the response and closes the exchange
+     * @return the delay applied, in milliseconds
+     */
+    long schedule(Runnable response)
+    {
+        long delay = _model.nextDelay();
+        if(delay <= 0)
+        {
+            response.run();
+        }
+        else
+        {
+            _scheduler.schedule(response, delay, TimeUnit.MILLISECONDS);
+        }
+        return delay;
+    }
+
+
+    public String toString()
+    {
+        return _model.toString();
+    }
+
+
+    private static Model parse(String spec) throws IOException
+    {
+        int colon = spec.indexOf(':');
+        if(colon < 0)
+        {
+            throw new IllegalArgumentException("Delay spec must be <type>:<args>, got " + spec);
+        }
+        String type = spec.substring(0, colon);
+        String args = spec.substring(colon + 1);
+
+        try
+        {
+            if(type.equals("fixed"))
+            {
+                return new Fixed(Long.parseLong(args));
+            }
+            else if(type.equals("uniform"))
+            {
+                int dash = args.indexOf('-');
+                return new Uniform(Long.parseLong(args.substring(0, dash)), Long.parseLong(args.substring(dash + 1)));
+            }
+            else if(type.equals("histogram"))
+            {
+                return Histogram.load(args);
+            }
+        }
+        catch(NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid delay spec " + spec + ": " + e.getMessage());
+        }
+        catch(StringIndexOutOfBoundsException e)
+        {
+            throw new IllegalArgumentException("Invalid delay spec " + spec);
+        }
+        throw new IllegalArgumentException("Unknown delay type " + type);
+    }
+
+
+    /**
+     * A source of response delays
+     */
+    private interface Model
+    {
+        /**
+         * @return the next delay in milliseconds
+         */
+        long nextDelay();
+    }
+
+
+    private static final class Fixed implements Model
+    {
+        private final long _delay;
+
+
+        Fixed(long delay)
+        {
+            _delay = delay;
+        }
+
+
+        public long nextDelay()
+        {
+            return _delay;
+        }
+
+
+        public String toString()
+        {
+            return "fixed " + _delay + " ms";
+        }
+    }
+
+
+    private static final class Uniform implements Model
+    {
+        private final long _min;
+        private final long _max;
+
+
+        Uniform(long min, long max)
+        {
+            if(min < 0 || max < min)
+            {
+                throw new IllegalArgumentException("uniform delay needs 0 <= min <= max");
+            }
+            _min = min;
+            _max = max;
+        }
+
+
+        public long nextDelay()
+        {
+            return _min + ThreadLocalRandom.current().nextLong(_max - _min + 1);
+        }
+
+
+        public String toString()
+        {
+            return "uniform " + _min + "-" + _max + " ms";
+        }
+    }
+
+
+    /**
+     * Samples delays in proportion to how often they were recorded
+     */
+    private static final class Histogram implements Model
+    {
+        private final String _fileName;
+        private final long[] _delays;
+        private final long[] _cumulativeCounts;
+
+
+        private Histogram(String fileName, long[] delays, long[] cumulativeCounts)
+        {
+            _fileName = fileName;
+            _delays = delays;
+            _cumulativeCounts = cumulativeCounts;
+        }
+
+
+        static Histogram load(String fileName) throws IOException
+        {
+            List<long[]> buckets = new ArrayList<long[]>();
+            BufferedReader in = new BufferedReader(new FileReader(fileName));
+            try
+            {
+                String line;
+                while((line = in.readLine()) != null)
+                {
+                    line = line.trim();
+                    if(line.length() == 0 || line.startsWith("#"))
+                    {
+                        continue;
+                    }
+                    StringTokenizer st = new StringTokenizer(line, " \t,;");
+                    long delay = Long.parseLong(st.nextToken());
+                    long count = st.hasMoreTokens() ? Long.parseLong(st.nextToken()) : 1;
+                    if(delay >= 0 && count > 0)
+                    {
+                        buckets.add(new long[] { delay, count });
+                    }
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+
+            if(buckets.isEmpty())
+            {
+                throw new IllegalArgumentException("No latencies recorded in " + fileName);
+            }
+
+            long[] delays = new long[buckets.size()];
+            long[] cumulative = new long[buckets.size()];
+            long total = 0;
+            for(int i = 0; i < delays.length; ++i)
+            {
+                long[] bucket = buckets.get(i);
+                delays[i] = bucket[0];
+                total += bucket[1];
+                cumulative[i] = total;
+            }
+            return new Histogram(fileName, delays, cumulative);
+        }
+
+
+        public long nextDelay()
+        {
+            long total = _cumulativeCounts[_cumulativeCounts.length - 1];
+            long pick = ThreadLocalRandom.current().nextLong(total);
+
+            // First bucket whose cumulative count exceeds the pick
+            int index = Arrays.binarySearch(_cumulativeCounts, pick + 1);
+            if(index < 0)
+            {
+                index = -index - 1;
+            }
+            return _delays[index];
+        }
+
+
+        public String toString()
+        {
+            return "histogram of " + _cumulativeCounts[_cumulativeCounts.length - 1] + " samples from " + _fileName;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * ChartRenderer.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.gpsdemo;
+
+/**
+ * <p>Redraws the {@link SpeedAltitudePlot} charts on a single background thread.
+ * <p>Workers call {@link #requestRender()} after each upload and return
+ * immediately.  Requests are coalesced: the charts are drawn once the uploads
+ * have been quiet for <code>gps.renderDelay</code> milliseconds (default 500),
+ * or at the latest <code>gps.renderMaxDelay</code> milliseconds (default 5000)
+ * after the first request that is still outstanding, however busy the server is.
+ * <p>Tracks longer than a few points per pixel are drawn from a sample of
+ * the store, so a redraw takes about as long however many points there are.
+ */
+/*package*/ final class ChartRenderer implements Runnable
+{
+    /** A few points for each pixel column of the charts */
+    private static final int SAMPLES = 4 * SpeedAltitudePlot.PLOT_WIDTH;
+
+    private final Store _store;
+    private final long _delay;
+    private final long _maxDelay;
+
+    // Guarded by this
+    private boolean _requested;
+    private long _firstRequest;
+    private long _lastRequest;
+
+    ChartRenderer(Store store)
+    {
+        _store = store;
+        _delay = Long.getLong("gps.renderDelay", 500).longValue();
+        _maxDelay = Long.getLong("gps.renderMaxDelay", 5000).longValue();
+
+        Thread thread = new Thread(this, "gps-chart-renderer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Asks for the charts to be redrawn
+     */
+    synchronized void requestRender()
+    {
+        long now = System.currentTimeMillis();
+        if(!_requested)
+        {
+            _requested = true;
+            _firstRequest = now;
+            notifyAll();
+        }
+        _lastRequest = now;
+    }
+
+    public void run()
+    {
+        for(;;)
+        {
+            try
+            {
+                awaitRequest();
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            TrackSummary summary = _store.summary();
+            try
+            {
+                SpeedAltitudePlot.createCombinedChart(summary.count > SAMPLES ? _store.sample(SAMPLES) : _store.points(), summary);
+            }
+            catch(RuntimeException e)
+            {
+                System.err.println("Charts not drawn: " + e);
+                continue;
+            }
+            System.out.println("Charts drawn for " + summary.count + " points in " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * Waits for a request and then for the uploads to settle
+     */
+    private synchronized void awaitRequest() throws InterruptedException
+    {
+        while(!_requested)
+        {
+            wait();
+        }
+        for(;;)
+        {
+            long now = System.currentTimeMillis();
+            long due = Math.min(_lastRequest + _delay, _firstRequest + _maxDelay);
+            if(now >= due)
+            {
+                break;
+            }
+            wait(due - now);
+        }
+        _requested = false;
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * GPSLoadGenerator.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.gpsdemo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Simulates handsets uploading tracks to {@link GPSServer}, in either the
+ * original text format or the binary format described in {@link PointDecoder}.
+ * <p>To run:
+ * <pre>
+ *    java com.rim.samples.server.gpsdemo.GPSLoadGenerator [host] [uploads] [points per upload] [text|binary] [concurrency]
+ * </pre>
+ * <p>Each upload continues the same synthetic track, so times never repeat.
+ * Uploads/sec, points/sec and bytes sent are printed at the end.
+ */
+public class GPSLoadGenerator
+{
+    private static final String RECEIVED = "Received";
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        final String host = args.length > 0 ? args[0] : "localhost";
+        final int uploads = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final int points = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        final boolean binary = args.length > 3 && args[3].equals("binary");
+        int concurrency = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+
+        final AtomicInteger remaining = new AtomicInteger(uploads);
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+
+        System.out.println("Sending " + uploads + " uploads of " + points + " points as " + (binary ? "binary" : "text")
+                + " to " + host + ":" + GPSServer.PORT + " from " + concurrency + " clients");
+        long start = System.nanoTime();
+
+        Thread[] clients = new Thread[concurrency];
+        for(int i = 0; i < concurrency; ++i)
+        {
+            clients[i] = new Thread("client-" + i)
+            {
+                public void run()
+                {
+                    int upload;
+                    while((upload = remaining.decrementAndGet()) >= 0)
+                    {
+                        long firstTime = (long) upload * points * 1000;
+                        try
+                        {
+                            bytes.addAndGet(upload(host, binary, firstTime, points));
+                        }
+                        catch(IOException e)
+                        {
+                            System.err.println(e);
+                            failed.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            clients[i].start();
+        }
+        for(int i = 0; i < concurrency; ++i)
+        {
+            clients[i].join();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d uploads (%d failed) in %.2fs: %.1f uploads/s, %.0f points/s, %.1f bytes/point",
+                uploads, failed.get(), seconds, uploads / seconds, (double) uploads * points / seconds,
+                (double) bytes.get() / ((long) uploads * points)));
+    }
+
+    /**
+     * Sends one upload and waits for the reply
+     *
+     * @return the number of bytes sent
+     */
+    private static int upload(String host, boolean binary, long firstTime, int points) throws IOException
+    {
+        byte[] body = binary ? encodeBinary(firstTime, points) : encodeText(firstTime, points);
+        Socket socket = new Socket(host, GPSServer.PORT);
+        try
+        {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            if(binary)
+            {
+                out.write(PointDecoder.BINARY_MAGIC);
+                out.flush();
+                byte[] magic = new byte[PointDecoder.BINARY_MAGIC.length];
+                readFully(in, magic);
+                if(!Arrays.equals(magic, PointDecoder.BINARY_MAGIC))
+                {
+                    throw new IOException("Server does not accept binary uploads");
+                }
+            }
+            out.write(body);
+            out.flush();
+
+            // The server closes the connection after its reply
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64];
+            int read;
+            while((read = in.read(buffer)) >= 0)
+            {
+                reply.write(buffer, 0, read);
+            }
+            if(!RECEIVED.equals(reply.toString()))
+            {
+                throw new IOException("Upload rejected: " + reply);
+            }
+        }
+        finally
+        {
+            socket.close();
+        }
+        return body.length + (binary ? PointDecoder.BINARY_MAGIC.length : 0);
+    }
+
+    private static byte[] encodeText(long firstTime, int points)
+    {
+        StringBuffer sb = new StringBuffer();
+        for(int i = 0; i < points; ++i)
+        {
+            long time = firstTime + i * 1000;
+            if(i > 0)
+            {
+                sb.append(':');
+            }
+            sb.append(longitude(time)).append(';').append(latitude(time)).append(';').append(altitude(time)).append(';')
+                    .append(10.0f).append(';').append(speed(time)).append(';').append(time);
+        }
+        sb.append('z');
+        return sb.toString().getBytes();
+    }
+
+    private static byte[] encodeBinary(long firstTime, int points) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes));
+        long previous = 0;
+        for(int i = 0; i < points; ++i)
+        {
+            long time = firstTime + i * 1000;
+            out.writeByte(PointDecoder.TAG_POINT);
+            long delta = time - previous;
+            long zigzag = (delta << 1) ^ (delta >> 63);
+            while((zigzag & ~0x7FL) != 0)
+            {
+                out.writeByte((int) (zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            out.writeByte((int) zigzag);
+            previous = time;
+
+            out.writeInt((int) Math.round(latitude(time) * PointDecoder.DEGREE_SCALE));
+            out.writeInt((int) Math.round(longitude(time) * PointDecoder.DEGREE_SCALE));
+            out.writeFloat(altitude(time));
+            out.writeFloat(10.0f);
+            out.writeFloat(speed(time));
+        }
+        out.writeByte(PointDecoder.TAG_END);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static double latitude(long time)
+    {
+        return 43.4723 + Math.sin(time / 600000.0) * 0.01;
+    }
+
+    private static double longitude(long time)
+    {
+        return -80.5449 + Math.cos(time / 600000.0) * 0.01;
+    }
+
+    private static float altitude(long time)
+    {
+        return (float) (330 + 20 * Math.sin(time / 3600000.0));
+    }
+
+    private static float speed(long time)
+    {
+        return (float) (10 + 5 * Math.sin(time / 60000.0));
+    }
+
+    private static void readFully(InputStream in, byte[] buffer) throws IOException
+    {
+        int offset = 0;
+        while(offset < buffer.length)
+        {
+            int read = in.read(buffer, offset, buffer.length - offset);
+            if(read < 0)
+            {
+                throw new IOException("Connection closed after " + offset + " bytes");
+            }
+            offset += read;
+        }
+    }
+}
@@ -28,26 +28,51 @@ package com.rim.samples.server.gpsdemo;
 
 import java.net.*;
 import java.io.*;
-import java.util.*;
+
+import com.rim.samples.server.common.ConnectionExecutor;
 
 /**
  * <p>The main server class
  * <p>To run this simple program, invoke the following from the command line:
  *  java  com.rim.samples.server.gspdemo.GPSServer
+ * <p>Uploads are handled by a {@link ConnectionExecutor}; see that class for the
+ * <code>connection.*</code> system properties that select the threading mode.
+ * <p>Clients may upload in the original text format or in the compact binary
+ * format described in {@link PointDecoder}; {@link GPSLoadGenerator} can
+ * exercise either.
  */
 public class GPSServer 
 {
-    private static final int PORT = 5555;    
+    /*package*/ static final int PORT = 5555;    
     private static Store _store;
+    private static ChartRenderer _renderer;
+    private ConnectionExecutor _executor;
 
     public static void main(String[] args)
     {
-    	_store = new Store();
+    	try {
+            _store = new Store();
+    	} catch (IOException e) {
+            System.err.println(e);
+            System.exit(-1);
+    	}
+    	_renderer = new ChartRenderer(_store);
+    	Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run()
+            {
+            	try {
+                    _store.close();
+            	} catch (IOException e) {
+                    System.err.println(e);
+            	}
+            }
+    	});
     	GPSServer app = new GPSServer();
     }
 
     public GPSServer() 
     {    
+    	_executor = ConnectionExecutor.fromSystemProperties("gpsdemo");
     	ServerSocket serverSocket = null;
     	try {
             serverSocket = new ServerSocket(PORT);
@@ -68,98 +93,137 @@ public class GPSServer
             	System.err.println(e);
             	System.exit(-1);
             }
-            //spin off a new thread to handle this socket - this way new socket connections can be served immediately
-            (new Worker(clientSocket, _store)).start();
+            //hand this socket to the executor - this way new socket connections can be served immediately
+            try {
+            	_executor.execute(new Worker(clientSocket, _store));
+            } catch (InterruptedException e) {
+            	System.err.println(e);
+            	System.exit(-1);
+            }
     	}
     }
 
     /**
-     * <p>Worker is just a simple thread that handles each inbound socket connection
-     * so that further socket connections can be accepted while another socket is handled!
+     * <p>Worker handles a single inbound socket connection.  Workers are run by the
+     * {@link ConnectionExecutor} so that further socket connections can be accepted
+     * while another socket is handled!
+     * <p>The upload is decoded by a {@link PointDecoder} as it is read, and each
+     * point goes to the store as soon as it is complete.  The reply is sent once
+     * every point is on disk.
      */
-    /*package*/ class Worker extends Thread
+    /*package*/ class Worker implements Runnable, PointDecoder.Listener
     {
-        private Socket _clientSocket;
         private static final String RECEIVED = "Received";
+        private static final String ERROR = "Error";
+        private static final int BUFFER_SIZE = 8192;
         
-        private double longitude;
-        private double latitude;
-        private double altitude;
-        private double distance;
-        private long time;
-        private double speed;
-        private String returnString;
-        private StringBuffer receiveBuffer;
-        private Store store;
+        private Socket _clientSocket;
+        private Store _store;
+        private long _sequence;
+        private int _points;
     
         public Worker(Socket c,Store s)
         {
             _clientSocket = c;
-            receiveBuffer = new StringBuffer();
-            store = s;       
+            _store = s;       
+        }
+        
+        public void point(Point p) throws IOException
+        {
+            _sequence = _store.add(p);
+            ++_points;
         }
             
         public void run()
         {
-            PrintWriter printWriter;
-            InputStream inputStream;
-            Vector v = null;		
             try {
                 try {
                     _clientSocket.setSoTimeout(0); //wait forever
-                	
-                    inputStream = _clientSocket.getInputStream();
-                    printWriter = new PrintWriter(_clientSocket.getOutputStream(), true);
-                	
-                    int i = -1;
-                    while (( i = inputStream.read()) != 'z') //'z' is the terminator
+                    InputStream inputStream = _clientSocket.getInputStream();
+                    OutputStream outputStream = _clientSocket.getOutputStream();
+                    
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int count = inputStream.read(buffer);
+                    
+                    // A binary client opens with the magic.  While what has
+                    // arrived so far matches it, wait for the rest before deciding.
+                    while(count > 0 && count < PointDecoder.BINARY_MAGIC.length && startsWithMagic(buffer, count))
                     {
-                        receiveBuffer.append((char)i);
+                        int read = inputStream.read(buffer, count, buffer.length - count);
+                        if(read < 0)
+                        {
+                            break;
+                        }
+                        count += read;
                     }
-                } catch (SocketTimeoutException ste){
-                    System.out.println(_clientSocket.getPort() + " Timeout waiting for Hello");
-                    return;            
-                }
-                
-                returnString = RECEIVED;
-                String data = receiveBuffer.toString();
-                try {
-                    StringTokenizer st = new StringTokenizer(data, ":");
-                    v = new Vector();
-                    while(st.hasMoreTokens())
+                    
+                    PointDecoder decoder;
+                    int offset = 0;
+                    if(count >= PointDecoder.BINARY_MAGIC.length && startsWithMagic(buffer, PointDecoder.BINARY_MAGIC.length))
+                    {
+                        outputStream.write(PointDecoder.BINARY_MAGIC);
+                        outputStream.flush();
+                        decoder = new PointDecoder.Binary(this);
+                        offset = PointDecoder.BINARY_MAGIC.length;
+                    }
+                    else
+                    {
+                        decoder = new PointDecoder.Text(this);
+                    }
+                    
+                    for(;;)
                     {
-                        String point = st.nextToken();
-                        StringTokenizer st1 = new StringTokenizer(point, ";");
-                        longitude = Float.parseFloat(st1.nextToken());
-                        latitude = Float.parseFloat(st1.nextToken());
-                        altitude = Float.parseFloat(st1.nextToken());
-                        distance = Float.parseFloat(st1.nextToken());
-                        speed = Float.parseFloat(st1.nextToken());
-                        time = Long.parseLong(st1.nextToken());
-                        Point p = new Point(time,latitude, longitude, altitude, distance, speed);
-                        store._map.put(new Long(time), p);
-                        v.addElement(point);
+                        if(count < 0)
+                        {
+                            System.out.println(_clientSocket.getPort() + " Closed before the end of the upload");
+                            _store.awaitDurable(_sequence);
+                            if(_points > 0)
+                            {
+                                _renderer.requestRender();
+                            }
+                            return;
+                        }
+                        if(decoder.decode(buffer, offset, count - offset) >= 0)
+                        {
+                            break;
+                        }
+                        offset = 0;
+                        count = inputStream.read(buffer);
                     }
-                } catch(NoSuchElementException e) {
-                	returnString = "Error";
-                } catch(NumberFormatException e) {
-                	returnString = "Error";
+                    
+                    //only acknowledge the upload once the points are safely on disk
+                    _store.awaitDurable(_sequence);
+                    
+                    outputStream.write((decoder.hasFailed() ? ERROR : RECEIVED).getBytes());
+                    outputStream.flush();
+                } finally {
+                    _clientSocket.close();
                 }
-                         
-                printWriter.print(returnString);
-                printWriter.flush();
-                inputStream.close();
-                printWriter.close();
                 
-                _clientSocket.close();
-                GPSServer._store.save(v);  
-                SpeedAltitudePlot.createCombinedChart(store._map.values());
-                System.out.println(_clientSocket.getPort() + " Done");
+                if(_points > 0)
+                {
+                    _renderer.requestRender(); //the charts are redrawn in the background
+                }
+                System.out.println(_clientSocket.getPort() + " Done, " + _points + " points");
             } catch(IOException ie) {
                 System.out.println("Exception:"+ie);
             }
         }
+        
+        /**
+         * @return true if the first <code>length</code> bytes of <code>buffer</code>
+         * match the start of {@link PointDecoder#BINARY_MAGIC}
+         */
+        private boolean startsWithMagic(byte[] buffer, int length)
+        {
+            for(int i = 0; i < length; ++i)
+            {
+                if(buffer[i] != PointDecoder.BINARY_MAGIC[i])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
-
-
@@ -0,0 +1,361 @@
+/**
+ * PointDecoder.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.gpsdemo;
+
+import java.io.IOException;
+
+/**
+ * <p>Decodes an upload from the device as the bytes arrive, handing each
+ * point to a {@link Listener} as soon as it is complete.
+ * <p>Two wire formats are understood:
+ * <ul>
+ * <li>Text, as sent by the original client: records of the form
+ *     <code>longitude;latitude;altitude;distance;speed;time</code> separated
+ *     by ':' and terminated by 'z'.
+ * <li>Binary, which a client asks for by opening with {@link #BINARY_MAGIC}.
+ *     The server echoes the magic to accept, after which each point is the
+ *     tag {@link #TAG_POINT}, the time as a zigzag varint delta from the
+ *     previous point's time, latitude and longitude as big-endian ints in
+ *     units of 10<sup>-7</sup> degrees, then altitude, distance and speed as
+ *     big-endian floats.  The tag {@link #TAG_END} ends the upload.  A point
+ *     takes about 23 bytes this way, against about 70 as text.
+ * </ul>
+ * <p>Neither decoder allocates while parsing, apart from the points themselves.
+ */
+/*package*/ abstract class PointDecoder
+{
+    static final byte[] BINARY_MAGIC = { 'G', 'P', 'B', '1' };
+    static final int TAG_END = 0;
+    static final int TAG_POINT = 1;
+    static final double DEGREE_SCALE = 1e7;
+
+    /**
+     * Receives points as they are decoded
+     */
+    interface Listener
+    {
+        void point(Point p) throws IOException;
+    }
+
+    protected final Listener _listener;
+    protected boolean _failed;
+
+    PointDecoder(Listener listener)
+    {
+        _listener = listener;
+    }
+
+    /**
+     * Decodes the next chunk of the upload
+     *
+     * @return the number of bytes used, up to and including the end of the
+     * upload, or -1 if every byte was used and more are needed
+     * @throws IOException if the listener throws
+     */
+    abstract int decode(byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * @return true if some of the upload could not be decoded; points after
+     * the first error are dropped
+     */
+    boolean hasFailed()
+    {
+        return _failed;
+    }
+
+    /**
+     * The original ':' separated text format
+     */
+    static final class Text extends PointDecoder
+    {
+        private static final int FIELDS = 6;
+        private static final int MAX_FAST_DIGITS = 15;
+        private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+        private final double[] _values = new double[FIELDS - 1];
+        private int _field;
+        private long _time;
+
+        // The number being read
+        private final char[] _chars = new char[64];
+        private int _charCount;
+        private long _mantissa;
+        private int _digits;
+        private int _fractionDigits;
+        private boolean _negative;
+        private boolean _dot;
+        private boolean _slow; // needs the JDK parser
+
+        Text(Listener listener)
+        {
+            super(listener);
+        }
+
+        int decode(byte[] data, int offset, int length) throws IOException
+        {
+            int end = offset + length;
+            for(int i = offset; i < end; ++i)
+            {
+                int c = data[i];
+                if(c == 'z')
+                {
+                    if(!_failed)
+                    {
+                        endRecord();
+                    }
+                    return i + 1 - offset;
+                }
+                if(_failed)
+                {
+                    continue; // skip to the terminator
+                }
+
+                if(c >= '0' && c <= '9')
+                {
+                    append(c);
+                    if(_digits < 18)
+                    {
+                        _mantissa = _mantissa * 10 + (c - '0');
+                        ++_digits;
+                        if(_dot)
+                        {
+                            ++_fractionDigits;
+                        }
+                    }
+                    else
+                    {
+                        _slow = true;
+                    }
+                }
+                else if(c == '.')
+                {
+                    append(c);
+                    _slow |= _dot;
+                    _dot = true;
+                }
+                else if(c == '-' && _charCount == 0)
+                {
+                    append(c);
+                    _negative = true;
+                }
+                else if(c == '+' || c == '-' || c == 'e' || c == 'E')
+                {
+                    append(c);
+                    _slow = true;
+                }
+                else if(c == ';')
+                {
+                    endField();
+                }
+                else if(c == ':')
+                {
+                    endRecord();
+                }
+                else if(c != ' ' && c != '\t' && c != '\r' && c != '\n')
+                {
+                    _failed = true;
+                }
+            }
+            return -1;
+        }
+
+        private void append(int c)
+        {
+            if(_charCount == _chars.length)
+            {
+                _failed = true;
+                return;
+            }
+            _chars[_charCount++] = (char) c;
+        }
+
+        private void endField()
+        {
+            if(_field >= FIELDS - 1 || _charCount == 0)
+            {
+                _failed = true;
+                return;
+            }
+            try
+            {
+                _values[_field++] = parseDouble();
+            }
+            catch(NumberFormatException e)
+            {
+                _failed = true;
+            }
+            resetNumber();
+        }
+
+        private void endRecord() throws IOException
+        {
+            if(_field == 0 && _charCount == 0)
+            {
+                return; // an empty record, as before
+            }
+            if(_field != FIELDS - 1 || _charCount == 0)
+            {
+                _failed = true;
+                return;
+            }
+            try
+            {
+                _time = parseLong();
+            }
+            catch(NumberFormatException e)
+            {
+                _failed = true;
+                return;
+            }
+            resetNumber();
+            _field = 0;
+            _listener.point(new Point(_time, _values[1], _values[0], _values[2], _values[3], _values[4]));
+        }
+
+        /**
+         * Parses the number read so far.  A value with at most 15 significant
+         * digits and 22 decimal places is computed exactly with one division,
+         * which is correctly rounded because both operands are exact doubles;
+         * anything else goes to the JDK.
+         */
+        private double parseDouble()
+        {
+            if(!_slow && _digits > 0 && _digits <= MAX_FAST_DIGITS && _fractionDigits < POWERS_OF_TEN.length)
+            {
+                double value = _mantissa / POWERS_OF_TEN[_fractionDigits];
+                return _negative ? -value : value;
+            }
+            return Double.parseDouble(new String(_chars, 0, _charCount));
+        }
+
+        private long parseLong()
+        {
+            if(!_slow && !_dot && _digits > 0)
+            {
+                return _negative ? -_mantissa : _mantissa;
+            }
+            return Long.parseLong(new String(_chars, 0, _charCount));
+        }
+
+        private void resetNumber()
+        {
+            _charCount = 0;
+            _mantissa = 0;
+            _digits = 0;
+            _fractionDigits = 0;
+            _negative = false;
+            _dot = false;
+            _slow = false;
+        }
+    }
+
+    /**
+     * The compact binary format
+     */
+    static final class Binary extends PointDecoder
+    {
+        private static final int STATE_TAG = 0;
+        private static final int STATE_TIME = 1;
+        private static final int STATE_FIELDS = 2;
+        private static final int FIELD_BYTES = 4 + 4 + 4 + 4 + 4;
+
+        private final byte[] _fields = new byte[FIELD_BYTES];
+        private int _state = STATE_TAG;
+        private int _fieldBytes;
+        private long _varint;
+        private int _shift;
+        private long _time;
+
+        Binary(Listener listener)
+        {
+            super(listener);
+        }
+
+        int decode(byte[] data, int offset, int length) throws IOException
+        {
+            int end = offset + length;
+            for(int i = offset; i < end; ++i)
+            {
+                int b = data[i] & 0xFF;
+                switch(_state)
+                {
+                    case STATE_TAG:
+                        if(b == TAG_POINT)
+                        {
+                            _state = STATE_TIME;
+                            _varint = 0;
+                            _shift = 0;
+                        }
+                        else
+                        {
+                            // There is no way to resynchronise after a bad tag
+                            _failed |= b != TAG_END;
+                            return i + 1 - offset;
+                        }
+                        break;
+
+                    case STATE_TIME:
+                        _varint |= (long) (b & 0x7F) << _shift;
+                        _shift += 7;
+                        if((b & 0x80) == 0)
+                        {
+                            _time += (_varint >>> 1) ^ -(_varint & 1);
+                            _state = STATE_FIELDS;
+                            _fieldBytes = 0;
+                        }
+                        else if(_shift > 63)
+                        {
+                            _failed = true;
+                            return i + 1 - offset;
+                        }
+                        break;
+
+                    default:
+                        _fields[_fieldBytes++] = (byte) b;
+                        if(_fieldBytes == FIELD_BYTES)
+                        {
+                            double latitude = getInt(0) / DEGREE_SCALE;
+                            double longitude = getInt(4) / DEGREE_SCALE;
+                            double altitude = Float.intBitsToFloat(getInt(8));
+                            double distance = Float.intBitsToFloat(getInt(12));
+                            double speed = Float.intBitsToFloat(getInt(16));
+                            _listener.point(new Point(_time, latitude, longitude, altitude, distance, speed));
+                            _state = STATE_TAG;
+                        }
+                        break;
+                }
+            }
+            return -1;
+        }
+
+        private int getInt(int offset)
+        {
+            return (_fields[offset] << 24) | ((_fields[offset + 1] & 0xFF) << 16) | ((_fields[offset + 2] & 0xFF) << 8)
+                    | (_fields[offset + 3] & 0xFF);
+        }
+    }
+}
@@ -49,244 +49,261 @@ import javax.imageio.ImageIO;
  * <p>The files are written to the current running directory (if invoked
  * from the default install, the directory will be the Samples
  * directory of the RIM JDE installation)
+ * <p>All three images are drawn in a single pass over the points, with the
+ * scales taken from a {@link TrackSummary}.  Long tracks are reduced to at most
+ * a few lines per pixel column (or, for the route, per pixel moved), so the
+ * drawing cost depends on the image size rather than on the number of points.
  */
 public class SpeedAltitudePlot
 {	
-    static double highLatitude = -90.0;
-    static double lowLatitude = 90.0;
-    static double highLongitude = -180.0;
-    static double lowLongitude = 180.0;
-    static double totalDistance;
-    
-    private static final int PLOT_WIDTH = 1200;
+    /*package*/ static final int PLOT_WIDTH = 1200;
     private static final int PLOT_HEIGHT = 1200;        
 
-    public static void createCombinedChart(Collection c)
+    public static void createCombinedChart(Collection<Point> c)
+    {
+        TrackSummary summary = new TrackSummary();
+        Iterator<Point> it = c.iterator();
+        while(it.hasNext())
+        {
+            summary.add(it.next());
+        }
+        createCombinedChart(c, summary);
+    }
+
+    /**
+     * Draws the charts for points whose ranges and totals are already known
+     *
+     * @param c the points, in time order
+     * @param summary ranges and totals covering at least the points in <code>c</code>
+     */
+    static void createCombinedChart(Collection<Point> c, TrackSummary summary)
+    {
+        if(summary.count == 0)
+        {
+            return;
+        }
+
+        // As before, the top of each graph is never below zero
+        Graph speed = new Graph("Speed", summary.lowSpeed, Math.max(summary.highSpeed, 0), summary.totalDistance);
+        Graph altitude = new Graph("Altitude", summary.lowAltitude, Math.max(summary.highAltitude, 0), summary.totalDistance);
+        Route route = new Route(summary);
+
+        double distance = 0;
+        Iterator<Point> it = c.iterator();
+        while(it.hasNext())
+        {
+            Point p = it.next();
+            distance += p.distance;
+            speed.add(distance, p.speed);
+            altitude.add(distance, p.altitude);
+            route.add(p.longitude, p.latitude);
+        }
+
+        write(route.finish(), "Plot.jpg");
+        write(altitude.finish(), "Altitude.jpg");
+        write(speed.finish(), "Speed.jpg");
+    } 
+
+    private static void write(RenderedImage rendImage, String fileName)
     {
-        RenderedImage rendImage = drawPlot(c);
-        File file = new File("Plot.jpg");
         try {
-            ImageIO.write(rendImage, "jpg", file);
+            ImageIO.write(rendImage, "jpg", new File(fileName));
         } catch (IOException e) {
-        e.printStackTrace();
+            e.printStackTrace();
         }  
-    	
-	rendImage = drawAltitudeGraph(c);
-    	file = new File("Altitude.jpg");
-    	try {
-    	   ImageIO.write(rendImage, "jpg", file);
-    	} catch (IOException e) {
-    	   e.printStackTrace();
-    	}  
-        rendImage = drawSpeedGraph(c);
-    	file = new File("Speed.jpg");
-    	try {
-    	   ImageIO.write(rendImage, "jpg", file);
-    	} catch (IOException e) {
-    	   e.printStackTrace();
-    	} 	
-    } 
+    }
 
-    private static RenderedImage drawSpeedGraph(Collection c){
-	Iterator it=c.iterator();
-	double highSpeed=0;
-	double lowSpeed=Double.MAX_VALUE;
-	double totalDistance=0;
-	
-	// calculate the total distance covered
-	while(it.hasNext()){
-	   Point p = (Point)it.next();
-	   if (p.speed > highSpeed) highSpeed = p.speed;
-	   if (p.speed < lowSpeed) lowSpeed = p.speed;
-	   totalDistance += p.distance;
-	}	
-	BufferedImage bufferedImage = new BufferedImage(PLOT_WIDTH, PLOT_HEIGHT, BufferedImage.TYPE_INT_RGB);
-    
-	Graphics2D g2d = bufferedImage.createGraphics();
-	g2d.setColor(Color.white);
-	g2d.fillRect(0, 0, PLOT_WIDTH, PLOT_HEIGHT);
-	g2d.setColor(Color.black);
-	g2d.drawLine(150,150,150,PLOT_HEIGHT-150);
-	g2d.drawLine(150,PLOT_HEIGHT-150,PLOT_WIDTH-100,PLOT_HEIGHT-150);
-	double speedDiff=highSpeed-lowSpeed;
-	
-	// draw the labels on the y axis
-	for(int i=0;i<15;i++ ){
-	   double yLabelValue=lowSpeed+i*speedDiff/14;
-	   double y=(150+ (highSpeed-yLabelValue)*(PLOT_HEIGHT-400)/(speedDiff));
-	   yLabelValue=round(yLabelValue,1);
-	   g2d.drawString(String.valueOf(yLabelValue),50f,(float)y);	
-	}
-	
-// draw the labels on the x axis
-	for(int i=0;i<15;i++ ){
-	   double XLabelValue=i*totalDistance/14;
-	   int x=(int)(150+ XLabelValue*(PLOT_WIDTH-250)/totalDistance);
-	   XLabelValue= round(XLabelValue,1);
-	   g2d.drawString(String.valueOf(XLabelValue),(float)x,PLOT_HEIGHT-100);	
-	}
-	
-	it=c.iterator();
-	int previousX=0;
-	int previousY=0;
-	float distance=0;
-	while(it.hasNext()){
-	   Point p=(Point)it.next();
-	   distance+=p.distance;
-	   int newY=(int)(150+ (highSpeed-p.speed)*(PLOT_HEIGHT-400)/(speedDiff));
-	   int newX=(int)(150+ distance*(PLOT_WIDTH-250)/totalDistance);
-	   if(previousX!=0)g2d.drawLine(previousX,previousY,newX,newY);
-	   previousX=newX;
-	   previousY=newY;
-	}
-	g2d.setFont(new Font(null,Font.BOLD ,30));
-	g2d.drawString("Distance",300,PLOT_HEIGHT-50);
-	g2d.drawString("Speed",20,100);
-	g2d.dispose();
-    
-	return bufferedImage; 	
-	}
-	
-	
-    private static RenderedImage drawAltitudeGraph(Collection c){
-	Iterator it=c.iterator();
-	double highAltitude=0;
-	double lowAltitude=Double.MAX_VALUE;
-	double totalDistance=0;
-	// calculate the total distance
-	while(it.hasNext()){
-	   Point p = (Point)it.next();
-	   if (p.altitude > highAltitude) highAltitude = p.altitude;
-	   if (p.altitude < lowAltitude) lowAltitude = p.altitude;
-	   totalDistance += p.distance;
-	}	
-	BufferedImage bufferedImage = new BufferedImage(PLOT_WIDTH, PLOT_HEIGHT, BufferedImage.TYPE_INT_RGB);
-    
-	Graphics2D g2d = bufferedImage.createGraphics();
-	g2d.setColor(Color.white);
-	g2d.fillRect(0, 0, PLOT_WIDTH, PLOT_HEIGHT);
-	g2d.setColor(Color.black);
-	g2d.drawLine(150,150,150,PLOT_HEIGHT-150);
-	g2d.drawLine(150,PLOT_HEIGHT-150,PLOT_WIDTH-100,PLOT_HEIGHT-150);
+    private static double round(double d, int decimal) 
+    {
+        double powerOfTen = 1;
+        while (decimal-- > 0)
+        {
+            powerOfTen *= 10.0;
+        }
+        double d1 = d * powerOfTen;
+        int d1asint = (int)d1; //clip the decimal portion away and cache the cast, this is a costly transformation
+        double d2 = d1 - d1asint; //get the remainder of the double
+        //is the remainder > 0.5? if so, round up, otherwise round down (lump in .5 with > case for simplicity)
+        return ( d2 >= 0.5 ? (d1asint + 1)/powerOfTen : (d1asint)/powerOfTen);
+    }
 
-	double altitudeDiff=highAltitude-lowAltitude;
-	
-	// draw the labels on the y axis
-	for(int i=0;i<15;i++ ){
-	   double yLabelValue=lowAltitude+i*altitudeDiff/14;
-	   double y=(150+ (highAltitude-yLabelValue)*(PLOT_HEIGHT-400)/(altitudeDiff));
-	   yLabelValue=round(yLabelValue,1);
-	   g2d.drawString(String.valueOf(yLabelValue),50f,(float)y);	
-	}
-	
-	// draw the labels on the x axis
-	for(int i=0;i<15;i++ ){
-	   double XLabelValue=i*totalDistance/14;
-	   int x=(int)(150+ XLabelValue*(PLOT_WIDTH-250)/totalDistance);
-	   XLabelValue= round(XLabelValue,1);
-	   g2d.drawString(String.valueOf(XLabelValue),(float)x,PLOT_HEIGHT-100);	
-	}
-	
-	it=c.iterator();
+    /**
+     * A value against distance graph.  For each pixel column only the first,
+     * last, lowest and highest points are kept; drawing a vertical line
+     * between the extremes and joining each column's last point to the next
+     * column's first gives the same picture as drawing every segment.
+     */
+    private static final class Graph
+    {
+        private static final int LEFT = 150;
+        private static final int TOP = 150;
+        private static final int WIDTH = PLOT_WIDTH - 250;
+        private static final int HEIGHT = PLOT_HEIGHT - 400;
 
-	int previousX=0;
-	int previousY=0;
-	float distance=0;
-	while(it.hasNext()){
-	   Point p=(Point)it.next();
-	   distance+=p.distance;
-	   int newY=(int)(150+ (highAltitude-p.altitude)*(PLOT_HEIGHT-400)/(altitudeDiff));
-	   int newX=(int)(150+ distance*(PLOT_WIDTH-250)/totalDistance);
-	   if(previousX!=0)g2d.drawLine(previousX,previousY,newX,newY);
-	   previousX=newX;
-	   previousY=newY;
-	}
-	g2d.setFont(new Font(null,Font.BOLD ,30));
-	g2d.drawString("Distance",300,PLOT_HEIGHT-50);
-	g2d.drawString("Altitude",20,100);
-	
-	g2d.dispose();
-    
-	return bufferedImage;	
-    }    
-    
-    private static double round(double d, int decimal) 
-	{
-	   double powerOfTen = 1;
-	   while (decimal-- > 0)
-	   {
-		powerOfTen *= 10.0;
-	   }
-	   double d1 = d * powerOfTen;
-	   int d1asint = (int)d1; //clip the decimal portion away and cache the cast, this is a costly transformation
-	   double d2 = d1 - d1asint; //get the remainder of the double
-		//is the remainder > 0.5? if so, round up, otherwise round down (lump in .5 with > case for simplicity)
-	   return ( d2 >= 0.5 ? (d1asint + 1)/powerOfTen : (d1asint)/powerOfTen);
-	}
-	
-    private static RenderedImage drawPlot(Collection c)
+        private final String _title;
+        private final double _low;
+        private final double _high;
+        private final double _totalDistance;
+
+        private final int[] _first = new int[WIDTH + 1];
+        private final int[] _last = new int[WIDTH + 1];
+        private final int[] _min = new int[WIDTH + 1];
+        private final int[] _max = new int[WIDTH + 1];
+        private final boolean[] _used = new boolean[WIDTH + 1];
+
+        Graph(String title, double low, double high, double totalDistance)
+        {
+            _title = title;
+            _low = low;
+            _high = high;
+            _totalDistance = totalDistance;
+        }
+
+        void add(double distance, double value)
+        {
+            int column = (int)(distance * WIDTH / _totalDistance);
+            if(column < 0 || column > WIDTH)
+            {
+                return; // NaN, or beyond the distance in the summary
+            }
+            int y = (int)(TOP + (_high - value) * HEIGHT / (_high - _low));
+            if(!_used[column])
+            {
+                _used[column] = true;
+                _first[column] = y;
+                _min[column] = y;
+                _max[column] = y;
+            }
+            else
+            {
+                _min[column] = Math.min(_min[column], y);
+                _max[column] = Math.max(_max[column], y);
+            }
+            _last[column] = y;
+        }
+
+        RenderedImage finish()
+        {
+            BufferedImage bufferedImage = new BufferedImage(PLOT_WIDTH, PLOT_HEIGHT, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = bufferedImage.createGraphics();
+            g2d.setColor(Color.white);
+            g2d.fillRect(0, 0, PLOT_WIDTH, PLOT_HEIGHT);
+            g2d.setColor(Color.black);
+            g2d.drawLine(LEFT, TOP, LEFT, PLOT_HEIGHT-150);
+            g2d.drawLine(LEFT, PLOT_HEIGHT-150, PLOT_WIDTH-100, PLOT_HEIGHT-150);
+
+            double diff = _high - _low;
+
+            // draw the labels on the y axis
+            for(int i=0;i<15;i++ ){
+                double yLabelValue=_low+i*diff/14;
+                double y=(TOP+ (_high-yLabelValue)*HEIGHT/diff);
+                yLabelValue=round(yLabelValue,1);
+                g2d.drawString(String.valueOf(yLabelValue),50f,(float)y);	
+            }
+
+            // draw the labels on the x axis
+            for(int i=0;i<15;i++ ){
+                double XLabelValue=i*_totalDistance/14;
+                int x=(int)(LEFT+ XLabelValue*WIDTH/_totalDistance);
+                XLabelValue= round(XLabelValue,1);
+                g2d.drawString(String.valueOf(XLabelValue),(float)x,PLOT_HEIGHT-100);	
+            }
+
+            int previousColumn = -1;
+            for(int column = 0; column <= WIDTH; ++column)
+            {
+                if(!_used[column])
+                {
+                    continue;
+                }
+                int x = LEFT + column;
+                if(previousColumn >= 0)
+                {
+                    g2d.drawLine(LEFT + previousColumn, _last[previousColumn], x, _first[column]);
+                }
+                if(_min[column] != _max[column])
+                {
+                    g2d.drawLine(x, _min[column], x, _max[column]);
+                }
+                previousColumn = column;
+            }
+
+            g2d.setFont(new Font(null,Font.BOLD ,30));
+            g2d.drawString("Distance",300,PLOT_HEIGHT-50);
+            g2d.drawString(_title,20,100);
+            g2d.dispose();
+
+            return bufferedImage;
+        }
+    }
+
+    /**
+     * An overhead plot of the route.  Lines are drawn as the points arrive,
+     * but a point is skipped until the route has moved to a different pixel.
+     */
+    private static final class Route
     {
-	Iterator it=c.iterator();
-	totalDistance=0;
-	while(it.hasNext()){
-	   Point p = (Point)it.next();
-	   totalDistance += p.distance;
-	   if (p.latitude > highLatitude) highLatitude = p.latitude;
-	   if (p.latitude < lowLatitude) lowLatitude = p.latitude;
-	   if (p.longitude > highLongitude) highLongitude = p.longitude;
-	   if (p.longitude < lowLongitude) lowLongitude = p.longitude;
-	}    	
-    	
-        double lonDiff = highLongitude - lowLongitude;
-        double latDiff = highLatitude - lowLatitude;
-        if (lonDiff > latDiff) latDiff = lonDiff;
-        else lonDiff = latDiff;
-    	
-        double x;
-        double y;
-        double oldX = -200;
-        double oldY = -200;
-    	
-        int x1;
-        int y1;
-        int oldX1;
-        int oldY1;    	
-    
-        BufferedImage bufferedImage = new BufferedImage(PLOT_WIDTH, PLOT_HEIGHT, BufferedImage.TYPE_INT_RGB);
-    
-        Graphics2D g2d = bufferedImage.createGraphics();
-    
-    	// Draw graphics
-        g2d.setColor(Color.white);
-        g2d.fillRect(0, 0, PLOT_WIDTH, PLOT_HEIGHT);
-        g2d.setColor(Color.black);
-        g2d.setFont(new Font(null,Font.BOLD ,40));
-        g2d.drawString("Path", PLOT_WIDTH/2-50, PLOT_HEIGHT-50);
-        g2d.drawString("N", 75, PLOT_HEIGHT-125);
-        g2d.drawString("S", 75, PLOT_HEIGHT-20);
-        g2d.drawString("E", 135, PLOT_HEIGHT-75);
-        g2d.drawString("W", 5, PLOT_HEIGHT-75);
-        
-        it = c.iterator();
-        while (it.hasNext()) 
+        private final double _lowLatitude;
+        private final double _lowLongitude;
+        private final double _lonDiff;
+        private final double _latDiff;
+        private final BufferedImage _bufferedImage;
+        private final Graphics2D _g2d;
+
+        private boolean _started;
+        private int _oldX1;
+        private int _oldY1;
+
+        Route(TrackSummary summary)
+        {
+            _lowLatitude = summary.lowLatitude;
+            _lowLongitude = summary.lowLongitude;
+
+            // Use the same scale in both directions
+            double lonDiff = summary.highLongitude - summary.lowLongitude;
+            double latDiff = summary.highLatitude - summary.lowLatitude;
+            if (lonDiff > latDiff) latDiff = lonDiff;
+            else lonDiff = latDiff;
+            _lonDiff = lonDiff;
+            _latDiff = latDiff;
+
+            _bufferedImage = new BufferedImage(PLOT_WIDTH, PLOT_HEIGHT, BufferedImage.TYPE_INT_RGB);
+            _g2d = _bufferedImage.createGraphics();
+
+            // Draw graphics
+            _g2d.setColor(Color.white);
+            _g2d.fillRect(0, 0, PLOT_WIDTH, PLOT_HEIGHT);
+            _g2d.setColor(Color.black);
+            _g2d.setFont(new Font(null,Font.BOLD ,40));
+            _g2d.drawString("Path", PLOT_WIDTH/2-50, PLOT_HEIGHT-50);
+            _g2d.drawString("N", 75, PLOT_HEIGHT-125);
+            _g2d.drawString("S", 75, PLOT_HEIGHT-20);
+            _g2d.drawString("E", 135, PLOT_HEIGHT-75);
+            _g2d.drawString("W", 5, PLOT_HEIGHT-75);
+        }
+
+        void add(double longitude, double latitude)
         {
-            Point p = (Point)it.next();
-            x = p.longitude;
-            y = p.latitude;
-            if(oldX > -200 && oldY > -200){
-            	x1 = (int)((x - lowLongitude) * PLOT_WIDTH/lonDiff);
-            	y1 = PLOT_HEIGHT - (int)((y - lowLatitude) * PLOT_HEIGHT/latDiff);
-            	oldX1 = (int)((oldX - lowLongitude) * PLOT_WIDTH/lonDiff);
-            	oldY1 = PLOT_HEIGHT - (int)((oldY - lowLatitude) * PLOT_HEIGHT/latDiff);
-            	g2d.drawLine(x1, y1, oldX1, oldY1);
+            int x1 = (int)((longitude - _lowLongitude) * PLOT_WIDTH/_lonDiff);
+            int y1 = PLOT_HEIGHT - (int)((latitude - _lowLatitude) * PLOT_HEIGHT/_latDiff);
+            if(_started && (x1 != _oldX1 || y1 != _oldY1))
+            {
+                _g2d.drawLine(x1, y1, _oldX1, _oldY1);
+            }
+            if(!_started || x1 != _oldX1 || y1 != _oldY1)
+            {
+                _started = true;
+                _oldX1 = x1;
+                _oldY1 = y1;
             }
-            oldX = x;
-            oldY = y;        
         }
-        
-        // Graphics context no longer needed so dispose it
-    	g2d.dispose();
-    
-    	return bufferedImage;    	
-    }    
+
+        RenderedImage finish()
+        {
+            // Graphics context no longer needed so dispose it
+            _g2d.dispose();
+            return _bufferedImage;
+        }
+    }
 }
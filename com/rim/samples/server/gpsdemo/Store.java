@@ -30,83 +30,148 @@ import java.io.*;
 import java.util.*;
 
 /**
- * Store save the gps information sent by the device to a file for drawing the graphs and plots
- * The file is called data.txt and lives in the working directory, typically SDK/samples.
+ * <p>Store saves the gps information sent by the device for drawing the graphs and plots.
+ * <p>Points are kept in a {@link TrackLog} in the <code>track</code> directory
+ * of the working directory, typically SDK/samples.  A <code>data.txt</code>
+ * file left by earlier versions of this sample is imported the first time
+ * the log is opened.
+ * <p>The log can be tuned with system properties:
+ * <table>
+ * <tr><td>gps.store</td><td>directory holding the log (default track)</td></tr>
+ * <tr><td>gps.segmentRecords</td><td>points per segment file (default 262144)</td></tr>
+ * <tr><td>gps.fsyncInterval</td><td>milliseconds between forced writes, 0 to leave it to the OS (default 20)</td></tr>
+ * </table>
+ * <p>All methods may be called from any number of threads.
  */
 public class Store {
     
-    private final String _filename = "data.txt";
-    /*package*/ TreeMap _map; //referenced by GPSServer
+    private final String _legacyFilename = "data.txt";
+    private final TrackLog _log;
     
-    public Store()
+    public Store() throws IOException
     {
-    	_map = new TreeMap();
-    	loadData();
+        long start = System.currentTimeMillis();
+        _log = new TrackLog(new File(System.getProperty("gps.store", "track")),
+            Integer.getInteger("gps.segmentRecords", 262144).intValue(),
+            Long.getLong("gps.fsyncInterval", 20).longValue());
+        if(_log.size() == 0)
+        {
+            importData();
+        }
+        System.out.println("Store opened with " + _log.size() + " points in " + (System.currentTimeMillis() - start) + "ms");
     }
 	
-    private void loadData()
+    /**
+     * Copies the points from a text file written by earlier versions of this sample
+     */
+    private void importData() throws IOException
     {
-    	long time = 0;
-    	double latitude = 0.0;
-    	double longitude = 0.0;
-    	double altitude = 0.0;
-    	double distance = 0.0;
-    	double speed = 0.0;
-    	    	
+    	File file = new File(_legacyFilename);
+    	if(!file.exists())
+    	{
+    	    return;
+    	}
+    	
+    	long sequence = 0;
+    	int imported = 0;
+    	BufferedReader in = new BufferedReader(new FileReader(file));
     	try {
-            BufferedReader in = new BufferedReader(new FileReader(_filename));
             String str;
             while ((str = in.readLine()) != null) 
             {
             	StringTokenizer tokenizer = new StringTokenizer(str,";");
-            	longitude = Double.parseDouble(tokenizer.nextToken());
-            	latitude = Double.parseDouble(tokenizer.nextToken());
-            	altitude = Double.parseDouble(tokenizer.nextToken());
-            	distance = Double.parseDouble(tokenizer.nextToken());
-            	speed = Double.parseDouble(tokenizer.nextToken());
-            	time = Long.parseLong(tokenizer.nextToken());
-            	_map.put(new Long(time), new Point(time, latitude, longitude, altitude, distance, speed));
+            	double longitude = Double.parseDouble(tokenizer.nextToken());
+            	double latitude = Double.parseDouble(tokenizer.nextToken());
+            	double altitude = Double.parseDouble(tokenizer.nextToken());
+            	double distance = Double.parseDouble(tokenizer.nextToken());
+            	double speed = Double.parseDouble(tokenizer.nextToken());
+            	long time = Long.parseLong(tokenizer.nextToken());
+            	sequence = _log.append(new Point(time, latitude, longitude, altitude, distance, speed));
+            	++imported;
             }            
+    	} finally {
             in.close();
-    	} catch (IOException e) {
-    		System.err.println(e);
     	}
+    	awaitDurable(sequence);
+    	System.out.println("Store imported " + imported + " points from " + _legacyFilename);
     }
 	
-    public void save(Vector points){
-
+    /**
+     * Adds a point.  A later point with the same time replaces it.
+     * 
+     * @return a sequence number to pass to {@link #awaitDurable(long)}
+     */
+    public long add(Point p) throws IOException
+    {
+    	return _log.append(p);
+    }
+    
+    /**
+     * Waits until the point added with the given sequence number, and every
+     * point added before it, is safely on disk
+     */
+    public void awaitDurable(long sequence) throws IOException
+    {
     	try {
-            PrintWriter out = new PrintWriter(new FileOutputStream(_filename, true));
-            Iterator it = points.iterator();
-            while(it.hasNext())
-            {
-            	out.println((String)it.next()); 
-            }            
-            out.close();
-    	} catch (IOException e) {
-            System.err.println(e);
+            _log.awaitDurable(sequence);
+    	} catch (InterruptedException e) {
+            throw new InterruptedIOException();
     	}
     }
-}
-	
-/**
- * A simple class for dealing with a single location
- */    
-/*package*/ class Point{
-    long time;
-    double latitude;
-    double longitude;
-    double altitude;
-    double distance;
-    double speed;
     
-    public Point(long time, double latitude, double longitude, double altitude, double distance, double speed)
+    /**
+     * @return ranges and totals over every point stored so far
+     */
+    TrackSummary summary()
+    {
+    	return _log.summary();
+    }
+    
+    /**
+     * @return a live view of every point, ordered by time
+     */
+    public Collection<Point> points()
+    {
+    	return range(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+    
+    /**
+     * @return a live view of the points with <code>from &lt;= time &lt; to</code>, ordered by time
+     */
+    public Collection<Point> range(final long from, final long to)
+    {
+    	return new AbstractCollection<Point>() {
+            public Iterator<Point> iterator()
+            {
+            	return _log.iterator(from, to);
+            }
+            
+            public int size()
+            {
+            	int size = 0;
+            	for(Iterator<Point> it = iterator(); it.hasNext(); it.next())
+            	{
+                    ++size;
+            	}
+            	return size;
+            }
+    	};
+    }
+    
+    /**
+     * @return at most <code>slices + 1</code> points spread over the track, as
+     * described in {@link TrackLog#sample(int)}
+     */
+    List<Point> sample(int slices)
+    {
+    	return _log.sample(slices);
+    }
+    
+    /**
+     * Flushes and closes the log
+     */
+    public void close() throws IOException
     {
-    	this.time = time;
-    	this.latitude = latitude;
-    	this.longitude = longitude;
-    	this.altitude = altitude;
-    	this.distance = distance;
-    	this.speed = speed;    				
+    	_log.close();
     }
 }
@@ -0,0 +1,1015 @@
+/**
+ * TrackLog.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.gpsdemo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+/**
+ * <p>An append-only, segmented binary log of GPS points.
+ * <p>Points are written as fixed-width records, each followed by a CRC, to
+ * the active segment file.  When a segment fills up it is sealed: a sorted
+ * time index is written beside it and both files are memory-mapped read-only.
+ * On startup the sealed segments are only mapped, never parsed, and just the
+ * active segment is read (and truncated after the last intact record).  A
+ * file is never deleted or truncated while it is mapped, which Windows does
+ * not allow.
+ * <p>Points in the active segment are also kept in a
+ * {@link ConcurrentSkipListMap} keyed by time, which any number of worker
+ * threads can update and read without further locking.
+ * <p>Each index also records a {@link TrackSummary} of its segment, so the
+ * summary of the whole log is available at startup after one pass over the
+ * index times to take out points written to more than one segment, and a
+ * running total of distance, so {@link #sample(int)} can thin out a long
+ * log without reading every point.
+ * <p>Appends are ordered by a single lock but are not forced to disk one at
+ * a time.  A flusher thread forces the active segment every few milliseconds,
+ * so concurrent uploads share one fsync; {@link #awaitDurable(long)} blocks
+ * until a given append has been forced.
+ */
+/*package*/ final class TrackLog
+{
+    private static final int SEGMENT_MAGIC = 0x47505331; // "GPS1"
+    private static final int INDEX_MAGIC = 0x47505832; // "GPX2"
+    private static final int HEADER_SIZE = 8;
+    /** Records read at a time when recovering the active segment */
+    private static final int RECOVER_RECORDS = 4096;
+
+    /** time, latitude, longitude, altitude, distance, speed, CRC32 */
+    /*package*/ static final int RECORD_SIZE = 8 + 5 * 8 + 4;
+    /** time, ordinal, distance of this and every earlier entry */
+    private static final int INDEX_ENTRY_SIZE = 8 + 4 + 8;
+    /** magic, entry count, then a {@link TrackSummary} of the segment */
+    private static final int INDEX_HEADER_SIZE = 8 + TrackSummary.SIZE;
+
+    private final File _directory;
+    private final int _segmentRecords;
+    private final long _fsyncMillis;
+
+    // Everything a reader needs, replaced as a whole when a segment is sealed
+    private volatile View _view;
+
+    // Guarded by this
+    private final ByteBuffer _record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 _crc = new CRC32();
+    private FileChannel _active;
+    private int _activeId;
+    private int _activeCount;
+    private long _appended;
+    private TrackSummary _summary; // over the same points as iterator()
+
+    // Guarded by _durableLock
+    private final Object _durableLock = new Object();
+    private long _durable;
+    private IOException _flushFailure;
+
+    private Thread _flusher;
+    private volatile boolean _closed;
+
+    /**
+     * Opens (or creates) the log in <code>directory</code>
+     *
+     * @param segmentRecords number of records per segment
+     * @param fsyncMillis group commit interval; 0 or less leaves flushing to the operating system
+     * @throws IOException if the log cannot be opened
+     */
+    TrackLog(File directory, int segmentRecords, long fsyncMillis) throws IOException
+    {
+        if(segmentRecords <= 0 || (long) segmentRecords * RECORD_SIZE + HEADER_SIZE > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("segmentRecords: " + segmentRecords);
+        }
+        _directory = directory;
+        _segmentRecords = segmentRecords;
+        _fsyncMillis = fsyncMillis;
+
+        if(!_directory.isDirectory() && !_directory.mkdirs())
+        {
+            throw new IOException("Cannot create " + _directory);
+        }
+        open();
+
+        if(_fsyncMillis > 0)
+        {
+            _flusher = new Thread("gps-log-flusher")
+            {
+                public void run()
+                {
+                    flushLoop();
+                }
+            };
+            _flusher.setDaemon(true);
+            _flusher.start();
+        }
+    }
+
+    /**
+     * Appends a point
+     *
+     * @return a sequence number to pass to {@link #awaitDurable(long)}
+     * @throws IOException if the record cannot be written
+     */
+    synchronized long append(Point p) throws IOException
+    {
+        if(_closed)
+        {
+            throw new ClosedChannelException();
+        }
+        if(_activeCount >= _segmentRecords)
+        {
+            roll();
+        }
+
+        encode(p, _record, _crc);
+        _record.flip();
+        while(_record.hasRemaining())
+        {
+            _active.write(_record);
+        }
+        ++_activeCount;
+        View view = _view;
+        Point previous = view.live.put(Long.valueOf(p.time), p);
+        _summary.add(p);
+        if(previous == null)
+        {
+            previous = newestSealed(view, p.time);
+        }
+        if(previous != null)
+        {
+            _summary.remove(previous);
+        }
+        return ++_appended;
+    }
+
+    /**
+     * Blocks until every append up to and including <code>sequence</code> has
+     * been forced to disk
+     *
+     * @throws IOException if the flush failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void awaitDurable(long sequence) throws IOException, InterruptedException
+    {
+        if(_flusher == null)
+        {
+            return;
+        }
+        synchronized(_durableLock)
+        {
+            while(_durable < sequence && _flushFailure == null && !_closed)
+            {
+                _durableLock.wait();
+            }
+            if(_flushFailure != null)
+            {
+                throw _flushFailure;
+            }
+        }
+    }
+
+    /**
+     * @return every point with <code>from &lt;= time &lt; to</code>, in time
+     * order; a point recorded more than once is returned once, as last written
+     */
+    Iterator<Point> iterator(long from, long to)
+    {
+        return new MergeIterator(_view, from, to);
+    }
+
+    /**
+     * Thins the log out for drawing.  The time from the first point to the
+     * last is cut into <code>slices</code> equal slices, and the first point
+     * of each slice is returned along with the very last point.  The
+     * distance of each point returned is replaced by the distance covered
+     * since the previous one, read from the running totals in the sealed
+     * indexes rather than from the points in between.  A point written to
+     * more than one segment is counted in each of them, so the distances
+     * are scaled to add up to the total in {@link #summary()}.
+     * <p>The cost depends on the number of slices and segments and on the
+     * size of the active segment, not on the length of the log.
+     *
+     * @return the sampled points, in time order
+     */
+    List<Point> sample(int slices)
+    {
+        View view = _view;
+        TrackSummary summary = summary();
+        List<Point> samples = new ArrayList<Point>();
+
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        double total = 0;
+        for(int i = 0; i < view.sealed.length; ++i)
+        {
+            Segment segment = view.sealed[i];
+            if(segment.count > 0)
+            {
+                first = Math.min(first, segment.timeAt(0));
+                last = Math.max(last, segment.timeAt(segment.count - 1));
+                total += segment.distanceBefore(segment.count);
+            }
+        }
+        for(Iterator<Point> it = view.live.values().iterator(); it.hasNext();)
+        {
+            Point p = it.next();
+            first = Math.min(first, p.time);
+            last = Math.max(last, p.time);
+            total += p.distance;
+        }
+        if(first > last)
+        {
+            return samples;
+        }
+        double scale = total > 0 ? summary.totalDistance / total : 0;
+
+        // The live points are few enough to walk once alongside the samples
+        Iterator<Point> live = view.live.values().iterator();
+        Point nextLive = live.hasNext() ? live.next() : null;
+        double liveDistance = 0;
+        double covered = 0;
+        double span = (double) last - first;
+        for(int i = 0; i <= slices; ++i)
+        {
+            // The extra slice holds only the last point
+            long from = i < slices ? first + (long) (span * i / slices) : last;
+            long to = i < slices - 1 ? first + (long) (span * (i + 1) / slices) : last;
+            MergeIterator merge = new MergeIterator(view, from, i < slices ? to : Long.MAX_VALUE);
+            if(!merge.hasNext())
+            {
+                continue;
+            }
+            Point p = merge.next();
+            if(!samples.isEmpty() && samples.get(samples.size() - 1).time == p.time)
+            {
+                continue;
+            }
+
+            double through = 0;
+            for(int j = 0; j < view.sealed.length; ++j)
+            {
+                Segment segment = view.sealed[j];
+                through += segment.distanceBefore(segment.upperBound(p.time));
+            }
+            while(nextLive != null && nextLive.time <= p.time)
+            {
+                liveDistance += nextLive.distance;
+                nextLive = live.hasNext() ? live.next() : null;
+            }
+            through += liveDistance;
+
+            samples.add(new Point(p.time, p.latitude, p.longitude, p.altitude, (through - covered) * scale, p.speed));
+            covered = through;
+        }
+        return samples;
+    }
+
+    /**
+     * @return ranges and totals over every point, kept up to date as points
+     * are appended
+     */
+    synchronized TrackSummary summary()
+    {
+        return _summary.copy();
+    }
+
+    /**
+     * @return number of distinct points in each segment, summed; a point
+     * written to more than one segment is counted once per segment
+     */
+    long size()
+    {
+        View view = _view;
+        long size = view.live.size();
+        for(int i = 0; i < view.sealed.length; ++i)
+        {
+            size += view.sealed[i].count;
+        }
+        return size;
+    }
+
+    /**
+     * Forces outstanding records to disk and closes the active segment
+     */
+    void close() throws IOException
+    {
+        synchronized(this)
+        {
+            if(_closed)
+            {
+                return;
+            }
+            _closed = true;
+            _active.force(false);
+            _active.close();
+        }
+        synchronized(_durableLock)
+        {
+            _durable = _appended;
+            _durableLock.notifyAll();
+        }
+        if(_flusher != null)
+        {
+            _flusher.interrupt();
+        }
+    }
+
+    /**
+     * Maps the sealed segments and recovers the active one
+     */
+    private void open() throws IOException
+    {
+        TrackSummary summary = new TrackSummary();
+        List<Segment> sealed = new ArrayList<Segment>();
+        int[] ids = segmentIds();
+        for(int i = 0; i < ids.length - 1; ++i)
+        {
+            Segment segment = Segment.open(segmentFile(ids[i]), indexFile(ids[i]));
+            summary.add(segment.summary);
+            sealed.add(segment);
+        }
+
+        _activeId = ids.length > 0 ? ids[ids.length - 1] : 0;
+        ConcurrentSkipListMap<Long, Point> live = new ConcurrentSkipListMap<Long, Point>();
+        _active = recover(segmentFile(_activeId), live);
+        _activeCount = (int) ((_active.position() - HEADER_SIZE) / RECORD_SIZE);
+        for(Iterator<Point> it = live.values().iterator(); it.hasNext();)
+        {
+            summary.add(it.next());
+        }
+        _view = new View(sealed.toArray(new Segment[sealed.size()]), live);
+
+        // Each segment was summed on its own; take out the older copies of
+        // points that appear in more than one
+        MergeIterator merge = new MergeIterator(_view, Long.MIN_VALUE, Long.MAX_VALUE);
+        merge.replaced = summary;
+        while(merge.hasNext())
+        {
+            merge.skip();
+        }
+        _summary = summary;
+    }
+
+    /**
+     * @return the newest sealed copy of the point at <code>time</code>, or
+     * null if no sealed segment has one
+     */
+    private static Point newestSealed(View view, long time)
+    {
+        for(int i = view.sealed.length - 1; i >= 0; --i)
+        {
+            Segment segment = view.sealed[i];
+            int entry = segment.lowerBound(time);
+            if(entry < segment.count && segment.timeAt(entry) == time)
+            {
+                return segment.pointAt(entry);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens the active segment for appending, dropping any torn or corrupt
+     * records at its end and loading the rest into <code>live</code>
+     */
+    private static FileChannel recover(File file, ConcurrentSkipListMap<Long, Point> live) throws IOException
+    {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        long size = channel.size();
+        if(size < HEADER_SIZE)
+        {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(SEGMENT_MAGIC).putInt(RECORD_SIZE).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.force(false);
+            channel.position(HEADER_SIZE);
+            return channel;
+        }
+
+        // Read rather than mapped, so the file can be truncated afterwards
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        checkHeader(header, SEGMENT_MAGIC, RECORD_SIZE, file);
+        ByteBuffer buffer = ByteBuffer.allocate(RECOVER_RECORDS * RECORD_SIZE);
+        CRC32 crc = new CRC32();
+        long position = HEADER_SIZE;
+        scan:
+        while(position + RECORD_SIZE <= size)
+        {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), (size - position) / RECORD_SIZE * RECORD_SIZE));
+            readFully(channel, buffer, position);
+            for(int offset = 0; offset < buffer.limit(); offset += RECORD_SIZE)
+            {
+                if(!verify(buffer, offset, crc))
+                {
+                    break scan;
+                }
+                Point p = decode(buffer, offset);
+                live.put(Long.valueOf(p.time), p);
+                position += RECORD_SIZE;
+            }
+        }
+        if(position < size)
+        {
+            System.out.println("GPS log: discarding " + (size - position) + " bytes after the last intact record in " + file);
+            channel.truncate(position);
+            channel.force(false);
+        }
+        channel.position(position);
+        return channel;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            if(channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Seals the full active segment and starts a new one.  Called with the lock held.
+     * The full segment stays open until its successor exists, so a failure
+     * leaves the log unchanged and the next append tries again.
+     */
+    private void roll() throws IOException
+    {
+        _active.force(false);
+
+        Segment segment = Segment.seal(segmentFile(_activeId), indexFile(_activeId));
+        View view = _view;
+        Segment[] sealed = Arrays.copyOf(view.sealed, view.sealed.length + 1);
+        sealed[view.sealed.length] = segment;
+
+        ConcurrentSkipListMap<Long, Point> live = new ConcurrentSkipListMap<Long, Point>();
+        FileChannel next = recover(segmentFile(_activeId + 1), live);
+        FileChannel full = _active;
+
+        ++_activeId;
+        _active = next;
+        _activeCount = 0;
+        _view = new View(sealed, live);
+        full.close();
+    }
+
+    /**
+     * Forces the active segment at most once per interval while appends are pending
+     */
+    private void flushLoop()
+    {
+        while(!_closed)
+        {
+            try
+            {
+                Thread.sleep(_fsyncMillis);
+            }
+            catch(InterruptedException e)
+            {
+                continue;
+            }
+
+            long target;
+            FileChannel channel;
+            synchronized(this)
+            {
+                target = _appended;
+                channel = _active;
+            }
+            synchronized(_durableLock)
+            {
+                if(target == _durable)
+                {
+                    continue;
+                }
+            }
+
+            IOException failure = null;
+            try
+            {
+                channel.force(false);
+            }
+            catch(ClosedChannelException e)
+            {
+                // The segment was sealed, which forced it, after target was read
+            }
+            catch(IOException e)
+            {
+                failure = e;
+            }
+
+            synchronized(_durableLock)
+            {
+                if(failure != null)
+                {
+                    _flushFailure = failure;
+                }
+                else
+                {
+                    _durable = Math.max(_durable, target);
+                }
+                _durableLock.notifyAll();
+            }
+        }
+    }
+
+    private int[] segmentIds()
+    {
+        String[] names = _directory.list();
+        int[] ids = new int[names.length];
+        int count = 0;
+        for(int i = 0; i < names.length; ++i)
+        {
+            if(names[i].startsWith("segment-") && names[i].endsWith(".log"))
+            {
+                try
+                {
+                    ids[count++] = Integer.parseInt(names[i].substring(8, names[i].length() - 4));
+                }
+                catch(NumberFormatException e)
+                {
+                    // Not one of ours
+                }
+            }
+        }
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private File segmentFile(int id)
+    {
+        return new File(_directory, "segment-" + pad(id) + ".log");
+    }
+
+    private File indexFile(int id)
+    {
+        return new File(_directory, "segment-" + pad(id) + ".idx");
+    }
+
+    private static String pad(int id)
+    {
+        String s = Integer.toString(id);
+        return "00000000".substring(s.length()) + s;
+    }
+
+    private static void checkHeader(ByteBuffer buffer, int magic, int entrySize, File file) throws IOException
+    {
+        if(buffer.getInt(0) != magic || buffer.getInt(4) != entrySize)
+        {
+            throw new IOException("Not a GPS log file: " + file);
+        }
+    }
+
+    private static void encode(Point p, ByteBuffer record, CRC32 crc)
+    {
+        record.clear();
+        record.putLong(p.time);
+        record.putDouble(p.latitude);
+        record.putDouble(p.longitude);
+        record.putDouble(p.altitude);
+        record.putDouble(p.distance);
+        record.putDouble(p.speed);
+        crc.reset();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        record.putInt((int) crc.getValue());
+    }
+
+    private static boolean verify(ByteBuffer buffer, int position, CRC32 crc)
+    {
+        ByteBuffer record = buffer.duplicate();
+        record.limit(position + RECORD_SIZE - 4).position(position);
+        crc.reset();
+        crc.update(record);
+        return buffer.getInt(position + RECORD_SIZE - 4) == (int) crc.getValue();
+    }
+
+    private static Point decode(ByteBuffer buffer, int position)
+    {
+        return new Point(buffer.getLong(position), buffer.getDouble(position + 8), buffer.getDouble(position + 16),
+                buffer.getDouble(position + 24), buffer.getDouble(position + 32), buffer.getDouble(position + 40));
+    }
+
+    /**
+     * The sealed segments and the live map that together make up the log at one moment
+     */
+    private static final class View
+    {
+        final Segment[] sealed;
+        final ConcurrentSkipListMap<Long, Point> live;
+
+        View(Segment[] sealed, ConcurrentSkipListMap<Long, Point> live)
+        {
+            this.sealed = sealed;
+            this.live = live;
+        }
+    }
+
+    /**
+     * A full, read-only segment and its time index, both memory-mapped
+     */
+    private static final class Segment
+    {
+        final MappedByteBuffer log;
+        final MappedByteBuffer index;
+        final int count; // distinct times in the index
+        final TrackSummary summary;
+
+        private Segment(MappedByteBuffer log, MappedByteBuffer index)
+        {
+            this.log = log;
+            this.index = index;
+            this.count = index.getInt(4);
+            this.summary = TrackSummary.read(index, 8);
+        }
+
+        /**
+         * Maps a sealed segment, rebuilding its index if a crash interrupted sealing
+         */
+        static Segment open(File logFile, File indexFile) throws IOException
+        {
+            if(!indexFile.exists())
+            {
+                return seal(logFile, indexFile);
+            }
+            // The index is checked with a plain read so that a bad one can be
+            // replaced by seal(), which cannot delete a mapped file on Windows
+            ByteBuffer header = ByteBuffer.allocate(8);
+            long length;
+            RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+            try
+            {
+                length = raf.length();
+                if(length >= header.capacity())
+                {
+                    readFully(raf.getChannel(), header, 0);
+                }
+            }
+            finally
+            {
+                raf.close();
+            }
+            if(length < INDEX_HEADER_SIZE || header.getInt(0) != INDEX_MAGIC
+                    || length != INDEX_HEADER_SIZE + (long) header.getInt(4) * INDEX_ENTRY_SIZE)
+            {
+                return seal(logFile, indexFile);
+            }
+            MappedByteBuffer log = map(logFile);
+            checkHeader(log, SEGMENT_MAGIC, RECORD_SIZE, logFile);
+            return new Segment(log, map(indexFile));
+        }
+
+        /**
+         * Writes the time index for a complete segment file and maps both.
+         * The index lists each distinct time once, pointing at the last
+         * record written with that time.  The index is only mapped once it
+         * has been renamed into place.
+         */
+        static Segment seal(File logFile, File indexFile) throws IOException
+        {
+            MappedByteBuffer log = map(logFile);
+            checkHeader(log, SEGMENT_MAGIC, RECORD_SIZE, logFile);
+            final int records = (log.capacity() - HEADER_SIZE) / RECORD_SIZE;
+            final long[] times = new long[records];
+            boolean sorted = true;
+            for(int i = 0; i < records; ++i)
+            {
+                times[i] = log.getLong(HEADER_SIZE + i * RECORD_SIZE);
+                sorted &= i == 0 || times[i - 1] <= times[i];
+            }
+
+            // Points usually arrive in time order, in which case no sort is needed
+            Integer[] order = new Integer[records];
+            for(int i = 0; i < records; ++i)
+            {
+                order[i] = Integer.valueOf(i);
+            }
+            if(!sorted)
+            {
+                Arrays.sort(order, new Comparator<Integer>()
+                {
+                    public int compare(Integer a, Integer b)
+                    {
+                        long ta = times[a.intValue()];
+                        long tb = times[b.intValue()];
+                        return ta < tb ? -1 : ta > tb ? 1 : a.compareTo(b);
+                    }
+                });
+            }
+
+            ByteBuffer index = ByteBuffer.allocate(INDEX_HEADER_SIZE + records * INDEX_ENTRY_SIZE);
+            index.position(INDEX_HEADER_SIZE);
+            TrackSummary summary = new TrackSummary();
+            int count = 0;
+            for(int i = 0; i < records; ++i)
+            {
+                int ordinal = order[i].intValue();
+                if(i + 1 < records && times[order[i + 1].intValue()] == times[ordinal])
+                {
+                    continue; // a later record has the same time
+                }
+                summary.add(decode(log, HEADER_SIZE + ordinal * RECORD_SIZE));
+                index.putLong(times[ordinal]).putInt(ordinal).putDouble(summary.totalDistance);
+                ++count;
+            }
+            index.putInt(0, INDEX_MAGIC).putInt(4, count);
+            summary.write(index, 8);
+            index.flip();
+
+            File temp = new File(indexFile.getPath() + ".tmp");
+            RandomAccessFile file = new RandomAccessFile(temp, "rw");
+            try
+            {
+                FileChannel channel = file.getChannel();
+                channel.truncate(0);
+                while(index.hasRemaining())
+                {
+                    channel.write(index);
+                }
+                channel.force(true);
+            }
+            finally
+            {
+                file.close();
+            }
+            if(indexFile.exists() && !indexFile.delete() || !temp.renameTo(indexFile))
+            {
+                throw new IOException("Cannot replace " + indexFile);
+            }
+            return new Segment(log, map(indexFile));
+        }
+
+        private static MappedByteBuffer map(File file) throws IOException
+        {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try
+            {
+                return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+
+        long timeAt(int entry)
+        {
+            return index.getLong(INDEX_HEADER_SIZE + entry * INDEX_ENTRY_SIZE);
+        }
+
+        Point pointAt(int entry)
+        {
+            int ordinal = index.getInt(INDEX_HEADER_SIZE + entry * INDEX_ENTRY_SIZE + 8);
+            return decode(log, HEADER_SIZE + ordinal * RECORD_SIZE);
+        }
+
+        /**
+         * @return the distance of the index entries before <code>entry</code>
+         */
+        double distanceBefore(int entry)
+        {
+            return entry == 0 ? 0 : index.getDouble(INDEX_HEADER_SIZE + (entry - 1) * INDEX_ENTRY_SIZE + 12);
+        }
+
+        /**
+         * @return the first index entry whose time is after <code>time</code>
+         */
+        int upperBound(long time)
+        {
+            int entry = lowerBound(time);
+            return entry < count && timeAt(entry) == time ? entry + 1 : entry;
+        }
+
+        /**
+         * @return the first index entry whose time is at least <code>time</code>
+         */
+        int lowerBound(long time)
+        {
+            int low = 0;
+            int high = count;
+            while(low < high)
+            {
+                int mid = (low + high) >>> 1;
+                if(timeAt(mid) < time)
+                {
+                    low = mid + 1;
+                }
+                else
+                {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * One time-ordered source of points being merged
+     */
+    private static abstract class Cursor
+    {
+        final int age; // larger is newer
+        long time;
+
+        Cursor(int age)
+        {
+            this.age = age;
+        }
+
+        /**
+         * Moves to the next point, updating <code>time</code>
+         *
+         * @return false once the source is exhausted
+         */
+        abstract boolean advance();
+
+        abstract Point current();
+    }
+
+    private static final class SegmentCursor extends Cursor
+    {
+        private final Segment _segment;
+        private final long _to;
+        private int _entry;
+
+        SegmentCursor(Segment segment, int age, long from, long to)
+        {
+            super(age);
+            _segment = segment;
+            _to = to;
+            _entry = segment.lowerBound(from) - 1;
+        }
+
+        boolean advance()
+        {
+            if(++_entry >= _segment.count)
+            {
+                return false;
+            }
+            time = _segment.timeAt(_entry);
+            return time < _to;
+        }
+
+        Point current()
+        {
+            return _segment.pointAt(_entry);
+        }
+    }
+
+    private static final class LiveCursor extends Cursor
+    {
+        private final Iterator<Point> _points;
+        private Point _current;
+
+        LiveCursor(ConcurrentSkipListMap<Long, Point> live, int age, long from, long to)
+        {
+            super(age);
+            _points = live.subMap(Long.valueOf(from), Long.valueOf(to)).values().iterator();
+        }
+
+        boolean advance()
+        {
+            if(!_points.hasNext())
+            {
+                return false;
+            }
+            _current = _points.next();
+            time = _current.time;
+            return true;
+        }
+
+        Point current()
+        {
+            return _current;
+        }
+    }
+
+    /**
+     * Merges the segments of one view in time order, keeping the newest of equal times
+     */
+    private static final class MergeIterator implements Iterator<Point>
+    {
+        private final PriorityQueue<Cursor> _queue;
+
+        /** If set, older copies of a point are taken out of this summary as they are passed over */
+        TrackSummary replaced;
+
+        MergeIterator(View view, long from, long to)
+        {
+            _queue = new PriorityQueue<Cursor>(view.sealed.length + 1, new Comparator<Cursor>()
+            {
+                public int compare(Cursor a, Cursor b)
+                {
+                    if(a.time != b.time)
+                    {
+                        return a.time < b.time ? -1 : 1;
+                    }
+                    return b.age - a.age;
+                }
+            });
+            for(int i = 0; i < view.sealed.length; ++i)
+            {
+                add(new SegmentCursor(view.sealed[i], i, from, to));
+            }
+            add(new LiveCursor(view.live, view.sealed.length, from, to));
+        }
+
+        private void add(Cursor cursor)
+        {
+            if(cursor.advance())
+            {
+                _queue.add(cursor);
+            }
+        }
+
+        public boolean hasNext()
+        {
+            return !_queue.isEmpty();
+        }
+
+        public Point next()
+        {
+            Cursor head = _queue.poll();
+            if(head == null)
+            {
+                throw new NoSuchElementException();
+            }
+            Point p = head.current();
+            skipOlder(head);
+            return p;
+        }
+
+        /**
+         * Moves past the next point without reading it
+         */
+        void skip()
+        {
+            Cursor head = _queue.poll();
+            if(head == null)
+            {
+                throw new NoSuchElementException();
+            }
+            skipOlder(head);
+        }
+
+        private void skipOlder(Cursor head)
+        {
+            while(!_queue.isEmpty() && _queue.peek().time == head.time)
+            {
+                Cursor older = _queue.poll(); // an older copy of the same point
+                if(replaced != null)
+                {
+                    replaced.remove(older.current());
+                }
+                add(older);
+            }
+            add(head);
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * TrackSummary.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.gpsdemo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Running totals and ranges over a set of points, enough to lay out the
+ * charts drawn by {@link SpeedAltitudePlot} without a separate pass over the
+ * points.
+ * <p>When a point is replaced by a later one with the same time its distance
+ * is taken off the total, but the ranges are left as they were, so they are
+ * bounds rather than exact extremes.
+ * <p>This class is not thread safe.
+ */
+/*package*/ final class TrackSummary
+{
+    /** Bytes taken by {@link #write(ByteBuffer, int)} */
+    static final int SIZE = 10 * 8;
+
+    long count;
+    double totalDistance;
+    double lowLatitude = Double.POSITIVE_INFINITY;
+    double highLatitude = Double.NEGATIVE_INFINITY;
+    double lowLongitude = Double.POSITIVE_INFINITY;
+    double highLongitude = Double.NEGATIVE_INFINITY;
+    double lowAltitude = Double.POSITIVE_INFINITY;
+    double highAltitude = Double.NEGATIVE_INFINITY;
+    double lowSpeed = Double.POSITIVE_INFINITY;
+    double highSpeed = Double.NEGATIVE_INFINITY;
+
+    void add(Point p)
+    {
+        ++count;
+        totalDistance += p.distance;
+        lowLatitude = Math.min(lowLatitude, p.latitude);
+        highLatitude = Math.max(highLatitude, p.latitude);
+        lowLongitude = Math.min(lowLongitude, p.longitude);
+        highLongitude = Math.max(highLongitude, p.longitude);
+        lowAltitude = Math.min(lowAltitude, p.altitude);
+        highAltitude = Math.max(highAltitude, p.altitude);
+        lowSpeed = Math.min(lowSpeed, p.speed);
+        highSpeed = Math.max(highSpeed, p.speed);
+    }
+
+    /**
+     * Takes out a point that has been replaced
+     */
+    void remove(Point p)
+    {
+        --count;
+        totalDistance -= p.distance;
+    }
+
+    void add(TrackSummary other)
+    {
+        count += other.count;
+        totalDistance += other.totalDistance;
+        lowLatitude = Math.min(lowLatitude, other.lowLatitude);
+        highLatitude = Math.max(highLatitude, other.highLatitude);
+        lowLongitude = Math.min(lowLongitude, other.lowLongitude);
+        highLongitude = Math.max(highLongitude, other.highLongitude);
+        lowAltitude = Math.min(lowAltitude, other.lowAltitude);
+        highAltitude = Math.max(highAltitude, other.highAltitude);
+        lowSpeed = Math.min(lowSpeed, other.lowSpeed);
+        highSpeed = Math.max(highSpeed, other.highSpeed);
+    }
+
+    TrackSummary copy()
+    {
+        TrackSummary copy = new TrackSummary();
+        copy.add(this);
+        return copy;
+    }
+
+    void write(ByteBuffer buffer, int offset)
+    {
+        buffer.putLong(offset, count);
+        buffer.putDouble(offset + 8, totalDistance);
+        buffer.putDouble(offset + 16, lowLatitude);
+        buffer.putDouble(offset + 24, highLatitude);
+        buffer.putDouble(offset + 32, lowLongitude);
+        buffer.putDouble(offset + 40, highLongitude);
+        buffer.putDouble(offset + 48, lowAltitude);
+        buffer.putDouble(offset + 56, highAltitude);
+        buffer.putDouble(offset + 64, lowSpeed);
+        buffer.putDouble(offset + 72, highSpeed);
+    }
+
+    static TrackSummary read(ByteBuffer buffer, int offset)
+    {
+        TrackSummary summary = new TrackSummary();
+        summary.count = buffer.getLong(offset);
+        summary.totalDistance = buffer.getDouble(offset + 8);
+        summary.lowLatitude = buffer.getDouble(offset + 16);
+        summary.highLatitude = buffer.getDouble(offset + 24);
+        summary.lowLongitude = buffer.getDouble(offset + 32);
+        summary.highLongitude = buffer.getDouble(offset + 40);
+        summary.lowAltitude = buffer.getDouble(offset + 48);
+        summary.highAltitude = buffer.getDouble(offset + 56);
+        summary.lowSpeed = buffer.getDouble(offset + 64);
+        summary.highSpeed = buffer.getDouble(offset + 72);
+        return summary;
+    }
+}
@@ -34,6 +34,10 @@ import java.net.*;
 import java.util.*;
 import java.awt.Color;
 
+import com.rim.samples.server.common.PapTemplate;
+import com.rim.samples.server.common.PushDispatcher;
+import com.rim.samples.server.common.PushNotificationCollector;
+
 /**
  * <p>The HTTPPushDemo class provides a simple PUSH server sample.
  * <p>This program will send text to a listening device. The associated client demo
@@ -44,6 +48,19 @@ import java.awt.Color;
  *
  * <p> The general form of the URL for posting (pushing) data to the device is:
  * http://&lt;host&gt;:&lt;port&gt;/push?DESTINATION=&lt;device pin&gt;&amp;PORT=&lt;device_port&gt;&REQUESTURI=&lt;post uri&gt;
+ *
+ * <p>Result notifications from MDS are received by a {@link PushNotificationCollector},
+ * which matches them to the pushes sent; see that class for the port and reporting properties.
+ *
+ * <p>To push one message to many devices without the UI:
+ * <pre>
+ *    java com.rim.samples.server.httppushdemo.HTTPPushDemo bulk &lt;recipients file&gt; [rim|pap] [message]
+ * </pre>
+ * The recipients file holds one PIN per line.  The pushes are sent by a
+ * {@link PushDispatcher}, configured by its <code>push.*</code> system properties,
+ * and the outcome for each PIN is written to <code>&lt;recipients file&gt;.results.csv</code>.
+ * Result notifications are then awaited for up to <code>push.notifyWait</code>
+ * milliseconds (default 30000) and the delivery totals printed.
  */
 public class HTTPPushDemo extends javax.swing.JFrame {
 
@@ -52,11 +69,14 @@ public class HTTPPushDemo extends javax.swing.JFrame {
     private static final String DEVICE_PIN = "2100000A";
     private static final String DEVICE_PORT = "100";
     private static final int MDS_PORT = 8080;
+    private static final String NOTIFY_URL = "http://localhost:7778";
+    private static final String PAP_TEMPLATE_FILE = "com/rim/samples/server/httppushdemo/pap_push.txt";
+    private static final String BOUNDARY = "asdlfkjiurwghasf";
 
-    private String requestTemplate;
-    private String notifyURL="http://localhost:7778";
+    private PapTemplate requestTemplate;
+    private String notifyURL=NOTIFY_URL;
     private Random random= new Random();
-    private Thread notificationThread;
+    private PushNotificationCollector notificationCollector;
 
     //statics -------------------------------------------------------------------
     private static ResourceBundle _resources = java.util.ResourceBundle.getBundle(RESOURCE_PATH);
@@ -71,10 +91,20 @@ public class HTTPPushDemo extends javax.swing.JFrame {
         //sizing code for the main frame
         setSize(_panel.getWidth(), _panel.getHeight());
         setLocation(100,100);
-        notificationThread= new NotificationThread();
+        notificationCollector = PushNotificationCollector.fromSystemProperties();
+        notificationCollector.setListener(new PushNotificationCollector.Listener() {
+            public void notified(final PushNotificationCollector.Notification notification) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        _notification.setText("Received notification:\n");
+                        _notification.append(notification.toString());
+                    }
+                });
+            }
+        });
     }
 
-    private URL getPushURL(String DevicePin)
+    private static URL getPushURL(String DevicePin)
     {
         /**
          * The format of the URL is:
@@ -175,10 +205,17 @@ public class HTTPPushDemo extends javax.swing.JFrame {
     private void sendButtonMouseClicked(java.awt.event.MouseEvent evt) 
     {//GEN-FIRST:event_sendButtonMouseClicked
 
-        String text =_textArea.getText();
+        final String text =_textArea.getText();
+        final String pin = _pinField.getText();
+        final boolean rim = _rimButton.isSelected();
 
-        if(_rimButton.isSelected()) postData(text);
-        else if(_papButton.isSelected()) papPush(text);
+        // Keep the network round trip off the event dispatch thread
+        new Thread("push") {
+            public void run() {
+                if(rim) postData(text, pin);
+                else papPush(text, pin);
+            }
+        }.start();
 
     }//GEN-LAST:event_sendButtonMouseClicked
 
@@ -189,15 +226,17 @@ public class HTTPPushDemo extends javax.swing.JFrame {
     * param data the data to post
     *
     */
-    private void postData(String data)
+    private void postData(String data, String pin)
     {
 
         String pushId="pushID:"+random.nextInt();
 
         setupNotifyThread();
+        notificationCollector.expect(pushId, pin);
         
+        boolean accepted = false;
         try {
-            URL url = getPushURL(_pinField.getText());
+            URL url = getPushURL(pin);
             System.out.println(_resources.getString("HTTPPushDemo.status.sendingToString") + url.toString());
 
             //open the connection using the static member...
@@ -216,6 +255,7 @@ public class HTTPPushDemo extends javax.swing.JFrame {
             out.write(data.getBytes());
             out.close();
             InputStream ins =conn.getInputStream();
+            accepted = conn.getResponseCode() / 100 == 2;
             int contentLength =conn.getContentLength();
             System.out.println( _resources.getString("HTTPPushDemo.status.contentLengthDescription")+ contentLength);
             if (contentLength > 0)
@@ -230,6 +270,11 @@ public class HTTPPushDemo extends javax.swing.JFrame {
 
         } catch (IOException e) {
             System.err.println(e);
+        } finally {
+            if (!accepted) {
+                //no result notification will come for a push that was not accepted
+                notificationCollector.cancel(pushId);
+            }
         }
     }
 
@@ -239,31 +284,70 @@ public class HTTPPushDemo extends javax.swing.JFrame {
     {
 
         try {
-            String papFilename =  "com/rim/samples/server/httppushdemo/pap_push.txt";
-                InputStream ins = new BufferedInputStream(new FileInputStream(papFilename));            
-            ByteArrayOutputStream bouts = new ByteArrayOutputStream();
-            copyStreams(ins, bouts);
-            this.requestTemplate = new String(bouts.toByteArray());
+            if (requestTemplate == null) {
+                requestTemplate = PapTemplate.load(PAP_TEMPLATE_FILE);
+            }
         } catch (Exception exception) {
             exception.printStackTrace();
         }
     }
+
+    /**
+     * @return the values for the parts of the PAP template that are the same for every recipient
+     */
+    private static Map<String, String> papValues(String notifyURL, String data)
+    {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("boundary", BOUNDARY);
+        values.put("notifyURL", notifyURL);
+        values.put("deliveryMethod", "application-level");
+        values.put("headers", "Content-Type: text/plain");
+        values.put("content", data);
+        return values;
+    }
+
+    /**
+     * Fills in the per-recipient parts of a bound PAP template
+     */
+    private static byte[] renderPap(PapTemplate template, String pushId, String pin)
+    {
+        String[] names = template.getVariables();
+        String[] values = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            if ("pushid".equals(names[i])) {
+                values[i] = pushId;
+            } else if ("pin".equals(names[i])) {
+                values[i] = pin;
+            } else {
+                throw new IllegalArgumentException("No value for $(" + names[i] + ")");
+            }
+        }
+        return template.render(values);
+    }
+
+    private static void setPapHeaders(HttpURLConnection conn)
+    {
+        conn.setRequestProperty("Content-Type", "multipart/related; type=\"application/xml\"; boundary=" + BOUNDARY);
+        conn.setRequestProperty("X-Wap-Application-Id", "/");
+        conn.setRequestProperty("X-Rim-Push-Dest-Port", DEVICE_PORT);
+    }
     
     private void setupNotifyThread()
     {
-        if( !notificationThread.isAlive() )
-        {
-            notificationThread = new NotificationThread();
-            notificationThread.start(); 
+        try {
+            notificationCollector.start();
+        } catch (IOException e) {
+            System.err.println("Unable to listen for notifications: " + e);
         }
     }   
 
 
-    private void papPush(String data)
+    private void papPush(String data, String pin)
     {
         String pushId="pushID:"+random.nextInt();
         
         setupNotifyThread();
+        notificationCollector.expect(pushId, pin);
         
         readPapTemplate();
         try {
@@ -273,38 +357,19 @@ public class HTTPPushDemo extends javax.swing.JFrame {
 
             HttpURLConnection mdsConn = (HttpURLConnection)mdsUrl.openConnection();
 
-            String boundary = "";
-            boundary = "asdlfkjiurwghasf";
-            mdsConn.setRequestProperty("Content-Type", "multipart/related; type=\"application/xml\"; boundary=" + boundary);
-            mdsConn.setRequestProperty("X-Wap-Application-Id", "/");
-            mdsConn.setRequestProperty("X-Rim-Push-Dest-Port","100");
+            setPapHeaders(mdsConn);
             mdsConn.setRequestMethod("POST");
 
             mdsConn.setAllowUserInteraction(false);
             mdsConn.setDoInput(true);
             mdsConn.setDoOutput(true);
 
-            String output = requestTemplate.replaceAll("\\$\\(pushid\\)", pushId);
-            output = output.replaceAll("\\$\\(boundary\\)", boundary);
-            output = output.replaceAll("\\$\\(notifyURL\\)", "" + notifyURL);
-            output = output.replaceAll("\\$\\(pin\\)", "" + _pinField.getText());
+            byte[] output = renderPap(requestTemplate.bind(papValues(notifyURL, data)), pushId, pin);
 
-            String   deliveryMethod = "application-level";
-
-            output = output.replaceAll("\\$\\(deliveryMethod\\)", deliveryMethod);
-
-
-            output = output.replaceAll("\\$\\(headers\\)", "Content-Type: text/plain");
-            output = output.replaceAll("\\$\\(content\\)", data);
-
-            output = output.replaceAll("\r\n", "EOL");
-            output = output.replaceAll("\n", "EOL");
-            output = output.replaceAll("EOL", "\r\n");
-
-
-            System.out.println(output);
+            System.out.println(new String(output, "UTF-8"));
             OutputStream outs = mdsConn.getOutputStream();
-            copyStreams(new ByteArrayInputStream(output.getBytes()), outs);
+            outs.write(output);
+            outs.close();
 
             mdsConn.connect();
 
@@ -319,6 +384,8 @@ public class HTTPPushDemo extends javax.swing.JFrame {
 
         } catch (Exception exception) {
             System.out.println(" encountered error on submission: " + exception.toString());
+            //no result notification will come for a push that was not accepted
+            notificationCollector.cancel(pushId);
         }
     }
 
@@ -344,8 +411,64 @@ public class HTTPPushDemo extends javax.swing.JFrame {
     /**
     * @param args the command line arguments
     */
-    public static void main (String args[]) {
-        new HTTPPushDemo().setVisible(true);
+    public static void main (String args[]) throws Exception {
+        if (args.length >= 2 && "bulk".equals(args[0])) {
+            bulkPush(args[1], args.length > 2 ? args[2] : "rim", args.length > 3 ? args[3] : "Hello from HTTPPushDemo");
+        } else {
+            new HTTPPushDemo().setVisible(true);
+        }
+    }
+
+    /**
+     * Pushes one message to every PIN in a file
+     */
+    private static void bulkPush(String recipientsFile, String mode, final String data) throws Exception
+    {
+        List<String> pins = PushDispatcher.readRecipients(recipientsFile);
+        PushDispatcher.RequestFactory factory;
+        if ("pap".equals(mode)) {
+            // Everything but the push id and PIN is fixed, so fold it in once
+            final PapTemplate template = PapTemplate.load(PAP_TEMPLATE_FILE).bind(papValues(NOTIFY_URL, data));
+            final URL papURL = new URL("http", "localhost", MDS_PORT, "/pap");
+            factory = new PushDispatcher.RequestFactory() {
+                public PushDispatcher.PushRequest create(String pin, String pushId) {
+                    return new PushDispatcher.PushRequest(papURL, renderPap(template, pushId, pin))
+                            .setHeader("Content-Type", "multipart/related; type=\"application/xml\"; boundary=" + BOUNDARY)
+                            .setHeader("X-Wap-Application-Id", "/")
+                            .setHeader("X-Rim-Push-Dest-Port", DEVICE_PORT)
+                            .expectPapResponse();
+                }
+            };
+        } else if ("rim".equals(mode)) {
+            final byte[] body = data.getBytes("UTF-8");
+            factory = new PushDispatcher.RequestFactory() {
+                public PushDispatcher.PushRequest create(String pin, String pushId) {
+                    return new PushDispatcher.PushRequest(getPushURL(pin), body)
+                            .setHeader("X-RIM-PUSH-ID", pushId)
+                            .setHeader("X-RIM-Push-NotifyURL", NOTIFY_URL);
+                }
+            };
+        } else {
+            throw new IllegalArgumentException("Unknown push mode: " + mode);
+        }
+
+        PushNotificationCollector collector = PushNotificationCollector.fromSystemProperties();
+        collector.start();
+        PushDispatcher dispatcher = PushDispatcher.fromSystemProperties();
+        dispatcher.setNotificationCollector(collector);
+
+        List<PushDispatcher.PushResult> results = dispatcher.dispatch(pins, factory,
+                "pushID:" + System.currentTimeMillis() + ":");
+        String resultsFile = recipientsFile + ".results.csv";
+        PushDispatcher.writeResults(results, resultsFile);
+        System.out.println("Results written to " + resultsFile);
+
+        if (!collector.awaitOutstanding(Long.getLong("push.notifyWait", 30000).longValue())) {
+            System.out.println("Gave up waiting for result notifications");
+        }
+        System.out.println("Notifications: " + collector.getMetrics());
+        collector.stop();
+        System.exit(0);
     }
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
@@ -361,41 +484,4 @@ public class HTTPPushDemo extends javax.swing.JFrame {
 
     // End of variables declaration//GEN-END:variables
 
-    public class NotificationThread extends Thread {
-
-        public void run() 
-        {
-            try {
-                System.out.println("Waiting for notification on port " + 7778 + "...");
-                while (true)
-                {
-                    ServerSocket serverSocket = new ServerSocket(7778);
-                    serverSocket.setSoTimeout(120000);
-                    try {
-                        Socket clientSocket = serverSocket.accept();
-                        _notification.setText("Received notification:");
-                        InputStream input = clientSocket.getInputStream();
-                        StringBuffer str= new StringBuffer();
-                        int byteRead = input.read();
-                        while ((byteRead != -1) && (input.available() > 0))
-                        {
-                            str.append((char)byteRead);
-                            byteRead = input.read();
-                        }
-                        _notification.append(str.toString());
-                        PrintWriter output = new PrintWriter(clientSocket.getOutputStream());
-                        output.close();
-                        clientSocket.close();
-                    } catch (SocketTimeoutException ste) {
-                        System.out.println("Notification connection timeout. Restarting...");
-                    }               
-                    serverSocket.close();
-                }
-            } catch (Exception exception) {
-                exception.printStackTrace();
-            }
-
-        }
-    }
-
 }
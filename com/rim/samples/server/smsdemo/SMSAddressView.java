@@ -0,0 +1,96 @@
+/**
+ * SMSAddressView.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.smsdemo;
+
+/**
+ * A flyweight view of one SMS address segment inside a packet buffer.
+ * Unlike SMSServer's SMSAddress it never copies the packet: a single
+ * instance is re-pointed at each packet with {@link #wrap(byte[], int)} and
+ * reads or rewrites the address in place.
+ */
+/*package*/ final class SMSAddressView
+{
+    private static final int INDEX_LENGTH = 4;
+    private static final int INDEX_START_OF_ADDRESS = 8;
+    private static final int MAX_ADDRESS_LENGTH = SMSServer.SIZE_OF_ADDRESS - INDEX_START_OF_ADDRESS;
+
+    private byte[] _data;
+    private int _offset;
+
+    /**
+     * Points this view at the address segment starting at <code>offset</code>
+     *
+     * @return this view, for chaining
+     */
+    SMSAddressView wrap(byte[] data, int offset)
+    {
+        _data = data;
+        _offset = offset;
+        return this;
+    }
+
+    /**
+     * @return number of address bytes, clamped to the size of the segment
+     */
+    int getLength()
+    {
+        return Math.min(_data[_offset + INDEX_LENGTH] & 0xFF, MAX_ADDRESS_LENGTH);
+    }
+
+    /**
+     * Appends the address digits, formatted as SMSServer does, without creating a String
+     */
+    void appendAddress(StringBuilder sb)
+    {
+        int start = _offset + INDEX_START_OF_ADDRESS;
+        int length = getLength();
+        for(int i = 0; i < length; ++i)
+        {
+            sb.append(_data[start + i]);
+        }
+    }
+
+    /**
+     * Swaps the addresses held by two views in place
+     */
+    static void swap(SMSAddressView a, SMSAddressView b)
+    {
+        int length = Math.max(a.getLength(), b.getLength());
+
+        swapByte(a._data, a._offset + INDEX_LENGTH, b._data, b._offset + INDEX_LENGTH);
+        for(int i = 0; i < length; ++i)
+        {
+            swapByte(a._data, a._offset + INDEX_START_OF_ADDRESS + i, b._data, b._offset + INDEX_START_OF_ADDRESS + i);
+        }
+    }
+
+    private static void swapByte(byte[] a, int i, byte[] b, int j)
+    {
+        byte t = a[i];
+        a[i] = b[j];
+        b[j] = t;
+    }
+}
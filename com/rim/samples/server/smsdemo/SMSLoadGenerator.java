@@ -0,0 +1,224 @@
+/**
+ * SMSLoadGenerator.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.smsdemo;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Floods {@link SMSServer} with SMS datagrams and counts the replies.
+ * <p>To run:
+ * <pre>
+ *    java com.rim.samples.server.smsdemo.SMSLoadGenerator [host] [seconds] [rate] [capture file]
+ * </pre>
+ * <p>A rate of 0 sends as fast as possible.  Packets are replayed from a file
+ * written by the relay's <code>sms.capture</code> option when one is given,
+ * otherwise a single synthetic message is sent repeatedly.  Messages/sec sent
+ * and received are printed every second.
+ */
+public class SMSLoadGenerator
+{
+    private static final String SOURCE = "5551234";
+    private static final String DESTINATION = "5559876";
+    private static final String PAYLOAD = "Load test message";
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final int rate = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        final List<byte[]> packets = args.length > 3 ? readCapture(args[3]) : syntheticPackets();
+        if(packets.isEmpty())
+        {
+            System.err.println("No packets to send");
+            return;
+        }
+
+        final DatagramChannel channel = DatagramChannel.open();
+        channel.connect(new InetSocketAddress(host, SMSServer.SMSPORT));
+        channel.socket().setSoTimeout(1000);
+
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong received = new AtomicLong();
+        final long end = System.nanoTime() + seconds * 1000000000L;
+
+        System.out.println("Sending " + packets.size() + " distinct packets to " + host + ":" + SMSServer.SMSPORT + " for "
+                + seconds + "s at " + (rate > 0 ? rate + " msg/s" : "full speed"));
+
+        Thread sender = new Thread("sms-sender")
+        {
+            public void run()
+            {
+                ByteBuffer[] buffers = new ByteBuffer[packets.size()];
+                for(int i = 0; i < buffers.length; ++i)
+                {
+                    buffers[i] = ByteBuffer.wrap(packets.get(i));
+                }
+                long interval = rate > 0 ? 1000000000L / rate : 0;
+                long next = System.nanoTime();
+                int index = 0;
+
+                try
+                {
+                    while(System.nanoTime() < end)
+                    {
+                        if(interval > 0)
+                        {
+                            long wait = next - System.nanoTime();
+                            if(wait > 0)
+                            {
+                                LockSupport.parkNanos(wait);
+                            }
+                            next += interval;
+                        }
+                        ByteBuffer buffer = buffers[index];
+                        buffer.clear();
+                        channel.write(buffer);
+                        sent.incrementAndGet();
+                        index = (index + 1) % buffers.length;
+                    }
+                }
+                catch(IOException e)
+                {
+                    System.err.println(e);
+                }
+            }
+        };
+
+        Thread receiver = new Thread("sms-receiver")
+        {
+            public void run()
+            {
+                // The blocking socket view honours SO_TIMEOUT so the thread can notice the end of the run
+                byte[] data = new byte[SMSServer.MAX_SMSPACKET_SIZE];
+                DatagramPacket packet = new DatagramPacket(data, data.length);
+                while(System.nanoTime() < end + 1000000000L)
+                {
+                    try
+                    {
+                        packet.setLength(data.length);
+                        channel.socket().receive(packet);
+                        received.incrementAndGet();
+                    }
+                    catch(SocketTimeoutException e)
+                    {
+                        if(System.nanoTime() >= end)
+                        {
+                            break;
+                        }
+                    }
+                    catch(IOException e)
+                    {
+                        // ICMP port unreachable surfaces here while the server is down
+                    }
+                }
+            }
+        };
+
+        sender.start();
+        receiver.start();
+
+        long totalSent = 0;
+        long totalReceived = 0;
+        while(sender.isAlive() || receiver.isAlive())
+        {
+            receiver.join(1000);
+            long s = sent.getAndSet(0);
+            long r = received.getAndSet(0);
+            totalSent += s;
+            totalReceived += r;
+            System.out.println("[client] sent " + s + " msg/s, received " + r + " msg/s");
+        }
+
+        channel.close();
+        System.out.println("Sent " + totalSent + ", received " + totalReceived + " ("
+                + (totalSent == 0 ? 0 : totalReceived * 100 / totalSent) + "%) in " + seconds + "s");
+    }
+
+    /**
+     * Reads packets recorded by the relay: each is an int length followed by that many bytes
+     */
+    private static List<byte[]> readCapture(String fileName) throws IOException
+    {
+        List<byte[]> packets = new ArrayList<byte[]>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+        try
+        {
+            for(;;)
+            {
+                byte[] packet = new byte[in.readInt()];
+                in.readFully(packet);
+                packets.add(packet);
+            }
+        }
+        catch(EOFException e)
+        {
+            // End of capture
+        }
+        finally
+        {
+            in.close();
+        }
+        return packets;
+    }
+
+    /**
+     * Builds a packet laid out the way the device sends them
+     */
+    private static List<byte[]> syntheticPackets()
+    {
+        byte[] packet = new byte[SMSServer.MAX_SMSPACKET_SIZE];
+        putAddress(packet, 0, SOURCE);
+        putAddress(packet, SMSServer.ADDRESS_SEGMENT_LENGTH, DESTINATION);
+        byte[] payload = PAYLOAD.getBytes();
+        System.arraycopy(payload, 0, packet, SMSServer.PAYLOAD_INDEX, payload.length);
+
+        List<byte[]> packets = new ArrayList<byte[]>();
+        packets.add(packet);
+        return packets;
+    }
+
+    private static void putAddress(byte[] packet, int offset, String digits)
+    {
+        packet[offset + 4] = (byte) digits.length();
+        for(int i = 0; i < digits.length(); ++i)
+        {
+            packet[offset + 8 + i] = (byte) (digits.charAt(i) - '0');
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/**
+ * SMSRelay.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.smsdemo;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.rim.samples.server.common.LatencyHistogram;
+
+/**
+ * <p>A high-throughput version of the SMS loopback server.
+ * <p>Messages flow through three stages, each on its own thread and connected
+ * by {@link SpscRingBuffer}s:
+ * <ol>
+ * <li>receive - reads datagrams into buffers from a preallocated pool
+ * <li>parse - swaps the source and destination addresses in place through
+ *     {@link SMSAddressView} flyweights
+ * <li>reply - drains the parsed messages in batches, sends them back and
+ *     returns their buffers to the pool
+ * </ol>
+ * <p>Nothing is allocated per message unless logging or capture is turned on.
+ * Unlike the classic server, the destination address is written back into its
+ * own segment (offset 60) rather than just after the source segment.
+ * <p>The relay can be tuned with system properties:
+ * <table>
+ * <tr><td>sms.buffers</td><td>preallocated message buffers (default 1024)</td></tr>
+ * <tr><td>sms.batch</td><td>largest batch sent by the reply stage (default 64)</td></tr>
+ * <tr><td>sms.log</td><td>print every message (default false)</td></tr>
+ * <tr><td>sms.capture</td><td>file to record received packets to, for {@link SMSLoadGenerator} (default none)</td></tr>
+ * <tr><td>sms.captureCount</td><td>number of packets to capture (default 1000)</td></tr>
+ * <tr><td>sms.reportPeriod</td><td>milliseconds between messages/sec reports, 0 for none (default 5000)</td></tr>
+ * </table>
+ */
+/*package*/ final class SMSRelay implements Runnable
+{
+    private static final int SPINS_BEFORE_PARK = 100;
+    private static final long PARK_NANOS = 50000;
+
+    private final int _batchSize;
+    private final boolean _log;
+    private final String _captureFile;
+    private final int _captureCount;
+    private final long _reportPeriod;
+
+    private final SpscRingBuffer<Message> _free;
+    private final SpscRingBuffer<Message> _parsed;
+    private final SpscRingBuffer<Message> _received;
+
+    private final AtomicLong _receivedCount = new AtomicLong();
+    private final AtomicLong _sentCount = new AtomicLong();
+    private final AtomicLong _batchCount = new AtomicLong();
+    private final AtomicLong _droppedNoBuffer = new AtomicLong();
+    private final AtomicLong _malformed = new AtomicLong();
+    private final LatencyHistogram _latency = new LatencyHistogram();
+    private long _intervalStart;
+
+    private volatile boolean _stop;
+    private DatagramChannel _channel;
+
+    SMSRelay()
+    {
+        int buffers = Integer.getInteger("sms.buffers", 1024).intValue();
+        _batchSize = Integer.getInteger("sms.batch", 64).intValue();
+        _log = Boolean.getBoolean("sms.log");
+        _captureFile = System.getProperty("sms.capture");
+        _captureCount = Integer.getInteger("sms.captureCount", 1000).intValue();
+        _reportPeriod = Long.getLong("sms.reportPeriod", 5000).longValue();
+
+        // Every queue can hold every buffer, so a stage never blocks on a full queue
+        _free = new SpscRingBuffer<Message>(buffers);
+        _received = new SpscRingBuffer<Message>(buffers);
+        _parsed = new SpscRingBuffer<Message>(buffers);
+        for(int i = 0; i < buffers; ++i)
+        {
+            _free.offer(new Message());
+        }
+    }
+
+    /**
+     * Runs the pipeline until 'x' is entered on the console
+     */
+    public void run()
+    {
+        System.out.println("SMS Relay");
+        System.out.println(SMSServer._resources.getString(SMSServer.USAGE));
+
+        try
+        {
+            _channel = DatagramChannel.open();
+            _channel.bind(new InetSocketAddress(SMSServer.SMSPORT));
+        }
+        catch(IOException e)
+        {
+            System.err.println(e);
+            return;
+        }
+        System.out.println("Listening on port:" + SMSServer.SMSPORT);
+
+        Thread[] stages = { new Thread(new ReceiveStage(), "sms-receive"), new Thread(new ParseStage(), "sms-parse"),
+                new Thread(new ReplyStage(), "sms-reply") };
+        for(int i = 0; i < stages.length; ++i)
+        {
+            stages[i].start();
+        }
+
+        Timer timer = null;
+        if(_reportPeriod > 0)
+        {
+            _intervalStart = System.nanoTime();
+            timer = new Timer("sms-stats", true);
+            timer.scheduleAtFixedRate(new TimerTask()
+            {
+                public void run()
+                {
+                    report();
+                }
+            }, _reportPeriod, _reportPeriod);
+        }
+
+        try
+        {
+            while('x' != System.in.read())
+            {
+            }
+        }
+        catch(IOException e)
+        {
+            System.err.println(e);
+        }
+
+        _stop = true;
+        try
+        {
+            _channel.close();
+        }
+        catch(IOException e)
+        {
+            System.err.println(e);
+        }
+        for(int i = 0; i < stages.length; ++i)
+        {
+            try
+            {
+                stages[i].join();
+            }
+            catch(InterruptedException e)
+            {
+                System.err.println(e);
+            }
+        }
+        if(timer != null)
+        {
+            timer.cancel();
+        }
+    }
+
+    /**
+     * Prints the counters for the interval since the previous report
+     */
+    private synchronized void report()
+    {
+        long now = System.nanoTime();
+        double seconds = (now - _intervalStart) / 1e9;
+        _intervalStart = now;
+
+        long received = _receivedCount.getAndSet(0);
+        long sent = _sentCount.getAndSet(0);
+        long batches = _batchCount.getAndSet(0);
+        long dropped = _droppedNoBuffer.getAndSet(0);
+        long malformed = _malformed.getAndSet(0);
+        if(received == 0 && dropped == 0)
+        {
+            return;
+        }
+
+        System.out.println(String.format("[sms] %.1f msg/s received, %.1f msg/s sent, avg batch %.1f, dropped=%d malformed=%d"
+                + " queued=%d/%d, latency %s", received / seconds, sent / seconds, batches == 0 ? 0.0 : (double) sent / batches,
+                dropped, malformed, _received.size(), _parsed.size(), _latency.snapshot(true)));
+    }
+
+    /**
+     * Backs off while a stage has nothing to do: spin briefly, then park
+     *
+     * @return the updated idle count
+     */
+    private static int idle(int idleCount)
+    {
+        if(idleCount < SPINS_BEFORE_PARK)
+        {
+            Thread.yield();
+        }
+        else
+        {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return idleCount + 1;
+    }
+
+    /**
+     * A pooled message buffer
+     */
+    private static final class Message
+    {
+        final ByteBuffer data = ByteBuffer.allocate(SMSServer.MAX_SMSPACKET_SIZE);
+        SocketAddress sender;
+        long receivedAt;
+        boolean valid;
+    }
+
+    /**
+     * Reads datagrams into pooled buffers
+     */
+    private final class ReceiveStage implements Runnable
+    {
+        private final ByteBuffer _discard = ByteBuffer.allocate(SMSServer.MAX_SMSPACKET_SIZE);
+        private DataOutputStream _capture;
+        private int _captured;
+
+        public void run()
+        {
+            openCapture();
+            while(!_stop)
+            {
+                try
+                {
+                    Message message = _free.poll();
+                    if(message == null)
+                    {
+                        _discard.clear();
+                        _channel.receive(_discard);
+                        _droppedNoBuffer.incrementAndGet();
+                        continue;
+                    }
+
+                    message.data.clear();
+                    message.sender = _channel.receive(message.data);
+                    message.receivedAt = System.nanoTime();
+                    message.data.flip();
+                    _receivedCount.incrementAndGet();
+                    capture(message.data);
+
+                    _received.offer(message);
+                }
+                catch(ClosedChannelException e)
+                {
+                    break;
+                }
+                catch(IOException e)
+                {
+                    System.err.println(e);
+                }
+            }
+            closeCapture();
+        }
+
+        private void openCapture()
+        {
+            if(_captureFile == null)
+            {
+                return;
+            }
+            try
+            {
+                _capture = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_captureFile)));
+                System.out.println("Capturing " + _captureCount + " packets to " + _captureFile);
+            }
+            catch(IOException e)
+            {
+                System.err.println(e);
+            }
+        }
+
+        private void capture(ByteBuffer data)
+        {
+            if(_capture == null)
+            {
+                return;
+            }
+            try
+            {
+                _capture.writeInt(data.remaining());
+                _capture.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                if(++_captured == _captureCount)
+                {
+                    closeCapture();
+                    System.out.println("Captured " + _captured + " packets to " + _captureFile);
+                }
+            }
+            catch(IOException e)
+            {
+                System.err.println(e);
+                closeCapture();
+            }
+        }
+
+        private void closeCapture()
+        {
+            if(_capture != null)
+            {
+                try
+                {
+                    _capture.close();
+                }
+                catch(IOException e)
+                {
+                    System.err.println(e);
+                }
+                _capture = null;
+            }
+        }
+    }
+
+    /**
+     * Swaps the addresses of each message in place
+     */
+    private final class ParseStage implements Runnable
+    {
+        private final SMSAddressView _source = new SMSAddressView();
+        private final SMSAddressView _destination = new SMSAddressView();
+
+        public void run()
+        {
+            int idleCount = 0;
+            while(!_stop)
+            {
+                Message message = _received.poll();
+                if(message == null)
+                {
+                    idleCount = idle(idleCount);
+                    continue;
+                }
+                idleCount = 0;
+
+                ByteBuffer data = message.data;
+                message.valid = data.limit() >= SMSServer.ADDRESS_SEGMENT_LENGTH + SMSServer.SIZE_OF_ADDRESS;
+                if(message.valid)
+                {
+                    byte[] bytes = data.array();
+                    _source.wrap(bytes, data.arrayOffset());
+                    _destination.wrap(bytes, data.arrayOffset() + SMSServer.ADDRESS_SEGMENT_LENGTH);
+                    if(_log)
+                    {
+                        log(data);
+                    }
+                    SMSAddressView.swap(_source, _destination);
+                }
+                else
+                {
+                    _malformed.incrementAndGet();
+                }
+
+                _parsed.offer(message);
+            }
+        }
+
+        private void log(ByteBuffer data)
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append(SMSServer._resources.getString(SMSServer.RECEIVED)).append('\n');
+            sb.append(SMSServer._resources.getString(SMSServer.SOURCE));
+            _source.appendAddress(sb);
+            sb.append('\n').append(SMSServer._resources.getString(SMSServer.DEST));
+            _destination.appendAddress(sb);
+            if(data.limit() > SMSServer.PAYLOAD_INDEX)
+            {
+                sb.append('\n').append(SMSServer._resources.getString(SMSServer.DATA));
+                sb.append(new String(data.array(), data.arrayOffset() + SMSServer.PAYLOAD_INDEX,
+                        data.limit() - SMSServer.PAYLOAD_INDEX));
+            }
+            System.out.println(sb);
+        }
+    }
+
+    /**
+     * Sends parsed messages back in batches and recycles their buffers
+     */
+    private final class ReplyStage implements Runnable
+    {
+        private final Object[] _batch = new Object[_batchSize];
+
+        public void run()
+        {
+            int idleCount = 0;
+            while(!_stop)
+            {
+                int count = _parsed.drainTo(_batch, _batch.length);
+                if(count == 0)
+                {
+                    idleCount = idle(idleCount);
+                    continue;
+                }
+                idleCount = 0;
+
+                int sent = 0;
+                for(int i = 0; i < count; ++i)
+                {
+                    Message message = (Message) _batch[i];
+                    _batch[i] = null;
+                    try
+                    {
+                        if(message.valid)
+                        {
+                            _channel.send(message.data, message.sender);
+                            _latency.recordNanos(System.nanoTime() - message.receivedAt);
+                            ++sent;
+                        }
+                    }
+                    catch(ClosedChannelException e)
+                    {
+                        return;
+                    }
+                    catch(IOException e)
+                    {
+                        System.err.println(e);
+                    }
+                    message.sender = null;
+                    _free.offer(message);
+                }
+
+                _sentCount.addAndGet(sent);
+                _batchCount.incrementAndGet();
+            }
+        }
+    }
+}
@@ -35,6 +35,9 @@ import java.io.*;
  * port must be the same. On the device, listen on the same port used for
  * sending a message and this server will send the received message back
  * on that port.
+ * <p>Pass <code>relay</code> as the first argument to run the pipelined
+ * {@link SMSRelay} instead, which is built for sustained message rates and
+ * can be driven with {@link SMSLoadGenerator}.
  */
 public final class SMSServer implements Runnable
 {
@@ -42,21 +45,21 @@ public final class SMSServer implements Runnable
     private static final String RESOURCES = "com/rim/samples/server/smsdemo/resources";
     private static final String INTRODUCTION = "SMS Server";   
 
-    private static final int SMSPORT = 0x5345;
+    static final int SMSPORT = 0x5345;
 
-    private static final int MAX_SMSPACKET_SIZE = 424;
-    private static final int SIZE_OF_ADDRESS = 44;
+    static final int MAX_SMSPACKET_SIZE = 424;
+    static final int SIZE_OF_ADDRESS = 44;
     
-    private static final int ADDRESS_SEGMENT_LENGTH = 60;
+    static final int ADDRESS_SEGMENT_LENGTH = 60;
 
-    private static final int PAYLOAD_INDEX = 335;
+    static final int PAYLOAD_INDEX = 335;
     
     // Resource strings
-    private static final String USAGE = "Usage";
-    private static final String RECEIVED = "Received";
-    private static final String SOURCE = "Source";
-    private static final String DATA = "Data";
-    private static final String DEST = "Dest";
+    static final String USAGE = "Usage";
+    static final String RECEIVED = "Received";
+    static final String SOURCE = "Source";
+    static final String DATA = "Data";
+    static final String DEST = "Dest";
     private static final String SENDING = "Sending";
     private static final String RAW = "Raw";
 
@@ -66,14 +69,19 @@ public final class SMSServer implements Runnable
     private String[] _charmap = {"A", "B", "C", "D", "E", "F"};
     
     // Statics -----------------------------------------------------------------
-    private static ResourceBundle _resources = ResourceBundle.getBundle(RESOURCES);
+    static ResourceBundle _resources = ResourceBundle.getBundle(RESOURCES);
 
     /**
      * Entry point
-     * @param Command line args (not used)
+     * @param Command line args: "relay" to run the pipelined relay
      */
     public static void main(String[] args)
     {    	
+        if(args.length > 0 && args[0].equals("relay"))
+        {
+            new SMSRelay().run();
+            return;
+        }
     	new SMSServer();
     }
 
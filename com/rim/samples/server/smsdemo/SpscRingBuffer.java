@@ -0,0 +1,128 @@
+/**
+ * SpscRingBuffer.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.smsdemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free queue for exactly one producer thread and one consumer
+ * thread, used to connect the stages of the {@link SMSRelay} pipeline.
+ * Each side only reads the other side's counter when its cached copy says the
+ * queue looks full (or empty), so in the steady state neither side touches a
+ * shared cache line on every element.
+ */
+/*package*/ final class SpscRingBuffer<E>
+{
+    private final Object[] _buffer;
+    private final int _mask;
+    private final AtomicLong _head = new AtomicLong(); // next slot to read, written by the consumer
+    private final AtomicLong _tail = new AtomicLong(); // next slot to write, written by the producer
+    private long _headCache; // producer's view of _head
+    private long _tailCache; // consumer's view of _tail
+
+    /**
+     * @param capacity minimum capacity; rounded up to a power of two
+     */
+    SpscRingBuffer(int capacity)
+    {
+        int size = 1;
+        while(size < capacity)
+        {
+            size <<= 1;
+        }
+        _buffer = new Object[size];
+        _mask = size - 1;
+    }
+
+    /**
+     * Adds an element.  Producer thread only.
+     *
+     * @return false if the queue is full
+     */
+    boolean offer(E element)
+    {
+        long tail = _tail.get();
+        if(tail - _headCache > _mask)
+        {
+            _headCache = _head.get();
+            if(tail - _headCache > _mask)
+            {
+                return false;
+            }
+        }
+        _buffer[(int) (tail & _mask)] = element;
+        _tail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Removes an element.  Consumer thread only.
+     *
+     * @return the element, or null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    E poll()
+    {
+        long head = _head.get();
+        if(head >= _tailCache)
+        {
+            _tailCache = _tail.get();
+            if(head >= _tailCache)
+            {
+                return null;
+            }
+        }
+        int index = (int) (head & _mask);
+        E element = (E) _buffer[index];
+        _buffer[index] = null;
+        _head.lazySet(head + 1);
+        return element;
+    }
+
+    /**
+     * Removes up to <code>max</code> elements into <code>into</code>.  Consumer thread only.
+     *
+     * @return number of elements removed
+     */
+    int drainTo(Object[] into, int max)
+    {
+        int count = 0;
+        E element;
+        while(count < max && (element = poll()) != null)
+        {
+            into[count++] = element;
+        }
+        return count;
+    }
+
+    /**
+     * @return approximate number of queued elements; safe to call from any thread
+     */
+    int size()
+    {
+        return (int) Math.max(0, _tail.get() - _head.get());
+    }
+}
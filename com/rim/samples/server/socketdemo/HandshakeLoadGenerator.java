@@ -0,0 +1,139 @@
+/**
+ * HandshakeLoadGenerator.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.socketdemo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Simulates a burst of handsets running the socketdemo Hello/Goodbye exchange
+ * against {@link SimpleSocketServer}, in either of its modes.
+ * <p>To run:
+ * <pre>
+ *    java com.rim.samples.server.socketdemo.HandshakeLoadGenerator [host] [connections] [concurrency]
+ * </pre>
+ * <p>Client-side connections/sec and handshake latency are printed as the run
+ * progresses, followed by totals for the whole run at the end.
+ */
+public class HandshakeLoadGenerator
+{
+    private static final int SO_TIMEOUT = 30000;
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        final String host = args.length > 0 ? args[0] : "localhost";
+        final int connections = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        final HandshakeStats stats = new HandshakeStats("client");
+        final AtomicInteger remaining = new AtomicInteger(connections);
+        final byte[] hello = Worker.HELLO.getBytes();
+        final byte[] goodbye = Worker.GOODBYE.getBytes();
+
+        System.out.println("Running " + connections + " handshakes against " + host + ":" + SimpleSocketServer.PORT
+                + " with " + concurrency + " concurrent clients");
+        stats.startReporting(1000);
+
+        Thread[] clients = new Thread[concurrency];
+        for(int i = 0; i < concurrency; ++i)
+        {
+            clients[i] = new Thread("client-" + i)
+            {
+                public void run()
+                {
+                    byte[] buffer = new byte[goodbye.length];
+                    while(remaining.getAndDecrement() > 0)
+                    {
+                        long start = System.nanoTime();
+                        try
+                        {
+                            handshake(host, hello, goodbye, buffer);
+                            stats.recordCompleted(System.nanoTime() - start);
+                        }
+                        catch(IOException e)
+                        {
+                            stats.recordFailed();
+                        }
+                    }
+                }
+            };
+            clients[i].start();
+        }
+
+        for(int i = 0; i < concurrency; ++i)
+        {
+            clients[i].join();
+        }
+
+        stats.stopReporting();
+        String report = stats.totalReport();
+        if(report != null)
+        {
+            System.out.println(report);
+        }
+    }
+
+    private static void handshake(String host, byte[] hello, byte[] goodbye, byte[] buffer) throws IOException
+    {
+        Socket socket = new Socket(host, SimpleSocketServer.PORT);
+        try
+        {
+            socket.setSoTimeout(SO_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+
+            out.write(hello);
+            out.flush();
+            readFully(in, buffer, hello.length);
+
+            out.write(goodbye);
+            out.flush();
+            readFully(in, buffer, goodbye.length);
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException
+    {
+        int offset = 0;
+        while(offset < length)
+        {
+            int read = in.read(buffer, offset, length - offset);
+            if(read < 0)
+            {
+                throw new IOException("Connection closed after " + offset + " bytes");
+            }
+            offset += read;
+        }
+    }
+}
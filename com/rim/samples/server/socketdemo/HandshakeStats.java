@@ -0,0 +1,173 @@
+/**
+ * HandshakeStats.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.socketdemo;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rim.samples.server.common.LatencyHistogram;
+
+/**
+ * <p>Collects Hello/Goodbye handshake counters and a latency histogram so that
+ * the blocking and NIO servers can be compared on connections/sec and p99
+ * handshake latency.  All methods are thread safe.
+ */
+public final class HandshakeStats
+{
+    private final String _name;
+    private final LatencyHistogram _histogram = new LatencyHistogram();
+    private final AtomicLong _completed = new AtomicLong();
+    private final AtomicLong _failed = new AtomicLong();
+    private final AtomicLong _timedOut = new AtomicLong();
+    private final LatencyHistogram _totalHistogram = new LatencyHistogram();
+    private final AtomicLong _totalCompleted = new AtomicLong();
+    private final AtomicLong _totalFailed = new AtomicLong();
+    private final AtomicLong _totalTimedOut = new AtomicLong();
+    private final long _start = System.nanoTime();
+    private long _intervalStart = _start;
+    private Timer _timer;
+
+    /**
+     * @param name label printed in front of every report
+     */
+    public HandshakeStats(String name)
+    {
+        _name = name;
+    }
+
+    /**
+     * Records a successfully completed handshake
+     *
+     * @param latencyNanos time from accept to the final Goodbye being written
+     */
+    public void recordCompleted(long latencyNanos)
+    {
+        _completed.incrementAndGet();
+        _totalCompleted.incrementAndGet();
+        _histogram.recordNanos(latencyNanos);
+        _totalHistogram.recordNanos(latencyNanos);
+    }
+
+    /**
+     * Records a handshake that failed because of an invalid message or an I/O error
+     */
+    public void recordFailed()
+    {
+        _failed.incrementAndGet();
+        _totalFailed.incrementAndGet();
+    }
+
+    /**
+     * Records a handshake that was abandoned because the client went quiet
+     */
+    public void recordTimedOut()
+    {
+        _timedOut.incrementAndGet();
+        _totalTimedOut.incrementAndGet();
+    }
+
+    /**
+     * Starts printing a report to stdout every <code>periodMillis</code>.
+     * Intervals with no activity are not reported.
+     */
+    public synchronized void startReporting(long periodMillis)
+    {
+        if(_timer != null)
+        {
+            return;
+        }
+        _timer = new Timer(_name + "-stats", true);
+        _timer.scheduleAtFixedRate(new TimerTask()
+        {
+            public void run()
+            {
+                String report = report();
+                if(report != null)
+                {
+                    System.out.println(report);
+                }
+            }
+        }, periodMillis, periodMillis);
+    }
+
+    /**
+     * Stops the periodic report started by {@link #startReporting(long)}
+     */
+    public synchronized void stopReporting()
+    {
+        if(_timer != null)
+        {
+            _timer.cancel();
+            _timer = null;
+        }
+    }
+
+    /**
+     * Builds a report for the interval since the previous call and resets the
+     * counters for the next interval.
+     *
+     * @return the report, or null if nothing happened during the interval
+     */
+    public synchronized String report()
+    {
+        long now = System.nanoTime();
+        double seconds = (now - _intervalStart) / 1e9;
+        _intervalStart = now;
+
+        long completed = _completed.getAndSet(0);
+        long failed = _failed.getAndSet(0);
+        long timedOut = _timedOut.getAndSet(0);
+        if(completed == 0 && failed == 0 && timedOut == 0)
+        {
+            return null;
+        }
+
+        return String.format("[%s] %.1f conn/s, completed=%d failed=%d timedOut=%d, %s", _name, completed / seconds,
+                completed, failed, timedOut, _histogram.snapshot(true));
+    }
+
+    /**
+     * Builds a report covering everything recorded since this object was
+     * created.  Unlike {@link #report()} nothing is reset.
+     *
+     * @return the report, or null if nothing was recorded
+     */
+    public synchronized String totalReport()
+    {
+        double seconds = (System.nanoTime() - _start) / 1e9;
+        long completed = _totalCompleted.get();
+        long failed = _totalFailed.get();
+        long timedOut = _totalTimedOut.get();
+        if(completed == 0 && failed == 0 && timedOut == 0)
+        {
+            return null;
+        }
+
+        return String.format("[%s total] %.1f conn/s over %.1fs, completed=%d failed=%d timedOut=%d, %s", _name,
+                completed / seconds, seconds, completed, failed, timedOut, _totalHistogram.snapshot(false));
+    }
+}
@@ -0,0 +1,338 @@
+/**
+ * NioSocketServer.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.socketdemo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * <p>A non-blocking alternative to the thread-per-connection {@link Worker}.
+ * <p>A single thread drives every connection through the Hello/Goodbye
+ * handshake using a {@link Selector}.  Each connection is a small state
+ * machine; reads go through one shared direct buffer and the replies are
+ * written from shared read-only direct buffers, so a connection costs a few
+ * dozen bytes instead of a thread stack.  Idle connections are expired by a
+ * {@link TimerWheel} with the same 20 second timeout as the blocking server.
+ * <p>Unlike the blocking server only failures are logged per connection;
+ * throughput and latency are reported through {@link HandshakeStats}.
+ */
+public class NioSocketServer implements Runnable
+{
+    private static final int TIMEOUT_MILLIS = 20000;
+    private static final int BACKLOG = 1024;
+    private static final long TICK_MILLIS = 100;
+
+    private static final byte[] HELLO = Worker.HELLO.getBytes();
+    private static final byte[] GOODBYE = Worker.GOODBYE.getBytes();
+
+    private final int _port;
+    private final HandshakeStats _stats;
+
+    // Only touched from the selector thread
+    private final ByteBuffer _readBuffer = ByteBuffer.allocateDirect(256);
+    private final ByteBuffer _helloBuffer = directCopy(HELLO);
+    private final ByteBuffer _goodbyeBuffer = directCopy(GOODBYE);
+    private TimerWheel _timeouts;
+
+    /**
+     * @param port port to listen on
+     * @param stats receives the result of every handshake
+     */
+    public NioSocketServer(int port, HandshakeStats stats)
+    {
+        _port = port;
+        _stats = stats;
+    }
+
+    public void run()
+    {
+        Selector selector = null;
+        ServerSocketChannel serverChannel = null;
+        try
+        {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+            serverChannel.bind(new InetSocketAddress(_port), BACKLOG);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+        catch(IOException e)
+        {
+            System.err.println(e + "- port:" + _port);
+            System.exit(-1);
+        }
+
+        System.out.println("NIO server listening on port " + _port);
+        _timeouts = new TimerWheel(512, TICK_MILLIS, System.currentTimeMillis());
+
+        for(;;)
+        {
+            try
+            {
+                selector.select(_timeouts.getTickMillis());
+            }
+            catch(IOException e)
+            {
+                System.err.println(e);
+                System.exit(-1);
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext())
+            {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                if(!key.isValid())
+                {
+                    continue;
+                }
+                if(key.isAcceptable())
+                {
+                    accept(serverChannel, selector);
+                }
+                else
+                {
+                    ((Connection) key.attachment()).onReady(key);
+                }
+            }
+
+            _timeouts.expire(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Accepts every pending connection
+     */
+    private void accept(ServerSocketChannel serverChannel, Selector selector)
+    {
+        for(;;)
+        {
+            SocketChannel channel;
+            try
+            {
+                channel = serverChannel.accept();
+                if(channel == null)
+                {
+                    return;
+                }
+            }
+            catch(IOException e)
+            {
+                // Usually the process is out of file descriptors; let the
+                // existing connections drain and try again on the next select.
+                System.err.println(e);
+                return;
+            }
+
+            Connection connection = new Connection(channel);
+            try
+            {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+                connection._key = channel.register(selector, SelectionKey.OP_READ, connection);
+                _timeouts.schedule(connection, System.currentTimeMillis() + TIMEOUT_MILLIS);
+            }
+            catch(IOException e)
+            {
+                connection.fail(e.toString());
+            }
+        }
+    }
+
+    private static ByteBuffer directCopy(byte[] bytes)
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * <p>Per connection state machine for the Hello/Goodbye exchange:
+     * READ_HELLO -> WRITE_HELLO -> READ_GOODBYE -> WRITE_GOODBYE -> closed
+     */
+    private final class Connection extends TimerWheel.Timeout
+    {
+        private static final int READ_HELLO = 0;
+        private static final int WRITE_HELLO = 1;
+        private static final int READ_GOODBYE = 2;
+        private static final int WRITE_GOODBYE = 3;
+
+        private final SocketChannel _channel;
+        private final long _acceptedAt = System.nanoTime();
+        private final byte[] _received = new byte[Math.max(HELLO.length, GOODBYE.length)];
+        private SelectionKey _key;
+        private int _state = READ_HELLO;
+        private int _count;
+
+        Connection(SocketChannel channel)
+        {
+            _channel = channel;
+        }
+
+        /**
+         * Called by the selector loop when the channel is readable or writable
+         */
+        void onReady(SelectionKey key)
+        {
+            try
+            {
+                if(key.isReadable())
+                {
+                    read();
+                }
+                else if(key.isWritable())
+                {
+                    write();
+                }
+            }
+            catch(IOException e)
+            {
+                fail(e.toString());
+            }
+        }
+
+        private void read() throws IOException
+        {
+            byte[] expected = _state == READ_HELLO ? HELLO : GOODBYE;
+
+            _readBuffer.clear();
+            int read = _channel.read(_readBuffer);
+            if(read < 0)
+            {
+                fail("Connection closed in state " + _state);
+                return;
+            }
+            if(read == 0)
+            {
+                return;
+            }
+            _readBuffer.flip();
+
+            // Same rule as the blocking server: anything beyond the expected
+            // message is an invalid response.
+            if(_count + read > expected.length)
+            {
+                fail("Received an invalid response of " + (_count + read) + " bytes");
+                return;
+            }
+            _readBuffer.get(_received, _count, read);
+            _count += read;
+            _timeouts.schedule(this, System.currentTimeMillis() + TIMEOUT_MILLIS);
+
+            if(_count < expected.length)
+            {
+                return;
+            }
+            for(int i = 0; i < expected.length; ++i)
+            {
+                if(_received[i] != expected[i])
+                {
+                    fail("Received an invalid response of: " + new String(_received, 0, _count));
+                    return;
+                }
+            }
+
+            _state = _state == READ_HELLO ? WRITE_HELLO : WRITE_GOODBYE;
+            _count = 0;
+
+            // Most replies fit in the socket buffer, so try writing straight
+            // away rather than waiting for another select.
+            write();
+        }
+
+        private void write() throws IOException
+        {
+            ByteBuffer source = _state == WRITE_HELLO ? _helloBuffer : _goodbyeBuffer;
+            source.limit(source.capacity());
+            source.position(_count);
+            _count += _channel.write(source);
+
+            if(_count < source.capacity())
+            {
+                _key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+
+            _count = 0;
+            if(_state == WRITE_HELLO)
+            {
+                _state = READ_GOODBYE;
+                _key.interestOps(SelectionKey.OP_READ);
+            }
+            else
+            {
+                close();
+                _stats.recordCompleted(System.nanoTime() - _acceptedAt);
+            }
+        }
+
+        void expire()
+        {
+            System.out.println(remotePort() + " Timeout in state " + _state);
+            _stats.recordTimedOut();
+            close();
+        }
+
+        void fail(String reason)
+        {
+            System.out.println(remotePort() + " " + reason);
+            _stats.recordFailed();
+            close();
+        }
+
+        private void close()
+        {
+            _timeouts.cancel(this);
+            if(_key != null)
+            {
+                _key.cancel();
+            }
+            try
+            {
+                _channel.close();
+            }
+            catch(IOException e)
+            {
+                System.err.println(e);
+            }
+        }
+
+        private int remotePort()
+        {
+            return _channel.socket().getPort();
+        }
+    }
+}
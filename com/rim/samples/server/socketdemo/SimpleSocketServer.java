@@ -30,144 +30,61 @@ import java.io.*;
 import java.util.*;
 import java.lang.*;
 
-/**
- * <p>Worker is just a simple thread that handles each inbound socket connection.
- * so that further socket connections can be accepted while another socket is handled!
- */
-class Worker extends Thread
-{
-    private Socket _clientSocket;
-
-    private static final String HELLO = "Hello";
-    private static final String GOODBYE = "Goodbye and farewell";
-    private static final String RESOURCE_PATH = "com/rim/samples/server/socketdemo/resources";
-    private static ResourceBundle _resources = java.util.ResourceBundle.getBundle(RESOURCE_PATH);
-
-
-    public Worker(Socket c)
-    {
-        _clientSocket = c;
-    }
-
-    public void run()
-    {
-        byte[] b = new byte[80];
-
-        try {
-            // 20 second timeout
-            _clientSocket.setSoTimeout(20000);
-            BufferedInputStream _in = new BufferedInputStream(_clientSocket.getInputStream());
-            OutputStreamWriter _out = new OutputStreamWriter(_clientSocket.getOutputStream());
-
-            StringBuffer receiveBuffer = new StringBuffer();
-            int totalBytesReadSoFar = 0;
-            int bytesReadThisIteration = 0;
-            int numBytesToRead = HELLO.length();
-            
-            //Wait for the HELLO string.  Loops until it receives the necessary amount of bytes, and stores the accumulated bytes
-            // in receiveBuffer  
-            while (totalBytesReadSoFar < numBytesToRead)
-            {
-	            try
-	            {
-	            	
-	                bytesReadThisIteration = _in.read(b, 0, 80);
-	                receiveBuffer.append(new String(b, 0, bytesReadThisIteration));
-	                totalBytesReadSoFar += bytesReadThisIteration;
-	            }
-	            catch (SocketTimeoutException ste)
-	            {
-	                System.out.println(_clientSocket.getPort() + " Timeout waiting for Hello");
-	                return;
-	            }
-            }
-
-	    // check to see if we've read the proper amount of data, and that the data matches the HELLO string
-            if ((totalBytesReadSoFar > 0 && totalBytesReadSoFar <= numBytesToRead) && receiveBuffer.toString().equals(HELLO))
-            {
-                System.out.println(_clientSocket.getPort() +" Received: " + receiveBuffer);
-            }
-            else
-            {
-            	System.out.println(_clientSocket.getPort() +" Received an invalid response of: " + receiveBuffer);	
-            	return;
-            }
-
-            System.out.println(_clientSocket.getPort() + " Send Hello");
-            _out.write(HELLO);
-            _out.flush();
-
-            System.out.println(_clientSocket.getPort() + " Now, wait for the Goodbye");
-            
-            receiveBuffer.setLength(0);
-            totalBytesReadSoFar = 0;
-            numBytesToRead = GOODBYE.length();
-            
-            // wait for the GOODBYE string.  Loops until it receives the necessary amount of bytes, and stores the accumulated bytes
-            // in receiveBuffer  
-            while (totalBytesReadSoFar < numBytesToRead)
-            {
-	            try
-	            {
-	                bytesReadThisIteration = _in.read(b, 0, 80);
-	                receiveBuffer.append(new String(b, 0, bytesReadThisIteration));
-	                totalBytesReadSoFar += bytesReadThisIteration;
-	            }
-	            catch (SocketTimeoutException ste)
-	            {
-	                System.out.println(_clientSocket.getPort() + " Timeout waiting for Goodbye");
-	                return;
-	            }
-	     }
-	     
-	     // check to see if we've read the proper amount of data, and that the data matches the GOODBYE string
-	     if ((totalBytesReadSoFar > 0 && totalBytesReadSoFar <= numBytesToRead) && receiveBuffer.toString().equals(GOODBYE))
-	     {
-	            System.out.println(_clientSocket.getPort() + " Received: " + receiveBuffer);
-	     } 	
-	     else
-	     {
-	            System.out.println(_clientSocket.getPort() +" Received an invalid response of: " + receiveBuffer);
-	            return;
-	     }
-        
-
-            _out.write(GOODBYE);
-            _out.flush();
-
-            _out.close();
-            _in.close();
-            _out = null;
-            _in = null;
-            _clientSocket.close();
-            System.out.println(_clientSocket.getPort() + " Done");
-        } catch (IOException e) {
-            System.err.println(e);
-        }
-    }
-}
+import com.rim.samples.server.common.ConnectionExecutor;
 
 /**
  * <p>The main server class
  * <p>To run this simple program, invoke the following from the command line:
  * <pre>
- *    javac SimpleSocketServer.java
+ *    javac -sourcepath ..\..\..\..\.. *.java
  *    pushd ..\..\..\..\..
- *     java com.rim.samples.server.socketdemo.SimpleSocketServer
+ *     java com.rim.samples.server.socketdemo.SimpleSocketServer [blocking|nio]
  *    popd
  * </pre>
+ * <p>The default <code>blocking</code> mode handles each connection on its own
+ * {@link Worker}, run by a {@link ConnectionExecutor} configured from the
+ * <code>connection.*</code> system properties.  <code>nio</code> mode runs the same handshake on a
+ * single selector thread, see {@link NioSocketServer}.  Both modes print
+ * connections/sec and handshake latency percentiles every few seconds so the
+ * two can be compared with {@link HandshakeLoadGenerator}.
  */
 public class SimpleSocketServer implements Runnable {
 
     //constants ---------------------------------------------------------------
-    private static final int PORT = 44444;
+    /*package*/ static final int PORT = 44444;
+    private static final long REPORT_PERIOD = 5000;
     //statics -----------------------------------------------------------------
     private static final String RESOURCE_PATH = "com/rim/samples/server/socketdemo/resources";
     private static ResourceBundle _resources = java.util.ResourceBundle.getBundle(RESOURCE_PATH);
 
+    private HandshakeStats _stats;
+    private ConnectionExecutor _executor;
+
     public static void main(String[] args)
     {
-        new SimpleSocketServer().run();
+        String mode = args.length > 0 ? args[0] : "blocking";
+        HandshakeStats stats = new HandshakeStats(mode);
+        stats.startReporting(REPORT_PERIOD);
+
+        if(mode.equals("nio"))
+        {
+            new NioSocketServer(PORT, stats).run();
+        }
+        else if(mode.equals("blocking"))
+        {
+            new SimpleSocketServer(stats, ConnectionExecutor.fromSystemProperties("socketdemo")).run();
+        }
+        else
+        {
+            System.err.println("Usage: SimpleSocketServer [blocking|nio]");
+            System.exit(-1);
+        }
+    }
+
+    public SimpleSocketServer(HandshakeStats stats, ConnectionExecutor executor)
+    {
+        _stats = stats;
+        _executor = executor;
     }
 
     public void run() {
@@ -184,16 +101,23 @@ public class SimpleSocketServer implements Runnable {
         for(;;)
         {
             Socket clientSocket = null;
+            long acceptedAt = 0;
             try {
                 System.out.println(_resources.getString("SimpleSocketServer.WaitingForClient"));
                 clientSocket = serverSocket.accept(); //blocking call - waits for a connection
+                acceptedAt = System.nanoTime();
                 System.out.println(_resources.getString("SimpleSocketServer.ClientConnecting") + ":" + clientSocket.getInetAddress().getHostAddress());
             } catch (IOException e) {
                 System.err.println(e);
                 System.exit(-1);
             }
-            //spin off a new thread to handle this socket - this way new socket connections can be served immediately
-            (new Worker(clientSocket)).start();
+            //hand this socket to the executor - this way new socket connections can be served immediately
+            try {
+                _executor.execute(new Worker(clientSocket, _stats, acceptedAt));
+            } catch (InterruptedException e) {
+                System.err.println(e);
+                System.exit(-1);
+            }
         }
     }
 
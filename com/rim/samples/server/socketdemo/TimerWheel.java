@@ -0,0 +1,173 @@
+/**
+ * TimerWheel.java
+ *
+ * Copyright  1998-2011 Research In Motion Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Note: For the sake of simplicity, this sample application may not leverage
+ * resource bundles and resource strings.  However, it is STRONGLY recommended
+ * that application developers make use of the localization features available
+ * within the BlackBerry development platform to ensure a seamless application
+ * experience across a variety of languages and geographies.  For more information
+ * on localizing your application, please refer to the BlackBerry Java Development
+ * Environment Development Guide associated with this release.
+ */
+package com.rim.samples.server.socketdemo;
+
+/**
+ * <p>A hashed timer wheel used by the NIO server to expire idle connections.
+ * <p>Scheduling and cancelling a timeout are O(1): each timeout is linked
+ * directly into the slot for its deadline tick, so no per-timeout objects are
+ * allocated.  Deadlines further out than one revolution of the wheel simply
+ * stay in their slot until the wheel comes round to them again.
+ * <p>This class is not thread safe; it is only ever driven from the selector thread.
+ */
+/*package*/ final class TimerWheel
+{
+    /**
+     * <p>An entry that can be scheduled on the wheel.  Subclasses carry their
+     * own linkage so that scheduling does not allocate.
+     */
+    /*package*/ static abstract class Timeout
+    {
+        private Timeout _next;
+        private Timeout _prev;
+        private long _deadline;
+        private int _slot = -1;
+
+        /**
+         * Called on the selector thread once the deadline has passed
+         */
+        abstract void expire();
+    }
+
+    private final Timeout[] _slots;
+    private final int _mask;
+    private final long _tickMillis;
+    private long _cursor;
+
+    /**
+     * @param slots number of slots, rounded up to a power of two
+     * @param tickMillis resolution of the wheel in milliseconds
+     * @param now current time in milliseconds
+     */
+    public TimerWheel(int slots, long tickMillis, long now)
+    {
+        int size = 1;
+        while(size < slots)
+        {
+            size <<= 1;
+        }
+        _slots = new Timeout[size];
+        _mask = size - 1;
+        _tickMillis = tickMillis;
+        _cursor = now / tickMillis;
+    }
+
+    /**
+     * @return the wheel resolution, suitable as a selector timeout
+     */
+    public long getTickMillis()
+    {
+        return _tickMillis;
+    }
+
+    /**
+     * Schedules (or reschedules) a timeout
+     *
+     * @param timeout the entry to schedule
+     * @param deadline absolute time in milliseconds at which the entry expires
+     */
+    public void schedule(Timeout timeout, long deadline)
+    {
+        cancel(timeout);
+
+        // Deadlines that have already passed go in the current slot so that
+        // the next call to expire() picks them up.
+        long tick = Math.max(deadline / _tickMillis, _cursor);
+        int slot = (int) (tick & _mask);
+
+        timeout._deadline = deadline;
+        timeout._slot = slot;
+        timeout._prev = null;
+        timeout._next = _slots[slot];
+        if(timeout._next != null)
+        {
+            timeout._next._prev = timeout;
+        }
+        _slots[slot] = timeout;
+    }
+
+    /**
+     * Removes a timeout from the wheel.  Cancelling an entry that is not
+     * scheduled has no effect.
+     */
+    public void cancel(Timeout timeout)
+    {
+        if(timeout._slot < 0)
+        {
+            return;
+        }
+
+        if(timeout._prev != null)
+        {
+            timeout._prev._next = timeout._next;
+        }
+        else
+        {
+            _slots[timeout._slot] = timeout._next;
+        }
+        if(timeout._next != null)
+        {
+            timeout._next._prev = timeout._prev;
+        }
+
+        timeout._next = null;
+        timeout._prev = null;
+        timeout._slot = -1;
+    }
+
+    /**
+     * Expires every entry whose deadline is at or before <code>now</code>
+     *
+     * @param now current time in milliseconds
+     */
+    public void expire(long now)
+    {
+        long target = now / _tickMillis;
+
+        for(;;)
+        {
+            Timeout timeout = _slots[(int) (_cursor & _mask)];
+            while(timeout != null)
+            {
+                Timeout next = timeout._next;
+                if(timeout._deadline <= now)
+                {
+                    cancel(timeout);
+                    timeout.expire();
+                }
+                timeout = next;
+            }
+
+            // The current tick may still receive entries, so only move past
+            // it once the clock has.
+            if(_cursor >= target)
+            {
+                break;
+            }
+            _cursor++;
+        }
+    }
+}
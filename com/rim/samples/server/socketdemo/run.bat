@@ -2,7 +2,7 @@
 REM Build and run script for the Socket Server side
 
 del *.class
-javac SimpleSocketServer.java
+javac -sourcepath ..\..\..\..\.. *.java
 pushd ..\..\..\..\..
-	java -cp . com.rim.samples.server.socketdemo.SimpleSocketServer
+	java -cp . com.rim.samples.server.socketdemo.SimpleSocketServer %1
 popd
\ No newline at end of file
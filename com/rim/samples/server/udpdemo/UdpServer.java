@@ -24,18 +24,65 @@
  * Environment Development Guide associated with this release.
  */
 
+
 package com.rim.samples.server.udpdemo;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
 import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rim.samples.server.common.LatencyHistogram;
 
 /**
  * This class represents the server in a client/server configuration
+ *
+ * <p>The server keeps its sockets bound for its whole lifetime.  Each socket
+ * has a receiver thread that reads packets into buffers taken from a
+ * preallocated pool and queues them for a pool of worker threads, which log
+ * the packet and send the acknowledgment.  Packets that arrive while no
+ * buffer is free, or while the work queue is full, are dropped and counted.
+ *
+ * <p>The server can be tuned with system properties:
+ * <table>
+ * <tr><td>udp.sockets</td><td>sockets bound to the port; more than one requires SO_REUSEPORT (default 1)</td></tr>
+ * <tr><td>udp.workers</td><td>worker threads (default: number of processors)</td></tr>
+ * <tr><td>udp.buffers</td><td>preallocated packet buffers, which also bounds the work queue (default 4096)</td></tr>
+ * <tr><td>udp.log</td><td>print every packet, as the original demo did (default true)</td></tr>
+ * <tr><td>udp.reportPeriod</td><td>milliseconds between packets/sec reports, 0 for none (default 5000)</td></tr>
+ * </table>
  */
 public class UdpServer implements Runnable
 {
     final static int BROADCAST_PORT = 2010;
+    private static final int MAX_PACKET_SIZE = 1024;
+    private static final byte[] ACK_PREFIX = "RECEIVED ".getBytes();
+
+    private final int _socketCount;
+    private final int _workerCount;
+    private final boolean _log;
+    private final long _reportPeriod;
+
+    private final ArrayBlockingQueue<Packet> _free;
+    private final ArrayBlockingQueue<Packet> _work;
+
+    private final AtomicLong _received = new AtomicLong();
+    private final AtomicLong _acked = new AtomicLong();
+    private final AtomicLong _droppedNoBuffer = new AtomicLong();
+    private final AtomicLong _droppedQueueFull = new AtomicLong();
+    private final AtomicLong _sendErrors = new AtomicLong();
+    private final LatencyHistogram _latency = new LatencyHistogram();
+    private long _intervalStart;
+
+    // The acknowledgment carries the current date, which only changes once a second
+    private volatile long _dateSecond = -1;
+    private volatile byte[] _dateBytes;
 
     /**
      * Entry point for application.
@@ -46,48 +93,296 @@ public class UdpServer implements Runnable
     }
 
 
+    public UdpServer()
+    {
+        _socketCount = Integer.getInteger("udp.sockets", 1).intValue();
+        _workerCount = Integer.getInteger("udp.workers", Runtime.getRuntime().availableProcessors()).intValue();
+        _log = Boolean.valueOf(System.getProperty("udp.log", "true")).booleanValue();
+        _reportPeriod = Long.getLong("udp.reportPeriod", 5000).longValue();
+
+        int buffers = Integer.getInteger("udp.buffers", 4096).intValue();
+        _free = new ArrayBlockingQueue<Packet>(buffers);
+        _work = new ArrayBlockingQueue<Packet>(buffers);
+        for(int i = 0; i < buffers; ++i)
+        {
+            _free.add(new Packet());
+        }
+    }
+
+
     public void run()
     {
 
         System.out.println("               -----------------UDP Demo Server-----------------" + "\n\n");
 
-        while(true)
+        DatagramChannel[] channels;
+        try
+        {
+            channels = openChannels();
+        }
+        catch(IOException ioe)
+        {
+            System.out.println("Error: IOException - " + ioe.toString());
+            return;
+        }
+
+        System.out.println("Waiting for data on local port: " + BROADCAST_PORT + " (" + channels.length + " socket(s), "
+                + _workerCount + " worker(s), " + _free.size() + " packet buffers)");
+
+        for(int i = 0; i < _workerCount; ++i)
+        {
+            new Thread(new Worker(), "udp-worker-" + i).start();
+        }
+
+        if(_reportPeriod > 0)
+        {
+            _intervalStart = System.nanoTime();
+            Timer timer = new Timer("udp-stats", true);
+            timer.scheduleAtFixedRate(new TimerTask()
+            {
+                public void run()
+                {
+                    report();
+                }
+            }, _reportPeriod, _reportPeriod);
+        }
+
+        Thread[] receivers = new Thread[channels.length];
+        for(int i = 0; i < channels.length; ++i)
+        {
+            receivers[i] = new Thread(new Receiver(channels[i]), "udp-receiver-" + i);
+            receivers[i].start();
+        }
+        for(int i = 0; i < receivers.length; ++i)
         {
             try
             {
-                // Create a new socket connection bound to the defined port
-                DatagramSocket sock = new DatagramSocket(BROADCAST_PORT);
+                receivers[i].join();
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+        }
+    }
 
-                System.out.println("Waiting for data on local port: " + sock.getLocalPort());
 
-                // Create a packet to contain incoming data
-                byte[] buf = new byte[256];
-                DatagramPacket packet = new DatagramPacket(buf, buf.length);
+    /**
+     * Binds the configured number of sockets to the port, falling back to a
+     * single socket if the platform has no SO_REUSEPORT
+     */
+    private DatagramChannel[] openChannels() throws IOException
+    {
+        int count = _socketCount;
+        if(count > 1)
+        {
+            DatagramChannel probe = DatagramChannel.open(StandardProtocolFamily.INET);
+            boolean supported = probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+            probe.close();
+            if(!supported)
+            {
+                System.out.println("SO_REUSEPORT is not supported here, binding a single socket");
+                count = 1;
+            }
+        }
 
-                // Wait for incoming data (receive() is a blocking method)     
-                sock.receive(packet);
+        DatagramChannel[] channels = new DatagramChannel[count];
+        for(int i = 0; i < count; ++i)
+        {
+            channels[i] = DatagramChannel.open(StandardProtocolFamily.INET);
+            if(count > 1)
+            {
+                channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, Boolean.TRUE);
+            }
+            channels[i].bind(new InetSocketAddress(BROADCAST_PORT));
+        }
+        return channels;
+    }
 
-                // Retrieve data from packet and display
-                String data = new String(packet.getData());
-                int endIndex = data.indexOf(0);
-                data = data.substring(0, endIndex);
-                int remotePort = packet.getPort();
-                System.out.println("Received data from remote port " + remotePort + ":\n" + data);
 
-                // Determine origin of packet and display information
-                InetAddress remoteAddress = packet.getAddress();
-                System.out.println("Sent from address: " + remoteAddress.getHostAddress());
+    /**
+     * @return the bytes of the current date, recomputed at most once a second
+     */
+    private byte[] currentDateBytes()
+    {
+        long now = System.currentTimeMillis();
+        long second = now / 1000;
+        byte[] bytes = _dateBytes;
+        if(second != _dateSecond || bytes == null)
+        {
+            // Racing workers may both rebuild it; either result is correct
+            bytes = new Date(now).toString().getBytes();
+            _dateBytes = bytes;
+            _dateSecond = second;
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Prints the counters for the interval since the previous report
+     */
+    private synchronized void report()
+    {
+        long now = System.nanoTime();
+        double seconds = (now - _intervalStart) / 1e9;
+        _intervalStart = now;
+
+        long received = _received.getAndSet(0);
+        long acked = _acked.getAndSet(0);
+        long droppedNoBuffer = _droppedNoBuffer.getAndSet(0);
+        long droppedQueueFull = _droppedQueueFull.getAndSet(0);
+        long sendErrors = _sendErrors.getAndSet(0);
+        if(received == 0 && droppedNoBuffer == 0)
+        {
+            return;
+        }
+
+        System.out.println(String.format("[udp] %.1f packets/s received, %.1f acks/s, dropped(noBuffer)=%d dropped(queueFull)=%d"
+                + " sendErrors=%d queued=%d, latency %s", received / seconds, acked / seconds, droppedNoBuffer,
+                droppedQueueFull, sendErrors, _work.size(), _latency.snapshot(true)));
+    }
 
-                // Send back an acknowledgment
-                String ack = "RECEIVED " + new Date().toString();
-                sock.send(new DatagramPacket(ack.getBytes(), ack.length(), remoteAddress, remotePort));
 
-                sock.close();
+    /**
+     * A preallocated packet buffer, recycled through the free queue
+     */
+    private static final class Packet
+    {
+        final ByteBuffer data = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+        SocketAddress sender;
+        DatagramChannel channel;
+        long receivedAt;
+    }
+
+
+    /**
+     * Reads packets from one socket and queues them for the workers
+     */
+    private final class Receiver implements Runnable
+    {
+        private final DatagramChannel _channel;
+
+        // Packets that arrive while the pool is empty are read here and discarded
+        private final ByteBuffer _discard = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+
+        Receiver(DatagramChannel channel)
+        {
+            _channel = channel;
+        }
+
+        public void run()
+        {
+            for(;;)
+            {
+                try
+                {
+                    Packet packet = _free.poll();
+                    if(packet == null)
+                    {
+                        _discard.clear();
+                        _channel.receive(_discard);
+                        _droppedNoBuffer.incrementAndGet();
+                        continue;
+                    }
+
+                    // Wait for incoming data (receive() is a blocking method)
+                    packet.data.clear();
+                    packet.sender = _channel.receive(packet.data);
+                    packet.receivedAt = System.nanoTime();
+                    packet.channel = _channel;
+                    packet.data.flip();
+                    _received.incrementAndGet();
+
+                    if(!_work.offer(packet))
+                    {
+                        _droppedQueueFull.incrementAndGet();
+                        _free.offer(packet);
+                    }
+                }
+                catch(ClosedChannelException cce)
+                {
+                    return;
+                }
+                catch(IOException ioe)
+                {
+                    System.out.println("Error: IOException - " + ioe.toString());
+                }
             }
-            catch(IOException ioe)
+        }
+    }
+
+
+    /**
+     * Logs queued packets and sends back the acknowledgments
+     */
+    private final class Worker implements Runnable
+    {
+        private final ByteBuffer _ack = ByteBuffer.allocateDirect(128);
+
+        public void run()
+        {
+            for(;;)
+            {
+                Packet packet;
+                try
+                {
+                    packet = _work.take();
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+
+                try
+                {
+                    handle(packet);
+                }
+                catch(IOException ioe)
+                {
+                    _sendErrors.incrementAndGet();
+                    System.out.println("Error: IOException - " + ioe.toString());
+                }
+                finally
+                {
+                    packet.sender = null;
+                    packet.channel = null;
+                    _free.offer(packet);
+                }
+            }
+        }
+
+        private void handle(Packet packet) throws IOException
+        {
+            if(_log)
             {
-                System.out.println("Error: IOException - " + ioe.toString());
+                // Retrieve data from packet, up to the first NUL, and display
+                ByteBuffer data = packet.data;
+                int end = data.position();
+                while(end < data.limit() && data.get(end) != 0)
+                {
+                    ++end;
+                }
+                byte[] bytes = new byte[end - data.position()];
+                data.get(bytes);
+
+                InetSocketAddress remote = (InetSocketAddress) packet.sender;
+                System.out.println("Received data from remote port " + remote.getPort() + ":\n" + new String(bytes));
+
+                // Determine origin of packet and display information
+                System.out.println("Sent from address: " + remote.getAddress().getHostAddress());
             }
+
+            // Send back an acknowledgment
+            byte[] date = currentDateBytes();
+            _ack.clear();
+            _ack.put(ACK_PREFIX, 0, ACK_PREFIX.length);
+            _ack.put(date, 0, Math.min(date.length, _ack.remaining()));
+            _ack.flip();
+            packet.channel.send(_ack, packet.sender);
+
+            _latency.recordNanos(System.nanoTime() - packet.receivedAt);
+            _acked.incrementAndGet();
         }
     }
 }
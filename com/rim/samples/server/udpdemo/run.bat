@@ -2,7 +2,7 @@
 REM Build and run script for the UdpDemo Server side
 
 del *.class
-javac UdpServer.java
+javac -sourcepath ..\..\..\..\.. UdpServer.java
 pushd ..\..\..\..\..
 	java -cp . com.rim.samples.server.udpdemo.UdpServer
 popd